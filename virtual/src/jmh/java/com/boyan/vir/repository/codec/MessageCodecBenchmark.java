@@ -0,0 +1,141 @@
+package com.boyan.vir.repository.codec;
+
+import com.boyan.vir.config.JacksonConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记忆消息编解码基准：原有 DefaultTyping JSON 与紧凑二进制（可选 Deflate）对比
+ *
+ * 覆盖记忆仓库实际走的路径（均不含数据库往返）：
+ *  - encodeConversation / decodeConversation：blob 模式整段读写、Redis L2 缓存
+ *  - decodeHistoryPage：blob 模式历史翻页（decodeSlice 只解码最后一页）
+ *  - encodeMessage / decodeMessage：log 模式与 Redis 列表按条读写
+ *
+ * 运行：mvn -Pjmh compile exec:exec，加 -prof gc（-Djmh.args="MessageCodecBenchmark -prof gc"）可查看每次操作的分配量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    private static final int HISTORY_PAGE_SIZE = 20;
+
+    @Param({"json", "binary", "binary-deflate"})
+    public String format;
+
+    @Param({"20", "200"})
+    public int messages;
+
+    private MessageCodec codec;
+    private List<Message> conversation;
+    private Message single;
+    private byte[] encodedConversation;
+    private byte[] encodedMessage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        codec = switch (format) {
+            case "json" -> new JsonMessageCodec(new JacksonConfig().chatMemoryObjectMapper());
+            case "binary" -> new TaggedBinaryMessageCodec(false, Integer.MAX_VALUE);
+            case "binary-deflate" -> new TaggedBinaryMessageCodec(true, 1024);
+            default -> throw new IllegalArgumentException("未知格式：" + format);
+        };
+        conversation = conversation(messages);
+        single = conversation.get(conversation.size() - 1);
+        encodedConversation = codec.encode(conversation);
+        encodedMessage = codec.encodeMessage(single);
+    }
+
+    @Benchmark
+    public byte[] encodeConversation() {
+        return codec.encode(conversation);
+    }
+
+    @Benchmark
+    public List<Message> decodeConversation() {
+        return codec.decode(encodedConversation);
+    }
+
+    @Benchmark
+    public MessageSlice decodeHistoryPage() {
+        return codec.decodeSlice(encodedConversation, null, HISTORY_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() {
+        return codec.encodeMessage(single);
+    }
+
+    @Benchmark
+    public Message decodeMessage() {
+        return codec.decodeMessage(encodedMessage);
+    }
+
+    /**
+     * 模拟一段带工具调用的对话：每 4 条为一轮（用户提问、工具调用、工具返回、助手回答）
+     */
+    private static List<Message> conversation(int size) {
+        List<Message> list = new ArrayList<>(size);
+        for (int i = 0; list.size() < size; i++) {
+            list.add(UserMessage.builder()
+                    .text("第 " + i + " 轮：帮我查一下明天北京的天气，顺便提醒我下午三点开会。")
+                    .metadata(metadata(i))
+                    .build());
+            if (list.size() < size) {
+                list.add(AssistantMessage.builder()
+                        .content("")
+                        .properties(metadata(i))
+                        .toolCalls(List.of(new AssistantMessage.ToolCall("call-" + i, "function", "getWeather",
+                                "{\"city\":\"北京\",\"date\":\"tomorrow\"}")))
+                        .build());
+            }
+            if (list.size() < size) {
+                list.add(ToolResponseMessage.builder()
+                        .responses(List.of(new ToolResponseMessage.ToolResponse("call-" + i, "getWeather",
+                                "{\"city\":\"北京\",\"weather\":\"晴转多云\",\"high\":26,\"low\":15,\"wind\":\"北风3级\","
+                                        + "\"aqi\":42,\"tips\":\"早晚温差较大，注意添加衣物\"}".repeat(3))))
+                        .metadata(metadata(i))
+                        .build());
+            }
+            if (list.size() < size) {
+                list.add(AssistantMessage.builder()
+                        .content("明天北京晴转多云，最高 26℃、最低 15℃，北风 3 级，空气质量优。"
+                                + "早晚温差较大，出门记得带件外套。下午三点的会议我已经帮你记下了，到时候会提醒你。")
+                        .properties(metadata(i))
+                        .build());
+            }
+        }
+        return list;
+    }
+
+    private static Map<String, Object> metadata(int turn) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("messageType", "USER");
+        metadata.put("turn", turn);
+        return metadata;
+    }
+}
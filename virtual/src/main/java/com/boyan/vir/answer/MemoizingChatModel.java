@@ -0,0 +1,213 @@
+package com.boyan.vir.answer;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * 按完整提示记忆结果的 ChatModel 装饰器，用于分类等确定性调用（如意图路由）
+ *
+ *  - 只记忆标记为确定性的提示：运行时选项 temperature = 0，且不带工具、不含图片等媒体；其余调用直接透传
+ *  - 缓存键：模型名 + 选项（类型、model、temperature、topP、topK、maxTokens、惩罚项、停止词）+ 全部消息（类型与文本）的 SHA-256
+ *  - L1：进程内 Caffeine，条数上限（LRU 淘汰）+ 写入后过期
+ *  - L2（可选）：Redis，多节点共享，写入时设置相同 TTL；不可用时降级为只用 L1
+ *  - 只缓存单条、无工具调用的文本结果，命中时返回只含该文本的 ChatResponse（不含用量等元信息）
+ *
+ * 指标：cache.* {cache=chatMemoL1}、chat.memo.requests{model,tier,result}
+ */
+@Slf4j
+public class MemoizingChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    /** 区分不同模型的缓存（如 qwen / deepseek） */
+    private final String name;
+    private final RedisTemplate<String, byte[]> l2;
+    private final String keyPrefix;
+    private final Duration ttl;
+    private final Cache<String, String> l1;
+
+    private final Counter bypass;
+    private final Counter l1Hits;
+    private final Counter l1Misses;
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+
+    /**
+     * @param l2 为 null 时只使用进程内缓存
+     */
+    public MemoizingChatModel(ChatModel delegate,
+                              String name,
+                              RedisTemplate<String, byte[]> l2,
+                              String keyPrefix,
+                              long maxEntries,
+                              Duration ttl,
+                              MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.name = name;
+        this.l2 = l2;
+        this.keyPrefix = keyPrefix;
+        this.ttl = ttl;
+        this.l1 = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, l1, "chatMemoL1");
+
+        this.bypass = Counter.builder("chat.memo.requests").tag("model", name).tag("tier", "none").tag("result", "bypass").register(meterRegistry);
+        this.l1Hits = Counter.builder("chat.memo.requests").tag("model", name).tag("tier", "l1").tag("result", "hit").register(meterRegistry);
+        this.l1Misses = Counter.builder("chat.memo.requests").tag("model", name).tag("tier", "l1").tag("result", "miss").register(meterRegistry);
+        this.l2Hits = Counter.builder("chat.memo.requests").tag("model", name).tag("tier", "l2").tag("result", "hit").register(meterRegistry);
+        this.l2Misses = Counter.builder("chat.memo.requests").tag("model", name).tag("tier", "l2").tag("result", "miss").register(meterRegistry);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (!deterministic(prompt)) {
+            bypass.increment();
+            return delegate.call(prompt);
+        }
+        String key = keyPrefix + name + ":" + hash(prompt);
+
+        // 1. L1
+        String text = l1.getIfPresent(key);
+        if (text != null) {
+            l1Hits.increment();
+            return response(text);
+        }
+        l1Misses.increment();
+
+        // 2. L2
+        text = readL2(key);
+        if (text != null) {
+            l2Hits.increment();
+            l1.put(key, text);
+            return response(text);
+        }
+        if (l2 != null) {
+            l2Misses.increment();
+        }
+
+        // 3. 调用模型，只缓存单条纯文本结果
+        ChatResponse response = delegate.call(prompt);
+        List<Generation> results = response.getResults();
+        if (results.size() == 1) {
+            AssistantMessage output = results.get(0).getOutput();
+            if (!output.hasToolCalls() && output.getText() != null) {
+                l1.put(key, output.getText());
+                writeL2(key, output.getText());
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return delegate.stream(prompt);
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    // ===== 内部实现 =====
+
+    private static boolean deterministic(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        if (options == null || options.getTemperature() == null || options.getTemperature() != 0) {
+            return false;
+        }
+        if (options instanceof ToolCallingChatOptions tools
+                && (!CollectionUtils.isEmpty(tools.getToolCallbacks()) || !CollectionUtils.isEmpty(tools.getToolNames()))) {
+            return false;
+        }
+        for (Message message : prompt.getInstructions()) {
+            if (message instanceof UserMessage user && !user.getMedia().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readL2(String key) {
+        if (l2 == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = l2.opsForValue().get(key);
+            return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+        } catch (Exception e) {
+            // L2 不可用时降级为只用 L1
+            log.warn("读取 Redis 提示缓存失败：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeL2(String key, String text) {
+        if (l2 == null) {
+            return;
+        }
+        try {
+            l2.opsForValue().set(key, text.getBytes(StandardCharsets.UTF_8), ttl);
+        } catch (Exception e) {
+            log.warn("写入 Redis 提示缓存失败：{}", e.getMessage());
+        }
+    }
+
+    private static ChatResponse response(String text) {
+        AssistantMessage output = AssistantMessage.builder()
+                .content(text)
+                .build();
+        return new ChatResponse(List.of(new Generation(output)));
+    }
+
+    private static String hash(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        StringBuilder canonical = new StringBuilder()
+                .append(options.getClass().getName()).append('\n')
+                .append(options.getModel()).append('\n')
+                .append(options.getTemperature()).append('\n')
+                .append(options.getTopP()).append('\n')
+                .append(options.getTopK()).append('\n')
+                .append(options.getMaxTokens()).append('\n')
+                .append(options.getFrequencyPenalty()).append('\n')
+                .append(options.getPresencePenalty()).append('\n')
+                .append(options.getStopSequences()).append('\n');
+        for (Message message : prompt.getInstructions()) {
+            // 消息类型 + 文本长度 + 文本，避免不同切分拼出相同的串
+            String text = message.getText() == null ? "" : message.getText();
+            canonical.append(message.getMessageType().name()).append(':')
+                    .append(text.length()).append(':')
+                    .append(text).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
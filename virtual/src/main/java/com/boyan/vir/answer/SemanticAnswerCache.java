@@ -0,0 +1,331 @@
+package com.boyan.vir.answer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.InitializingBean;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.json.Path2;
+import redis.clients.jedis.search.FTCreateParams;
+import redis.clients.jedis.search.IndexDataType;
+import redis.clients.jedis.search.Query;
+import redis.clients.jedis.search.RediSearchUtil;
+import redis.clients.jedis.search.SearchResult;
+import redis.clients.jedis.search.schemafields.NumericField;
+import redis.clients.jedis.search.schemafields.SchemaField;
+import redis.clients.jedis.search.schemafields.TagField;
+import redis.clients.jedis.search.schemafields.VectorField;
+import redis.clients.jedis.search.schemafields.VectorField.VectorAlgorithm;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 语义回答缓存：同一智能体遇到相近的问题时直接返回之前的回答，省去一次大模型调用
+ *
+ *  - 问题归一化（NFKC、小写、合并空白、去掉末尾标点）后向量化（经 cachingEmbeddingModel，同一问题不重复调用远程接口）
+ *  - 独立的 Redis 向量索引（app.answer.cache.index-name），每条回答一个 JSON 文档：
+ *    scope（智能体 + 知识库的哈希，TAG）、generation（知识库版本号，NUMERIC）、embedding、问题与回答；
+ *    文档 key 带 TTL，过期后自动从索引移除
+ *  - 查找：同一 scope 内取最相近的 1 条，余弦相似度不低于阈值即命中
+ *  - 依赖知识库的回答（RAG）记录生成前读到的知识库版本号，入库 / 删除文档时版本号加一（Redis INCR，集群共享），
+ *    之前的回答不再命中、随 TTL 过期；普通对话的回答不受入库影响
+ *  - Redis 出错时按未命中处理，不影响对话
+ *
+ * 指标：answer.cache.requests{agent,result}、answer.cache.generate.latency{agent}（未命中时的生成耗时）、
+ * answer.cache.saved.millis{agent}（每次命中按该智能体的平均生成耗时累计节省的时间）
+ */
+@Slf4j
+public class SemanticAnswerCache implements InitializingBean {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\p{P}\\s~]+$");
+    private static final String SCOPE_FIELD = "scope";
+    private static final String GENERATION_FIELD = "generation";
+    private static final String EMBEDDING_FIELD = "embedding";
+    private static final String ANSWER_FIELD = "answer";
+    private static final String DISTANCE_FIELD = "distance";
+    private static final String VECTOR_PARAM = "BLOB";
+
+    /**
+     * 缓存范围：同一智能体（人设）、同一知识库的回答才会互相复用
+     *
+     * @param knowledgeBound 回答是否依赖知识库内容（入库后失效）
+     */
+    public record Scope(String agent, String knowledgeBase, boolean knowledgeBound) {
+
+        /** 普通对话：回答只取决于人设与问题 */
+        public static Scope chat(String agent) {
+            return new Scope(agent, null, false);
+        }
+
+        /** 知识库问答：knowledgeBase 为空表示检索全部知识库 */
+        public static Scope knowledge(String agent, String knowledgeBase) {
+            return new Scope(agent, knowledgeBase, true);
+        }
+
+        String tag() {
+            return sha256(agent + "\n" + (knowledgeBase == null ? "*" : knowledgeBase)).substring(0, 16);
+        }
+    }
+
+    private final JedisPooled jedis;
+    private final EmbeddingModel embeddingModel;
+    private final MeterRegistry meterRegistry;
+    private final String indexName;
+    private final String entryPrefix;
+    private final String generationKey;
+    private final double similarityThreshold;
+    private final Duration ttl;
+    private final int maxQuestionChars;
+
+    /** 关闭或索引不可用（Redis 未启用搜索模块）时直接调用大模型 */
+    private volatile boolean enabled;
+
+    public SemanticAnswerCache(JedisPooled jedis,
+                               EmbeddingModel embeddingModel,
+                               boolean enabled,
+                               String indexName,
+                               String keyPrefix,
+                               double similarityThreshold,
+                               Duration ttl,
+                               int maxQuestionChars,
+                               MeterRegistry meterRegistry) {
+        this.jedis = jedis;
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.indexName = indexName;
+        this.entryPrefix = keyPrefix + "entry:";
+        this.generationKey = keyPrefix + "generation";
+        this.similarityThreshold = similarityThreshold;
+        this.ttl = ttl;
+        this.maxQuestionChars = maxQuestionChars;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (!jedis.ftList().contains(indexName)) {
+                createIndex(embeddingModel.dimensions());
+                log.info("已创建语义回答缓存索引：{}", indexName);
+            }
+        } catch (Exception e) {
+            enabled = false;
+            log.error("语义回答缓存索引不可用，缓存已关闭：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 命中时返回缓存的回答，否则调用 generator 生成并写入缓存（generator 抛出异常时不缓存）
+     */
+    public String getOrCompute(Scope scope, String question, Supplier<String> generator) {
+        Probe probe = probe(scope, question);
+        Optional<String> cached = probe.answer();
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        String answer = generator.get();
+        probe.complete(answer);
+        return answer;
+    }
+
+    /**
+     * 查找缓存；未命中时由调用方生成回答后调用 Probe.complete 写入（流式输出结束后写入完整回答）
+     */
+    public Probe probe(Scope scope, String question) {
+        if (!enabled || question == null) {
+            return new Probe(scope, null, null, 0, null);
+        }
+        String normalized = normalize(question);
+        if (normalized.isEmpty() || normalized.length() > maxQuestionChars) {
+            return new Probe(scope, null, null, 0, null);
+        }
+        try {
+            float[] embedding = embeddingModel.embed(normalized);
+            long generation = scope.knowledgeBound() ? currentGeneration() : 0;
+            String answer = search(scope, embedding, generation);
+            counter(scope, answer != null ? "hit" : "miss").increment();
+            if (answer != null) {
+                Timer generate = generateTimer(scope);
+                if (generate.count() > 0) {
+                    savedMillis(scope).increment(generate.mean(TimeUnit.MILLISECONDS));
+                }
+            }
+            return new Probe(scope, normalized, embedding, generation, answer);
+        } catch (Exception e) {
+            counter(scope, "error").increment();
+            log.warn("查询语义回答缓存失败，按未命中处理：{}", e.getMessage());
+            return new Probe(scope, null, null, 0, null);
+        }
+    }
+
+    /**
+     * 知识库内容已变化：依赖知识库的回答全部失效
+     */
+    public void invalidateKnowledge() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long generation = jedis.incr(generationKey);
+            log.info("知识库已变化，语义回答缓存的知识库版本号更新为 {}", generation);
+        } catch (Exception e) {
+            log.warn("更新语义回答缓存的知识库版本号失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 一次缓存查找的结果
+     */
+    public final class Probe {
+
+        private final Scope scope;
+        private final String normalized;
+        private final float[] embedding;
+        private final long generation;
+        private final String answer;
+        private final long startNanos = System.nanoTime();
+
+        private Probe(Scope scope, String normalized, float[] embedding, long generation, String answer) {
+            this.scope = scope;
+            this.normalized = normalized;
+            this.embedding = embedding;
+            this.generation = generation;
+            this.answer = answer;
+        }
+
+        public Optional<String> answer() {
+            return Optional.ofNullable(answer);
+        }
+
+        /**
+         * 写入新生成的回答，并记录生成耗时（从 probe 到 complete）
+         */
+        public void complete(String generated) {
+            if (embedding == null || answer != null || generated == null || generated.isBlank()) {
+                return;
+            }
+            generateTimer(scope).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            try {
+                store(scope, normalized, embedding, generation, generated);
+            } catch (Exception e) {
+                log.warn("写入语义回答缓存失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    // ===== 内部实现 =====
+
+    private String search(Scope scope, float[] embedding, long generation) {
+        String filter = "@" + SCOPE_FIELD + ":{" + scope.tag() + "}";
+        if (scope.knowledgeBound()) {
+            filter += " @" + GENERATION_FIELD + ":[" + generation + " " + generation + "]";
+        }
+        Query query = new Query("(" + filter + ")=>[KNN 1 @" + EMBEDDING_FIELD + " $" + VECTOR_PARAM
+                + " AS " + DISTANCE_FIELD + "]")
+                .addParam(VECTOR_PARAM, RediSearchUtil.toByteArray(embedding))
+                .returnFields(ANSWER_FIELD, DISTANCE_FIELD)
+                .setSortBy(DISTANCE_FIELD, true)
+                .limit(0, 1)
+                .dialect(2);
+        SearchResult result = jedis.ftSearch(indexName, query);
+        if (result.getDocuments().isEmpty()) {
+            return null;
+        }
+        redis.clients.jedis.search.Document hit = result.getDocuments().get(0);
+        // COSINE 距离 d = 1 - 余弦相似度
+        double similarity = 1 - Double.parseDouble(hit.getString(DISTANCE_FIELD));
+        return similarity >= similarityThreshold ? hit.getString(ANSWER_FIELD) : null;
+    }
+
+    private void store(Scope scope, String normalized, float[] embedding, long generation, String answer) {
+        String key = entryPrefix + sha256(scope.tag() + "\n" + normalized);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(SCOPE_FIELD, scope.tag());
+        fields.put("agent", scope.agent());
+        fields.put("knowledge_base", scope.knowledgeBase() == null ? "" : scope.knowledgeBase());
+        fields.put(GENERATION_FIELD, generation);
+        fields.put("question", normalized);
+        fields.put(ANSWER_FIELD, answer);
+        fields.put(EMBEDDING_FIELD, embedding);
+        fields.put("created_at", System.currentTimeMillis());
+        try (Pipeline p = jedis.pipelined()) {
+            p.jsonSetWithEscape(key, Path2.ROOT_PATH, fields);
+            p.pexpire(key, ttl.toMillis());
+            p.sync();
+        }
+    }
+
+    private long currentGeneration() {
+        String value = jedis.get(generationKey);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private void createIndex(int dimensions) {
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("TYPE", "FLOAT32");
+        attributes.put("DIM", dimensions);
+        attributes.put("DISTANCE_METRIC", "COSINE");
+        List<SchemaField> fields = List.of(
+                TagField.of("$." + SCOPE_FIELD).as(SCOPE_FIELD),
+                NumericField.of("$." + GENERATION_FIELD).as(GENERATION_FIELD),
+                new VectorField("$." + EMBEDDING_FIELD, VectorAlgorithm.HNSW, attributes).as(EMBEDDING_FIELD));
+        jedis.ftCreate(indexName, FTCreateParams.createParams().on(IndexDataType.JSON).addPrefix(entryPrefix), fields);
+    }
+
+    private Counter counter(Scope scope, String result) {
+        return Counter.builder("answer.cache.requests")
+                .description("语义回答缓存查询次数")
+                .tag("agent", scope.agent())
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Timer generateTimer(Scope scope) {
+        return Timer.builder("answer.cache.generate.latency")
+                .description("缓存未命中时生成回答的耗时")
+                .tag("agent", scope.agent())
+                .register(meterRegistry);
+    }
+
+    private Counter savedMillis(Scope scope) {
+        return Counter.builder("answer.cache.saved.millis")
+                .description("缓存命中节省的生成耗时（按平均生成耗时估算）")
+                .tag("agent", scope.agent())
+                .register(meterRegistry);
+    }
+
+    static String normalize(String question) {
+        String text = Normalizer.normalize(question, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        text = WHITESPACE.matcher(text).replaceAll(" ").trim();
+        return TRAILING_PUNCTUATION.matcher(text).replaceAll("");
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.boyan.vir.config;
+
+import com.boyan.vir.answer.MemoizingChatModel;
+import com.boyan.vir.answer.SemanticAnswerCache;
+import com.boyan.vir.ingest.IncrementalIngestor;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.redis.RedisVectorStore;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+import redis.clients.jedis.JedisPooled;
+
+import java.time.Duration;
+
+/**
+ * 回答缓存配置：
+ *  - 语义回答缓存：复用 redisVectorStore 的 JedisPooled（需 Redis Stack 搜索模块），入库后让 RAG 回答失效
+ *  - 确定性调用（temperature=0 的分类提示）按完整提示记忆结果的 qwen
+ */
+@Configuration
+public class AnswerCacheConfig {
+
+    @Value("${app.answer.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.answer.cache.index-name:virtual-answer-cache}")
+    private String indexName;
+
+    @Value("${app.answer.cache.key-prefix:virtual:answer:}")
+    private String keyPrefix;
+
+    @Value("${app.answer.cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${app.answer.cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    @Value("${app.answer.cache.max-question-chars:500}")
+    private int maxQuestionChars;
+
+    @Value("${app.answer.memo.max-entries:10000}")
+    private long memoMaxEntries;
+
+    @Value("${app.answer.memo.ttl-minutes:1440}")
+    private long memoTtlMinutes;
+
+    @Value("${app.answer.memo.redis-enabled:true}")
+    private boolean memoRedisEnabled;
+
+    @Value("${app.answer.memo.key-prefix:virtual:chat-memo:}")
+    private String memoKeyPrefix;
+
+    @Bean("semanticAnswerCache")
+    public SemanticAnswerCache semanticAnswerCache(
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            @Qualifier("cachingEmbeddingModel") EmbeddingModel embeddingModel,
+            IncrementalIngestor incrementalIngestor,
+            MeterRegistry meterRegistry) {
+        JedisPooled jedisPooled = redisVectorStore.<JedisPooled>getNativeClient()
+                .orElseThrow(() -> new IllegalStateException("RedisVectorStore 未提供 JedisPooled 客户端"));
+        SemanticAnswerCache cache = new SemanticAnswerCache(jedisPooled, embeddingModel, enabled,
+                indexName, keyPrefix, similarityThreshold, Duration.ofMinutes(ttlMinutes), maxQuestionChars,
+                meterRegistry);
+        incrementalIngestor.onChange(cache::invalidateKnowledge);
+        return cache;
+    }
+
+    /**
+     * 记忆确定性调用结果的 qwen（意图路由等分类调用使用；非 temperature=0 的调用直接透传）
+     */
+    @Bean("memoizingQwen")
+    public ChatModel memoizingQwen(
+            @Qualifier("qwen") ChatModel qwen,
+            @Qualifier("byteRedisTemplate") RedisTemplate<String, byte[]> byteRedisTemplate,
+            MeterRegistry meterRegistry) {
+        return new MemoizingChatModel(qwen, "qwen", memoRedisEnabled ? byteRedisTemplate : null, memoKeyPrefix,
+                memoMaxEntries, Duration.ofMinutes(memoTtlMinutes), meterRegistry);
+    }
+}
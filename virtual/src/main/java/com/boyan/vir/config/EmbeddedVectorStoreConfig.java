@@ -0,0 +1,38 @@
+package com.boyan.vir.config;
+
+import com.boyan.vir.vectorstore.HnswVectorStore;
+import com.boyan.vir.vectorstore.VectorQuantization;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 进程内 HNSW 向量库配置（app.vector.store.type=embedded 时启用）
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "app.vector.store", name = "type", havingValue = "embedded")
+public class EmbeddedVectorStoreConfig {
+
+    @Bean("hnswVectorStore")
+    public HnswVectorStore hnswVectorStore(
+            @Qualifier("cachingEmbeddingModel") EmbeddingModel embeddingModel,
+            ObjectMapper objectMapper,
+            @Value("${spring.ai.vectorstore.redis.dimensions:1024}") int dimensions,
+            @Value("${app.vector.embedded.m:16}") int m,
+            @Value("${app.vector.embedded.ef-construction:200}") int efConstruction,
+            @Value("${app.vector.embedded.ef-search:64}") int efSearch,
+            @Value("${app.vector.embedded.quantization:NONE}") VectorQuantization quantization,
+            @Value("${app.vector.embedded.rerank-factor:4}") int rerankFactor,
+            @Value("${app.vector.embedded.snapshot-path:./data/hnsw.snapshot}") String snapshotPath,
+            @Value("${app.vector.embedded.snapshot-interval-seconds:300}") long snapshotIntervalSeconds) {
+        return new HnswVectorStore(embeddingModel, dimensions, m, efConstruction, efSearch, quantization, rerankFactor,
+                Path.of(snapshotPath), Duration.ofSeconds(snapshotIntervalSeconds), objectMapper);
+    }
+}
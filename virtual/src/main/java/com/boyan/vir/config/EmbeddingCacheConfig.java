@@ -0,0 +1,57 @@
+package com.boyan.vir.config;
+
+import com.boyan.vir.embedding.CachingEmbeddingModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
+
+/**
+ * 向量模型缓存配置：在 dashscopeEmbeddingModel 外包一层 L1（Caffeine）+ L2（Redis）缓存
+ */
+@Configuration
+public class EmbeddingCacheConfig {
+
+    @Value("${app.embedding.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.embedding.cache.key-prefix:virtual:embedding:}")
+    private String keyPrefix;
+
+    @Value("${spring.ai.dashscope.embedding.options.model:text-embedding-v3}")
+    private String defaultModel;
+
+    @Value("${app.embedding.cache.l1-max-bytes:33554432}")
+    private long l1MaxBytes;
+
+    @Value("${app.embedding.cache.l1-expire-minutes:60}")
+    private long l1ExpireMinutes;
+
+    @Value("${app.embedding.cache.l2-ttl-days:30}")
+    private long l2TtlDays;
+
+    /**
+     * 带缓存的向量模型（@Primary：按类型注入 EmbeddingModel 的地方也走缓存），关闭缓存时直接返回原模型
+     */
+    @Bean("cachingEmbeddingModel")
+    @Primary
+    public EmbeddingModel cachingEmbeddingModel(
+            @Qualifier("dashscopeEmbeddingModel") EmbeddingModel embeddingModel,
+            @Qualifier("byteRedisTemplate") RedisTemplate<String, byte[]> byteRedisTemplate,
+            MeterRegistry meterRegistry) {
+        if (!enabled) {
+            return embeddingModel;
+        }
+        return new CachingEmbeddingModel(embeddingModel, byteRedisTemplate, keyPrefix, defaultModel,
+                l1MaxBytes,
+                Duration.ofMinutes(l1ExpireMinutes),
+                Duration.ofDays(l2TtlDays),
+                meterRegistry);
+    }
+}
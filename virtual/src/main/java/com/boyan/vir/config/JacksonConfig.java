@@ -20,7 +20,10 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Jackson配置：解决Message反序列化+content非空校验问题
@@ -134,13 +137,14 @@ public class JacksonConfig {
             // 根据不同的消息类型创建实例
             if (messageClass == UserMessage.class) {
                 String content = extractTextContent(node);
-                return new UserMessage(content);
+                // 保留 metadata
+                return UserMessage.builder().text(content).metadata(extractMetadata(p, node)).build();
             } else if (messageClass == AssistantMessage.class) {
                 String content = extractTextContent(node);
 
                 // 尝试获取toolCalls
                 JsonNode toolCallsNode = node.get("toolCalls");
-                List<AssistantMessage.ToolCall> toolCalls = java.util.Collections.emptyList();
+                List<AssistantMessage.ToolCall> toolCalls = Collections.emptyList();
                 if (toolCallsNode != null && toolCallsNode.isArray()) {
                     ObjectMapper mapper = (ObjectMapper) p.getCodec();
                     try {
@@ -149,20 +153,20 @@ public class JacksonConfig {
                                         List.class, AssistantMessage.ToolCall.class));
                     } catch (Exception e) {
                         // 如果转换失败，使用空列表
-                        toolCalls = java.util.Collections.emptyList();
+                        toolCalls = Collections.emptyList();
                     }
                 }
 
                 // 获取metadata - 保留原始metadata信息
                 JsonNode metadataNode = node.get("metadata");
-                java.util.Map<String, Object> metadata = java.util.Collections.emptyMap();
+                Map<String, Object> metadata = Collections.emptyMap();
                 if (metadataNode != null && metadataNode.isObject()) {
                     ObjectMapper mapper = (ObjectMapper) p.getCodec();
                     try {
-                        metadata = mapper.convertValue(metadataNode, java.util.Map.class);
+                        metadata = mapper.convertValue(metadataNode, Map.class);
                     } catch (Exception e) {
                         // 如果转换失败，使用空Map
-                        metadata = java.util.Collections.emptyMap();
+                        metadata = Collections.emptyMap();
                     }
                 }
 
@@ -173,17 +177,17 @@ public class JacksonConfig {
                         .build();
             } else if (messageClass == SystemMessage.class) {
                 String content = extractTextContent(node);
-                return new SystemMessage(content);
+                return SystemMessage.builder().text(content).metadata(extractMetadata(p, node)).build();
             } else if (messageClass == ToolResponseMessage.class) {
                 // 获取metadata
                 JsonNode metadataNode = node.get("metadata");
-                java.util.Map<String, Object> metadata = java.util.Collections.emptyMap();
+                Map<String, Object> metadata = Collections.emptyMap();
                 if (metadataNode != null && metadataNode.isObject()) {
                     ObjectMapper mapper = (ObjectMapper) p.getCodec();
                     try {
-                        metadata = mapper.convertValue(metadataNode, java.util.Map.class);
+                        metadata = mapper.convertValue(metadataNode, Map.class);
                     } catch (Exception e) {
-                        metadata = java.util.Collections.emptyMap();
+                        metadata = Collections.emptyMap();
                     }
                 }
 
@@ -202,14 +206,14 @@ public class JacksonConfig {
                     } catch (Exception e) {
                         // 如果转换失败，创建空列表
                         return ToolResponseMessage.builder()
-                                .responses(java.util.Collections.emptyList())
+                                .responses(Collections.emptyList())
                                 .metadata(metadata)
                                 .build();
                     }
                 } else {
                     // 如果没有responses数组，创建空列表
                     return ToolResponseMessage.builder()
-                            .responses(java.util.Collections.emptyList())
+                            .responses(Collections.emptyList())
                             .metadata(metadata)
                             .build();
                 }
@@ -219,6 +223,23 @@ public class JacksonConfig {
             throw new RuntimeException("Unsupported message type: " + messageClass.getName());
         }
 
+        /**
+         * 提取 metadata，缺失或转换失败时返回空 Map
+         */
+        @SuppressWarnings("unchecked")
+        private Map<String, Object> extractMetadata(JsonParser p, JsonNode node) {
+            JsonNode metadataNode = node.get("metadata");
+            if (metadataNode == null || !metadataNode.isObject()) {
+                return new HashMap<>();
+            }
+            ObjectMapper mapper = (ObjectMapper) p.getCodec();
+            try {
+                return new HashMap<>(mapper.convertValue(metadataNode, Map.class));
+            } catch (Exception e) {
+                return new HashMap<>();
+            }
+        }
+
         /**
          * 提取文本内容，优先级：textContent > text > 空字符串
          */
@@ -1,13 +1,39 @@
 package com.boyan.vir.config;
 
+import com.boyan.vir.memory.AgentChatMemory;
+import com.boyan.vir.memory.AgentMessageWindowChatMemory;
+import com.boyan.vir.memory.ConversationIdResolver;
+import com.boyan.vir.memory.ConversationSummarizer;
+import com.boyan.vir.memory.MessageTokenCounter;
+import com.boyan.vir.memory.TokenBudgetChatMemory;
+import com.boyan.vir.repository.AgentChatMemoryRepository;
+import com.boyan.vir.repository.CachingChatMemoryRepository;
 import com.boyan.vir.repository.MySQLChatMemoryRepository;
+import com.boyan.vir.repository.MySQLMessageLogChatMemoryRepository;
+import com.boyan.vir.repository.WriteBehindChatMemoryRepository;
+import com.boyan.vir.repository.codec.DetectingMessageCodec;
+import com.boyan.vir.repository.codec.JsonMessageCodec;
+import com.boyan.vir.repository.codec.MessageCodec;
+import com.boyan.vir.repository.codec.TaggedBinaryMessageCodec;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 
 /**
  * 简化版MySQL记忆配置（使用Spring Boot默认的HikariCP数据源）
@@ -15,6 +41,84 @@ import javax.sql.DataSource;
 @Configuration
 public class MySQLMemoryConfig {
 
+    /**
+     * 记忆存储模式：blob = 整段 JSON 存 chat_memory.messages；log = 每条消息一行追加写入 chat_memory_message
+     */
+    @Value("${app.memory.mysql.storage-mode:blob}")
+    private String storageMode;
+
+    /**
+     * log 模式下每次读取的尾部消息条数（需 ≥ 记忆窗口大小）
+     */
+    @Value("${app.memory.mysql.tail-window:60}")
+    private int tailWindow;
+
+    /**
+     * 消息编码格式：json = 原有 DefaultTyping JSON；binary = 紧凑二进制（读取时两种格式均可识别）
+     */
+    @Value("${app.memory.codec.format:json}")
+    private String codecFormat;
+
+    @Value("${app.memory.codec.compression:true}")
+    private boolean codecCompression;
+
+    /**
+     * 二进制负载超过该字节数才启用 Deflate 压缩
+     */
+    @Value("${app.memory.codec.compress-threshold:1024}")
+    private int codecCompressThreshold;
+
+    @Value("${app.memory.write-behind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    @Value("${app.memory.write-behind.batch-size:50}")
+    private int writeBehindBatchSize;
+
+    @Value("${app.memory.write-behind.max-pending:2000}")
+    private int writeBehindMaxPending;
+
+    @Value("${app.memory.write-behind.flush-interval-ms:500}")
+    private long writeBehindFlushIntervalMs;
+
+    @Value("${app.memory.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${app.memory.cache.l1-max-bytes:67108864}")
+    private long cacheL1MaxBytes;
+
+    @Value("${app.memory.cache.l1-expire-minutes:30}")
+    private long cacheL1ExpireMinutes;
+
+    @Value("${app.memory.cache.l2-ttl-minutes:60}")
+    private long cacheL2TtlMinutes;
+
+    @Value("${app.memory.conversation-id.max-entries:100000}")
+    private long conversationIdMaxEntries;
+
+    @Value("${app.memory.conversation-id.expire-hours:6}")
+    private long conversationIdExpireHours;
+
+    @Value("${app.memory.window.max-messages:10}")
+    private int windowMaxMessages;
+
+    /**
+     * 滚动摘要使用的模型：deepseek / qwen
+     */
+    @Value("${app.memory.summary.model:deepseek}")
+    private String summaryModel;
+
+    @Value("${app.memory.summary.min-evicted-messages:4}")
+    private int summaryMinEvictedMessages;
+
+    @Value("${app.memory.summary.max-chars:500}")
+    private int summaryMaxChars;
+
+    @Value("${app.memory.summary.threads:2}")
+    private int summaryThreads;
+
+    @Value("${app.memory.summary.queue-capacity:200}")
+    private int summaryQueueCapacity;
+
     /**
      * 直接使用Spring Boot自动配置的HikariCP数据源创建JdbcTemplate
      */
@@ -26,11 +130,134 @@ public class MySQLMemoryConfig {
     }
 
     /**
-     * 注册MySQL聊天记忆仓库
+     * 记忆消息编解码器：按 codec.format 写入，读取时自动识别 JSON / 二进制
+     */
+    @Bean("chatMemoryMessageCodec")
+    public MessageCodec chatMemoryMessageCodec(@Qualifier("chatMemoryObjectMapper") ObjectMapper objectMapper) {
+        JsonMessageCodec jsonCodec = new JsonMessageCodec(objectMapper);
+        TaggedBinaryMessageCodec binaryCodec = new TaggedBinaryMessageCodec(codecCompression, codecCompressThreshold);
+        MessageCodec writeCodec = "binary".equalsIgnoreCase(codecFormat) ? binaryCodec : jsonCodec;
+        return new DetectingMessageCodec(writeCodec, binaryCodec, jsonCodec);
+    }
+
+    /**
+     * 注册MySQL聊天记忆仓库（按 storage-mode 选择实现）
      */
     @Bean
     public MySQLChatMemoryRepository mysqlChatMemoryRepository(JdbcTemplate jdbcTemplate,
-                                                               @Qualifier("chatMemoryObjectMapper") ObjectMapper objectMapper) {
-        return new MySQLChatMemoryRepository(jdbcTemplate, objectMapper);
+                                                               @Qualifier("chatMemoryMessageCodec") MessageCodec codec) {
+        if ("log".equalsIgnoreCase(storageMode)) {
+            return new MySQLMessageLogChatMemoryRepository(jdbcTemplate, codec, tailWindow);
+        }
+        return new MySQLChatMemoryRepository(jdbcTemplate, codec);
+    }
+
+    /**
+     * 对外使用的聊天记忆仓库（ChatController / 记忆 advisor 使用）
+     * 组装顺序：两级缓存（可选） → 写缓冲（可选） → MySQL 仓库
+     */
+    @Bean("agentChatMemoryRepository")
+    public AgentChatMemoryRepository agentChatMemoryRepository(
+            @Qualifier("mysqlChatMemoryRepository") MySQLChatMemoryRepository mysqlChatMemoryRepository,
+            @Qualifier("chatMemoryMessageCodec") MessageCodec codec,
+            @Qualifier("byteRedisTemplate") RedisTemplate<String, byte[]> byteRedisTemplate,
+            StringRedisTemplate stringRedisTemplate,
+            RedisMessageListenerContainer listenerContainer,
+            MeterRegistry meterRegistry) {
+        AgentChatMemoryRepository repository = mysqlChatMemoryRepository;
+        if (writeBehindEnabled) {
+            repository = new WriteBehindChatMemoryRepository(mysqlChatMemoryRepository, writeBehindBatchSize,
+                    writeBehindMaxPending, writeBehindFlushIntervalMs, meterRegistry);
+        }
+        if (cacheEnabled) {
+            CachingChatMemoryRepository caching = new CachingChatMemoryRepository(repository,
+                    byteRedisTemplate, stringRedisTemplate, codec,
+                    cacheL1MaxBytes,
+                    Duration.ofMinutes(cacheL1ExpireMinutes),
+                    Duration.ofMinutes(cacheL2TtlMinutes),
+                    meterRegistry);
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> caching.onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(CachingChatMemoryRepository.INVALIDATION_CHANNEL));
+            repository = caching;
+        }
+        return repository;
+    }
+
+    @Bean
+    public TokenBudgetProperties tokenBudgetProperties() {
+        return new TokenBudgetProperties();
+    }
+
+    /**
+     * 消息 token 估算（结果按消息实例旁路缓存）
+     */
+    @Bean
+    public MessageTokenCounter messageTokenCounter() {
+        return new MessageTokenCounter();
+    }
+
+    /**
+     * 感知 userId / agentId 的记忆，供 AgentChatMemoryAdvisor 使用
+     * 默认按 token 预算裁剪，关闭预算后退回 window.max-messages 固定条数窗口
+     */
+    @Bean("agentChatMemory")
+    public AgentChatMemory agentChatMemory(
+            @Qualifier("agentChatMemoryRepository") AgentChatMemoryRepository agentChatMemoryRepository,
+            TokenBudgetProperties tokenBudgetProperties,
+            MessageTokenCounter messageTokenCounter,
+            ObjectProvider<ConversationSummarizer> summarizerProvider,
+            MeterRegistry meterRegistry) {
+        if (!tokenBudgetProperties.isEnabled()) {
+            return new AgentMessageWindowChatMemory(agentChatMemoryRepository, windowMaxMessages);
+        }
+        return new TokenBudgetChatMemory(agentChatMemoryRepository, messageTokenCounter,
+                tokenBudgetProperties.getDefaultTokens(),
+                tokenBudgetProperties.getAgents(),
+                tokenBudgetProperties.getMetricAgents(),
+                tokenBudgetProperties.getMaxMessages(),
+                tokenBudgetProperties.getToolResponseMaxChars(),
+                meterRegistry,
+                summarizerProvider.getIfAvailable());
+    }
+
+    /**
+     * 异步滚动摘要：被移出记忆窗口的旧对话在后台压缩为摘要，存入 chat_memory.summary
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.memory.summary.enabled", havingValue = "true", matchIfMissing = true)
+    public ConversationSummarizer conversationSummarizer(
+            @Qualifier("agentChatMemoryRepository") AgentChatMemoryRepository agentChatMemoryRepository,
+            @Qualifier("deepseek") ChatModel deepseek,
+            @Qualifier("qwen") ChatModel qwen,
+            MeterRegistry meterRegistry) {
+        ChatModel model = "qwen".equalsIgnoreCase(summaryModel) ? qwen : deepseek;
+        return new ConversationSummarizer(agentChatMemoryRepository, model,
+                summaryMinEvictedMessages, summaryMaxChars,
+                summaryThreads, summaryQueueCapacity, meterRegistry);
+    }
+
+    /**
+     * (userId, agentId) → conversationId 缓存解析
+     */
+    @Bean
+    public ConversationIdResolver conversationIdResolver(
+            @Qualifier("agentChatMemoryRepository") AgentChatMemoryRepository agentChatMemoryRepository) {
+        return new ConversationIdResolver(agentChatMemoryRepository, conversationIdMaxEntries,
+                Duration.ofHours(conversationIdExpireHours));
+    }
+
+    /**
+     * log 模式可选：启动时把 chat_memory.messages 中的旧数据一次性迁移到消息日志表
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.memory.mysql.migrate-on-startup", havingValue = "true")
+    public ApplicationRunner chatMemoryBlobMigrationRunner(
+            @Qualifier("mysqlChatMemoryRepository") MySQLChatMemoryRepository mysqlChatMemoryRepository) {
+        return args -> {
+            if (mysqlChatMemoryRepository instanceof MySQLMessageLogChatMemoryRepository logRepository) {
+                logRepository.migrateAllFromBlobs();
+            }
+        };
     }
-}
\ No newline at end of file
+}
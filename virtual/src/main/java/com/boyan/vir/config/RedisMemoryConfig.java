@@ -1,41 +1,84 @@
 package com.boyan.vir.config;
 
-import com.alibaba.cloud.ai.memory.redis.JedisRedisChatMemoryRepository;
+import com.boyan.vir.memory.MessageTokenCounter;
+import com.boyan.vir.memory.TokenBudgetChatMemory;
+import com.boyan.vir.repository.RedisListChatMemoryRepository;
+import com.boyan.vir.repository.codec.TaggedBinaryMessageCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
 
 
 @Configuration
 public class RedisMemoryConfig {
 
-    @Value("${spring.data.redis.host}")
-    private String host;
+    @Value("${app.memory.redis.key-prefix:virtual:memory:list:}")
+    private String keyPrefix;
+
+    @Value("${app.memory.redis.tail-window:60}")
+    private int tailWindow;
 
-    @Value("${spring.data.redis.port}")
-    private Integer port;
+    @Value("${app.memory.redis.ttl-hours:72}")
+    private long ttlHours;
 
-    @Value("${spring.data.redis.password:}")
-    private String password;
+    @Value("${app.memory.redis.legacy-key-prefix:chat_memory:}")
+    private String legacyKeyPrefix;
 
-    @Value("${spring.data.redis.database:0}")
-    private int database;
+    @Value("${app.memory.codec.compression:true}")
+    private boolean codecCompression;
 
-    @Value("${spring.data.redis.timeout:2000}")
-    private int timeout;
+    @Value("${app.memory.codec.compress-threshold:1024}")
+    private int codecCompressThreshold;
+
+    /**
+     * Redis List 记忆仓库：新 List 固定使用紧凑二进制编码；
+     * 旧版 JedisRedisChatMemoryRepository 的会话（legacy-key-prefix）在首次读取时迁移
+     */
+    @Bean("redisListChatMemoryRepository")
+    public RedisListChatMemoryRepository redisListChatMemoryRepository(
+            @Qualifier("byteRedisTemplate") RedisTemplate<String, byte[]> byteRedisTemplate,
+            ObjectMapper objectMapper) {
+        return new RedisListChatMemoryRepository(byteRedisTemplate,
+                new TaggedBinaryMessageCodec(codecCompression, codecCompressThreshold),
+                keyPrefix,
+                tailWindow,
+                Duration.ofHours(ttlHours),
+                legacyKeyPrefix,
+                objectMapper);
+    }
 
-    @Bean("jedisRedisChatMemoryRepository")
-    @Primary
-    public JedisRedisChatMemoryRepository jedisRedisChatMemoryRepository() {
-        return JedisRedisChatMemoryRepository.builder()
-                .host(host)
-                .port(port)
-                .password(password)
-                .database(database)
-                .timeout(timeout)
-                .keyPrefix("chat_memory:")
-                .build();
+    /**
+     * Redis 记忆窗口：与 MySQL 记忆共用 token 预算配置（该调用链不携带 agentId，使用默认预算）
+     */
+    @Bean("redisChatMemory")
+    public ChatMemory redisChatMemory(
+            @Qualifier("redisListChatMemoryRepository") RedisListChatMemoryRepository redisListChatMemoryRepository,
+            TokenBudgetProperties tokenBudgetProperties,
+            MessageTokenCounter messageTokenCounter,
+            MeterRegistry meterRegistry,
+            @Value("${app.memory.window.max-messages:10}") int windowMaxMessages) {
+        if (!tokenBudgetProperties.isEnabled()) {
+            return MessageWindowChatMemory.builder()
+                    .chatMemoryRepository(redisListChatMemoryRepository)
+                    .maxMessages(windowMaxMessages)
+                    .build();
+        }
+        return new TokenBudgetChatMemory(redisListChatMemoryRepository, messageTokenCounter,
+                tokenBudgetProperties.getDefaultTokens(),
+                tokenBudgetProperties.getAgents(),
+                tokenBudgetProperties.getMetricAgents(),
+                tokenBudgetProperties.getMaxMessages(),
+                tokenBudgetProperties.getToolResponseMaxChars(),
+                meterRegistry,
+                null);
     }
 
 
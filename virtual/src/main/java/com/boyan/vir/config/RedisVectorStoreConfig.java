@@ -1,12 +1,30 @@
 package com.boyan.vir.config;
 
+import com.boyan.vir.ingest.IncrementalIngestor;
+import com.boyan.vir.ingest.IngestJobQueue;
+import com.boyan.vir.ingest.IngestionPipeline;
+import com.boyan.vir.ingest.RagDirectoryWatcher;
+import com.boyan.vir.ingest.RedisJsonVectorSink;
+import com.boyan.vir.ingest.VectorSink;
+import com.boyan.vir.util.TxtFileProcessor;
+import com.boyan.vir.vectorstore.HnswVectorStore;
+import com.boyan.vir.vectorstore.ProfiledVectorStore;
+import com.boyan.vir.vectorstore.RedisIndexManager;
+import com.boyan.vir.vectorstore.RedisIndexRebuilder;
+import com.boyan.vir.vectorstore.SearchProfile;
+import com.boyan.vir.vectorstore.ShardedRedisVectorStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.Data;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.redis.RedisVectorStore;
 import org.springframework.ai.vectorstore.redis.RedisVectorStore.Algorithm;
 import org.springframework.ai.vectorstore.redis.RedisVectorStore.MetadataField;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -14,8 +32,11 @@ import org.springframework.data.redis.connection.RedisConnectionFactory;
 import redis.clients.jedis.*;
 import redis.clients.jedis.exceptions.JedisException;
 
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Redis VectorStore 自动配置类（严格匹配 JedisPooled 源码构造函数）
@@ -34,8 +55,11 @@ public class RedisVectorStoreConfig {
     private String distanceType = "COSINE";
     private Double similarityThreshold = 0.7D;
     private String indexType = "HNSW";
+    // HNSW 建索引参数（index-type=HNSW 时生效，只在创建索引时使用，修改后需重建索引）
+    private Integer m = 16;
+    private Integer efConstruction = 200;
     private String scoreName = "vector_score";
-    private String keyspace = "hash";
+    private String keyspace = "json"; // 分片以 JSON 存储（见 RedisJsonVectorSink），仅作说明
 
     // 自动读取spring.data.redis配置
     @ConfigurationProperties(prefix = "spring.data.redis")
@@ -60,7 +84,7 @@ public class RedisVectorStoreConfig {
     @Bean("redisVectorStore")
     public RedisVectorStore redisVectorStore(
             RedisConnectionFactory connectionFactory,
-            @Qualifier("dashscopeEmbeddingModel") EmbeddingModel embeddingModel,
+            @Qualifier("cachingEmbeddingModel") EmbeddingModel embeddingModel,
             RedisProperties redisProperties) {
 
         // 1. 构建JedisPooled（严格使用源码中存在的构造函数）
@@ -69,17 +93,223 @@ public class RedisVectorStoreConfig {
         // 2. 校验向量维度
         validateDimensions(embeddingModel);
 
-        // 3. 构建RedisVectorStore
+        // 3. 构建RedisVectorStore（索引由 RedisIndexManager 按 M / EF_CONSTRUCTION 创建，这里不建索引）
         RedisVectorStore.Builder builder = RedisVectorStore.builder(jedisPooled, embeddingModel)
                 .indexName(this.indexName)
                 .prefix(this.prefix)
-                .initializeSchema(this.initializeSchema)
+                .initializeSchema(false)
                 .vectorAlgorithm(mapIndexTypeToAlgorithm(this.indexType))
                 .metadataFields(buildMetadataFields());
 
         return builder.build();
     }
 
+    /**
+     * Redis 索引版本管理：检索与入库按指针 key 解析当前版本，支持后台重建后原子切换（app.vector.store.type=redis）
+     */
+    @Bean("redisIndexManager")
+    @ConditionalOnProperty(prefix = "app.vector.store", name = "type", havingValue = "redis", matchIfMissing = true)
+    public RedisIndexManager redisIndexManager(
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            @Qualifier("cachingEmbeddingModel") EmbeddingModel embeddingModel,
+            @Value("${app.vector.index.refresh-seconds:5}") long refreshSeconds,
+            @Value("${app.vector.index.retire-grace-seconds:120}") long retireGraceSeconds) {
+        JedisPooled jedisPooled = redisVectorStore.<JedisPooled>getNativeClient()
+                .orElseThrow(() -> new IllegalStateException("RedisVectorStore 未提供 JedisPooled 客户端"));
+        return new RedisIndexManager(jedisPooled, embeddingModel, redisVectorStore,
+                this.indexName, this.prefix, mapIndexTypeToAlgorithm(this.indexType).name(),
+                this.m, this.efConstruction, this.dimensions, buildMetadataFields(), this.initializeSchema,
+                Duration.ofSeconds(refreshSeconds), Duration.ofSeconds(retireGraceSeconds));
+    }
+
+    /**
+     * 后台重建 Redis 索引的新版本（POST /api/vector/store/index/rebuild）
+     */
+    @Bean("redisIndexRebuilder")
+    @ConditionalOnProperty(prefix = "app.vector.store", name = "type", havingValue = "redis", matchIfMissing = true)
+    public RedisIndexRebuilder redisIndexRebuilder(
+            RedisIndexManager redisIndexManager,
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            IncrementalIngestor incrementalIngestor,
+            @Value("${app.upload.path:./rag/}") String uploadPath,
+            @Value("${app.vector.index.indexing-poll-seconds:5}") long indexingPollSeconds) {
+        JedisPooled jedisPooled = redisVectorStore.<JedisPooled>getNativeClient()
+                .orElseThrow(() -> new IllegalStateException("RedisVectorStore 未提供 JedisPooled 客户端"));
+        return new RedisIndexRebuilder(redisIndexManager, incrementalIngestor, jedisPooled,
+                Path.of(uploadPath), Duration.ofSeconds(indexingPollSeconds));
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "app.vector.store", name = "type", havingValue = "sharded")
+    public ShardedVectorStoreProperties shardedVectorStoreProperties() {
+        return new ShardedVectorStoreProperties();
+    }
+
+    /**
+     * 分片向量库（app.vector.store.type=sharded）：文档按 ID 一致性哈希分布到多个 Redis 实例，查询并行扇出后合并；
+     * 分片集合、文件清单与入库任务队列仍使用 spring.data.redis 配置的主 Redis
+     */
+    @Bean("shardedVectorStore")
+    @ConditionalOnProperty(prefix = "app.vector.store", name = "type", havingValue = "sharded")
+    public ShardedRedisVectorStore shardedVectorStore(
+            ShardedVectorStoreProperties shardedProperties,
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            @Qualifier("cachingEmbeddingModel") EmbeddingModel embeddingModel,
+            MeterRegistry meterRegistry) {
+        if (shardedProperties.getShards().isEmpty()) {
+            throw new IllegalStateException("app.vector.store.type=sharded 时必须配置 app.vector.sharded.shards");
+        }
+        JedisPooled jedisPooled = redisVectorStore.<JedisPooled>getNativeClient()
+                .orElseThrow(() -> new IllegalStateException("RedisVectorStore 未提供 JedisPooled 客户端"));
+        List<ShardedRedisVectorStore.Shard> shards = new ArrayList<>();
+        for (ShardedVectorStoreProperties.Shard shard : shardedProperties.getShards()) {
+            if (shard.getId() == null || shard.getId().isBlank()) {
+                throw new IllegalStateException("分片未配置 id：" + shard.getHost() + ":" + shard.getPort());
+            }
+            RedisProperties connection = new RedisProperties();
+            connection.setHost(shard.getHost());
+            connection.setPort(shard.getPort());
+            connection.setUsername(shard.getUsername());
+            connection.setPassword(shard.getPassword());
+            connection.setDatabase(shard.getDatabase());
+            connection.setTimeout(shard.getTimeout());
+            shards.add(new ShardedRedisVectorStore.Shard(shard.getId(), buildJedisPooledStrict(connection)));
+        }
+        return new ShardedRedisVectorStore(shards, shardedProperties.getVirtualNodes(), jedisPooled, embeddingModel,
+                this.indexName, this.prefix, mapIndexTypeToAlgorithm(this.indexType).name(),
+                this.m, this.efConstruction, this.dimensions, buildMetadataFields(),
+                shardedProperties.getQueryWorkers(), Duration.ofSeconds(shardedProperties.getRebalanceCheckSeconds()),
+                meterRegistry);
+    }
+
+    /**
+     * 检索与入库实际使用的向量库：app.vector.store.type=redis（默认）为当前版本的 Redis 索引，
+     * embedded 为进程内 HNSW 向量库，sharded 为多个 Redis 实例上的分片向量库；按检索档位（fast / balanced / accurate）设置 HNSW 查询候选集大小
+     */
+    @Bean("ragVectorStore")
+    public ProfiledVectorStore ragVectorStore(
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            ObjectProvider<HnswVectorStore> hnswVectorStore,
+            ObjectProvider<ShardedRedisVectorStore> shardedVectorStore,
+            ObjectProvider<RedisIndexManager> redisIndexManager,
+            MeterRegistry meterRegistry,
+            @Value("${app.vector.search.default-profile:BALANCED}") SearchProfile defaultProfile,
+            @Value("${app.vector.search.ef-runtime.fast:10}") int fastEf,
+            @Value("${app.vector.search.ef-runtime.balanced:64}") int balancedEf,
+            @Value("${app.vector.search.ef-runtime.accurate:256}") int accurateEf) {
+        VectorStore delegate = hnswVectorStore.getIfAvailable();
+        if (delegate == null) {
+            delegate = shardedVectorStore.getIfAvailable();
+        }
+        if (delegate == null) {
+            RedisIndexManager indexManager = redisIndexManager.getIfAvailable();
+            delegate = indexManager != null ? indexManager.asVectorStore() : redisVectorStore;
+        }
+        Map<SearchProfile, Integer> efRuntime = Map.of(
+                SearchProfile.FAST, fastEf,
+                SearchProfile.BALANCED, balancedEf,
+                SearchProfile.ACCURATE, accurateEf);
+        return new ProfiledVectorStore(delegate, efRuntime, defaultProfile, meterRegistry);
+    }
+
+    /**
+     * 入库流水线的写入目标，与 ragVectorStore 保持一致
+     */
+    @Bean("vectorSink")
+    public VectorSink vectorSink(
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            ObjectProvider<HnswVectorStore> hnswVectorStore,
+            ObjectProvider<ShardedRedisVectorStore> shardedVectorStore,
+            ObjectProvider<RedisIndexManager> redisIndexManager) {
+        HnswVectorStore embedded = hnswVectorStore.getIfAvailable();
+        if (embedded != null) {
+            return embedded.asSink();
+        }
+        ShardedRedisVectorStore sharded = shardedVectorStore.getIfAvailable();
+        if (sharded != null) {
+            return sharded.asSink();
+        }
+        RedisIndexManager indexManager = redisIndexManager.getIfAvailable();
+        if (indexManager != null) {
+            return indexManager.asSink();
+        }
+        JedisPooled jedisPooled = redisVectorStore.<JedisPooled>getNativeClient()
+                .orElseThrow(() -> new IllegalStateException("RedisVectorStore 未提供 JedisPooled 客户端"));
+        return new RedisJsonVectorSink(jedisPooled, this.prefix);
+    }
+
+    /**
+     * 文档入库流水线：写入 vectorSink（默认复用 redisVectorStore 的 JedisPooled 与 key 前缀，写入的文档由同一索引检索）
+     */
+    @Bean("ingestionPipeline")
+    public IngestionPipeline ingestionPipeline(
+            VectorSink vectorSink,
+            @Qualifier("cachingEmbeddingModel") EmbeddingModel embeddingModel,
+            MeterRegistry meterRegistry,
+            @Value("${app.vector.ingest.batch-size:10}") int batchSize,
+            @Value("${app.vector.ingest.embed-workers:4}") int embedWorkers,
+            @Value("${app.vector.ingest.write-workers:2}") int writeWorkers,
+            @Value("${app.vector.ingest.requests-per-second:20}") double requestsPerSecond,
+            @Value("${app.vector.ingest.max-in-flight-batches:16}") int maxInFlightBatches,
+            @Value("${app.vector.ingest.batch-attempts:3}") int batchAttempts) {
+        return new IngestionPipeline(embeddingModel, vectorSink,
+                batchSize, embedWorkers, writeWorkers, requestsPerSecond, maxInFlightBatches, batchAttempts, meterRegistry);
+    }
+
+    /**
+     * 增量入库：按分片内容哈希与文件清单比对，只向量化新增 / 变更的分片（Redis 模式下写入当前版本的前缀与清单）
+     */
+    @Bean("incrementalIngestor")
+    public IncrementalIngestor incrementalIngestor(
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            IngestionPipeline ingestionPipeline,
+            TxtFileProcessor txtFileProcessor,
+            VectorSink vectorSink,
+            ObjectProvider<RedisIndexManager> redisIndexManager) {
+        JedisPooled jedisPooled = redisVectorStore.<JedisPooled>getNativeClient()
+                .orElseThrow(() -> new IllegalStateException("RedisVectorStore 未提供 JedisPooled 客户端"));
+        RedisIndexManager indexManager = redisIndexManager.getIfAvailable();
+        if (indexManager != null) {
+            return new IncrementalIngestor(ingestionPipeline, txtFileProcessor, jedisPooled, indexManager::activeTarget);
+        }
+        return new IncrementalIngestor(ingestionPipeline, txtFileProcessor, jedisPooled, vectorSink);
+    }
+
+    /**
+     * 异步入库任务队列（Redis Streams 消费组），集群内各节点共同消费
+     */
+    @Bean("ingestJobQueue")
+    public IngestJobQueue ingestJobQueue(
+            @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore,
+            IncrementalIngestor incrementalIngestor,
+            MeterRegistry meterRegistry,
+            @Value("${app.vector.jobs.stream-key:virtual:ingest:stream}") String streamKey,
+            @Value("${app.vector.jobs.group:ingest-workers}") String group,
+            @Value("${app.vector.jobs.key-prefix:virtual:ingest:job:}") String jobKeyPrefix,
+            @Value("${app.vector.jobs.workers:2}") int workers,
+            @Value("${app.vector.jobs.max-attempts:3}") int maxAttempts,
+            @Value("${app.vector.jobs.claim-idle-minutes:5}") long claimIdleMinutes,
+            @Value("${app.vector.jobs.status-ttl-hours:72}") long statusTtlHours,
+            @Value("${app.vector.jobs.max-stream-length:10000}") long maxStreamLength) {
+        JedisPooled jedisPooled = redisVectorStore.<JedisPooled>getNativeClient()
+                .orElseThrow(() -> new IllegalStateException("RedisVectorStore 未提供 JedisPooled 客户端"));
+        return new IngestJobQueue(incrementalIngestor, jedisPooled, streamKey, group, jobKeyPrefix,
+                workers, maxAttempts, Duration.ofMinutes(claimIdleMinutes), Duration.ofHours(statusTtlHours),
+                maxStreamLength, meterRegistry);
+    }
+
+    /**
+     * 监听上传目录，TXT 文件新增 / 修改 / 删除时自动增量入库（默认关闭）
+     */
+    @Bean("ragDirectoryWatcher")
+    @ConditionalOnProperty(prefix = "app.rag.watch", name = "enabled", havingValue = "true")
+    public RagDirectoryWatcher ragDirectoryWatcher(
+            IncrementalIngestor incrementalIngestor,
+            @Value("${app.upload.path:./rag/}") String uploadPath,
+            @Value("${app.rag.watch.debounce-ms:2000}") long debounceMillis) {
+        return new RagDirectoryWatcher(incrementalIngestor, Path.of(uploadPath), Duration.ofMillis(debounceMillis));
+    }
+
     /**
      * 严格匹配JedisPooled源码的构造函数创建实例
      * 选用源码中明确存在的：GenericObjectPoolConfig + host + port + timeout + user + password + database
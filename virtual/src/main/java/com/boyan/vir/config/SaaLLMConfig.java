@@ -11,23 +11,22 @@ import com.alibaba.cloud.ai.graph.agent.hook.summarization.SummarizationHook;
 import com.alibaba.cloud.ai.graph.checkpoint.savers.mysql.MysqlSaver;
 import com.alibaba.cloud.ai.graph.skills.registry.SkillRegistry;
 import com.alibaba.cloud.ai.graph.skills.registry.classpath.ClasspathSkillRegistry;
-import com.alibaba.cloud.ai.memory.redis.JedisRedisChatMemoryRepository;
 import com.boyan.vir.Interceptors.ContentModerationInterceptor;
 import com.boyan.vir.Interceptors.ModelPerformanceInterceptor;
 import com.boyan.vir.Interceptors.ToolPerformanceInterceptor;
 import com.boyan.vir.hook.RAGMessagesHook;
-import com.boyan.vir.repository.MySQLChatMemoryRepository;
+import com.boyan.vir.memory.AgentChatMemory;
+import com.boyan.vir.memory.AgentChatMemoryAdvisor;
 import com.boyan.vir.tools.*;
 import com.boyan.vir.tools.email.EmailService;
+import com.boyan.vir.vectorstore.ProfiledVectorStore;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.tool.ToolCallback;
 import org.springframework.ai.tool.function.FunctionToolCallback;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.ai.vectorstore.redis.RedisVectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
@@ -85,32 +84,23 @@ public class SaaLLMConfig {
     //加入redis记忆化的qwen聊天
     @Bean("qwenRedisMemoryClient")
     public ChatClient qwenRedisMemoryClient(@Qualifier("qwen") ChatModel qwen,
-                                       @Qualifier("jedisRedisChatMemoryRepository") JedisRedisChatMemoryRepository jedisRedisChatMemoryRepository
+                                       @Qualifier("redisChatMemory") ChatMemory redisChatMemory
     ) {
-        MessageWindowChatMemory windowChatMemory = MessageWindowChatMemory.builder()
-                .chatMemoryRepository(jedisRedisChatMemoryRepository)
-                .maxMessages(10)
-                .build();
         return ChatClient.builder(qwen)
                 .defaultOptions(ChatOptions.builder().model(QWEN_MODEL).build())
-                .defaultAdvisors(MessageChatMemoryAdvisor.builder(windowChatMemory).build())
+                .defaultAdvisors(MessageChatMemoryAdvisor.builder(redisChatMemory).build())
                 .build();
     }
 
 
-    //加入mysql记忆化的qwen聊天
+    //加入mysql记忆化的qwen聊天（userId/agentId 通过 advisor 上下文传入，一轮只落库一次）
     @Bean("qwenMysqlMemoryClient")
     public ChatClient qwenMysqlMemoryClient(@Qualifier("qwen") ChatModel qwen,
-                                            @Qualifier("mysqlChatMemoryRepository") MySQLChatMemoryRepository mysqlChatMemoryRepository
+                                            @Qualifier("agentChatMemory") AgentChatMemory agentChatMemory
     ) {
-        MessageWindowChatMemory windowChatMemory = MessageWindowChatMemory.builder()
-                .chatMemoryRepository(mysqlChatMemoryRepository)
-                .maxMessages(10)
-                .build();
-
         return ChatClient.builder(qwen)
                 .defaultOptions(ChatOptions.builder().model(QWEN_MODEL).build())
-                .defaultAdvisors(MessageChatMemoryAdvisor.builder(windowChatMemory).build())
+                .defaultAdvisors(new AgentChatMemoryAdvisor(agentChatMemory))
                 .build();
     }
 
@@ -120,7 +110,7 @@ public class SaaLLMConfig {
     public ReactAgent qwenReactAgent(@Qualifier("qwen") ChatModel qwen,
                                      EmailService mailUtil,
                                      DataSource dataSource,
-                                     @Qualifier("redisVectorStore") RedisVectorStore redisVectorStore) {
+                                     @Qualifier("ragVectorStore") ProfiledVectorStore ragVectorStore) {
 
 //        ToolCallback weatherTool = FunctionToolCallback.builder("get_weather", new WeatherTool())
 //                .description("给出所给城市的天气")
@@ -177,7 +167,7 @@ public class SaaLLMConfig {
 
 
 
-        RAGMessagesHook ragMessagesHook = new RAGMessagesHook(redisVectorStore);
+        RAGMessagesHook ragMessagesHook = new RAGMessagesHook(ragVectorStore);
 
         return ReactAgent.builder()
                 .name("qwenReactAgent")
@@ -0,0 +1,41 @@
+package com.boyan.vir.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import redis.clients.jedis.Protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分片向量库配置（与 yml 中 app.vector.sharded 对应，app.vector.store.type=sharded 时生效）
+ */
+@Data
+@ConfigurationProperties(prefix = "app.vector.sharded")
+public class ShardedVectorStoreProperties {
+
+    /** 分片列表（只能追加，不能删除或修改已有分片的 id） */
+    private List<Shard> shards = new ArrayList<>();
+
+    /** 每个分片在哈希环上的虚拟节点数，越多分布越均匀 */
+    private int virtualNodes = 160;
+
+    /** 并行查询各分片的线程数 */
+    private int queryWorkers = 8;
+
+    /** 检查分片集合变化（新增分片后迁移）的间隔 */
+    private long rebalanceCheckSeconds = 60;
+
+    @Data
+    public static class Shard {
+
+        /** 分片 ID：参与一致性哈希，配置后不可修改 */
+        private String id;
+        private String host = "localhost";
+        private int port = Protocol.DEFAULT_PORT;
+        private String username = null;
+        private String password = null;
+        private int database = 0;
+        private int timeout = 2000;
+    }
+}
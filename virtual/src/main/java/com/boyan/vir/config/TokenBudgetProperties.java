@@ -0,0 +1,35 @@
+package com.boyan.vir.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 记忆窗口 token 预算配置（与 yml 中 app.memory.token-budget 对应）
+ */
+@Data
+@ConfigurationProperties(prefix = "app.memory.token-budget")
+public class TokenBudgetProperties {
+
+    /** 关闭后退回固定条数窗口 */
+    private boolean enabled = true;
+
+    /** 未单独配置的智能体使用的历史 token 预算 */
+    private int defaultTokens = 2000;
+
+    /** 条数上限兜底（log 存储模式下需 ≤ app.memory.mysql.tail-window） */
+    private int maxMessages = 50;
+
+    /** 按 agentId 单独配置的预算 */
+    private Map<String, Integer> agents = new HashMap<>();
+
+    /** 指标 agent 标签允许的取值（agents 中的 agentId 自动包含），其余 agentId 归为 other，防止标签无限增长 */
+    private Set<String> metricAgents = new HashSet<>();
+
+    /** 超预算时工具返回保留的最大字符数（-1 不截断，0 只保留占位） */
+    private int toolResponseMaxChars = 500;
+}
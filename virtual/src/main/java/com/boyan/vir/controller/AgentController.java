@@ -7,9 +7,11 @@ import com.boyan.vir.dto.AgentChatRequest;
 import com.boyan.vir.dto.AgentResponse;
 import com.boyan.vir.dto.ApiResult;
 import com.boyan.vir.dto.SendEmailRequest;
+import com.boyan.vir.hook.RAGMessagesHook;
 import com.boyan.vir.util.EncryptUtils;
 import com.boyan.vir.tools.email.EmailService;
 import com.boyan.vir.util.UserContext;
+import com.boyan.vir.vectorstore.KnowledgeBase;
 import opennlp.tools.util.StringUtil;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,13 +39,20 @@ public class AgentController {
             }
             String threadId = EncryptUtils.encryptToHex(userId + "_" + userName);
 
-            RunnableConfig config = RunnableConfig.builder()
-                    .threadId(threadId)
-                    .build();
+            RunnableConfig.Builder builder = RunnableConfig.builder()
+                    .threadId(threadId);
+            // 指定知识库时 RAG 检索只在该知识库中进行
+            String knowledgeBase = KnowledgeBase.normalize(ar.getKnowledgeBase());
+            if (knowledgeBase != null) {
+                builder.addMetadata(RAGMessagesHook.KNOWLEDGE_BASE_KEY, knowledgeBase);
+            }
+            RunnableConfig config = builder.build();
 
             AssistantMessage response = qwenReactAgent.call(ar.getMsg(), config);
 
             return ApiResult.success(new AgentResponse( userName, response.getText()));
+        } catch (IllegalArgumentException e) {
+            return ApiResult.error(e.getMessage());
         } catch (GraphRunnerException e) {
             return ApiResult.error("失败");
         }
@@ -1,13 +1,17 @@
 package com.boyan.vir.controller;
 
 import com.boyan.vir.dto.ApiResult;
-import com.boyan.vir.dto.ChatSendRequest;
-import com.boyan.vir.dto.ChatSendResponse;
 import com.boyan.vir.dto.ChatHistoryResponse;
 import com.boyan.vir.dto.ChatHistoryResponse.ChatMessageItem;
-import com.boyan.vir.repository.MySQLChatMemoryRepository;
+import com.boyan.vir.dto.ChatSendRequest;
+import com.boyan.vir.dto.ChatSendResponse;
+import com.boyan.vir.memory.AgentChatMemoryAdvisor;
+import com.boyan.vir.memory.ConversationIdResolver;
+import com.boyan.vir.repository.AgentChatMemoryRepository;
+import com.boyan.vir.repository.HistoryPage;
 import com.boyan.vir.tools.DateTimeTools;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -17,7 +21,6 @@ import jakarta.servlet.http.HttpServletRequest;
 import reactor.core.publisher.Flux;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * 对话控制器 —— 文字对话接口
@@ -35,11 +38,17 @@ public class ChatController {
     private ChatClient chatClient;
 
     @Autowired
-    private MySQLChatMemoryRepository memoryRepository;
+    @Qualifier("agentChatMemoryRepository")
+    private AgentChatMemoryRepository memoryRepository;
+
+    @Autowired
+    private ConversationIdResolver conversationIdResolver;
 
     @Autowired
     private DateTimeTools dateTimeTools;
 
+    private static final int MAX_HISTORY_LIMIT = 100;
+
     // 智能体系统提示词映射
     private static final Map<String, String> AGENT_PROMPTS = Map.of(
             "default", "你是一个友好的AI助手，帮助用户解答各种问题。",
@@ -66,80 +75,63 @@ public class ChatController {
         String userIdStr = String.valueOf(userId);
         String agentId = req.getAgentId() != null ? req.getAgentId() : "default";
 
-        // 查找该用户 + 智能体的 conversationId，无则新建
-        String conversationId = memoryRepository.findConversationIdByUserAgent(userIdStr, agentId);
-        if (conversationId == null) {
-            conversationId = UUID.randomUUID().toString();
-        }
-
-        // 创建 final 变量供 Lambda 使用
-        final String finalConversationId = conversationId;
+        // 查找该用户 + 智能体的 conversationId，无则新建（映射已缓存，热路径不查库）
+        String conversationId = conversationIdResolver.resolve(userIdStr, agentId);
 
         // 获取系统提示词
         String systemPrompt = AGENT_PROMPTS.getOrDefault(agentId, AGENT_PROMPTS.get("default"));
 
-        // 调用 AI（传入 conversationId 使记忆 advisor 生效）
+        // 调用 AI（conversationId + userId + agentId 交给记忆 advisor，一轮只落库一次）
         String reply = chatClient
                 .prompt()
                 .system(systemPrompt)
                 .user(req.getMessage())
-                .advisors(a -> a.param("chat_memory_conversation_id", finalConversationId))
+                .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, conversationId)
+                        .param(AgentChatMemoryAdvisor.USER_ID, userIdStr)
+                        .param(AgentChatMemoryAdvisor.AGENT_ID, agentId))
                 .call()
                 .content();
 
-        // 补充更新 user_id 和 agent_id（advisor 内部不传这两个字段）
-        updateMemoryMetadata(conversationId, userIdStr, agentId);
-
         return ApiResult.success("ok", new ChatSendResponse(reply, conversationId, agentId));
     }
 
     /**
-     * GET /api/chat/history?agentId=xxx
-     * 获取当前用户指定智能体的聊天历史
+     * GET /api/chat/history?agentId=xxx&before=&limit=20
+     * 按游标分页获取当前用户指定智能体的聊天历史（从最新一页开始往前翻）
+     * 只返回用户与助手消息，limit 按这两类消息计数；
+     * data.nextCursor 作为下一次请求的 before，data.hasMore=false 表示已到最早
      */
     @GetMapping("/history")
     public ApiResult<ChatHistoryResponse> getHistory(
             @RequestParam(defaultValue = "default") String agentId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(defaultValue = "20") int limit,
             HttpServletRequest request) {
 
         Long userId = (Long) request.getAttribute("userId");
         String userIdStr = String.valueOf(userId);
+        int pageSize = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
 
-        String conversationId = memoryRepository.findConversationIdByUserAgent(userIdStr, agentId);
-
-        List<ChatMessageItem> historyList = new ArrayList<>();
-        if (conversationId != null) {
-            List<Message> messages = memoryRepository.findByConversationId(conversationId);
-            historyList = messages.stream()
-                    .map(msg -> {
-                        String role = msg.getClass().getSimpleName().replace("Message", "").toLowerCase();
-                        String content = msg.getText() != null ? msg.getText() : "";
-                        return new ChatMessageItem(role, content);
-                    })
-                    .filter(item -> "user".equals(item.getRole()) || "assistant".equals(item.getRole()))
-                    .collect(Collectors.toList());
+        String conversationId = conversationIdResolver.find(userIdStr, agentId);
+        HistoryPage page = conversationId != null
+                ? memoryRepository.findHistoryPage(conversationId, before, pageSize)
+                : HistoryPage.empty();
+
+        List<ChatMessageItem> historyList = new ArrayList<>(page.messages().size());
+        for (Message msg : page.messages()) {
+            historyList.add(new ChatMessageItem(msg.getMessageType().getValue(),
+                    msg.getText() != null ? msg.getText() : ""));
         }
 
         ChatHistoryResponse resp = new ChatHistoryResponse(
                 historyList,
                 conversationId != null ? conversationId : "",
-                agentId);
+                agentId,
+                page.nextCursor(),
+                page.hasMore());
         return ApiResult.success("ok", resp);
     }
 
-    /**
-     * 补充更新 user_id 和 agent_id
-     */
-    private void updateMemoryMetadata(String conversationId, String userId, String agentId) {
-        try {
-            memoryRepository.getJdbcTemplate().update(
-                    "UPDATE chat_memory SET user_id = ?, agent_id = ? WHERE conversation_id = ?",
-                    userId, agentId, conversationId);
-        } catch (Exception e) {
-            System.err.println("更新记忆元数据失败: " + e.getMessage());
-        }
-    }
-
 
     /**
      * 不要用记忆化的client
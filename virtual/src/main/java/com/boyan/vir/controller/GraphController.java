@@ -5,6 +5,7 @@ import com.boyan.vir.dto.GraphChatRequest;
 import com.boyan.vir.dto.GraphChatResponse;
 import com.boyan.vir.service.GraphWorkflowService;
 import com.boyan.vir.util.UserContext;
+import com.boyan.vir.vectorstore.KnowledgeBase;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
@@ -32,7 +33,7 @@ public class GraphController {
      * 同步 Graph 对话
      * 请求示例：
      * POST /api/graph/chat
-     * { "userInput": "今天北京天气怎么样？" }
+     * { "userInput": "今天北京天气怎么样？", "knowledgeBase": "product" }（knowledgeBase 可选）
      *
      * 响应示例：
      * { "code": 200, "message": "ok", "data": { "answer": "...", "intent": "tool", "threadId": "1_graph" } }
@@ -48,23 +49,30 @@ public class GraphController {
         if (req.getUserInput() == null || req.getUserInput().isBlank()) {
             return ApiResult.error("输入内容不能为空");
         }
+        String knowledgeBase;
+        try {
+            knowledgeBase = KnowledgeBase.normalize(req.getKnowledgeBase());
+        } catch (IllegalArgumentException e) {
+            return ApiResult.error(e.getMessage());
+        }
 
-        log.info("[GraphController] chat, userId={}, input={}", userId, req.getUserInput());
-        GraphChatResponse response = graphWorkflowService.invoke(String.valueOf(userId), req.getUserInput());
+        log.info("[GraphController] chat, userId={}, kb={}, input={}", userId, knowledgeBase, req.getUserInput());
+        GraphChatResponse response = graphWorkflowService.invoke(String.valueOf(userId), req.getUserInput(), knowledgeBase);
         return ApiResult.success("ok", response);
     }
 
     /**
      * 流式 Graph 对话（Server-Sent Events）
      * 请求示例：
-     * GET /api/graph/stream?msg=帮我查一下天气
+     * GET /api/graph/stream?msg=帮我查一下天气&kb=product（kb 可选）
      *
      * 前端接收：EventSource 或 fetch + ReadableStream
      * 每次 SSE event data 为节点输出片段
      */
     @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> stream(
-            @RequestParam(name = "msg") String msg) {
+            @RequestParam(name = "msg") String msg,
+            @RequestParam(name = "kb", required = false) String kb) {
 
         Long userId = UserContext.getCurrentUserId();
         if (userId == null) {
@@ -73,8 +81,14 @@ public class GraphController {
         if (msg == null || msg.isBlank()) {
             return Flux.just("data: 输入内容不能为空\n\n");
         }
+        String knowledgeBase;
+        try {
+            knowledgeBase = KnowledgeBase.normalize(kb);
+        } catch (IllegalArgumentException e) {
+            return Flux.just("data: " + e.getMessage() + "\n\n");
+        }
 
-        log.info("[GraphController] stream, userId={}, msg={}", userId, msg);
-        return graphWorkflowService.stream(String.valueOf(userId), msg);
+        log.info("[GraphController] stream, userId={}, kb={}, msg={}", userId, knowledgeBase, msg);
+        return graphWorkflowService.stream(String.valueOf(userId), msg, knowledgeBase);
     }
 }
@@ -1,16 +1,27 @@
 package com.boyan.vir.controller;
 
+import com.boyan.vir.ingest.IngestJob;
 import com.boyan.vir.service.VectorStoreService;
+import com.boyan.vir.vectorstore.KnowledgeBase;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
 
 /**
@@ -21,20 +32,39 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class TxtFileVectorController {
 
+    private static final int UPLOAD_BUFFER_SIZE = 64 * 1024;
+
     private final VectorStoreService vectorStoreService;
     // 临时文件存储目录（可配置到yml中）
     @Value("${app.upload.path:./rag/}")
     private String uploadPath;
+    // 单个上传文件的大小上限（字节）
+    @Value("${app.upload.max-bytes:52428800}")
+    private long maxUploadBytes;
+    // 开启目录监听时上传文件由监听器入库，不再重复提交入库任务
+    @Value("${app.rag.watch.enabled:false}")
+    private boolean watchEnabled;
 
     /**
-     * 接口1：上传TXT文件并入库
+     * 接口1：上传TXT文件并提交入库任务（异步，通过 GET /api/vector/jobs/{jobId} 查询进度）；
+     * 开启目录监听（app.rag.watch.enabled）时只保存文件，由监听器入库，返回结果不含 job_id
      * 请求示例：POST http://localhost:8080/api/vector/txt/upload
-     * FormData：file=xxx.txt
+     * FormData：file=xxx.txt，kb=product（可选，文件保存到上传目录下的知识库子目录，检索时可按知识库过滤）
      */
     @PostMapping("/upload")
-    public Map<String, Object> uploadTxtFile(@RequestParam("file") MultipartFile file) {
+    public Map<String, Object> uploadTxtFile(@RequestParam("file") MultipartFile file,
+                                             @RequestParam(name = "kb", required = false) String kb) {
         Map<String, Object> result = new HashMap<>();
         try {
+            String knowledgeBase;
+            try {
+                knowledgeBase = KnowledgeBase.normalize(kb);
+            } catch (IllegalArgumentException e) {
+                result.put("code", "400");
+                result.put("msg", e.getMessage());
+                return result;
+            }
+
             // 1. 校验文件
             if (file.isEmpty()) {
                 result.put("code", "400");
@@ -47,23 +77,33 @@ public class TxtFileVectorController {
                 result.put("msg", "仅支持TXT文件上传");
                 return result;
             }
-
-            // 2. 保存临时文件
-            File tempDir = new File(uploadPath);
-            if (!tempDir.exists()) {
-                tempDir.mkdirs();
+            if (file.getSize() > maxUploadBytes) {
+                result.put("code", "413");
+                result.put("msg", "文件超过大小上限：" + maxUploadBytes + "字节");
+                return result;
             }
-            Path tempFilePath = Paths.get(uploadPath, originalFilename);
-            Files.write(tempFilePath, file.getBytes());
 
-            // 3. 入库Redis VectorStore
-            vectorStoreService.storeTxtFileToVectorStore(tempFilePath.toString());
+            // 2. 流式保存文件（不在堆上缓存整个文件），边写边计算 SHA-256
+            // 只取文件名部分，防止 ../ 写到上传目录之外
+            String fileName = Paths.get(originalFilename).getFileName().toString();
+            Path target = knowledgeBase == null
+                    ? Paths.get(uploadPath, fileName)
+                    : Paths.get(uploadPath, knowledgeBase, fileName);
+            StoredFile stored = store(file, target);
 
-            // 4. 返回结果
+            // 3. 返回结果；未开启目录监听时提交入库任务
             result.put("code", "200");
-            result.put("msg", "TXT文件上传并入库成功");
-            result.put("file_name", originalFilename);
-            result.put("file_size", file.getSize() + "字节");
+            result.put("file_name", fileName);
+            result.put("knowledge_base", knowledgeBase == null ? KnowledgeBase.DEFAULT : knowledgeBase);
+            result.put("file_size", stored.size() + "字节");
+            result.put("sha256", stored.sha256());
+            if (watchEnabled) {
+                result.put("msg", "TXT文件上传成功，将由目录监听自动入库");
+                return result;
+            }
+            IngestJob job = vectorStoreService.submitTxtFileJob(stored.path().toString());
+            result.put("msg", "TXT文件上传成功，已提交入库任务");
+            putJob(result, job);
             return result;
         } catch (Exception e) {
             result.put("code", "500");
@@ -73,17 +113,23 @@ public class TxtFileVectorController {
     }
 
     /**
-     * 接口2：导入本地TXT文件入库（指定文件路径）
+     * 接口2：导入本地TXT文件入库（指定文件路径，异步任务）
      * 请求示例：GET http://localhost:8080/api/vector/txt/import?filePath=D:/docs/knowledge.txt
      */
     @GetMapping("/import")
     public Map<String, Object> importLocalTxtFile(@RequestParam String filePath) {
         Map<String, Object> result = new HashMap<>();
         try {
-            vectorStoreService.storeTxtFileToVectorStore(filePath);
+            if (!Files.isRegularFile(Paths.get(filePath))) {
+                result.put("code", "400");
+                result.put("msg", "文件不存在：" + filePath);
+                return result;
+            }
+            IngestJob job = vectorStoreService.submitTxtFileJob(filePath);
             result.put("code", "200");
-            result.put("msg", "本地TXT文件入库成功");
+            result.put("msg", "已提交本地TXT文件入库任务");
             result.put("file_path", filePath);
+            putJob(result, job);
             return result;
         } catch (Exception e) {
             result.put("code", "500");
@@ -91,4 +137,51 @@ public class TxtFileVectorController {
             return result;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 以 64KB 缓冲区把上传内容复制到临时文件，超过大小上限立即中止；
+     * 写完后原子替换目标文件，目录监听与入库任务不会读到写了一半的文件；
+     * 每次上传使用独立的临时文件，同名文件并发上传时互不覆盖（以最后完成的一次为准）
+     */
+    private StoredFile store(MultipartFile file, Path target) throws IOException, NoSuchAlgorithmException {
+        Files.createDirectories(target.getParent());
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".part");
+        long size = 0;
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(UPLOAD_BUFFER_SIZE);
+            int read;
+            while ((read = in.read(buffer.array())) != -1) {
+                size += read;
+                if (size > maxUploadBytes) {
+                    throw new IOException("文件超过大小上限：" + maxUploadBytes + "字节");
+                }
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return new StoredFile(target, size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private record StoredFile(Path path, long size, String sha256) {
+    }
+
+    private void putJob(Map<String, Object> result, IngestJob job) {
+        result.put("job_id", job.id());
+        result.put("status", job.status().name());
+        result.put("status_url", "/api/vector/jobs/" + job.id());
+    }
+}
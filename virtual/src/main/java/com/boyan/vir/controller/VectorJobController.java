@@ -0,0 +1,56 @@
+package com.boyan.vir.controller;
+
+import com.boyan.vir.ingest.IngestJob;
+import com.boyan.vir.service.VectorStoreService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 异步入库任务查询接口
+ */
+@RestController
+@RequestMapping("/api/vector/jobs")
+@RequiredArgsConstructor
+public class VectorJobController {
+
+    private final VectorStoreService vectorStoreService;
+
+    /**
+     * 查询入库任务状态与进度
+     * 请求示例：GET http://localhost:8080/api/vector/jobs/{jobId}
+     */
+    @GetMapping("/{jobId}")
+    public Map<String, Object> getJob(@PathVariable String jobId) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Optional<IngestJob> found = vectorStoreService.findIngestJob(jobId);
+            if (found.isEmpty()) {
+                result.put("code", "404");
+                result.put("msg", "入库任务不存在或已过期：" + jobId);
+                return result;
+            }
+            IngestJob job = found.get();
+            result.put("code", "200");
+            result.put("job_id", job.id());
+            result.put("file_path", job.filePath());
+            result.put("status", job.status().name());
+            result.put("total_chunks", job.totalChunks());
+            result.put("processed_chunks", job.processedChunks());
+            result.put("written_chunks", job.writtenChunks());
+            result.put("percent", Math.round(job.percent() * 10) / 10.0);
+            result.put("attempts", job.attempts());
+            result.put("error", job.error());
+            result.put("created_at", job.createdAt());
+            result.put("updated_at", job.updatedAt());
+            return result;
+        } catch (Exception e) {
+            result.put("code", "500");
+            result.put("msg", "查询入库任务失败：" + e.getMessage());
+            return result;
+        }
+    }
+}
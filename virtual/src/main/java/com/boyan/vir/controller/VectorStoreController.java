@@ -0,0 +1,192 @@
+package com.boyan.vir.controller;
+
+import com.boyan.vir.service.VectorStoreService;
+import com.boyan.vir.vectorstore.KnowledgeBase;
+import com.boyan.vir.vectorstore.QuantizationReport;
+import com.boyan.vir.vectorstore.RedisIndexVersion;
+import com.boyan.vir.vectorstore.SearchProfile;
+import org.springframework.ai.document.Document;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 向量库运维接口
+ */
+@RestController
+@RequestMapping("/api/vector/store")
+@RequiredArgsConstructor
+public class VectorStoreController {
+
+    private final VectorStoreService vectorStoreService;
+
+    /**
+     * 按检索档位检索（用于比较不同档位的召回与延迟，延迟见指标 vector.search.latency）
+     * kb 指定时只在该知识库中检索
+     * 请求示例：GET http://localhost:8080/api/vector/store/search?query=退货政策&topK=5&profile=ACCURATE&kb=product
+     */
+    @GetMapping("/search")
+    public Map<String, Object> search(@RequestParam String query,
+                                      @RequestParam(defaultValue = "5") int topK,
+                                      @RequestParam(required = false) SearchProfile profile,
+                                      @RequestParam(required = false) String kb) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            String knowledgeBase = KnowledgeBase.normalize(kb);
+            long start = System.nanoTime();
+            List<Document> documents = vectorStoreService.retrieveSimilarDocuments(query, topK, profile, knowledgeBase);
+            result.put("code", "200");
+            result.put("profile", profile == null ? "default" : profile.name());
+            result.put("knowledge_base", knowledgeBase == null ? "all" : knowledgeBase);
+            result.put("took_ms", (System.nanoTime() - start) / 1_000_000);
+            result.put("documents", documents.stream().map(document -> {
+                Map<String, Object> item = new HashMap<>();
+                item.put("id", document.getId());
+                item.put("score", document.getScore());
+                item.put("text", document.getText());
+                item.put("metadata", document.getMetadata());
+                return item;
+            }).toList());
+            return result;
+        } catch (Exception e) {
+            result.put("code", "500");
+            result.put("msg", e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * 量化召回率与内存报告（仅 app.vector.store.type=embedded）
+     * 请求示例：GET http://localhost:8080/api/vector/store/quantization-report?sample=200&k=10
+     */
+    @GetMapping("/quantization-report")
+    public Map<String, Object> quantizationReport(@RequestParam(defaultValue = "200") int sample,
+                                                  @RequestParam(defaultValue = "10") int k) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Optional<QuantizationReport> found = vectorStoreService.quantizationReport(sample, k);
+            if (found.isEmpty()) {
+                result.put("code", "400");
+                result.put("msg", "未启用进程内向量库（app.vector.store.type=embedded）");
+                return result;
+            }
+            QuantizationReport report = found.get();
+            result.put("code", "200");
+            result.put("quantization", report.quantization().name());
+            result.put("vectors", report.vectors());
+            result.put("dimensions", report.dimensions());
+            result.put("hot_bytes", report.hotBytes());
+            result.put("cold_bytes", report.coldBytes());
+            result.put("bytes_per_vector_float32", report.float32BytesPerVector());
+            result.put("bytes_per_vector_hot", Math.round(report.hotBytesPerVector()));
+            result.put("compression", Math.round(report.compression() * 100) / 100.0);
+            result.put("sample_queries", report.sampleQueries());
+            result.put("k", report.k());
+            result.put("recall_approximate", Math.round(report.recallApproximate() * 1000) / 1000.0);
+            result.put("recall_reranked", Math.round(report.recallReranked() * 1000) / 1000.0);
+            result.put("avg_search_us", Math.round(report.avgSearchMicros()));
+            return result;
+        } catch (Exception e) {
+            result.put("code", "500");
+            result.put("msg", "生成量化报告失败：" + e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * Redis 索引版本列表（当前版本、构建中、等待回收、失败）
+     * 请求示例：GET http://localhost:8080/api/vector/store/index
+     */
+    @GetMapping("/index")
+    public Map<String, Object> indexVersions() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Optional<List<RedisIndexVersion>> versions = vectorStoreService.indexVersions();
+            if (versions.isEmpty()) {
+                result.put("code", "400");
+                result.put("msg", "未使用 Redis 向量库（app.vector.store.type=redis）");
+                return result;
+            }
+            result.put("code", "200");
+            result.put("versions", versions.get().stream().map(this::toMap).toList());
+            return result;
+        } catch (Exception e) {
+            result.put("code", "500");
+            result.put("msg", "查询索引版本失败：" + e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * 查询分片向量库各分片的文档数，以及新增分片后是否还在迁移
+     * 请求示例：GET http://localhost:8080/api/vector/store/shards
+     */
+    @GetMapping("/shards")
+    public Map<String, Object> shardStats() {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Optional<Map<String, Object>> stats = vectorStoreService.shardStats();
+            if (stats.isEmpty()) {
+                result.put("code", "400");
+                result.put("msg", "未使用分片向量库（app.vector.store.type=sharded）");
+                return result;
+            }
+            result.put("code", "200");
+            result.putAll(stats.get());
+            return result;
+        } catch (Exception e) {
+            result.put("code", "500");
+            result.put("msg", "查询分片状态失败：" + e.getMessage());
+            return result;
+        }
+    }
+
+    /**
+     * 后台重建 Redis 索引，完成后原子切换，期间检索走旧索引
+     * reingest=false：只改索引结构（FLAT/HNSW、M、EF_CONSTRUCTION），复用已有文档；
+     * reingest=true：新前缀重新分片、向量化（分片策略或向量模型变化时）
+     * 请求示例：POST http://localhost:8080/api/vector/store/index/rebuild?algorithm=HNSW&m=16&efConstruction=200&reingest=false
+     */
+    @PostMapping("/index/rebuild")
+    public Map<String, Object> rebuildIndex(@RequestParam(defaultValue = "HNSW") String algorithm,
+                                            @RequestParam(defaultValue = "16") int m,
+                                            @RequestParam(defaultValue = "200") int efConstruction,
+                                            @RequestParam(defaultValue = "false") boolean reingest) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            Optional<RedisIndexVersion> version = vectorStoreService.rebuildIndex(algorithm, m, efConstruction, reingest);
+            if (version.isEmpty()) {
+                result.put("code", "400");
+                result.put("msg", "未使用 Redis 向量库（app.vector.store.type=redis）");
+                return result;
+            }
+            result.put("code", "200");
+            result.put("msg", "索引重建已提交，完成后自动切换");
+            result.putAll(toMap(version.get()));
+            return result;
+        } catch (Exception e) {
+            result.put("code", "500");
+            result.put("msg", e.getMessage());
+            return result;
+        }
+    }
+
+    private Map<String, Object> toMap(RedisIndexVersion version) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("version", version.version());
+        map.put("index_name", version.indexName());
+        map.put("prefix", version.prefix());
+        map.put("algorithm", version.algorithm());
+        map.put("m", version.m());
+        map.put("ef_construction", version.efConstruction());
+        map.put("dimensions", version.dimensions());
+        map.put("status", version.status().name());
+        map.put("message", version.message());
+        map.put("updated_at", version.updatedAt());
+        return map;
+    }
+}
@@ -5,4 +5,6 @@ import lombok.Data;
 @Data
 public class AgentChatRequest {
     private String msg;
+    /** RAG 检索限定的知识库（可选，为空时检索全部知识库） */
+    private String knowledgeBase;
 }
@@ -14,12 +14,16 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 public class ChatHistoryResponse {
-    /** 历史消息列表 */
+    /** 本页历史消息（时间正序） */
     private List<ChatMessageItem> messages;
     /** 会话 ID */
     private String conversationId;
     /** 智能体 ID */
     private String agentId;
+    /** 加载更早一页时作为 before 传入的游标，null 表示没有更早的消息 */
+    private Long nextCursor;
+    /** 是否还有更早的消息 */
+    private boolean hasMore;
 
     /**
      * 单条历史消息
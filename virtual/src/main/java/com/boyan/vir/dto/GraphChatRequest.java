@@ -10,4 +10,7 @@ public class GraphChatRequest {
 
     /** 用户输入内容 */
     private String userInput;
+
+    /** RAG 检索限定的知识库（可选，为空时检索全部知识库） */
+    private String knowledgeBase;
 }
@@ -0,0 +1,257 @@
+package com.boyan.vir.embedding;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.util.StringUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 带两级缓存的向量模型装饰器
+ *
+ *  - 缓存键：前缀 + 模型名 + 维度 + 归一化文本（NFKC、合并空白、去首尾空白）的 SHA-256
+ *  - L1：进程内 Caffeine，按向量字节数加权限制总大小，访问后过期
+ *  - L2：Redis，值为 float32 小端字节（1024 维约 4KB），写入时设置 TTL，多节点共享
+ *  - 两级都未命中的文本合并成一次远程调用（同批次重复文本只请求一次），结果回填两级缓存
+ *
+ * 入库（RedisVectorStore.add）与检索（similaritySearch 的查询向量）都经过 call，
+ * 重复上传同一文件、重复提问都不再调用远程向量接口
+ *
+ * 指标：cache.* {cache=embeddingL1}、embedding.cache.requests{tier,result}、embedding.remote.texts
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingModel delegate;
+    private final RedisTemplate<String, byte[]> l2;
+    private final String keyPrefix;
+    private final String defaultModel;
+    private final Duration l2Ttl;
+    private final Cache<String, float[]> l1;
+
+    /** 维度只取一次（部分实现需要调用一次远程接口才能得到） */
+    private volatile Integer dimensions;
+
+    private final Counter l1Hits;
+    private final Counter l1Misses;
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+    private final Counter remoteTexts;
+
+    public CachingEmbeddingModel(EmbeddingModel delegate,
+                                 RedisTemplate<String, byte[]> l2,
+                                 String keyPrefix,
+                                 String defaultModel,
+                                 long l1MaxBytes,
+                                 Duration l1ExpireAfterAccess,
+                                 Duration l2Ttl,
+                                 MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.l2 = l2;
+        this.keyPrefix = keyPrefix;
+        this.defaultModel = defaultModel;
+        this.l2Ttl = l2Ttl;
+
+        this.l1 = Caffeine.newBuilder()
+                .maximumWeight(l1MaxBytes)
+                .weigher((String key, float[] vector) -> 64 + key.length() * 2 + vector.length * Float.BYTES)
+                .expireAfterAccess(l1ExpireAfterAccess)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, l1, "embeddingL1");
+
+        this.l1Hits = Counter.builder("embedding.cache.requests").tag("tier", "l1").tag("result", "hit").register(meterRegistry);
+        this.l1Misses = Counter.builder("embedding.cache.requests").tag("tier", "l1").tag("result", "miss").register(meterRegistry);
+        this.l2Hits = Counter.builder("embedding.cache.requests").tag("tier", "l2").tag("result", "hit").register(meterRegistry);
+        this.l2Misses = Counter.builder("embedding.cache.requests").tag("tier", "l2").tag("result", "miss").register(meterRegistry);
+        this.remoteTexts = Counter.builder("embedding.remote.texts")
+                .description("两级缓存均未命中、实际请求远程向量接口的文本数")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> inputs = request.getInstructions();
+        EmbeddingOptions options = request.getOptions();
+        String prefix = keyPrefix + modelOf(options) + ":" + dimensionsOf(options) + ":";
+
+        String[] keys = new String[inputs.size()];
+        float[][] vectors = new float[inputs.size()][];
+
+        // 1. L1
+        List<Integer> l1MissIndexes = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            keys[i] = prefix + hash(inputs.get(i));
+            vectors[i] = l1.getIfPresent(keys[i]);
+            if (vectors[i] == null) {
+                l1MissIndexes.add(i);
+            }
+        }
+        l1Hits.increment(inputs.size() - l1MissIndexes.size());
+        l1Misses.increment(l1MissIndexes.size());
+
+        // 2. L2（一次 MGET）
+        List<Integer> l2MissIndexes = l1MissIndexes.isEmpty() ? l1MissIndexes : readL2(keys, vectors, l1MissIndexes);
+
+        // 3. 远程调用（同批次相同文本只请求一次）
+        if (!l2MissIndexes.isEmpty()) {
+            Map<String, String> missTexts = new LinkedHashMap<>();
+            for (int i : l2MissIndexes) {
+                missTexts.putIfAbsent(keys[i], inputs.get(i));
+            }
+            List<String> missKeys = new ArrayList<>(missTexts.keySet());
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(new ArrayList<>(missTexts.values()), options));
+            List<Embedding> results = response.getResults();
+            if (results.size() != missKeys.size()) {
+                throw new RuntimeException("向量模型返回数量不一致：请求 " + missKeys.size() + " 条，返回 " + results.size() + " 条");
+            }
+            remoteTexts.increment(missKeys.size());
+
+            Map<String, float[]> fetched = new LinkedHashMap<>();
+            for (int j = 0; j < results.size(); j++) {
+                Embedding embedding = results.get(j);
+                int index = embedding.getIndex() != null ? embedding.getIndex() : j;
+                fetched.put(missKeys.get(index), embedding.getOutput());
+            }
+            l1.putAll(fetched);
+            writeL2(fetched);
+            for (int i : l2MissIndexes) {
+                vectors[i] = fetched.get(keys[i]);
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    /**
+     * 与 DashScope 实现一致：按 EMBED 模式拼接元数据后向量化
+     */
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        Integer cached = dimensions;
+        if (cached == null) {
+            cached = delegate.dimensions();
+            dimensions = cached;
+        }
+        return cached;
+    }
+
+    // ===== 内部实现 =====
+
+    private List<Integer> readL2(String[] keys, float[][] vectors, List<Integer> indexes) {
+        List<String> l2Keys = new ArrayList<>(indexes.size());
+        for (int i : indexes) {
+            l2Keys.add(keys[i]);
+        }
+        List<byte[]> values;
+        try {
+            values = l2.opsForValue().multiGet(l2Keys);
+        } catch (Exception e) {
+            // L2 不可用时降级为直接调用远程接口
+            log.warn("读取 Redis 向量缓存失败：{}", e.getMessage());
+            values = null;
+        }
+        List<Integer> misses = new ArrayList<>();
+        for (int j = 0; j < indexes.size(); j++) {
+            int i = indexes.get(j);
+            byte[] bytes = values != null ? values.get(j) : null;
+            if (bytes != null && bytes.length > 0 && bytes.length % Float.BYTES == 0) {
+                vectors[i] = fromBytes(bytes);
+                l1.put(keys[i], vectors[i]);
+            } else {
+                misses.add(i);
+            }
+        }
+        l2Hits.increment(indexes.size() - misses.size());
+        l2Misses.increment(misses.size());
+        return misses;
+    }
+
+    private void writeL2(Map<String, float[]> vectors) {
+        Expiration expiration = Expiration.from(l2Ttl);
+        try {
+            l2.executePipelined((RedisCallback<Object>) connection -> {
+                for (Map.Entry<String, float[]> entry : vectors.entrySet()) {
+                    connection.stringCommands().set(entry.getKey().getBytes(StandardCharsets.UTF_8),
+                            toBytes(entry.getValue()), expiration, RedisStringCommands.SetOption.upsert());
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("写入 Redis 向量缓存失败（{} 条）：{}", vectors.size(), e.getMessage());
+        }
+    }
+
+    private String modelOf(EmbeddingOptions options) {
+        String model = options != null ? options.getModel() : null;
+        return StringUtils.hasText(model) ? model : defaultModel;
+    }
+
+    private int dimensionsOf(EmbeddingOptions options) {
+        Integer requested = options != null ? options.getDimensions() : null;
+        return requested != null ? requested : dimensions();
+    }
+
+    /**
+     * 归一化后取 SHA-256：全角/半角、连续空白、首尾空白的差异不影响命中
+     */
+    static String hash(String text) {
+        String normalized = text == null ? "" : WHITESPACE.matcher(Normalizer.normalize(text, Normalizer.Form.NFKC)).replaceAll(" ").strip();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JVM 不支持 SHA-256", e);
+        }
+    }
+
+    static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    static float[] fromBytes(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -9,12 +9,13 @@ import com.alibaba.cloud.ai.graph.checkpoint.config.SaverConfig;
 import com.alibaba.cloud.ai.graph.checkpoint.savers.mysql.MysqlSaver;
 import com.alibaba.cloud.ai.graph.state.strategy.AppendStrategy;
 import com.alibaba.cloud.ai.graph.state.strategy.ReplaceStrategy;
+import com.boyan.vir.answer.SemanticAnswerCache;
 import com.boyan.vir.graph.edge.IntentRouterEdge;
 import com.boyan.vir.graph.node.*;
+import com.boyan.vir.vectorstore.ProfiledVectorStore;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.tool.ToolCallback;
-import org.springframework.ai.vectorstore.redis.RedisVectorStore;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -43,10 +44,12 @@ public class VirtualGraphWorkflow {
     @Bean("virtualCompiledGraph")
     public CompiledGraph virtualCompiledGraph(
             @Qualifier("qwen") ChatModel qwen,
-            @Qualifier("redisVectorStore") RedisVectorStore vectorStore,
+            @Qualifier("memoizingQwen") ChatModel memoizingQwen,
+            @Qualifier("ragVectorStore") ProfiledVectorStore vectorStore,
             @Qualifier("weatherTool") ToolCallback weatherTool,
             @Qualifier("emailTool") ToolCallback emailTool,
             @Qualifier("dateTimeTool") ToolCallback dateTimeTool,
+            @Qualifier("semanticAnswerCache") SemanticAnswerCache answerCache,
             DataSource dataSource
     ) throws Exception {
 
@@ -58,6 +61,7 @@ public class VirtualGraphWorkflow {
             map.put("messages", new AppendStrategy());   // 对话消息列表：追加
             map.put("docs",     new AppendStrategy());   // RAG 检索到的文档：追加
             map.put("userInput",    new ReplaceStrategy()); // 用户输入：覆盖
+            map.put("knowledgeBase", new ReplaceStrategy()); // 检索限定的知识库（空串为全部）：覆盖
             map.put("intent",       new ReplaceStrategy()); // 意图分类：覆盖
             map.put("answer",       new ReplaceStrategy()); // 节点中间回答：覆盖
             map.put("finalAnswer",  new ReplaceStrategy()); // 最终回答：覆盖
@@ -67,10 +71,10 @@ public class VirtualGraphWorkflow {
         // ─────────────────────────────────────────────────────────────
         // 2. 实例化所有节点
         // ─────────────────────────────────────────────────────────────
-        IntentRouterNode intentRouter   = new IntentRouterNode(qwen);
+        IntentRouterNode intentRouter   = new IntentRouterNode(memoizingQwen);
         RagRetrieverNode ragRetriever   = new RagRetrieverNode(vectorStore);
-        RagAnswerNode    ragAnswer      = new RagAnswerNode(qwen);
-        ChatNode         chatNode       = new ChatNode(qwen);
+        RagAnswerNode    ragAnswer      = new RagAnswerNode(qwen, answerCache);
+        ChatNode         chatNode       = new ChatNode(qwen, answerCache);
         ToolNode         toolNode       = new ToolNode(qwen, List.of(weatherTool, emailTool, dateTimeTool));
         SynthesizerNode  synthesizer    = new SynthesizerNode();
         IntentRouterEdge intentEdge     = new IntentRouterEdge();
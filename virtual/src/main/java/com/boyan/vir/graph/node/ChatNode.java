@@ -2,6 +2,7 @@ package com.boyan.vir.graph.node;
 
 import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.action.AsyncNodeAction;
+import com.boyan.vir.answer.SemanticAnswerCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.messages.SystemMessage;
@@ -14,18 +15,22 @@ import java.util.concurrent.CompletableFuture;
 
 /**
  * 普通聊天节点
- * 处理简单对话，不使用 RAG 也不调用工具
+ * 处理简单对话，不使用 RAG 也不调用工具；相近的问题直接复用语义回答缓存中的回答
  */
 @Slf4j
 public class ChatNode implements AsyncNodeAction {
 
     private final ChatModel chatModel;
+    private final SemanticAnswerCache answerCache;
+
+    private static final SemanticAnswerCache.Scope CACHE_SCOPE = SemanticAnswerCache.Scope.chat("graph-chat");
 
     private static final String SYSTEM_PROMPT =
             "你是一个友好、可爱的二次元 AI 助手，擅长轻松愉快的日常对话。";
 
-    public ChatNode(ChatModel chatModel) {
+    public ChatNode(ChatModel chatModel, SemanticAnswerCache answerCache) {
         this.chatModel = chatModel;
+        this.answerCache = answerCache;
     }
 
     @Override
@@ -36,10 +41,10 @@ public class ChatNode implements AsyncNodeAction {
 
             String answer;
             try {
-                answer = chatModel.call(new Prompt(List.of(
+                answer = answerCache.getOrCompute(CACHE_SCOPE, userInput, () -> chatModel.call(new Prompt(List.of(
                         new SystemMessage(SYSTEM_PROMPT),
                         new UserMessage(userInput)
-                ))).getResult().getOutput().getText();
+                ))).getResult().getOutput().getText());
             } catch (Exception e) {
                 log.error("[ChatNode] LLM 调用失败: {}", e.getMessage(), e);
                 answer = "抱歉，我暂时无法回应，请稍后再试。";
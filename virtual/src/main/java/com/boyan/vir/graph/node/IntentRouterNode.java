@@ -4,6 +4,7 @@ import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.action.AsyncNodeAction;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.messages.SystemMessage;
@@ -15,6 +16,7 @@ import java.util.concurrent.CompletableFuture;
 /**
  * 意图路由节点
  * 调用 LLM 分析用户输入，决定路由方向：rag / chat / tool
+ * 分类调用使用 temperature=0（结果确定），相同输入由 MemoizingChatModel 直接返回之前的分类结果
  */
 @Slf4j
 public class IntentRouterNode implements AsyncNodeAction {
@@ -30,6 +32,11 @@ public class IntentRouterNode implements AsyncNodeAction {
             只输出 rag / tool / chat 三个词之一，不要带任何标点或解释。
             """;
 
+    /** 确定性分类：temperature=0，同一输入得到同一标签，可按提示记忆 */
+    private static final ChatOptions OPTIONS = ChatOptions.builder()
+            .temperature(0.0)
+            .build();
+
     public IntentRouterNode(ChatModel chatModel) {
         this.chatModel = chatModel;
     }
@@ -45,7 +52,7 @@ public class IntentRouterNode implements AsyncNodeAction {
                 String raw = chatModel.call(new Prompt(List.of(
                         new SystemMessage(SYSTEM_PROMPT),
                         new UserMessage(userInput)
-                ))).getResult().getOutput().getText().strip().toLowerCase();
+                ), OPTIONS)).getResult().getOutput().getText().strip().toLowerCase();
 
                 // 保证只返回合法值
                 if (raw.contains("rag")) {
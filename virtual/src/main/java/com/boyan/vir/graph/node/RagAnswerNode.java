@@ -2,6 +2,8 @@ package com.boyan.vir.graph.node;
 
 import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.action.AsyncNodeAction;
+import com.boyan.vir.answer.SemanticAnswerCache;
+import com.boyan.vir.vectorstore.KnowledgeBase;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.messages.SystemMessage;
@@ -15,14 +17,17 @@ import java.util.concurrent.CompletableFuture;
 /**
  * RAG 回答节点
  * 根据 RagRetrieverNode 取回的文档上下文 + 用户问题生成回答
+ * 同一知识库内相近的问题复用语义回答缓存中的回答（知识库入库后失效）
  */
 @Slf4j
 public class RagAnswerNode implements AsyncNodeAction {
 
     private final ChatModel chatModel;
+    private final SemanticAnswerCache answerCache;
 
-    public RagAnswerNode(ChatModel chatModel) {
+    public RagAnswerNode(ChatModel chatModel, SemanticAnswerCache answerCache) {
         this.chatModel = chatModel;
+        this.answerCache = answerCache;
     }
 
     @Override
@@ -31,6 +36,7 @@ public class RagAnswerNode implements AsyncNodeAction {
         return CompletableFuture.supplyAsync(() -> {
             String userInput = (String) state.value("userInput").orElse("");
             List<String> docs = (List<String>) state.value("docs").orElse(List.of());
+            String knowledgeBase = KnowledgeBase.normalize((String) state.value("knowledgeBase").orElse(KnowledgeBase.ALL));
 
             String context = docs.isEmpty()
                     ? "（知识库中未找到相关内容）"
@@ -48,10 +54,11 @@ public class RagAnswerNode implements AsyncNodeAction {
 
             String answer;
             try {
-                answer = chatModel.call(new Prompt(List.of(
-                        new SystemMessage(systemPrompt),
-                        new UserMessage(userInput)
-                ))).getResult().getOutput().getText();
+                answer = answerCache.getOrCompute(SemanticAnswerCache.Scope.knowledge("graph-rag", knowledgeBase), userInput,
+                        () -> chatModel.call(new Prompt(List.of(
+                                new SystemMessage(systemPrompt),
+                                new UserMessage(userInput)
+                        ))).getResult().getOutput().getText());
             } catch (Exception e) {
                 log.error("[RagAnswerNode] LLM 调用失败: {}", e.getMessage(), e);
                 answer = "抱歉，回答生成失败，请稍后重试。";
@@ -2,10 +2,12 @@ package com.boyan.vir.graph.node;
 
 import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.action.AsyncNodeAction;
+import com.boyan.vir.vectorstore.KnowledgeBase;
+import com.boyan.vir.vectorstore.ProfiledVectorStore;
+import com.boyan.vir.vectorstore.SearchProfile;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.redis.RedisVectorStore;
 
 import java.util.List;
 import java.util.Map;
@@ -14,17 +16,18 @@ import java.util.stream.Collectors;
 
 /**
  * RAG 检索节点
- * 从 Redis VectorStore 检索与用户问题最相关的文档片段
+ * 从向量库（ragVectorStore）检索与用户问题最相关的文档片段，交互式对话使用 FAST 检索档位
+ * 状态中有 knowledgeBase 时只在该知识库中检索（过滤条件下推到向量库）
  */
 @Slf4j
 public class RagRetrieverNode implements AsyncNodeAction {
 
-    private final RedisVectorStore vectorStore;
+    private final ProfiledVectorStore vectorStore;
 
     /** 默认返回 top-3 相似文档 */
     private static final int TOP_K = 3;
 
-    public RagRetrieverNode(RedisVectorStore vectorStore) {
+    public RagRetrieverNode(ProfiledVectorStore vectorStore) {
         this.vectorStore = vectorStore;
     }
 
@@ -32,17 +35,19 @@ public class RagRetrieverNode implements AsyncNodeAction {
     public CompletableFuture<Map<String, Object>> apply(OverAllState state) {
         return CompletableFuture.supplyAsync(() -> {
             String userInput = (String) state.value("userInput").orElse("");
-            log.debug("[RagRetrieverNode] 检索文档，查询: {}", userInput);
+            String knowledgeBase = KnowledgeBase.normalize((String) state.value("knowledgeBase").orElse(KnowledgeBase.ALL));
+            log.debug("[RagRetrieverNode] 检索文档，知识库: {}，查询: {}", knowledgeBase, userInput);
 
             List<String> docContents;
             try {
-                List<Document> docs = vectorStore.similaritySearch(
-                        SearchRequest.builder()
-                                .query(userInput)
-                                .topK(TOP_K)
-                                .similarityThreshold(0.5)
-                                .build()
-                );
+                SearchRequest.Builder request = SearchRequest.builder()
+                        .query(userInput)
+                        .topK(TOP_K)
+                        .similarityThreshold(0.5);
+                if (knowledgeBase != null) {
+                    request.filterExpression(KnowledgeBase.filter(knowledgeBase));
+                }
+                List<Document> docs = vectorStore.similaritySearch(request.build(), SearchProfile.FAST);
                 docContents = docs.stream()
                         .map(Document::getText)
                         .collect(Collectors.toList());
@@ -7,25 +7,39 @@ import com.alibaba.cloud.ai.graph.agent.hook.HookPositions;
 import com.alibaba.cloud.ai.graph.agent.hook.messages.AgentCommand;
 import com.alibaba.cloud.ai.graph.agent.hook.messages.MessagesModelHook;
 import com.alibaba.cloud.ai.graph.agent.hook.messages.UpdatePolicy;
+import com.boyan.vir.vectorstore.KnowledgeBase;
+import com.boyan.vir.vectorstore.ProfiledVectorStore;
+import com.boyan.vir.vectorstore.SearchProfile;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.SearchRequest;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 // 创建 RAG Hook：在模型调用前检索文档并添加到消息中
+// ReAct 循环每次调用模型前都会触发：注入的上下文带有 rag_question 标记，同一问题只检索一次、只注入一条上下文
+// RunnableConfig 元数据 knowledge_base 指定时只在该知识库中检索（过滤条件下推到向量库）
+@Slf4j
 @HookPositions({HookPosition.BEFORE_MODEL})
 public class RAGMessagesHook extends MessagesModelHook {
 
-    private final VectorStore vectorStore;
+    /** 注入的上下文消息标记（metadata），值为对应的用户问题 */
+    private static final String RAG_QUESTION_KEY = "rag_question";
+
+    /** RunnableConfig 元数据：检索限定的知识库 */
+    public static final String KNOWLEDGE_BASE_KEY = "knowledge_base";
+
+    private final ProfiledVectorStore vectorStore;
 
     private static final int TOP_K = 5;
 
-    public RAGMessagesHook(VectorStore vectorStore) {
+    public RAGMessagesHook(ProfiledVectorStore vectorStore) {
         this.vectorStore = vectorStore;
     }
 
@@ -42,22 +56,21 @@ public class RAGMessagesHook extends MessagesModelHook {
             return new AgentCommand(previousMessages);
         }
 
-        // Step 1: 检索相关文档
-        List<Document> relevantDocs = vectorStore.similaritySearch(
-                org.springframework.ai.vectorstore.SearchRequest.builder()
-                        .query(userQuestion)
-                        .topK(TOP_K)
-                        .build()
-        );
-
+        // 本轮问题的上下文已在消息中（上一次 ReAct 迭代注入），不再检索和注入
+        for (Message message : previousMessages) {
+            if (message instanceof SystemMessage && userQuestion.equals(message.getMetadata().get(RAG_QUESTION_KEY))) {
+                return new AgentCommand(previousMessages);
+            }
+        }
 
-        // Step 2: 构建上下文
-        String context = relevantDocs.stream()
-                .map(Document::getText)
-                .collect(Collectors.joining(" "));
+        // Step 1: 检索相关文档
+        String knowledgeBase = config != null
+                ? config.metadata(KNOWLEDGE_BASE_KEY).map(Object::toString).orElse(null)
+                : null;
+        String context = retrieveContext(userQuestion, knowledgeBase);
 
 
-        // Step 3: 构建增强的消息列表
+        // Step 2: 构建增强的消息列表
         List<Message> enhancedMessages = new ArrayList<>();
 
         // 添加系统提示（包含检索到的上下文）
@@ -68,16 +81,37 @@ public class RAGMessagesHook extends MessagesModelHook {
           上下文：
           %s
           """, context);
-        enhancedMessages.add(new SystemMessage(systemPrompt));
-
-        // 保留原有的消息
-        enhancedMessages.addAll(previousMessages);
+        enhancedMessages.add(SystemMessage.builder()
+                .text(systemPrompt)
+                .metadata(Map.of(RAG_QUESTION_KEY, userQuestion))
+                .build());
+
+        // 保留原有的消息（去掉之前问题注入的旧上下文，避免逐轮累积）
+        for (Message message : previousMessages) {
+            if (!(message instanceof SystemMessage && message.getMetadata().containsKey(RAG_QUESTION_KEY))) {
+                enhancedMessages.add(message);
+            }
+        }
 
         // 使用 REPLACE 策略替换消息
         return new AgentCommand(enhancedMessages, UpdatePolicy.REPLACE);
 
     }
 
+    private String retrieveContext(String userQuestion, String knowledgeBase) {
+        SearchRequest.Builder request = SearchRequest.builder()
+                .query(userQuestion)
+                .topK(TOP_K);
+        if (!KnowledgeBase.isAll(knowledgeBase)) {
+            request.filterExpression(KnowledgeBase.filter(knowledgeBase));
+        }
+        List<Document> relevantDocs = vectorStore.similaritySearch(request.build(), SearchProfile.BALANCED);
+        log.debug("RAG 检索到 {} 条文档", relevantDocs.size());
+        return relevantDocs.stream()
+                .map(Document::getText)
+                .collect(Collectors.joining(" "));
+    }
+
     private String extractUserQuestion(List<Message> messages) {
         // 从消息列表中提取最后一个用户消息
         for (int i = messages.size() - 1; i >= 0; i--) {
@@ -0,0 +1,513 @@
+package com.boyan.vir.ingest;
+
+import com.boyan.vir.util.TxtFileProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.DisposableBean;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * 增量入库：按分片内容哈希（分片 ID）与 Redis 中的文件清单比对
+ *
+ *  - 清单：每个文件一个 Redis Set（virtual:rag:manifest:{路径哈希}），保存该文件当前全部分片 ID；
+ *    Redis 索引切换版本后清单前缀随版本变化（见 IngestTarget），每个任务开始时确定写入目标
+ *  - 入库时分片边读边与清单比对（SMISMEMBER），只有新增 / 变更的分片进入向量化流水线；
+ *    未变的分片只更新 chunk_index（位置可能因前面的修改而移动）
+ *  - 本次分片 ID 先写入本任务独有的临时 Set，任务成功后用 SDIFFSTORE 找出已不存在的分片并删除，再替换清单
+ *  - 任务失败时清单保持不变，已写入的新分片在下次入库时按相同 ID 覆盖
+ *  - 文件登记：每个清单前缀下一个 Redis Hash（{清单前缀}files，文件标识 → 文件路径），
+ *    记录当前有分片的文件，目录监听重新扫描时据此找出已删除的文件
+ *
+ * 并发控制（上传、导入、目录监听、其他节点的任务队列消费者可能同时处理同一文件）：
+ *  - 每个文件一把 Redis 锁（清单键 + ":lock"，SET NX PX，处理期间定时续期），本节点的其他线程与其他节点都按文件互斥，
+ *    不同文件的任务互不阻塞；
+ *    等待超时则该文件失败（任务队列会重试，多文件任务跳过该文件）；提交清单前确认锁仍由本任务持有，否则放弃提交
+ *  - 入库 / 删除持有 JVM 读写锁的读锁（彼此不互斥），exclusive 持有写锁，只在索引切换时短暂挡住本节点的入库
+ *
+ * 有分片新增 / 变更 / 删除时通知 onChange 注册的监听（如让依赖知识库的缓存回答失效）
+ *
+ * 注意：引入内容哈希 ID 之前入库的文档（随机 ID）不在清单中，不会被自动清理
+ */
+@Slf4j
+public class IncrementalIngestor implements DisposableBean {
+
+    /** 每次与清单比对的分片数 */
+    private static final int LOOKUP_BATCH = 100;
+    private static final int DELETE_BATCH = 500;
+    private static final Duration FILE_LOCK_TTL = Duration.ofSeconds(30);
+    private static final Duration FILE_LOCK_WAIT = Duration.ofMinutes(2);
+    private static final long FILE_LOCK_POLL_MS = 200;
+    /** 临时 Set 的过期时间：节点宕机时遗留的临时 Set 自动清理，提交时 PERSIST */
+    private static final long STAGING_TTL_SECONDS = Duration.ofDays(1).toSeconds();
+    /** 文件登记 Hash 在清单前缀下的键名 */
+    private static final String FILES_SUFFIX = "files";
+    private static final String RENEW_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) else return 0 end";
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end";
+
+    private final IngestionPipeline pipeline;
+    private final TxtFileProcessor txtFileProcessor;
+    /** 清单所在的 Redis */
+    private final JedisPooled jedis;
+    /** 当前生效的写入目标（分片存储位置与清单前缀） */
+    private final Supplier<IngestTarget> target;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+    /** 本节点持有的文件锁：锁键 → token，由 heartbeat 定时续期 */
+    private final Map<String, String> heldLocks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ingest-file-lock");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public IncrementalIngestor(IngestionPipeline pipeline, TxtFileProcessor txtFileProcessor,
+                               JedisPooled jedis, VectorSink sink) {
+        this(pipeline, txtFileProcessor, jedis, () -> new IngestTarget(sink, IngestTarget.DEFAULT_MANIFEST_PREFIX));
+    }
+
+    public IncrementalIngestor(IngestionPipeline pipeline, TxtFileProcessor txtFileProcessor,
+                               JedisPooled jedis, Supplier<IngestTarget> target) {
+        this.pipeline = pipeline;
+        this.txtFileProcessor = txtFileProcessor;
+        this.jedis = jedis;
+        this.target = target;
+        long period = FILE_LOCK_TTL.toMillis() / 3;
+        heartbeat.scheduleAtFixedRate(this::renewLocks, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 增量入库单个文件
+     */
+    public IngestionReport ingestFile(String filePath) {
+        return ingestFile(filePath, IngestionProgress.NONE);
+    }
+
+    /**
+     * 增量入库单个文件，回调分片总数与处理进度（未变的分片在比对后即计入进度）
+     */
+    public IngestionReport ingestFile(String filePath, IngestionProgress progress) {
+        return ingest(filePath, List.of(filePath), false, progress, target.get());
+    }
+
+    /**
+     * 多个文件合并为一个入库任务（共享同一条并行流水线），单个文件读取失败时跳过
+     */
+    public IngestionReport ingestFiles(String jobName, List<String> filePaths) {
+        return ingest(jobName, filePaths, true, IngestionProgress.NONE, target.get());
+    }
+
+    /**
+     * 多个文件增量入库到指定目标（索引重建时写入新版本），单个文件读取失败时跳过
+     */
+    public IngestionReport ingestFiles(String jobName, List<String> filePaths, IngestTarget into) {
+        return ingest(jobName, filePaths, true, IngestionProgress.NONE, into);
+    }
+
+    /**
+     * 注册知识库内容变化的监听（入库提交或删除文件后、在文件锁内调用，监听中不要执行耗时操作）
+     */
+    public void onChange(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * 独占执行（索引切换前的最后一轮追平与切换之间，本节点不会有其他入库；action 内可以调用入库 / 删除）
+     */
+    public <T> T exclusive(Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 当前写入目标中有分片的文件（文件标识 → 入库时的文件路径）
+     *
+     * 注意：引入文件登记之前入库的文件不在其中，重建一次索引后补齐
+     */
+    public Map<String, String> ingestedFiles() {
+        return jedis.hgetAll(target.get().manifestPrefix() + FILES_SUFFIX);
+    }
+
+    @Override
+    public void destroy() {
+        heartbeat.shutdownNow();
+    }
+
+    private IngestionReport ingest(String jobName, List<String> filePaths, boolean skipUnreadable,
+                                   IngestionProgress progress, IngestTarget into) {
+        FileChunks chunks = new FileChunks(filePaths.iterator(), skipUnreadable, progress, into);
+        lock.readLock().lock();
+        try {
+            IngestionReport report;
+            try {
+                report = pipeline.ingest(jobName, chunks, progress, into.sink());
+            } catch (RuntimeException e) {
+                for (ChangedChunks file : chunks.opened) {
+                    jedis.del(file.staging);
+                }
+                throw e;
+            }
+            boolean changed = false;
+            for (ChangedChunks file : chunks.opened) {
+                if (!holdsLock(file.lockKey, file.token)) {
+                    // 续期失败（如长时间 GC 或 Redis 抖动），锁可能已被其他节点取得，不能再改清单
+                    log.error("文件锁已失效，放弃提交清单：{}（新分片已写入，下次入库时补齐清单）", file.filePath);
+                    jedis.del(file.staging);
+                    continue;
+                }
+                long removed = commit(file, into.sink());
+                log.info("增量入库：{}，新增/变更 {} 个分片，未变 {} 个，删除 {} 个",
+                        file.filePath, file.changed, file.unchanged, removed);
+                changed |= file.changed > 0 || removed > 0;
+            }
+            if (changed) {
+                fireChange();
+            }
+            return report;
+        } finally {
+            for (ChangedChunks file : chunks.opened) {
+                releaseLock(file.lockKey, file.token);
+            }
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 文件已删除：删除其全部分片与清单
+     *
+     * @return 删除的分片数
+     */
+    public long removeFile(String filePath) {
+        return removeFile(filePath, target.get());
+    }
+
+    /**
+     * 从指定目标删除文件的全部分片与清单
+     */
+    public long removeFile(String filePath, IngestTarget from) {
+        String manifest = manifestKey(from.manifestPrefix(), filePath);
+        String lockKey = manifest + ":lock";
+        String token = null;
+        lock.readLock().lock();
+        try {
+            token = acquireLock(lockKey, filePath);
+            long removed = deleteMembers(manifest, from.sink());
+            jedis.del(manifest);
+            jedis.hdel(from.manifestPrefix() + FILES_SUFFIX, txtFileProcessor.fileIdentity(filePath));
+            log.info("文件已移除：{}，删除 {} 个分片", filePath, removed);
+            if (removed > 0) {
+                fireChange();
+            }
+            return removed;
+        } finally {
+            if (token != null) {
+                releaseLock(lockKey, token);
+            }
+            lock.readLock().unlock();
+        }
+    }
+
+    // ===== 内部实现 =====
+
+    private void fireChange() {
+        for (Runnable listener : changeListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                log.warn("知识库变化监听执行失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 删除已不存在的分片，并用本次的分片 ID 替换清单
+     */
+    private long commit(ChangedChunks file, VectorSink sink) {
+        String removedKey = file.staging + ":removed";
+        long removed = 0;
+        if (jedis.sdiffstore(removedKey, file.manifest, file.staging) > 0) {
+            removed = deleteMembers(removedKey, sink);
+        }
+        jedis.del(removedKey);
+        if (file.changed + file.unchanged > 0) {
+            jedis.rename(file.staging, file.manifest);
+            jedis.persist(file.manifest);
+            jedis.hset(file.filesKey, file.identity, file.filePath);
+        } else {
+            jedis.del(file.staging, file.manifest);
+            jedis.hdel(file.filesKey, file.identity);
+        }
+        return removed;
+    }
+
+    /**
+     * 取得文件的 Redis 锁（等待其他节点上的同一文件处理完成），返回本次持有的 token
+     */
+    private String acquireLock(String lockKey, String filePath) {
+        String token = UUID.randomUUID().toString();
+        long deadline = System.nanoTime() + FILE_LOCK_WAIT.toNanos();
+        while (!"OK".equals(jedis.set(lockKey, token, SetParams.setParams().nx().px(FILE_LOCK_TTL.toMillis())))) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("文件正在其他任务中处理，等待超时：" + filePath);
+            }
+            try {
+                Thread.sleep(FILE_LOCK_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待文件锁被中断：" + filePath, e);
+            }
+        }
+        heldLocks.put(lockKey, token);
+        return token;
+    }
+
+    private void releaseLock(String lockKey, String token) {
+        heldLocks.remove(lockKey, token);
+        try {
+            jedis.eval(RELEASE_SCRIPT, List.of(lockKey), List.of(token));
+        } catch (Exception e) {
+            // 释放失败时锁会在 TTL 后自动过期
+            log.warn("释放文件锁失败：{}，{}", lockKey, e.getMessage());
+        }
+    }
+
+    /**
+     * 续期本节点持有的全部文件锁；续期返回 0 说明锁已过期或被他人取得，从持有列表中移除
+     */
+    private void renewLocks() {
+        heldLocks.forEach((lockKey, token) -> {
+            try {
+                Object renewed = jedis.eval(RENEW_SCRIPT, List.of(lockKey), List.of(token, String.valueOf(FILE_LOCK_TTL.toMillis())));
+                if (!Long.valueOf(1L).equals(renewed)) {
+                    heldLocks.remove(lockKey, token);
+                    log.warn("文件锁已丢失：{}", lockKey);
+                }
+            } catch (Exception e) {
+                log.warn("续期文件锁失败：{}，{}", lockKey, e.getMessage());
+            }
+        });
+    }
+
+    private boolean holdsLock(String lockKey, String token) {
+        return token.equals(heldLocks.get(lockKey)) && token.equals(jedis.get(lockKey));
+    }
+
+    /**
+     * 按批次 SSCAN 集合并删除对应的分片
+     */
+    private long deleteMembers(String setKey, VectorSink sink) {
+        long deleted = 0;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams params = new ScanParams().count(DELETE_BATCH);
+        do {
+            ScanResult<String> result = jedis.sscan(setKey, cursor, params);
+            List<String> ids = result.getResult();
+            if (!ids.isEmpty()) {
+                deleted += sink.delete(ids);
+            }
+            cursor = result.getCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        return deleted;
+    }
+
+    private String manifestKey(String manifestPrefix, String filePath) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(txtFileProcessor.fileIdentity(filePath).getBytes(StandardCharsets.UTF_8));
+            return manifestPrefix + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JVM 不支持 SHA-256", e);
+        }
+    }
+
+    /**
+     * 依次串联多个文件的分片，每个文件只输出新增 / 变更的分片
+     */
+    private final class FileChunks implements Iterator<Document>, Closeable {
+
+        private final Iterator<String> files;
+        private final boolean skipUnreadable;
+        private final IngestionProgress progress;
+        private final IngestTarget into;
+        /** 已开始读取的文件，任务结束后逐个提交清单 */
+        private final List<ChangedChunks> opened = new ArrayList<>();
+        private Iterator<Document> current = Collections.emptyIterator();
+
+        FileChunks(Iterator<String> files, boolean skipUnreadable, IngestionProgress progress, IngestTarget into) {
+            this.files = files;
+            this.skipUnreadable = skipUnreadable;
+            this.progress = progress;
+            this.into = into;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && files.hasNext()) {
+                String filePath = files.next();
+                String lockKey = manifestKey(into.manifestPrefix(), filePath) + ":lock";
+                String token = null;
+                try {
+                    token = acquireLock(lockKey, filePath);
+                    ChangedChunks file = new ChangedChunks(filePath, token, txtFileProcessor.streamTxtFile(filePath), progress, into);
+                    opened.add(file);
+                    current = file;
+                } catch (RuntimeException e) {
+                    if (token != null) {
+                        releaseLock(lockKey, token);
+                    }
+                    if (!skipUnreadable) {
+                        throw e;
+                    }
+                    log.error("单个 TXT文件读取失败，跳过继续处理下一个：{}", filePath, e);
+                }
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            for (ChangedChunks file : opened) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * 单个文件的分片：按批与清单比对，未变的分片只更新位置信息
+     */
+    private final class ChangedChunks implements Iterator<Document>, Closeable {
+
+        private final String filePath;
+        private final String identity;
+        private final Iterator<Document> source;
+        private final String manifest;
+        private final String filesKey;
+        private final String staging;
+        private final String lockKey;
+        /** 本任务持有的文件锁 token，同时区分各任务的临时 Set */
+        private final String token;
+        private final IngestionProgress progress;
+        private final VectorSink sink;
+        private final Deque<Document> ready = new ArrayDeque<>();
+        private int changed;
+        private int unchanged;
+        private boolean totalReported;
+
+        ChangedChunks(String filePath, String token, Iterator<Document> source, IngestionProgress progress, IngestTarget into) {
+            this.filePath = filePath;
+            this.identity = txtFileProcessor.fileIdentity(filePath);
+            this.token = token;
+            this.source = source;
+            this.progress = progress;
+            this.sink = into.sink();
+            this.manifest = manifestKey(into.manifestPrefix(), filePath);
+            this.filesKey = into.manifestPrefix() + FILES_SUFFIX;
+            this.lockKey = manifest + ":lock";
+            this.staging = manifest + ":staging:" + token;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (ready.isEmpty() && source.hasNext()) {
+                loadBatch();
+            }
+            if (ready.isEmpty() && !totalReported) {
+                // 分片边读边生成，读完文件才知道总数
+                totalReported = true;
+                progress.onTotal(changed + unchanged);
+            }
+            return !ready.isEmpty();
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return ready.poll();
+        }
+
+        @Override
+        public void close() {
+            if (source instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    log.warn("关闭 TXT 文件失败：{}，{}", filePath, e.getMessage());
+                }
+            }
+        }
+
+        private void loadBatch() {
+            List<Document> batch = new ArrayList<>(LOOKUP_BATCH);
+            while (batch.size() < LOOKUP_BATCH && source.hasNext()) {
+                batch.add(source.next());
+            }
+            String[] ids = batch.stream().map(Document::getId).toArray(String[]::new);
+            Response<List<Boolean>> existing;
+            try (Pipeline p = jedis.pipelined()) {
+                p.sadd(staging, ids);
+                p.expire(staging, STAGING_TTL_SECONDS);
+                existing = p.smismember(manifest, ids);
+                p.sync();
+            }
+
+            List<Document> kept = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                if (Boolean.TRUE.equals(existing.get().get(i))) {
+                    kept.add(batch.get(i));
+                } else {
+                    ready.add(batch.get(i));
+                }
+            }
+            changed += batch.size() - kept.size();
+            unchanged += kept.size();
+            if (!kept.isEmpty()) {
+                // 未变的分片不重新向量化，只更新其在文件中的位置
+                sink.updatePositions(kept);
+                progress.onProcessed(kept.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.boyan.vir.ingest;
+
+import java.util.Map;
+
+/**
+ * 异步入库任务的状态快照（保存在 Redis Hash 中，任意节点都可查询）
+ *
+ * @param id              任务 ID
+ * @param filePath        待入库的文件路径（集群部署时需为各节点共享的存储）
+ * @param status          任务状态
+ * @param totalChunks     文件分片总数，读完文件后写入，此前为 0（进度看 processedChunks）
+ * @param processedChunks 本次尝试已处理的分片数（已写入 + 未变跳过）
+ * @param writtenChunks   最近一次成功时实际向量化写入的分片数
+ * @param attempts        已尝试次数
+ * @param error           最近一次失败原因
+ * @param createdAt       提交时间（毫秒）
+ * @param updatedAt       最后更新时间（毫秒）
+ */
+public record IngestJob(String id, String filePath, Status status, int totalChunks, int processedChunks,
+                        int writtenChunks, int attempts, String error, long createdAt, long updatedAt) {
+
+    public enum Status {
+        /** 已提交，等待某个节点领取（失败重试时也回到此状态） */
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    static IngestJob fromHash(String id, Map<String, String> hash) {
+        return new IngestJob(id,
+                hash.get("file_path"),
+                Status.valueOf(hash.getOrDefault("status", Status.QUEUED.name())),
+                intOf(hash.get("total_chunks")),
+                intOf(hash.get("processed_chunks")),
+                intOf(hash.get("written_chunks")),
+                intOf(hash.get("attempts")),
+                hash.get("error"),
+                longOf(hash.get("created_at")),
+                longOf(hash.get("updated_at")));
+    }
+
+    /**
+     * 进度百分比（总数未知时为 0）
+     */
+    public double percent() {
+        if (status == Status.SUCCEEDED) {
+            return 100;
+        }
+        return totalChunks > 0 ? Math.min(100, processedChunks * 100.0 / totalChunks) : 0;
+    }
+
+    private static int intOf(String value) {
+        return value == null || value.isEmpty() ? 0 : Integer.parseInt(value);
+    }
+
+    private static long longOf(String value) {
+        return value == null || value.isEmpty() ? 0 : Long.parseLong(value);
+    }
+}
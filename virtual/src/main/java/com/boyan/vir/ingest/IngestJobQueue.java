@@ -0,0 +1,328 @@
+package com.boyan.vir.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAddParams;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XClaimParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于 Redis Streams 的异步入库任务队列
+ *
+ *  - submit：任务状态写入 Hash（{jobKeyPrefix}{id}），任务 ID 写入 Stream，接口立即返回
+ *  - 每个节点 workers 个线程以消费组方式 XREADGROUP 领取任务，集群内任意节点都可处理，吞吐随节点数扩展
+ *  - 处理中按批次更新进度（processed_chunks / total_chunks）；另由定时器每 claimIdle / 3 XCLAIM 自己的消息刷新空闲时间（心跳），
+ *    与进度无关，等待文件锁等长时间没有进度时也不会被其他节点接管
+ *  - 节点宕机：消息空闲超过 claimIdle 后被其他节点 XAUTOCLAIM 接管
+ *  - 失败：批次级重试在 IngestionPipeline 内完成；整个任务失败时重新入队，最多 maxAttempts 次，
+ *    重试为增量入库，已成功提交的文件不再重复向量化
+ *
+ * 任务状态 Hash 在完成后保留 statusTtl，供 GET /api/vector/jobs/{id} 查询
+ */
+@Slf4j
+public class IngestJobQueue implements InitializingBean, DisposableBean {
+
+    /** XREADGROUP 阻塞时间，需小于 Redis 客户端读超时 */
+    private static final int BLOCK_MILLIS = 1000;
+    private static final long HEARTBEAT_INTERVAL_DIVISOR = 3;
+
+    private final IncrementalIngestor ingestor;
+    private final JedisPooled jedis;
+    private final String streamKey;
+    private final String group;
+    private final String jobKeyPrefix;
+    private final int workers;
+    private final int maxAttempts;
+    private final Duration claimIdle;
+    private final long statusTtlSeconds;
+    private final long maxStreamLength;
+    private final String consumerPrefix;
+
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter retried;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vector-ingest-job-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean running;
+
+    public IngestJobQueue(IncrementalIngestor ingestor,
+                          JedisPooled jedis,
+                          String streamKey,
+                          String group,
+                          String jobKeyPrefix,
+                          int workers,
+                          int maxAttempts,
+                          Duration claimIdle,
+                          Duration statusTtl,
+                          long maxStreamLength,
+                          MeterRegistry meterRegistry) {
+        this.ingestor = ingestor;
+        this.jedis = jedis;
+        this.streamKey = streamKey;
+        this.group = group;
+        this.jobKeyPrefix = jobKeyPrefix;
+        this.workers = Math.max(0, workers);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.claimIdle = claimIdle;
+        this.statusTtlSeconds = Math.max(1, statusTtl.toSeconds());
+        this.maxStreamLength = maxStreamLength;
+        // pid@hostname，区分集群中的不同节点
+        this.consumerPrefix = ManagementFactory.getRuntimeMXBean().getName();
+
+        this.succeeded = Counter.builder("vector.ingest.jobs").tag("result", "succeeded").register(meterRegistry);
+        this.failed = Counter.builder("vector.ingest.jobs").tag("result", "failed").register(meterRegistry);
+        this.retried = Counter.builder("vector.ingest.jobs").tag("result", "retried").register(meterRegistry);
+    }
+
+    // ===== 提交与查询 =====
+
+    /**
+     * 提交入库任务，立即返回（状态为 QUEUED）
+     */
+    public IngestJob submit(String filePath) {
+        String id = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        Map<String, String> hash = new HashMap<>();
+        hash.put("file_path", filePath);
+        hash.put("status", IngestJob.Status.QUEUED.name());
+        hash.put("attempts", "0");
+        hash.put("created_at", Long.toString(now));
+        hash.put("updated_at", Long.toString(now));
+        String key = jobKey(id);
+        jedis.hset(key, hash);
+        jedis.expire(key, statusTtlSeconds);
+        enqueue(id);
+        log.info("入库任务已提交：{}，文件：{}", id, filePath);
+        return IngestJob.fromHash(id, hash);
+    }
+
+    public Optional<IngestJob> find(String id) {
+        Map<String, String> hash = jedis.hgetAll(jobKey(id));
+        return hash == null || hash.isEmpty() ? Optional.empty() : Optional.of(IngestJob.fromHash(id, hash));
+    }
+
+    // ===== 消费 =====
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            jedis.xgroupCreate(streamKey, group, new StreamEntryID(), true);
+        } catch (JedisDataException e) {
+            if (!e.getMessage().startsWith("BUSYGROUP")) {
+                throw e;
+            }
+        }
+        running = true;
+        for (int i = 1; i <= workers; i++) {
+            String consumer = consumerPrefix + "-" + i;
+            Thread t = new Thread(() -> workLoop(consumer), "vector-ingest-job-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        log.info("入库任务队列已启动：stream={}，group={}，workers={}", streamKey, group, workers);
+    }
+
+    private void workLoop(String consumer) {
+        while (running) {
+            try {
+                StreamEntry entry = claimStale(consumer);
+                if (entry == null) {
+                    entry = readNew(consumer);
+                }
+                if (entry != null) {
+                    process(consumer, entry);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("入库任务消费异常：{}", e.getMessage(), e);
+                sleepQuietly(BLOCK_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * 接管其他节点（宕机、重启）空闲超过 claimIdle 的任务
+     */
+    private StreamEntry claimStale(String consumer) {
+        Map.Entry<StreamEntryID, List<StreamEntry>> claimed = jedis.xautoclaim(streamKey, group, consumer,
+                claimIdle.toMillis(), new StreamEntryID(), new XAutoClaimParams().count(1));
+        List<StreamEntry> entries = claimed.getValue();
+        if (entries == null || entries.isEmpty()) {
+            return null;
+        }
+        log.warn("接管超时未确认的入库任务：{}", entries.get(0).getID());
+        return entries.get(0);
+    }
+
+    private StreamEntry readNew(String consumer) {
+        List<Map.Entry<String, List<StreamEntry>>> result = jedis.xreadGroup(group, consumer,
+                XReadGroupParams.xReadGroupParams().count(1).block(BLOCK_MILLIS),
+                Map.of(streamKey, StreamEntryID.XREADGROUP_UNDELIVERED_ENTRY));
+        if (result == null || result.isEmpty() || result.get(0).getValue().isEmpty()) {
+            return null;
+        }
+        return result.get(0).getValue().get(0);
+    }
+
+    private void process(String consumer, StreamEntry entry) {
+        String id = entry.getFields().get("job_id");
+        String key = jobKey(id);
+        Map<String, String> hash = id == null ? Map.of() : jedis.hgetAll(key);
+        if (hash.isEmpty() || isFinished(hash)) {
+            // 状态已过期或已完成（重复投递）
+            ack(entry.getID());
+            return;
+        }
+        long attempt = jedis.hincrBy(key, "attempts", 1);
+        String filePath = hash.get("file_path");
+        update(key, Map.of(
+                "status", IngestJob.Status.RUNNING.name(),
+                "processed_chunks", "0",
+                "consumer", consumer));
+
+        long period = Math.max(1, claimIdle.toMillis() / HEARTBEAT_INTERVAL_DIVISOR);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+                () -> heartbeat(key, consumer, entry.getID()), period, period, TimeUnit.MILLISECONDS);
+        try {
+            IngestionReport report = ingestor.ingestFile(filePath, new JobProgress(key));
+            update(key, Map.of(
+                    "status", IngestJob.Status.SUCCEEDED.name(),
+                    "written_chunks", Integer.toString(report.chunks()),
+                    "elapsed_ms", Long.toString(report.elapsedMillis())));
+            succeeded.increment();
+        } catch (Exception e) {
+            String error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            if (attempt < maxAttempts) {
+                log.warn("入库任务失败（第 {} 次），重新入队：{}，{}", attempt, id, error);
+                update(key, Map.of("status", IngestJob.Status.QUEUED.name(), "error", error));
+                enqueue(id);
+                retried.increment();
+            } else {
+                log.error("入库任务失败（已达最大尝试次数 {}）：{}，{}", maxAttempts, id, error);
+                update(key, Map.of("status", IngestJob.Status.FAILED.name(), "error", error));
+                failed.increment();
+            }
+        } finally {
+            heartbeat.cancel(false);
+        }
+        ack(entry.getID());
+    }
+
+    /**
+     * XCLAIM 自己的消息刷新空闲时间，避免长任务被其他节点接管
+     */
+    private void heartbeat(String key, String consumer, StreamEntryID entryId) {
+        try {
+            jedis.xclaimJustId(streamKey, group, consumer, 0, new XClaimParams(), entryId);
+            jedis.hset(key, "updated_at", Long.toString(System.currentTimeMillis()));
+        } catch (Exception e) {
+            log.warn("入库任务心跳失败：{}，{}", key, e.getMessage());
+        }
+    }
+
+    // ===== 内部工具 =====
+
+    private void enqueue(String id) {
+        jedis.xadd(streamKey, XAddParams.xAddParams().maxLen(maxStreamLength).approximateTrimming(),
+                Map.of("job_id", id));
+    }
+
+    private void ack(StreamEntryID entryId) {
+        jedis.xack(streamKey, group, entryId);
+        jedis.xdel(streamKey, entryId);
+    }
+
+    private void update(String key, Map<String, String> fields) {
+        Map<String, String> hash = new HashMap<>(fields);
+        hash.put("updated_at", Long.toString(System.currentTimeMillis()));
+        jedis.hset(key, hash);
+        jedis.expire(key, statusTtlSeconds);
+    }
+
+    private static boolean isFinished(Map<String, String> hash) {
+        String status = hash.get("status");
+        return IngestJob.Status.SUCCEEDED.name().equals(status) || IngestJob.Status.FAILED.name().equals(status);
+    }
+
+    private String jobKey(String id) {
+        return jobKeyPrefix + id;
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        heartbeats.shutdownNow();
+        for (Thread t : threads) {
+            try {
+                t.join(BLOCK_MILLIS * 2L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 把进度写入任务 Hash
+     */
+    private final class JobProgress implements IngestionProgress {
+
+        private final String key;
+
+        JobProgress(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onTotal(int totalChunks) {
+            jedis.hset(key, "total_chunks", Integer.toString(totalChunks));
+        }
+
+        @Override
+        public void onProcessed(int chunks) {
+            try {
+                jedis.hincrBy(key, "processed_chunks", chunks);
+            } catch (Exception e) {
+                // 进度只用于展示，失败不影响入库
+                log.warn("更新入库任务进度失败：{}，{}", key, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.boyan.vir.ingest;
+
+/**
+ * 增量入库的目标：分片写入哪里、文件清单存放在哪个 key 前缀下
+ *
+ * Redis 索引按版本重建时，每个版本有独立的 key 前缀与清单，入库始终写当前生效的版本
+ *
+ * @param sink           分片的写入 / 删除目标
+ * @param manifestPrefix 文件清单 key 前缀（后接文件路径哈希）
+ */
+public record IngestTarget(VectorSink sink, String manifestPrefix) {
+
+    /** 未做过版本切换时的清单前缀 */
+    public static final String DEFAULT_MANIFEST_PREFIX = "virtual:rag:manifest:";
+}
@@ -0,0 +1,347 @@
+package com.boyan.vir.ingest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.StringUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文档入库流水线：分片 → 并行批量向量化 → Redis 管道写入
+ *
+ *  - 调用线程按 batchSize 把分片组成批次（DashScope text-embedding-v3 单次最多 10 条）
+ *  - embedWorkers 个线程并行向量化，按 requestsPerSecond 统一限流（所有任务共享配额）
+ *  - writeWorkers 个线程把向量化结果写入 VectorSink（Redis JSON 文档或进程内 HNSW 索引）
+ *  - 每个任务最多 maxInFlightBatches 个批次在途（向量化中 + 等待写入），满了调用线程阻塞，形成背压
+ *  - 单个批次的向量化 / 写入失败时按指数退避重试，最多 batchAttempts 次（写入按 ID 覆盖，可重复执行）
+ *  - 重试仍失败即停止提交新批次，等在途批次结束后抛出异常
+ *
+ * 任务结束时输出 IngestionReport（分片/秒、平均向量化耗时、平均写入耗时、限流等待）
+ *
+ * 指标：vector.ingest.chunks、vector.ingest.embed.latency、vector.ingest.write.latency、vector.ingest.rate.wait、vector.ingest.retries
+ */
+@Slf4j
+public class IngestionPipeline implements DisposableBean {
+
+    private final EmbeddingModel embeddingModel;
+    private final VectorSink sink;
+    private final int batchSize;
+    private final int maxInFlightBatches;
+    private final int batchAttempts;
+    /** 两次向量化请求之间的最小间隔，0 表示不限流 */
+    private final long permitIntervalNanos;
+    private final AtomicLong nextPermitNanos = new AtomicLong(System.nanoTime());
+
+    private final ExecutorService embedExecutor;
+    private final ExecutorService writeExecutor;
+
+    private final Counter chunksCounter;
+    private final Timer embedLatency;
+    private final Timer writeLatency;
+    private final Timer rateWait;
+    private final Counter retries;
+
+    public IngestionPipeline(EmbeddingModel embeddingModel,
+                             VectorSink sink,
+                             int batchSize,
+                             int embedWorkers,
+                             int writeWorkers,
+                             double requestsPerSecond,
+                             int maxInFlightBatches,
+                             int batchAttempts,
+                             MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.sink = sink;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxInFlightBatches = Math.max(1, maxInFlightBatches);
+        this.batchAttempts = Math.max(1, batchAttempts);
+        this.permitIntervalNanos = requestsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond) : 0;
+        this.embedExecutor = newPool("vector-ingest-embed-", embedWorkers);
+        this.writeExecutor = newPool("vector-ingest-write-", writeWorkers);
+
+        this.chunksCounter = Counter.builder("vector.ingest.chunks")
+                .description("入库流水线写入的分片数")
+                .register(meterRegistry);
+        this.embedLatency = Timer.builder("vector.ingest.embed.latency")
+                .description("单批次向量化耗时")
+                .register(meterRegistry);
+        this.writeLatency = Timer.builder("vector.ingest.write.latency")
+                .description("单批次写入耗时")
+                .register(meterRegistry);
+        this.rateWait = Timer.builder("vector.ingest.rate.wait")
+                .description("向量化请求等待限流许可的耗时")
+                .register(meterRegistry);
+        this.retries = Counter.builder("vector.ingest.retries")
+                .description("批次向量化 / 写入失败后的重试次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 执行一个入库任务（阻塞直到全部写入或失败）
+     *
+     * @param jobName   任务名，用于日志与报告
+     * @param documents 分片迭代器，按需拉取（可以是惰性读取的大文件）
+     */
+    public IngestionReport ingest(String jobName, Iterator<Document> documents) {
+        return ingest(jobName, documents, IngestionProgress.NONE);
+    }
+
+    /**
+     * 执行一个入库任务，每个批次写入成功后回调进度
+     */
+    public IngestionReport ingest(String jobName, Iterator<Document> documents, IngestionProgress progress) {
+        return ingest(jobName, documents, progress, sink);
+    }
+
+    /**
+     * 执行一个入库任务，写入指定的目标（如重建中的新版本索引）而不是默认的 VectorSink
+     */
+    public IngestionReport ingest(String jobName, Iterator<Document> documents, IngestionProgress progress,
+                                  VectorSink target) {
+        long start = System.nanoTime();
+        JobState state = new JobState(progress, target);
+        Semaphore inFlight = new Semaphore(maxInFlightBatches);
+        try {
+            List<Document> batch = new ArrayList<>(batchSize);
+            while (documents.hasNext() && state.failure.get() == null) {
+                Document document = documents.next();
+                if (!StringUtils.hasText(document.getText())) {
+                    continue;
+                }
+                batch.add(document);
+                if (batch.size() >= batchSize) {
+                    submit(batch, inFlight, state);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && state.failure.get() == null) {
+                submit(batch, inFlight, state);
+            }
+            // 拿回全部许可即所有在途批次已结束
+            inFlight.acquire(maxInFlightBatches);
+            inFlight.release(maxInFlightBatches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            state.fail(e);
+        } catch (RuntimeException e) {
+            // 读取分片失败（如文件读取异常），等在途批次结束后统一抛出
+            state.fail(e);
+            awaitInFlight(inFlight);
+        } finally {
+            closeQuietly(documents);
+        }
+
+        Throwable failure = state.failure.get();
+        if (failure != null) {
+            throw new RuntimeException("入库任务失败（" + jobName + "，已写入 " + state.chunks.get() + " 个分片）："
+                    + failure.getMessage(), failure);
+        }
+        IngestionReport report = new IngestionReport(jobName,
+                state.chunks.get(),
+                state.batches.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMillis(state.embedNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(state.writeNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(state.rateWaitNanos.sum()));
+        log.info("向量入库完成：{}", report);
+        return report;
+    }
+
+    private void awaitInFlight(Semaphore inFlight) {
+        try {
+            inFlight.acquire(maxInFlightBatches);
+            inFlight.release(maxInFlightBatches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 分片迭代器持有文件句柄时（提前结束、失败）关闭它
+     */
+    private static void closeQuietly(Iterator<Document> documents) {
+        if (documents instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.warn("关闭分片来源失败：{}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        embedExecutor.shutdown();
+        writeExecutor.shutdown();
+        try {
+            embedExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            writeExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ===== 流水线各阶段 =====
+
+    private void submit(List<Document> batch, Semaphore inFlight, JobState state) throws InterruptedException {
+        // 在途批次已满时在这里阻塞（背压）
+        inFlight.acquire();
+        try {
+            embedExecutor.execute(() -> embed(batch, inFlight, state));
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    private void embed(List<Document> batch, Semaphore inFlight, JobState state) {
+        try {
+            if (state.failure.get() != null) {
+                inFlight.release();
+                return;
+            }
+            List<String> texts = new ArrayList<>(batch.size());
+            for (Document document : batch) {
+                texts.add(document.getText());
+            }
+            List<float[]> vectors = null;
+            for (int attempt = 1; vectors == null; attempt++) {
+                state.rateWaitNanos.add(acquirePermit());
+                long begin = System.nanoTime();
+                RuntimeException error = null;
+                try {
+                    vectors = embeddingModel.embed(texts);
+                    if (vectors.size() != batch.size()) {
+                        throw new RuntimeException("向量模型返回数量不一致：请求 " + batch.size() + " 条，返回 " + vectors.size() + " 条");
+                    }
+                } catch (RuntimeException e) {
+                    vectors = null;
+                    error = e;
+                } finally {
+                    long elapsed = System.nanoTime() - begin;
+                    embedLatency.record(elapsed, TimeUnit.NANOSECONDS);
+                    state.embedNanos.add(elapsed);
+                }
+                if (error != null) {
+                    backoff(attempt, "向量化", error);
+                }
+            }
+            List<float[]> embedded = vectors;
+            writeExecutor.execute(() -> write(batch, embedded, inFlight, state));
+        } catch (Throwable e) {
+            state.fail(e);
+            inFlight.release();
+        }
+    }
+
+    private void write(List<Document> batch, List<float[]> vectors, Semaphore inFlight, JobState state) {
+        try {
+            for (int attempt = 1; ; attempt++) {
+                long begin = System.nanoTime();
+                RuntimeException error = null;
+                try {
+                    state.sink.write(batch, vectors);
+                } catch (RuntimeException e) {
+                    error = e;
+                } finally {
+                    long elapsed = System.nanoTime() - begin;
+                    writeLatency.record(elapsed, TimeUnit.NANOSECONDS);
+                    state.writeNanos.add(elapsed);
+                }
+                if (error == null) {
+                    break;
+                }
+                backoff(attempt, "写入", error);
+            }
+            state.chunks.addAndGet(batch.size());
+            state.batches.incrementAndGet();
+            chunksCounter.increment(batch.size());
+            state.progress.onProcessed(batch.size());
+        } catch (Throwable e) {
+            state.fail(e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * 未到重试上限时按 200ms、400ms、800ms... 退避后返回，否则抛出本次异常
+     */
+    private void backoff(int attempt, String stage, RuntimeException e) throws InterruptedException {
+        if (attempt >= batchAttempts) {
+            throw e;
+        }
+        retries.increment();
+        long delay = 200L << Math.min(attempt - 1, 6);
+        log.warn("批次{}失败（第 {} 次），{}ms 后重试：{}", stage, attempt, delay, e.getMessage());
+        TimeUnit.MILLISECONDS.sleep(delay);
+    }
+
+    /**
+     * 按固定间隔发放许可（所有任务共享），返回等待的纳秒数
+     */
+    private long acquirePermit() throws InterruptedException {
+        if (permitIntervalNanos == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long previous = nextPermitNanos.getAndAccumulate(now, (next, current) -> Math.max(next, current) + permitIntervalNanos);
+        long wait = Math.max(previous, now) - now;
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        rateWait.record(wait, TimeUnit.NANOSECONDS);
+        return wait;
+    }
+
+    private static ExecutorService newPool(String namePrefix, int threads) {
+        AtomicInteger index = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, namePrefix + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 单个任务的统计与失败状态
+     */
+    private static final class JobState {
+        final IngestionProgress progress;
+        final VectorSink sink;
+        final AtomicInteger chunks = new AtomicInteger();
+        final AtomicInteger batches = new AtomicInteger();
+        final LongAdder embedNanos = new LongAdder();
+        final LongAdder writeNanos = new LongAdder();
+        final LongAdder rateWaitNanos = new LongAdder();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        JobState(IngestionProgress progress, VectorSink sink) {
+            this.progress = progress;
+            this.sink = sink;
+        }
+
+        void fail(Throwable e) {
+            if (failure.compareAndSet(null, e)) {
+                log.warn("入库批次失败，停止提交新批次：{}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.boyan.vir.ingest;
+
+/**
+ * 入库进度回调（由读取线程与写入线程调用，实现需线程安全）
+ */
+public interface IngestionProgress {
+
+    IngestionProgress NONE = chunks -> { };
+
+    /**
+     * 一个文件的分片全部读完时回调该文件的分片总数（分片边读边生成，读完之前总数未知）
+     */
+    default void onTotal(int totalChunks) {
+    }
+
+    /**
+     * 又处理完 chunks 个分片（写入成功，或增量入库时判定为未变）
+     */
+    void onProcessed(int chunks);
+}
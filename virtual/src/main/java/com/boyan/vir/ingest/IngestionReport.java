@@ -0,0 +1,34 @@
+package com.boyan.vir.ingest;
+
+/**
+ * 一次入库任务的吞吐报告
+ *
+ * @param jobName         任务名（文件名等）
+ * @param chunks          写入的分片数
+ * @param batches         向量化批次数
+ * @param elapsedMillis   任务总耗时
+ * @param embedMillis     向量化累计耗时（各批次之和，并行时可大于总耗时）
+ * @param writeMillis     Redis 写入累计耗时
+ * @param rateWaitMillis  等待限流许可的累计耗时
+ */
+public record IngestionReport(String jobName, int chunks, int batches, long elapsedMillis,
+                              long embedMillis, long writeMillis, long rateWaitMillis) {
+
+    public double chunksPerSecond() {
+        return elapsedMillis > 0 ? chunks * 1000.0 / elapsedMillis : chunks;
+    }
+
+    public double avgEmbedMillis() {
+        return batches > 0 ? (double) embedMillis / batches : 0;
+    }
+
+    public double avgWriteMillis() {
+        return batches > 0 ? (double) writeMillis / batches : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("任务[%s] 分片 %d，批次 %d，耗时 %dms，%.1f 分片/秒，平均向量化 %.1fms/批，平均写入 %.1fms/批，限流等待 %dms",
+                jobName, chunks, batches, elapsedMillis, chunksPerSecond(), avgEmbedMillis(), avgWriteMillis(), rateWaitMillis);
+    }
+}
@@ -0,0 +1,224 @@
+package com.boyan.vir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 监听上传目录（app.upload.path）中的 TXT 文件，自动增量入库
+ *
+ *  - 新增 / 修改：同一文件在 debounce 时间内的连续事件合并为一次入库（等待写入完成）
+ *  - 删除：删除该文件的全部分片与清单
+ *  - 事件溢出（OVERFLOW）：重新扫描整个目录，未变的分片不会重新向量化；
+ *    与入库器的文件登记比对，溢出期间被删除的文件同样清理分片
+ *
+ * 开启监听时上传接口只保存文件、不再提交入库任务，上传目录中的文件只经由监听入库
+ *
+ * 监听目录本身与一级子目录（知识库目录，见 KnowledgeBase），新建的知识库目录自动加入监听；不再递归更深的子目录
+ */
+@Slf4j
+public class RagDirectoryWatcher implements InitializingBean, DisposableBean {
+
+    private final IncrementalIngestor ingestor;
+    private final Path directory;
+    private final Duration debounce;
+    /** 单线程执行入库，同一时刻只处理一个文件 */
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rag-watch-ingest");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<Path, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+    private Thread watchThread;
+
+    public RagDirectoryWatcher(IncrementalIngestor ingestor, Path directory, Duration debounce) {
+        this.ingestor = ingestor;
+        this.directory = directory.toAbsolutePath().normalize();
+        this.debounce = debounce;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        Files.createDirectories(directory);
+        watchService = directory.getFileSystem().newWatchService();
+        register(directory);
+        try (Stream<Path> children = Files.list(directory)) {
+            for (Path child : children.filter(Files::isDirectory).toList()) {
+                register(child);
+            }
+        }
+        watchThread = new Thread(this::watchLoop, "rag-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("已开始监听 RAG 目录：{}", directory);
+    }
+
+    private void watchLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Path parent = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                        continue;
+                    }
+                    Path file = parent.resolve((Path) event.context());
+                    if (parent.equals(directory) && event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                            && Files.isDirectory(file)) {
+                        watchKnowledgeBase(file);
+                        continue;
+                    }
+                    if (!isTxt(file)) {
+                        continue;
+                    }
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        schedule(file, () -> remove(file));
+                    } else {
+                        schedule(file, () -> ingest(file));
+                    }
+                }
+                if (!key.reset()) {
+                    if (parent.equals(directory)) {
+                        log.warn("RAG 目录已不可访问，停止监听：{}", directory);
+                        return;
+                    }
+                    log.info("知识库目录已删除，停止监听：{}", parent);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 应用关闭
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        dir.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * 新建的知识库目录：加入监听，并入库注册前已写入其中的文件（整个目录移入时常见）
+     */
+    private void watchKnowledgeBase(Path dir) {
+        try {
+            register(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(RagDirectoryWatcher::isTxt).forEach(file -> schedule(file, () -> ingest(file)));
+            }
+            log.info("已开始监听知识库目录：{}", dir);
+        } catch (IOException e) {
+            log.error("监听知识库目录失败：{}", dir, e);
+        }
+    }
+
+    /**
+     * 同一文件只保留最后一个事件，debounce 时间内没有新事件才执行
+     */
+    private void schedule(Path file, Runnable task) {
+        pending.compute(file, (path, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            return scheduler.schedule(() -> {
+                pending.remove(path);
+                task.run();
+            }, debounce.toMillis(), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private void ingest(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            ingestor.ingestFile(file.toString());
+        } catch (Exception e) {
+            log.error("监听目录自动入库失败：{}", file, e);
+        }
+    }
+
+    private void remove(Path file) {
+        if (Files.exists(file)) {
+            // 删除后又重新创建（编辑器保存时常见），按修改处理
+            ingest(file);
+            return;
+        }
+        try {
+            ingestor.removeFile(file.toString());
+        } catch (Exception e) {
+            log.error("监听目录清理分片失败：{}", file, e);
+        }
+    }
+
+    private void rescan() {
+        log.warn("RAG 目录事件溢出，重新扫描：{}", directory);
+        try (Stream<Path> children = Files.list(directory); Stream<Path> files = Files.walk(directory, 2)) {
+            // 溢出期间新建的知识库目录同样加入监听（重复注册返回同一个 WatchKey）
+            for (Path child : children.filter(Files::isDirectory).toList()) {
+                register(child);
+            }
+            files.filter(Files::isRegularFile)
+                    .filter(RagDirectoryWatcher::isTxt)
+                    .forEach(file -> schedule(file, () -> ingest(file)));
+        } catch (IOException e) {
+            log.error("扫描 RAG 目录失败：{}", directory, e);
+        }
+        removeMissing();
+    }
+
+    /**
+     * 已入库但已不在目录中的文件：清理其分片（只处理本目录下的文件，导入接口指定的外部文件不受影响）
+     */
+    private void removeMissing() {
+        try {
+            for (String filePath : ingestor.ingestedFiles().values()) {
+                Path file = Path.of(filePath).toAbsolutePath().normalize();
+                if (file.startsWith(directory) && !Files.exists(file)) {
+                    schedule(file, () -> remove(file));
+                }
+            }
+        } catch (Exception e) {
+            log.error("比对已入库文件失败：{}", directory, e);
+        }
+    }
+
+    private static boolean isTxt(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".txt");
+    }
+
+    @Override
+    public void destroy() {
+        if (watchThread != null) {
+            watchThread.interrupt();
+        }
+        try {
+            if (watchService != null) {
+                watchService.close();
+            }
+        } catch (IOException e) {
+            log.warn("关闭目录监听失败：{}", e.getMessage());
+        }
+        scheduler.shutdownNow();
+    }
+}
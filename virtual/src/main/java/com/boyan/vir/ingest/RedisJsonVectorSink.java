@@ -0,0 +1,71 @@
+package com.boyan.vir.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.json.Path2;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 写入 RedisVectorStore 索引的分片：与 RedisVectorStore 相同的 JSON 文档结构，Jedis 管道批量写入
+ */
+@Slf4j
+public class RedisJsonVectorSink implements VectorSink {
+
+    // 与 RedisVectorStore 默认字段名一致，写入的文档可被同一索引检索
+    private static final String CONTENT_FIELD = "content";
+    private static final String EMBEDDING_FIELD = "embedding";
+
+    private final JedisPooled jedis;
+    /** 向量文档 key 前缀（与 RedisVectorStore 一致） */
+    private final String keyPrefix;
+
+    public RedisJsonVectorSink(JedisPooled jedis, String keyPrefix) {
+        this.jedis = jedis;
+        this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    public void write(List<Document> documents, List<float[]> vectors) {
+        try (Pipeline pipeline = jedis.pipelined()) {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                Map<String, Object> fields = new HashMap<>(document.getMetadata());
+                fields.put(EMBEDDING_FIELD, vectors.get(i));
+                fields.put(CONTENT_FIELD, document.getText());
+                pipeline.jsonSetWithEscape(keyPrefix + document.getId(), Path2.ROOT_PATH, fields);
+            }
+            for (Object response : pipeline.syncAndReturnAll()) {
+                if (!"OK".equals(response)) {
+                    throw new RuntimeException("Redis 写入向量文档失败：" + response);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long delete(List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return jedis.del(ids.stream().map(id -> keyPrefix + id).toArray(String[]::new));
+    }
+
+    @Override
+    public void updatePositions(List<Document> documents) {
+        try (Pipeline p = jedis.pipelined()) {
+            for (Document document : documents) {
+                String key = keyPrefix + document.getId();
+                p.jsonSetWithEscape(key, Path2.of("$.chunk_index"), document.getMetadata().get("chunk_index"));
+            }
+            p.sync();
+        } catch (Exception e) {
+            // 位置信息只用于展示，失败不影响检索
+            log.warn("更新未变分片的位置信息失败：{}", e.getMessage());
+        }
+    }
+}
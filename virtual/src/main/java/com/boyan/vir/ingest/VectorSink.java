@@ -0,0 +1,28 @@
+package com.boyan.vir.ingest;
+
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * 入库流水线的写入目标：已向量化的分片写到哪里（Redis JSON 文档或进程内 HNSW 索引）
+ */
+public interface VectorSink {
+
+    /**
+     * 写入一批已向量化的分片（按 ID 覆盖），失败时抛出异常由流水线重试
+     */
+    void write(List<Document> documents, List<float[]> vectors);
+
+    /**
+     * 按分片 ID 删除
+     *
+     * @return 实际删除的分片数
+     */
+    long delete(List<String> ids);
+
+    /**
+     * 内容未变的分片只更新 chunk_index（尽力而为，失败不抛出）
+     */
+    void updatePositions(List<Document> documents);
+}
@@ -0,0 +1,28 @@
+package com.boyan.vir.memory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 感知 userId / agentId 的对话记忆
+ * 由 AgentChatMemoryAdvisor 调用：一轮对话结束后，把本轮新增消息在已加载的历史之上一次性保存
+ */
+public interface AgentChatMemory extends ChatMemory {
+
+    /**
+     * 读取指定智能体会话的记忆窗口（按智能体区分预算等策略时使用）
+     */
+    default List<Message> get(String conversationId, String agentId) {
+        return get(conversationId);
+    }
+
+    /**
+     * 在已加载的历史之上追加本轮新增消息，并连同 user_id / agent_id 一次性落库
+     *
+     * @param history     本轮开始时 get(conversationId) 返回的历史（避免重复读取）
+     * @param newMessages 本轮新增的消息（用户消息 + 助手回复）
+     */
+    void add(String conversationId, String userId, String agentId, List<Message> history, List<Message> newMessages);
+}
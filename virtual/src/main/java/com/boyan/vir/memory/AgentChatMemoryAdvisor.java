@@ -0,0 +1,142 @@
+package com.boyan.vir.memory;
+
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.AdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.BaseAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.Generation;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 感知 userId / agentId 的记忆 advisor（替代 MessageChatMemoryAdvisor）
+ *
+ * 与 MessageChatMemoryAdvisor 的区别：
+ *  - before 阶段读取一次历史，并放入上下文，after 阶段直接复用，不再重复读取
+ *  - 用户消息不在 before 阶段单独保存，而是与助手回复在 after 阶段合并保存，一轮只落库一次
+ *  - 通过上下文参数 chat_memory_user_id / chat_memory_agent_id 把用户与智能体带到仓库，
+ *    新会话直接以正确的 user_id / agent_id 插入，无需 controller 再补充更新
+ *
+ * 使用：.advisors(a -> a.param(ChatMemory.CONVERSATION_ID, id).param(USER_ID, userId).param(AGENT_ID, agentId))
+ */
+public class AgentChatMemoryAdvisor implements BaseAdvisor {
+
+    public static final String USER_ID = "chat_memory_user_id";
+
+    public static final String AGENT_ID = "chat_memory_agent_id";
+
+    private static final String HISTORY_KEY = "chat_memory_loaded_history";
+
+    private static final String USER_MESSAGE_KEY = "chat_memory_user_message";
+
+    private final AgentChatMemory chatMemory;
+
+    public AgentChatMemoryAdvisor(AgentChatMemory chatMemory) {
+        this.chatMemory = chatMemory;
+    }
+
+    @Override
+    public int getOrder() {
+        return Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER;
+    }
+
+    @Override
+    public ChatClientRequest before(ChatClientRequest chatClientRequest, AdvisorChain advisorChain) {
+        String conversationId = getConversationId(chatClientRequest.context());
+
+        // 1. 读取历史（只读一次，after 阶段复用）
+        Object agentId = chatClientRequest.context().get(AGENT_ID);
+        List<Message> history = chatMemory.get(conversationId, agentId != null ? agentId.toString() : null);
+
+        // 2. 历史 + 本次请求消息（摘要消息单独取出）
+        List<Message> processedMessages = new ArrayList<>(history.size() + 2);
+        Message summary = null;
+        for (Message message : history) {
+            if (ConversationSummarizer.isSummary(message)) {
+                summary = message;
+            } else {
+                processedMessages.add(message);
+            }
+        }
+        processedMessages.addAll(chatClientRequest.prompt().getInstructions());
+
+        // 3. 保证系统提示词位于首位
+        for (int i = 0; i < processedMessages.size(); i++) {
+            if (processedMessages.get(i) instanceof SystemMessage) {
+                Message systemMessage = processedMessages.remove(i);
+                processedMessages.add(0, systemMessage);
+                break;
+            }
+        }
+
+        // 4. 摘要并入首位的系统提示词（部分模型只接受一条系统消息）
+        if (summary != null) {
+            if (!processedMessages.isEmpty() && processedMessages.get(0) instanceof SystemMessage systemMessage) {
+                processedMessages.set(0, new SystemMessage(systemMessage.getText() + "\n\n" + summary.getText()));
+            } else {
+                processedMessages.add(0, summary);
+            }
+        }
+
+        return chatClientRequest.mutate()
+                .prompt(chatClientRequest.prompt().mutate().messages(processedMessages).build())
+                .context(HISTORY_KEY, history)
+                .context(USER_MESSAGE_KEY, chatClientRequest.prompt().getUserMessage())
+                .build();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ChatClientResponse after(ChatClientResponse chatClientResponse, AdvisorChain advisorChain) {
+        Map<String, Object> context = chatClientResponse.context();
+        String conversationId = getConversationId(context);
+
+        List<Message> newMessages = new ArrayList<>();
+        Object userMessage = context.get(USER_MESSAGE_KEY);
+        if (userMessage instanceof UserMessage um && um.getText() != null && !um.getText().isEmpty()) {
+            newMessages.add(um);
+        }
+        if (chatClientResponse.chatResponse() != null) {
+            for (Generation generation : chatClientResponse.chatResponse().getResults()) {
+                newMessages.add(generation.getOutput());
+            }
+        }
+
+        Object history = context.get(HISTORY_KEY);
+        chatMemory.add(conversationId,
+                (String) context.get(USER_ID),
+                (String) context.get(AGENT_ID),
+                history instanceof List<?> list ? (List<Message>) list : chatMemory.get(conversationId),
+                newMessages);
+        return chatClientResponse;
+    }
+
+    /**
+     * 流式调用：聚合完整回复后再执行 after，避免只保存最后一个分片
+     */
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        return Mono.just(chatClientRequest)
+                .publishOn(getScheduler())
+                .map(request -> before(request, streamAdvisorChain))
+                .flatMapMany(streamAdvisorChain::nextStream)
+                .transform(flux -> new ChatClientMessageAggregator().aggregateChatClientResponse(flux,
+                        response -> after(response, streamAdvisorChain)));
+    }
+
+    private String getConversationId(Map<String, Object> context) {
+        Object conversationId = context.get(ChatMemory.CONVERSATION_ID);
+        return conversationId != null ? conversationId.toString() : ChatMemory.DEFAULT_CONVERSATION_ID;
+    }
+}
@@ -0,0 +1,55 @@
+package com.boyan.vir.memory;
+
+import com.boyan.vir.repository.AgentChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 固定条数窗口的对话记忆（与 MessageWindowChatMemory 相同的窗口语义）
+ * 区别在于保存时携带 userId / agentId 与本轮新增的消息，走 saveWindow 一条 upsert 完成
+ */
+public class AgentMessageWindowChatMemory implements AgentChatMemory {
+
+    private final AgentChatMemoryRepository repository;
+    private final int maxMessages;
+
+    public AgentMessageWindowChatMemory(AgentChatMemoryRepository repository, int maxMessages) {
+        this.repository = repository;
+        this.maxMessages = maxMessages;
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        return window(repository.findByConversationId(conversationId));
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        add(conversationId, null, null, get(conversationId), messages);
+    }
+
+    @Override
+    public void add(String conversationId, String userId, String agentId, List<Message> history, List<Message> newMessages) {
+        if (newMessages == null || newMessages.isEmpty()) {
+            return;
+        }
+        List<Message> all = new ArrayList<>(history);
+        all.addAll(newMessages);
+        List<Message> window = window(all);
+        repository.saveWindow(conversationId, userId, agentId, window, newMessages);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        repository.deleteByConversationId(conversationId);
+    }
+
+    private List<Message> window(List<Message> messages) {
+        if (messages.size() <= maxMessages) {
+            return messages;
+        }
+        return new ArrayList<>(messages.subList(messages.size() - maxMessages, messages.size()));
+    }
+}
@@ -0,0 +1,64 @@
+package com.boyan.vir.memory;
+
+import com.boyan.vir.repository.AgentChatMemoryRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * (userId, agentId) → conversationId 解析器
+ * 进程内缓存映射关系：同一用户同一智能体只在首次访问时查询一次 MySQL，
+ * 新会话生成 UUID 后先在 MySQL 中原子登记（uk_user_agent 上 INSERT ... ON DUPLICATE KEY），
+ * 以库中生效的会话为准写入缓存，多个节点同时处理首轮消息时也会解析到同一会话
+ *
+ * 应用没有删除会话的入口；记忆被清空后下一轮按同一 conversationId 连同 user_id / agent_id 重新写入，
+ * 映射依然有效，因此缓存只按容量和闲置时间淘汰
+ */
+public class ConversationIdResolver {
+
+    private final AgentChatMemoryRepository repository;
+    private final Cache<String, String> cache;
+
+    public ConversationIdResolver(AgentChatMemoryRepository repository, long maxEntries, Duration expireAfterAccess) {
+        this.repository = repository;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterAccess(expireAfterAccess)
+                .build();
+    }
+
+    /**
+     * 查找已有会话，不存在时新建一个 conversationId
+     */
+    public String resolve(String userId, String agentId) {
+        return cache.get(key(userId, agentId), k -> {
+            String existing = repository.findConversationIdByUserAgent(userId, agentId);
+            return existing != null ? existing
+                    : repository.reserveConversationId(userId, agentId, UUID.randomUUID().toString());
+        });
+    }
+
+    /**
+     * 仅查找已有会话
+     *
+     * @return conversationId 或 null（不存在时）
+     */
+    public String find(String userId, String agentId) {
+        String key = key(userId, agentId);
+        String cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        String existing = repository.findConversationIdByUserAgent(userId, agentId);
+        if (existing != null) {
+            cache.put(key, existing);
+        }
+        return existing;
+    }
+
+    private static String key(String userId, String agentId) {
+        return userId + ":" + agentId;
+    }
+}
@@ -0,0 +1,250 @@
+package com.boyan.vir.memory;
+
+import com.boyan.vir.repository.AgentChatMemoryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 异步滚动摘要：记忆窗口淘汰的旧消息交给该组件，在后台线程中与已有摘要合并成新摘要并落库
+ *
+ *  - 不在请求线程中调用模型，触发淘汰的这一轮没有额外延迟
+ *  - 有界线程池 + 有界队列，队列满时本次跳过，被淘汰的消息保留到下一次触发再合并
+ *  - 同一会话同一时间只有一个摘要任务，期间新淘汰的消息累积到下一轮
+ *  - 累积的淘汰消息达到 minEvictedMessages 条才触发，避免每轮都调用模型
+ *  - 调用模型失败时这一批消息放回累积队列开头，下一次触发时重试；累积超过上限时丢弃最早的消息并计数
+ *
+ * 注意：累积中的淘汰消息只保存在内存，进程重启会丢失（最近窗口仍完整保存）
+ *
+ * 指标：chat.memory.summary.runs{result}、chat.memory.summary.latency、chat.memory.summary.dropped.messages
+ */
+@Slf4j
+public class ConversationSummarizer implements DisposableBean {
+
+    /** 摘要消息的 metadata 标记，保存记忆时据此过滤，不写入窗口 */
+    public static final String SUMMARY_KEY = "conversation_summary";
+
+    private static final int MAX_BACKLOG_MESSAGES = 100;
+
+    private static final String SYSTEM_PROMPT = """
+            你是对话摘要助手。请把「已有摘要」与「新增对话」合并成一份新的中文摘要：
+            - 保留用户的身份信息、偏好、提出过的需求、未完成的事项和已经得出的结论
+            - 省略寒暄和重复内容，用第三人称陈述
+            - 不超过 %d 字，只输出摘要正文，不要任何前缀或解释
+            """;
+
+    private final AgentChatMemoryRepository repository;
+    private final ChatModel chatModel;
+    private final int minEvictedMessages;
+    private final int maxSummaryChars;
+    private final ThreadPoolExecutor executor;
+
+    /** 等待合并进摘要的淘汰消息 */
+    private final Map<String, List<Message>> backlog = new ConcurrentHashMap<>();
+    /** 正在执行摘要任务的会话 */
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    private final Timer latency;
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter rejected;
+    private final Counter dropped;
+
+    public ConversationSummarizer(AgentChatMemoryRepository repository,
+                                  ChatModel chatModel,
+                                  int minEvictedMessages,
+                                  int maxSummaryChars,
+                                  int threads,
+                                  int queueCapacity,
+                                  MeterRegistry meterRegistry) {
+        this.repository = repository;
+        this.chatModel = chatModel;
+        this.minEvictedMessages = minEvictedMessages;
+        this.maxSummaryChars = maxSummaryChars;
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "chat-memory-summarizer-" + threadIndex.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        this.latency = Timer.builder("chat.memory.summary.latency")
+                .description("一次滚动摘要（读取旧摘要 + 调用模型 + 落库）的耗时")
+                .register(meterRegistry);
+        this.succeeded = Counter.builder("chat.memory.summary.runs").tag("result", "success").register(meterRegistry);
+        this.failed = Counter.builder("chat.memory.summary.runs").tag("result", "failure").register(meterRegistry);
+        this.rejected = Counter.builder("chat.memory.summary.runs").tag("result", "rejected").register(meterRegistry);
+        this.dropped = Counter.builder("chat.memory.summary.dropped.messages")
+                .description("累积超过上限、未能合并进摘要而被丢弃的淘汰消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 判断是否为摘要消息
+     */
+    public static boolean isSummary(Message message) {
+        return message instanceof SystemMessage && Boolean.TRUE.equals(message.getMetadata().get(SUMMARY_KEY));
+    }
+
+    /**
+     * 读取会话摘要，包装成带标记的系统消息
+     *
+     * @return 摘要消息或 null（尚未生成时）
+     */
+    public Message summaryMessage(String conversationId) {
+        String summary = repository.findSummary(conversationId);
+        if (!StringUtils.hasText(summary)) {
+            return null;
+        }
+        return SystemMessage.builder()
+                .text("以下是与用户此前对话的摘要，可作为背景参考：\n" + summary)
+                .metadata(Map.of(SUMMARY_KEY, true))
+                .build();
+    }
+
+    /**
+     * 记忆窗口淘汰了旧消息（请求线程调用，只入队不阻塞）
+     */
+    public void onEvicted(String conversationId, List<Message> evicted) {
+        List<Message> useful = new ArrayList<>();
+        for (Message message : evicted) {
+            if ((message.getMessageType() == MessageType.USER || message.getMessageType() == MessageType.ASSISTANT)
+                    && StringUtils.hasText(message.getText())) {
+                useful.add(message);
+            }
+        }
+        if (!StringUtils.hasText(conversationId) || useful.isEmpty()) {
+            return;
+        }
+        List<Message> pending = backlog.merge(conversationId, useful, this::append);
+        if (pending.size() >= minEvictedMessages) {
+            trySubmit(conversationId);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    // ===== 内部实现 =====
+
+    private void trySubmit(String conversationId) {
+        if (!running.add(conversationId)) {
+            // 已有任务在执行，结束时会继续处理累积的消息
+            return;
+        }
+        try {
+            executor.execute(() -> drain(conversationId));
+        } catch (RejectedExecutionException e) {
+            running.remove(conversationId);
+            rejected.increment();
+            log.debug("摘要队列已满，会话 {} 的 {} 条淘汰消息留待下次合并", conversationId,
+                    backlog.getOrDefault(conversationId, List.of()).size());
+        }
+    }
+
+    private void drain(String conversationId) {
+        try {
+            List<Message> batch;
+            while ((batch = backlog.remove(conversationId)) != null) {
+                if (!summarize(conversationId, batch)) {
+                    // 放回队列开头（保持时间顺序），本轮不再重试，等下一次淘汰触发
+                    backlog.merge(conversationId, batch, (current, failedBatch) -> append(failedBatch, current));
+                    return;
+                }
+            }
+        } finally {
+            running.remove(conversationId);
+        }
+        // remove 与 running 释放之间可能有新消息到达
+        List<Message> late = backlog.get(conversationId);
+        if (late != null && late.size() >= minEvictedMessages) {
+            trySubmit(conversationId);
+        }
+    }
+
+    /**
+     * 按时间顺序拼接两段淘汰消息，超过上限时丢弃最早的部分（摘要持续失败时避免无限累积）
+     */
+    private List<Message> append(List<Message> earlier, List<Message> later) {
+        List<Message> merged = new ArrayList<>(earlier.size() + later.size());
+        merged.addAll(earlier);
+        merged.addAll(later);
+        if (merged.size() <= MAX_BACKLOG_MESSAGES) {
+            return merged;
+        }
+        int overflow = merged.size() - MAX_BACKLOG_MESSAGES;
+        dropped.increment(overflow);
+        return new ArrayList<>(merged.subList(overflow, merged.size()));
+    }
+
+    /**
+     * @return 是否已把这一批消息合并进摘要
+     */
+    private boolean summarize(String conversationId, List<Message> batch) {
+        long start = System.nanoTime();
+        try {
+            String previous = repository.findSummary(conversationId);
+            StringBuilder transcript = new StringBuilder();
+            for (Message message : batch) {
+                transcript.append(message.getMessageType() == MessageType.USER ? "用户：" : "助手：")
+                        .append(message.getText())
+                        .append('\n');
+            }
+            String userPrompt = "已有摘要：\n" + (StringUtils.hasText(previous) ? previous : "（无）")
+                    + "\n\n新增对话：\n" + transcript;
+
+            String summary = chatModel.call(new Prompt(List.of(
+                    new SystemMessage(SYSTEM_PROMPT.formatted(maxSummaryChars)),
+                    new UserMessage(userPrompt)
+            ))).getResult().getOutput().getText();
+
+            if (!StringUtils.hasText(summary)) {
+                throw new IllegalStateException("模型返回的摘要为空");
+            }
+            repository.saveSummary(conversationId, summary.strip());
+            succeeded.increment();
+            log.debug("会话 {} 的滚动摘要已更新（合并 {} 条消息）", conversationId, batch.size());
+            return true;
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("会话 {} 生成滚动摘要失败，{} 条消息留待下次合并：{}", conversationId, batch.size(), e.getMessage());
+            return false;
+        } finally {
+            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
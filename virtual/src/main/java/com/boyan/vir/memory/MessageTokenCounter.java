@@ -0,0 +1,66 @@
+package com.boyan.vir.memory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+/**
+ * 单条消息的 token 估算，结果按消息实例（引用相等，弱引用键）缓存在旁路 Caffeine 中，
+ * 记忆缓存（L1）中的消息在多轮之间复用同一实例，每轮只需读取缓存值，不再重复分词
+ *
+ * 不写回 metadata：同一批消息实例可能被多个请求线程同时读取，修改共享的 metadata 存在数据竞争；
+ * 从库中重新加载的消息是新实例，首次使用时重新估算一次
+ *
+ * 注意：使用 JTokkit（cl100k_base）估算，与通义千问实际分词有偏差，仅用于预算控制
+ */
+public class MessageTokenCounter {
+
+    /** 每条消息的角色 / 分隔符等固定开销 */
+    private static final int MESSAGE_OVERHEAD = 4;
+
+    private static final long MAX_CACHED_MESSAGES = 200_000;
+
+    private final TokenCountEstimator estimator;
+    /** weakKeys 按引用比较，消息实例被回收后条目随之清除 */
+    private final Cache<Message, Integer> counts = Caffeine.newBuilder()
+            .weakKeys()
+            .maximumSize(MAX_CACHED_MESSAGES)
+            .build();
+
+    public MessageTokenCounter() {
+        this(new JTokkitTokenCountEstimator());
+    }
+
+    public MessageTokenCounter(TokenCountEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    /**
+     * 读取缓存的 token 数，没有缓存时估算并放入旁路缓存（不修改消息本身）
+     */
+    public int count(Message message) {
+        return counts.get(message, this::estimate);
+    }
+
+    private int estimate(Message message) {
+        int tokens = MESSAGE_OVERHEAD + estimateText(message.getText());
+        if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+            for (AssistantMessage.ToolCall toolCall : assistantMessage.getToolCalls()) {
+                tokens += estimateText(toolCall.name()) + estimateText(toolCall.arguments());
+            }
+        } else if (message instanceof ToolResponseMessage toolResponseMessage) {
+            for (ToolResponseMessage.ToolResponse response : toolResponseMessage.getResponses()) {
+                tokens += estimateText(response.name()) + estimateText(response.responseData());
+            }
+        }
+        return tokens;
+    }
+
+    private int estimateText(String text) {
+        return text == null || text.isEmpty() ? 0 : estimator.estimate(text);
+    }
+}
@@ -0,0 +1,290 @@
+package com.boyan.vir.memory;
+
+import com.boyan.vir.repository.AgentChatMemoryRepository;
+import com.boyan.vir.repository.AppendableChatMemoryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按 token 预算裁剪的对话记忆（替代固定 maxMessages 的窗口）
+ *
+ * 裁剪顺序：
+ *  1. 条数上限 maxMessages（兜底，防止大量极短消息）
+ *  2. 超预算时先截断较早的工具返回内容（toolResponseMaxChars < 0 表示不截断，0 表示只保留占位）
+ *  3. 仍超预算时从最早的消息开始淘汰，至少保留最后一条
+ *  4. 窗口开头不保留失去对应工具调用的工具返回
+ *
+ * 每条消息的 token 数由 MessageTokenCounter 按消息实例缓存，每轮不重复分词
+ * 预算按 agentId 区分，未配置的智能体使用默认预算
+ *
+ * 配置了 ConversationSummarizer 时：保存时被淘汰的消息交给摘要组件异步合并，
+ * 读取时在窗口前附加摘要消息（摘要长度由摘要提示词限制，不计入预算）
+ *
+ * 仓库实现 AppendableChatMemoryRepository 时只追加本轮新消息并按窗口大小裁剪，不再整体重写；
+ * 裁剪后的窗口始终是「已存消息 + 新消息」的后缀，按条数保留即可对应（截断的工具返回在仓库中保持原文，读取时重新截断）
+ *
+ * 指标：chat.memory.prompt.tokens{agent}、chat.memory.trim.messages{agent,reason}、
+ *      chat.memory.trim.tool.responses{agent}、chat.memory.trim.tokens{agent}
+ * agent 标签只取已知的 agentId（配置了预算或 metricAgents 中列出的），其余为 other
+ */
+public class TokenBudgetChatMemory implements AgentChatMemory {
+
+    private static final String TRUNCATED_KEY = "tool_response_truncated";
+
+    private static final String NO_AGENT = "none";
+    private static final String OTHER_AGENT = "other";
+
+    private final ChatMemoryRepository repository;
+    private final MessageTokenCounter tokenCounter;
+    private final int defaultBudget;
+    private final Map<String, Integer> agentBudgets;
+    /** 允许作为指标标签的 agentId */
+    private final Set<String> metricAgents;
+    private final int maxMessages;
+    private final int toolResponseMaxChars;
+    private final MeterRegistry meterRegistry;
+    /** 可为 null（不做摘要） */
+    private final ConversationSummarizer summarizer;
+
+    public TokenBudgetChatMemory(ChatMemoryRepository repository,
+                                 MessageTokenCounter tokenCounter,
+                                 int defaultBudget,
+                                 Map<String, Integer> agentBudgets,
+                                 Set<String> metricAgents,
+                                 int maxMessages,
+                                 int toolResponseMaxChars,
+                                 MeterRegistry meterRegistry,
+                                 ConversationSummarizer summarizer) {
+        this.repository = repository;
+        this.tokenCounter = tokenCounter;
+        this.defaultBudget = defaultBudget;
+        this.agentBudgets = agentBudgets != null ? Map.copyOf(agentBudgets) : Map.of();
+        Set<String> known = new HashSet<>(this.agentBudgets.keySet());
+        if (metricAgents != null) {
+            known.addAll(metricAgents);
+        }
+        this.metricAgents = Set.copyOf(known);
+        this.maxMessages = maxMessages;
+        this.toolResponseMaxChars = toolResponseMaxChars;
+        this.meterRegistry = meterRegistry;
+        this.summarizer = summarizer;
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        return get(conversationId, null);
+    }
+
+    @Override
+    public List<Message> get(String conversationId, String agentId) {
+        List<Message> window = trim(repository.findByConversationId(conversationId), agentId, null);
+        DistributionSummary.builder("chat.memory.prompt.tokens")
+                .description("每轮注入提示词的历史消息 token 数（估算）")
+                .baseUnit("tokens")
+                .tag("agent", agentTag(agentId))
+                .register(meterRegistry)
+                .record(totalTokens(window));
+
+        Message summary = summarizer != null ? summarizer.summaryMessage(conversationId) : null;
+        if (summary != null) {
+            window.add(0, summary);
+        }
+        return window;
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        add(conversationId, null, null, get(conversationId), messages);
+    }
+
+    @Override
+    public void add(String conversationId, String userId, String agentId, List<Message> history, List<Message> newMessages) {
+        if (newMessages == null || newMessages.isEmpty()) {
+            return;
+        }
+        List<Message> all = new ArrayList<>(history.size() + newMessages.size());
+        for (Message message : history) {
+            // 摘要消息由 get 临时附加，不写入窗口
+            if (!ConversationSummarizer.isSummary(message)) {
+                all.add(message);
+            }
+        }
+        all.addAll(newMessages);
+        List<Message> evicted = summarizer != null ? new ArrayList<>() : null;
+        List<Message> window = trim(all, agentId, evicted);
+        if (repository instanceof AgentChatMemoryRepository agentRepository) {
+            agentRepository.saveWindow(conversationId, userId, agentId, window, newMessages);
+        } else if (repository instanceof AppendableChatMemoryRepository appendableRepository) {
+            appendableRepository.append(conversationId, newMessages, window.size());
+        } else {
+            repository.saveAll(conversationId, window);
+        }
+        if (evicted != null && !evicted.isEmpty()) {
+            summarizer.onEvicted(conversationId, evicted);
+        }
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        repository.deleteByConversationId(conversationId);
+    }
+
+    // ===== 裁剪 =====
+
+    /**
+     * @param evicted 非 null 时收集被移出窗口的消息（按时间正序）
+     */
+    private List<Message> trim(List<Message> messages, String agentId, List<Message> evicted) {
+        String agent = agentTag(agentId);
+        int budget = budgetFor(agentId);
+        List<Message> window = new ArrayList<>(messages);
+        int removedTokens = 0;
+
+        // 1. 条数上限
+        int overflow = window.size() - maxMessages;
+        if (overflow > 0) {
+            List<Message> dropped = window.subList(0, overflow);
+            removedTokens += totalTokens(dropped);
+            if (evicted != null) {
+                evicted.addAll(dropped);
+            }
+            dropped.clear();
+            trimmedMessages(agent, "max_messages").increment(overflow);
+        }
+
+        int total = totalTokens(window);
+
+        // 2. 先截断较早的工具返回（最后一条保持原样）
+        if (total > budget && toolResponseMaxChars >= 0) {
+            for (int i = 0; i < window.size() - 1 && total > budget; i++) {
+                if (window.get(i) instanceof ToolResponseMessage toolResponse) {
+                    ToolResponseMessage shortened = shorten(toolResponse);
+                    if (shortened != null) {
+                        int saved = tokenCounter.count(toolResponse) - tokenCounter.count(shortened);
+                        window.set(i, shortened);
+                        total -= saved;
+                        removedTokens += saved;
+                        trimmedToolResponses(agent).increment();
+                    }
+                }
+            }
+        }
+
+        // 3. 从最早的消息开始淘汰
+        int budgetEvicted = 0;
+        while (total > budget && window.size() > 1) {
+            Message removed = window.remove(0);
+            if (evicted != null) {
+                evicted.add(removed);
+            }
+            int tokens = tokenCounter.count(removed);
+            total -= tokens;
+            removedTokens += tokens;
+            budgetEvicted++;
+        }
+        if (budgetEvicted > 0) {
+            trimmedMessages(agent, "budget").increment(budgetEvicted);
+        }
+
+        // 4. 开头的工具返回已失去对应的工具调用，一并移除
+        int orphans = 0;
+        while (window.size() > 1 && window.get(0) instanceof ToolResponseMessage) {
+            Message removed = window.remove(0);
+            if (evicted != null) {
+                evicted.add(removed);
+            }
+            removedTokens += tokenCounter.count(removed);
+            orphans++;
+        }
+        if (orphans > 0) {
+            trimmedMessages(agent, "orphan_tool").increment(orphans);
+        }
+
+        if (removedTokens > 0) {
+            DistributionSummary.builder("chat.memory.trim.tokens")
+                    .description("单次裁剪移除的 token 数（估算）")
+                    .baseUnit("tokens")
+                    .tag("agent", agent)
+                    .register(meterRegistry)
+                    .record(removedTokens);
+        }
+        return window;
+    }
+
+    /**
+     * 截断工具返回内容，已截断过或无需截断时返回 null
+     */
+    private ToolResponseMessage shorten(ToolResponseMessage message) {
+        if (Boolean.TRUE.equals(message.getMetadata().get(TRUNCATED_KEY))) {
+            return null;
+        }
+        boolean changed = false;
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(message.getResponses().size());
+        for (ToolResponseMessage.ToolResponse response : message.getResponses()) {
+            String data = response.responseData();
+            if (data != null && data.length() > toolResponseMaxChars) {
+                String shortened = toolResponseMaxChars == 0
+                        ? "[工具返回已省略]"
+                        : data.substring(0, toolResponseMaxChars) + "…[工具返回已截断，原长度 " + data.length() + " 字符]";
+                responses.add(new ToolResponseMessage.ToolResponse(response.id(), response.name(), shortened));
+                changed = true;
+            } else {
+                responses.add(response);
+            }
+        }
+        if (!changed) {
+            return null;
+        }
+        Map<String, Object> metadata = new HashMap<>(message.getMetadata());
+        metadata.put(TRUNCATED_KEY, true);
+        return ToolResponseMessage.builder()
+                .responses(responses)
+                .metadata(metadata)
+                .build();
+    }
+
+    private int totalTokens(List<Message> messages) {
+        int total = 0;
+        for (Message message : messages) {
+            total += tokenCounter.count(message);
+        }
+        return total;
+    }
+
+    private int budgetFor(String agentId) {
+        return agentId != null ? agentBudgets.getOrDefault(agentId, defaultBudget) : defaultBudget;
+    }
+
+    private String agentTag(String agentId) {
+        if (agentId == null) {
+            return NO_AGENT;
+        }
+        return metricAgents.contains(agentId) ? agentId : OTHER_AGENT;
+    }
+
+    private Counter trimmedMessages(String agent, String reason) {
+        return Counter.builder("chat.memory.trim.messages")
+                .description("因预算 / 条数上限被移出记忆窗口的消息数")
+                .tag("agent", agent)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    private Counter trimmedToolResponses(String agent) {
+        return Counter.builder("chat.memory.trim.tool.responses")
+                .description("被截断的工具返回消息数")
+                .tag("agent", agent)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,89 @@
+package com.boyan.vir.repository;
+
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 支持 user_id / agent_id 的聊天记忆仓库
+ * MySQLChatMemoryRepository 及其装饰器（写缓冲、缓存等）统一实现该接口，
+ * ChatController 与记忆 advisor 只依赖该接口，不关心底层是否经过装饰
+ */
+public interface AgentChatMemoryRepository extends ChatMemoryRepository {
+
+    /**
+     * 带 user_id + agent_id 的保存
+     */
+    void saveAllWithAgent(String conversationId, String userId, String agentId, List<Message> messages);
+
+    /**
+     * 保存裁剪后的消息窗口，同时给出本轮新增的消息（按时间正序）
+     * 追加写的仓库（log 模式）只写入 newMessages，不从窗口内容推断新增部分；其余仓库按窗口整体保存
+     * userId / agentId 为 null 表示调用方不携带元数据
+     */
+    default void saveWindow(String conversationId, String userId, String agentId,
+                            List<Message> window, List<Message> newMessages) {
+        if (userId != null && agentId != null) {
+            saveAllWithAgent(conversationId, userId, agentId, window);
+        } else {
+            saveAll(conversationId, window);
+        }
+    }
+
+    /**
+     * 根据 (user_id, agent_id) 查找 conversation_id
+     *
+     * @return conversationId 或 null（不存在时）
+     */
+    String findConversationIdByUserAgent(String userId, String agentId);
+
+    /**
+     * 原子地为 (user_id, agent_id) 登记会话：不存在时以 candidateId 插入占位会话头，已存在时保留原有会话
+     * 多个节点同时为同一用户同一智能体新建会话时，只有一个 candidateId 生效
+     *
+     * @return 最终生效的 conversationId
+     */
+    String reserveConversationId(String userId, String agentId, String candidateId);
+
+    /**
+     * 按游标分页读取会话历史（从最新往前翻），只返回用户与助手消息（见 HistoryPage#displayed）
+     *
+     * @param before 只返回游标之前的消息，null 表示从最新消息开始
+     * @param limit  本页最多返回的消息条数（按过滤后的条数计算）
+     */
+    HistoryPage findHistoryPage(String conversationId, Long before, int limit);
+
+    /**
+     * 查询会话的滚动摘要（较早对话被移出窗口后压缩而成）
+     *
+     * @return 摘要或 null（尚未生成时）
+     */
+    String findSummary(String conversationId);
+
+    /**
+     * 保存会话的滚动摘要（覆盖旧摘要）
+     */
+    void saveSummary(String conversationId, String summary);
+
+    /**
+     * 按主键 keyset 分页列出会话头（不读取消息内容），每页只扫描 limit 行
+     *
+     * @param query 过滤条件
+     * @param after 只返回主键大于该游标的会话，null 表示从头开始
+     * @param limit 本页最多返回的会话数
+     */
+    ConversationPage findConversations(ConversationQuery query, Long after, int limit);
+
+    /**
+     * 流式遍历符合条件的会话头（按主键升序），结果集逐行读取，不在内存中累积
+     * 遍历期间占用一个数据库连接，回调中不要做耗时操作；大批量处理请用 findConversations 分页
+     */
+    void forEachConversation(ConversationQuery query, Consumer<ConversationRef> action);
+
+    /**
+     * 补充更新会话的 user_id 和 agent_id（advisor 内部保存时不带这两个字段）
+     */
+    void updateMetadata(String conversationId, String userId, String agentId);
+}
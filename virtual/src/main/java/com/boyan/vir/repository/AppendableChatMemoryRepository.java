@@ -0,0 +1,24 @@
+package com.boyan.vir.repository;
+
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 支持「只追加新消息 + 裁剪窗口」的聊天记忆仓库
+ *
+ * saveAll 每轮都要传输整个窗口；记忆组件已知本轮新增的消息时改用 append，
+ * 只写入新消息，并把已存消息裁剪到窗口大小
+ */
+public interface AppendableChatMemoryRepository extends ChatMemoryRepository {
+
+    /**
+     * 追加本轮新增的消息，并只保留最后 keepLast 条
+     *
+     * @param conversationId 会话 ID
+     * @param newMessages    本轮新增的消息（按时间正序）
+     * @param keepLast       追加后保留的消息条数（即裁剪后的窗口大小）
+     */
+    void append(String conversationId, List<Message> newMessages, int keepLast);
+}
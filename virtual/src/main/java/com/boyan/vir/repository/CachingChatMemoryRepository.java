@@ -0,0 +1,294 @@
+package com.boyan.vir.repository;
+
+import com.boyan.vir.repository.codec.MessageCodec;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * 两级读穿透缓存的聊天记忆仓库
+ *
+ *  - L1：进程内 Caffeine，缓存反序列化后的 List<Message>，按估算字节数加权限制总大小
+ *  - L2：Redis，缓存 MessageCodec 编码后的消息列表，多节点共享
+ *  - 未命中时回源 delegate（MySQL 仓库或其写缓冲），并回填两级缓存
+ *  - 写入 / 删除先写 delegate，再刷新本节点 L1 与 L2，并通过 Redis 频道通知其他节点淘汰 L1
+ *  - 容器关闭时把 destroy 转发给 delegate（写缓冲靠它把剩余数据刷盘）
+ *
+ * 注意：缓存的是最近一次保存的窗口（与 MessageWindowChatMemory 读取的窗口一致）
+ *
+ * 指标：cache.* {cache=chatMemoryL1}、chat.memory.cache.l1.weight.bytes、chat.memory.cache.l2.requests、chat.memory.cache.source.loads
+ */
+@Slf4j
+public class CachingChatMemoryRepository implements AgentChatMemoryRepository, DisposableBean {
+
+    public static final String INVALIDATION_CHANNEL = "virtual:memory:invalidate";
+
+    private static final String L2_KEY_PREFIX = "virtual:memory:conv:";
+
+    private final AgentChatMemoryRepository delegate;
+    private final Cache<String, List<Message>> l1;
+    /** 会话摘要（每轮读取一次，只做进程内缓存；空串表示没有摘要） */
+    private final Cache<String, String> summaries;
+    private final RedisTemplate<String, byte[]> l2;
+    private final StringRedisTemplate invalidationPublisher;
+    private final Duration l2Ttl;
+    private final MessageCodec codec;
+
+    /** 本节点标识，用于忽略自己发出的失效通知 */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+    private final Counter sourceLoads;
+
+    public CachingChatMemoryRepository(AgentChatMemoryRepository delegate,
+                                       RedisTemplate<String, byte[]> l2,
+                                       StringRedisTemplate invalidationPublisher,
+                                       MessageCodec codec,
+                                       long l1MaxBytes,
+                                       Duration l1ExpireAfterAccess,
+                                       Duration l2Ttl,
+                                       MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.l2 = l2;
+        this.invalidationPublisher = invalidationPublisher;
+        this.l2Ttl = l2Ttl;
+        this.codec = codec;
+
+        this.l1 = Caffeine.newBuilder()
+                .maximumWeight(l1MaxBytes)
+                .weigher((String key, List<Message> messages) -> estimateBytes(messages))
+                .expireAfterAccess(l1ExpireAfterAccess)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, l1, "chatMemoryL1");
+        this.summaries = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(l1ExpireAfterAccess)
+                .build();
+        Gauge.builder("chat.memory.cache.l1.weight.bytes", l1,
+                        cache -> cache.policy().eviction().map(e -> e.weightedSize().orElse(0L)).orElse(0L))
+                .description("L1 缓存估算占用字节数")
+                .register(meterRegistry);
+
+        this.l2Hits = Counter.builder("chat.memory.cache.l2.requests").tag("result", "hit").register(meterRegistry);
+        this.l2Misses = Counter.builder("chat.memory.cache.l2.requests").tag("result", "miss").register(meterRegistry);
+        this.sourceLoads = Counter.builder("chat.memory.cache.source.loads")
+                .description("两级缓存均未命中、回源 MySQL 的次数")
+                .register(meterRegistry);
+    }
+
+    // ===== Spring AI ChatMemoryRepository 接口方法 =====
+
+    @Override
+    public List<String> findConversationIds() {
+        return delegate.findConversationIds();
+    }
+
+    @Override
+    public ConversationPage findConversations(ConversationQuery query, Long after, int limit) {
+        return delegate.findConversations(query, after, limit);
+    }
+
+    @Override
+    public void forEachConversation(ConversationQuery query, Consumer<ConversationRef> action) {
+        delegate.forEachConversation(query, action);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        if (!StringUtils.hasText(conversationId)) {
+            return List.of();
+        }
+        List<Message> cached = l1.getIfPresent(conversationId);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<Message> fromL2 = readL2(conversationId);
+        if (fromL2 != null) {
+            l2Hits.increment();
+            l1.put(conversationId, fromL2);
+            return fromL2;
+        }
+        l2Misses.increment();
+
+        sourceLoads.increment();
+        List<Message> loaded = List.copyOf(delegate.findByConversationId(conversationId));
+        l1.put(conversationId, loaded);
+        writeL2(conversationId, loaded);
+        return loaded;
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        delegate.saveAll(conversationId, messages);
+        refresh(conversationId, messages);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        delegate.deleteByConversationId(conversationId);
+        if (StringUtils.hasText(conversationId)) {
+            l1.invalidate(conversationId);
+            summaries.invalidate(conversationId);
+            deleteL2(conversationId);
+            publishInvalidation(conversationId);
+        }
+    }
+
+    // ===== 扩展方法 — 支持 agent_id =====
+
+    @Override
+    public void saveAllWithAgent(String conversationId, String userId, String agentId, List<Message> messages) {
+        delegate.saveAllWithAgent(conversationId, userId, agentId, messages);
+        refresh(conversationId, messages);
+    }
+
+    @Override
+    public void saveWindow(String conversationId, String userId, String agentId,
+                           List<Message> window, List<Message> newMessages) {
+        delegate.saveWindow(conversationId, userId, agentId, window, newMessages);
+        refresh(conversationId, window);
+    }
+
+    @Override
+    public String findConversationIdByUserAgent(String userId, String agentId) {
+        return delegate.findConversationIdByUserAgent(userId, agentId);
+    }
+
+    @Override
+    public String reserveConversationId(String userId, String agentId, String candidateId) {
+        return delegate.reserveConversationId(userId, agentId, candidateId);
+    }
+
+    /**
+     * 历史翻页不经过缓存（缓存只保存最近窗口），直接读底层仓库
+     */
+    @Override
+    public HistoryPage findHistoryPage(String conversationId, Long before, int limit) {
+        return delegate.findHistoryPage(conversationId, before, limit);
+    }
+
+    @Override
+    public String findSummary(String conversationId) {
+        if (!StringUtils.hasText(conversationId)) {
+            return null;
+        }
+        String summary = summaries.get(conversationId, id -> {
+            String loaded = delegate.findSummary(id);
+            return loaded != null ? loaded : "";
+        });
+        return summary.isEmpty() ? null : summary;
+    }
+
+    @Override
+    public void saveSummary(String conversationId, String summary) {
+        delegate.saveSummary(conversationId, summary);
+        summaries.put(conversationId, summary != null ? summary : "");
+        publishInvalidation(conversationId);
+    }
+
+    @Override
+    public void updateMetadata(String conversationId, String userId, String agentId) {
+        delegate.updateMetadata(conversationId, userId, agentId);
+    }
+
+    /**
+     * 只有本包装层注册为 Spring Bean，被包装的写缓冲不会单独收到 destroy，这里负责转发
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (delegate instanceof DisposableBean disposable) {
+            disposable.destroy();
+        }
+    }
+
+    // ===== 多节点失效 =====
+
+    /**
+     * 处理 INVALIDATION_CHANNEL 上收到的消息（格式：nodeId|conversationId），淘汰本节点 L1 与摘要缓存
+     */
+    public void onInvalidation(String payload) {
+        int sep = payload.indexOf('|');
+        if (sep < 0 || nodeId.equals(payload.substring(0, sep))) {
+            return;
+        }
+        String conversationId = payload.substring(sep + 1);
+        l1.invalidate(conversationId);
+        summaries.invalidate(conversationId);
+    }
+
+    // ===== 内部实现 =====
+
+    private void refresh(String conversationId, List<Message> messages) {
+        if (!StringUtils.hasText(conversationId) || messages == null || messages.isEmpty()) {
+            return;
+        }
+        List<Message> snapshot = List.copyOf(messages);
+        l1.put(conversationId, snapshot);
+        writeL2(conversationId, snapshot);
+        publishInvalidation(conversationId);
+    }
+
+    private List<Message> readL2(String conversationId) {
+        try {
+            byte[] bytes = l2.opsForValue().get(L2_KEY_PREFIX + conversationId);
+            return bytes == null ? null : List.copyOf(codec.decode(bytes));
+        } catch (Exception e) {
+            // L2 不可用时降级为直接回源
+            log.warn("读取 Redis 记忆缓存失败（会话ID：{}）：{}", conversationId, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeL2(String conversationId, List<Message> messages) {
+        try {
+            l2.opsForValue().set(L2_KEY_PREFIX + conversationId, codec.encode(messages), l2Ttl);
+        } catch (Exception e) {
+            log.warn("写入 Redis 记忆缓存失败（会话ID：{}）：{}", conversationId, e.getMessage());
+        }
+    }
+
+    private void deleteL2(String conversationId) {
+        try {
+            l2.delete(L2_KEY_PREFIX + conversationId);
+        } catch (Exception e) {
+            log.warn("删除 Redis 记忆缓存失败（会话ID：{}）：{}", conversationId, e.getMessage());
+        }
+    }
+
+    private void publishInvalidation(String conversationId) {
+        try {
+            invalidationPublisher.convertAndSend(INVALIDATION_CHANNEL, nodeId + "|" + conversationId);
+        } catch (Exception e) {
+            log.warn("发布记忆缓存失效通知失败（会话ID：{}）：{}", conversationId, e.getMessage());
+        }
+    }
+
+    /**
+     * 粗略估算消息列表在堆上的字节数（字符按 2 字节计，另加对象开销）
+     */
+    static int estimateBytes(List<Message> messages) {
+        long bytes = 64;
+        for (Message message : messages) {
+            String text = message.getText();
+            bytes += 96 + (text == null ? 0 : text.length() * 2L);
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
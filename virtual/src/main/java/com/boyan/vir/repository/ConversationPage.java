@@ -0,0 +1,20 @@
+package com.boyan.vir.repository;
+
+import java.util.List;
+
+/**
+ * 会话分页结果（按主键升序的 keyset 分页）
+ *
+ * @param conversations 本页会话
+ * @param nextCursor    下一页作为 after 传入的游标，null 表示已到最后一页
+ */
+public record ConversationPage(List<ConversationRef> conversations, Long nextCursor) {
+
+    public static ConversationPage empty() {
+        return new ConversationPage(List.of(), null);
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
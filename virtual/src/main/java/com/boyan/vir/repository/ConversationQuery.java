@@ -0,0 +1,19 @@
+package com.boyan.vir.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话遍历的过滤条件，字段为 null 表示不过滤
+ *
+ * @param userId        只返回该用户的会话
+ * @param agentId       只返回该智能体的会话
+ * @param updatedAfter  只返回 updated_at >= 该时间的会话
+ * @param updatedBefore 只返回 updated_at < 该时间的会话（如清理长期不活跃的会话）
+ */
+public record ConversationQuery(String userId, String agentId,
+                                LocalDateTime updatedAfter, LocalDateTime updatedBefore) {
+
+    public static ConversationQuery all() {
+        return new ConversationQuery(null, null, null, null);
+    }
+}
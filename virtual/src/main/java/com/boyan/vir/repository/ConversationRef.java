@@ -0,0 +1,16 @@
+package com.boyan.vir.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话头（不含消息内容），用于批量遍历会话
+ *
+ * @param id             chat_memory 主键，作为分页游标
+ * @param conversationId 会话 ID
+ * @param userId         用户 ID
+ * @param agentId        智能体 ID
+ * @param updatedAt      最后更新时间
+ */
+public record ConversationRef(long id, String conversationId, String userId, String agentId,
+                              LocalDateTime updatedAt) {
+}
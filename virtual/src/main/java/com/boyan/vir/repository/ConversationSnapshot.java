@@ -0,0 +1,22 @@
+package com.boyan.vir.repository;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 某个会话待落库的完整消息窗口，供批量写入使用
+ * userId / agentId 为 null 表示调用方不携带元数据（保持库中已有值，新会话使用占位值）
+ * appended 为自上次落库以来新增的消息（追加写的仓库使用），null 表示调用方未给出
+ */
+public record ConversationSnapshot(String conversationId, String userId, String agentId, List<Message> messages,
+                                   List<Message> appended) {
+
+    public ConversationSnapshot(String conversationId, String userId, String agentId, List<Message> messages) {
+        this(conversationId, userId, agentId, messages, null);
+    }
+
+    public boolean hasMetadata() {
+        return userId != null && agentId != null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.boyan.vir.repository;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+
+import java.util.List;
+
+/**
+ * 历史消息分页结果（只含用户与助手消息，系统提示词、工具调用结果不展示）
+ *
+ * @param messages   本页消息（时间正序）
+ * @param nextCursor 加载更早一页时作为 before 传入的游标，null 表示没有更早的消息
+ */
+public record HistoryPage(List<Message> messages, Long nextCursor) {
+
+    public static HistoryPage empty() {
+        return new HistoryPage(List.of(), null);
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    /**
+     * 是否在历史中展示
+     */
+    public static boolean displayed(Message message) {
+        MessageType type = message.getMessageType();
+        return type == MessageType.USER || type == MessageType.ASSISTANT;
+    }
+}
@@ -1,17 +1,21 @@
 package com.boyan.vir.repository;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
-import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import com.boyan.vir.repository.codec.MessageCodec;
+import com.boyan.vir.repository.codec.MessageSlice;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.util.StringUtils;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * 适配Spring AI的MySQL聊天记忆仓库
@@ -20,15 +24,20 @@ import java.util.Optional;
  *
  * conversation_id 的生成规则：由 ChatController 根据 (userId, agentId) 查表获取或新建 UUID
  * 本仓库的 conversationId 参数 = chat_memory.conversation_id（全局唯一 UUID）
+ *
+ * messages 列的编码由 MessageCodec 决定（json / binary），读取时自动识别两种格式
  */
-public class MySQLChatMemoryRepository implements ChatMemoryRepository {
+public class MySQLChatMemoryRepository implements AgentChatMemoryRepository {
 
     private final JdbcTemplate jdbcTemplate;
-    private final ObjectMapper objectMapper;
-    private final CollectionType messageListType;
+    private final MessageCodec codec;
 
     // SQL — 按 conversation_id 操作（Spring AI ChatMemoryRepository 接口要求）
-    private static final String FIND_CONVERSATION_IDS_SQL = "SELECT DISTINCT conversation_id FROM chat_memory";
+    // 会话遍历：只读会话头，按主键 keyset 分页（过滤条件由 idx_agent_id / idx_updated_at / uk_user_agent 支撑）
+    private static final String FIND_CONVERSATIONS_SQL = "SELECT id, conversation_id, user_id, agent_id, updated_at FROM chat_memory";
+
+    // MySQL Connector/J 约定：fetchSize = Integer.MIN_VALUE 时逐行流式读取结果集
+    private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
 
     private static final String FIND_BY_CONV_ID_SQL = "SELECT messages FROM chat_memory WHERE conversation_id = ? LIMIT 1";
 
@@ -38,33 +47,53 @@ public class MySQLChatMemoryRepository implements ChatMemoryRepository {
             "VALUES (?, ?, ?, ?, ?, ?) " +
             "ON DUPLICATE KEY UPDATE role = VALUES(role), content = VALUES(content), messages = VALUES(messages)";
 
+    // 批量写入且携带元数据时，已有会话同时修正 user_id/agent_id（可能是此前占位插入的）
+    private static final String UPSERT_WITH_METADATA_SQL = "INSERT INTO chat_memory (conversation_id, user_id, agent_id, role, content, messages) "
+            + "VALUES (?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE user_id = VALUES(user_id), agent_id = VALUES(agent_id), "
+            + "role = VALUES(role), content = VALUES(content), messages = VALUES(messages)";
+
+    private static final String UPDATE_METADATA_SQL = "UPDATE chat_memory SET user_id = ?, agent_id = ? WHERE conversation_id = ?";
+
+    private static final String FIND_SUMMARY_SQL = "SELECT summary FROM chat_memory WHERE conversation_id = ? LIMIT 1";
+
+    private static final String UPDATE_SUMMARY_SQL = "UPDATE chat_memory SET summary = ? WHERE conversation_id = ?";
+
     private static final String DELETE_BY_CONV_ID_SQL = "DELETE FROM chat_memory WHERE conversation_id = ?";
 
     // 扩展查询 — 按 (user_id, agent_id) 查找 conversation_id
     private static final String FIND_CONV_ID_BY_USER_AGENT_SQL = "SELECT conversation_id FROM chat_memory WHERE user_id = ? AND agent_id = ? LIMIT 1";
 
+    // 占位会话头：依赖 uk_user_agent，已存在时不做任何修改（随后重新查询生效的 conversation_id）
+    private static final String RESERVE_CONV_ID_SQL = "INSERT INTO chat_memory (conversation_id, user_id, agent_id) VALUES (?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE id = id";
+
     // 扩展查询 — 按 (user_id, agent_id) 查找消息
     private static final String FIND_MESSAGES_BY_USER_AGENT_SQL = "SELECT messages FROM chat_memory WHERE user_id = ? AND agent_id = ? LIMIT 1";
 
-    public MySQLChatMemoryRepository(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+    public MySQLChatMemoryRepository(JdbcTemplate jdbcTemplate, MessageCodec codec) {
         this.jdbcTemplate = jdbcTemplate;
-        this.objectMapper = objectMapper;
-        this.messageListType = objectMapper.getTypeFactory().constructCollectionType(List.class, Message.class);
+        this.codec = codec;
     }
 
     public JdbcTemplate getJdbcTemplate() {
         return jdbcTemplate;
     }
 
+    protected MessageCodec getCodec() {
+        return codec;
+    }
+
     // ===== Spring AI ChatMemoryRepository 接口方法 =====
 
+    /**
+     * 接口要求返回完整列表，会话很多时请改用 findConversations / forEachConversation
+     */
     @Override
     public List<String> findConversationIds() {
-        try {
-            return jdbcTemplate.queryForList(FIND_CONVERSATION_IDS_SQL, String.class);
-        } catch (Exception e) {
-            throw new RuntimeException("查询所有会话ID失败：" + e.getMessage(), e);
-        }
+        List<String> ids = new ArrayList<>();
+        forEachConversation(ConversationQuery.all(), ref -> ids.add(ref.conversationId()));
+        return ids;
     }
 
     @Override
@@ -73,15 +102,13 @@ public class MySQLChatMemoryRepository implements ChatMemoryRepository {
             return Collections.emptyList();
         }
         try {
-            List<String> resultList = jdbcTemplate.queryForList(FIND_BY_CONV_ID_SQL, String.class, conversationId);
-            Optional<String> messagesJson = resultList.stream().findFirst();
+            List<byte[]> resultList = jdbcTemplate.query(FIND_BY_CONV_ID_SQL, (rs, rowNum) -> rs.getBytes(1), conversationId);
+            Optional<byte[]> messagesData = resultList.stream().findFirst();
 
-            if (messagesJson.isPresent() && StringUtils.hasText(messagesJson.get())) {
-                return objectMapper.readValue(messagesJson.get(), messageListType);
+            if (messagesData.isPresent() && messagesData.get() != null && messagesData.get().length > 0) {
+                return codec.decode(messagesData.get());
             }
             return Collections.emptyList();
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("反序列化Message列表失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
         } catch (Exception e) {
             throw new RuntimeException("查询对话记忆失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
         }
@@ -94,7 +121,7 @@ public class MySQLChatMemoryRepository implements ChatMemoryRepository {
         }
 
         try {
-            String messagesJson = objectMapper.writeValueAsString(messages);
+            byte[] messagesData = codec.encode(messages);
             Message lastMessage = messages.get(messages.size() - 1);
             String role = lastMessage.getMessageType().name();
             String content = Optional.ofNullable(lastMessage.getText()).orElse("");
@@ -108,15 +135,13 @@ public class MySQLChatMemoryRepository implements ChatMemoryRepository {
                 // 已存在 → 仅更新 messages/role/content，不动 user_id/agent_id/id
                 jdbcTemplate.update(
                         "UPDATE chat_memory SET role = ?, content = ?, messages = ? WHERE conversation_id = ?",
-                        role, content, messagesJson, conversationId);
+                        role, content, messagesData, conversationId);
             } else {
                 // 不存在 → 插入（controller 的 updateMemoryMetadata 会修正 user_id 和 agent_id）
                 jdbcTemplate.update(
                         "INSERT INTO chat_memory (conversation_id, user_id, agent_id, role, content, messages) VALUES (?, ?, ?, ?, ?, ?)",
-                        conversationId, conversationId, "default", role, content, messagesJson);
+                        conversationId, conversationId, "default", role, content, messagesData);
             }
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("序列化Message列表失败：" + e.getMessage(), e);
         } catch (Exception e) {
             throw new RuntimeException("保存对话记忆失败：" + e.getMessage(), e);
         }
@@ -139,30 +164,146 @@ public class MySQLChatMemoryRepository implements ChatMemoryRepository {
      * 带 user_id + agent_id 的 upsert 保存
      * 使用 INSERT ... ON DUPLICATE KEY UPDATE，id 不变
      */
+    @Override
     public void saveAllWithAgent(String conversationId, String userId, String agentId, List<Message> messages) {
         if (!StringUtils.hasText(conversationId) || messages == null || messages.isEmpty()) {
             return;
         }
         try {
-            String messagesJson = objectMapper.writeValueAsString(messages);
+            byte[] messagesData = codec.encode(messages);
             Message lastMessage = messages.get(messages.size() - 1);
             String role = lastMessage.getMessageType().name();
             String content = Optional.ofNullable(lastMessage.getText()).orElse("");
 
             jdbcTemplate.update(UPSERT_SQL,
-                    conversationId, userId, agentId, role, content, messagesJson);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("序列化Message列表失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+                    conversationId, userId, agentId, role, content, messagesData);
         } catch (Exception e) {
             throw new RuntimeException("保存对话记忆失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
         }
     }
 
+    /**
+     * 批量保存多个会话的消息窗口（写缓冲刷盘使用）
+     * 每个会话一条 INSERT ... ON DUPLICATE KEY UPDATE，通过 JDBC batch 一次提交；
+     * 不带元数据的新会话与 saveAll 一致，使用占位 user_id/agent_id
+     */
+    public void saveAllBatch(List<ConversationSnapshot> snapshots) {
+        List<Object[]> plainArgs = new ArrayList<>();
+        List<Object[]> metadataArgs = new ArrayList<>();
+        for (ConversationSnapshot snapshot : snapshots) {
+            if (!StringUtils.hasText(snapshot.conversationId()) || snapshot.messages() == null || snapshot.messages().isEmpty()) {
+                continue;
+            }
+            byte[] messagesData = codec.encode(snapshot.messages());
+            Message lastMessage = snapshot.messages().get(snapshot.messages().size() - 1);
+            String role = lastMessage.getMessageType().name();
+            String content = Optional.ofNullable(lastMessage.getText()).orElse("");
+            if (snapshot.hasMetadata()) {
+                metadataArgs.add(new Object[]{snapshot.conversationId(), snapshot.userId(), snapshot.agentId(),
+                        role, content, messagesData});
+            } else {
+                plainArgs.add(new Object[]{snapshot.conversationId(), snapshot.conversationId(), "default",
+                        role, content, messagesData});
+            }
+        }
+        try {
+            if (!plainArgs.isEmpty()) {
+                jdbcTemplate.batchUpdate(UPSERT_SQL, plainArgs);
+            }
+            if (!metadataArgs.isEmpty()) {
+                jdbcTemplate.batchUpdate(UPSERT_WITH_METADATA_SQL, metadataArgs);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("批量保存对话记忆失败：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 分页读取历史：游标为消息在整段列表中的下标，只解码需要的一段；
+     * 段内不展示的消息不计入 limit，不足时继续往前解码
+     */
+    @Override
+    public HistoryPage findHistoryPage(String conversationId, Long before, int limit) {
+        if (!StringUtils.hasText(conversationId) || limit <= 0) {
+            return HistoryPage.empty();
+        }
+        try {
+            List<byte[]> resultList = jdbcTemplate.query(FIND_BY_CONV_ID_SQL, (rs, rowNum) -> rs.getBytes(1), conversationId);
+            if (resultList.isEmpty() || resultList.get(0) == null || resultList.get(0).length == 0) {
+                return HistoryPage.empty();
+            }
+            Integer end = before == null ? null : (int) Math.min(before, Integer.MAX_VALUE);
+            // 从新到旧收集
+            List<Message> page = new ArrayList<>(limit);
+            while (true) {
+                MessageSlice slice = codec.decodeSlice(resultList.get(0), end, limit);
+                List<Message> messages = slice.messages();
+                int i = messages.size() - 1;
+                for (; i >= 0 && page.size() < limit; i--) {
+                    if (HistoryPage.displayed(messages.get(i))) {
+                        page.add(messages.get(i));
+                    }
+                }
+                if (page.size() >= limit) {
+                    // i + 1 为本页最早一条消息在段内的下标
+                    int oldest = slice.startIndex() + i + 1;
+                    Collections.reverse(page);
+                    return new HistoryPage(page, oldest > 0 ? (long) oldest : null);
+                }
+                if (messages.isEmpty() || slice.startIndex() <= 0) {
+                    Collections.reverse(page);
+                    return new HistoryPage(page, null);
+                }
+                end = slice.startIndex();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("分页查询对话记忆失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String findSummary(String conversationId) {
+        if (!StringUtils.hasText(conversationId)) {
+            return null;
+        }
+        try {
+            List<String> result = jdbcTemplate.queryForList(FIND_SUMMARY_SQL, String.class, conversationId);
+            return result.isEmpty() ? null : result.get(0);
+        } catch (Exception e) {
+            throw new RuntimeException("查询会话摘要失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 会话行由记忆保存时创建，摘要只更新已有行
+     */
+    @Override
+    public void saveSummary(String conversationId, String summary) {
+        try {
+            jdbcTemplate.update(UPDATE_SUMMARY_SQL, summary, conversationId);
+        } catch (Exception e) {
+            throw new RuntimeException("保存会话摘要失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 补充更新 user_id 和 agent_id
+     */
+    @Override
+    public void updateMetadata(String conversationId, String userId, String agentId) {
+        try {
+            jdbcTemplate.update(UPDATE_METADATA_SQL, userId, agentId, conversationId);
+        } catch (Exception e) {
+            throw new RuntimeException("更新记忆元数据失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+        }
+    }
+
     /**
      * 根据 (user_id, agent_id) 查找 conversation_id
      * 
      * @return conversationId 或 null（不存在时）
      */
+    @Override
     public String findConversationIdByUserAgent(String userId, String agentId) {
         try {
             List<String> result = jdbcTemplate.queryForList(FIND_CONV_ID_BY_USER_AGENT_SQL, String.class, userId,
@@ -173,25 +314,110 @@ public class MySQLChatMemoryRepository implements ChatMemoryRepository {
         }
     }
 
+    /**
+     * INSERT ... ON DUPLICATE KEY UPDATE 占位后重新查询，并发插入时以先提交者为准
+     */
+    @Override
+    public String reserveConversationId(String userId, String agentId, String candidateId) {
+        try {
+            jdbcTemplate.update(RESERVE_CONV_ID_SQL, candidateId, userId, agentId);
+        } catch (Exception e) {
+            throw new RuntimeException("登记会话ID失败：" + e.getMessage(), e);
+        }
+        String conversationId = findConversationIdByUserAgent(userId, agentId);
+        return conversationId != null ? conversationId : candidateId;
+    }
+
+    @Override
+    public ConversationPage findConversations(ConversationQuery query, Long after, int limit) {
+        List<Object> params = new ArrayList<>();
+        String sql = FIND_CONVERSATIONS_SQL + conversationFilter(query, after, params) + " ORDER BY id LIMIT ?";
+        params.add(limit + 1);
+        try {
+            List<ConversationRef> rows = jdbcTemplate.query(sql, (rs, rowNum) -> toConversationRef(rs), params.toArray());
+            if (rows.size() <= limit) {
+                return new ConversationPage(rows, null);
+            }
+            List<ConversationRef> page = rows.subList(0, limit);
+            return new ConversationPage(page, page.get(page.size() - 1).id());
+        } catch (Exception e) {
+            throw new RuntimeException("分页查询会话失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void forEachConversation(ConversationQuery query, Consumer<ConversationRef> action) {
+        List<Object> params = new ArrayList<>();
+        String sql = FIND_CONVERSATIONS_SQL + conversationFilter(query, null, params) + " ORDER BY id";
+        try {
+            jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(STREAMING_FETCH_SIZE);
+                for (int i = 0; i < params.size(); i++) {
+                    ps.setObject(i + 1, params.get(i));
+                }
+                return ps;
+            }, (RowCallbackHandler) rs -> action.accept(toConversationRef(rs)));
+        } catch (Exception e) {
+            throw new RuntimeException("遍历会话失败：" + e.getMessage(), e);
+        }
+    }
+
     /**
      * 根据 (user_id, agent_id) 查找消息列表
      */
     public List<Message> findMessagesByUserAgent(String userId, String agentId) {
         try {
-            List<String> result = jdbcTemplate.queryForList(FIND_MESSAGES_BY_USER_AGENT_SQL, String.class, userId,
-                    agentId);
+            List<byte[]> result = jdbcTemplate.query(FIND_MESSAGES_BY_USER_AGENT_SQL, (rs, rowNum) -> rs.getBytes(1),
+                    userId, agentId);
             if (result.isEmpty()) {
                 return Collections.emptyList();
             }
-            String json = result.get(0);
-            if (!StringUtils.hasText(json)) {
+            byte[] data = result.get(0);
+            if (data == null || data.length == 0) {
                 return Collections.emptyList();
             }
-            return objectMapper.readValue(json, messageListType);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("反序列化消息失败：" + e.getMessage(), e);
+            return codec.decode(data);
         } catch (Exception e) {
             throw new RuntimeException("查询消息失败：" + e.getMessage(), e);
         }
     }
-}
\ No newline at end of file
+
+    // ===== 内部工具 =====
+
+    private static String conversationFilter(ConversationQuery query, Long after, List<Object> params) {
+        List<String> conditions = new ArrayList<>();
+        if (after != null) {
+            conditions.add("id > ?");
+            params.add(after);
+        }
+        if (query != null) {
+            if (StringUtils.hasText(query.userId())) {
+                conditions.add("user_id = ?");
+                params.add(query.userId());
+            }
+            if (StringUtils.hasText(query.agentId())) {
+                conditions.add("agent_id = ?");
+                params.add(query.agentId());
+            }
+            if (query.updatedAfter() != null) {
+                conditions.add("updated_at >= ?");
+                params.add(query.updatedAfter());
+            }
+            if (query.updatedBefore() != null) {
+                conditions.add("updated_at < ?");
+                params.add(query.updatedBefore());
+            }
+        }
+        return conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions);
+    }
+
+    private static ConversationRef toConversationRef(ResultSet rs) throws SQLException {
+        return new ConversationRef(
+                rs.getLong("id"),
+                rs.getString("conversation_id"),
+                rs.getString("user_id"),
+                rs.getString("agent_id"),
+                rs.getObject("updated_at", LocalDateTime.class));
+    }
+}
@@ -0,0 +1,364 @@
+package com.boyan.vir.repository;
+
+import com.boyan.vir.repository.codec.MessageCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 追加写（log 模式）的 MySQL 聊天记忆仓库
+ *
+ * 与父类的区别：
+ *  - 消息不再整段序列化到 chat_memory.messages，而是每条消息一行写入 chat_memory_message
+ *  - 记忆组件通过 saveWindow 给出本轮新增的消息，只把这部分按 seq 递增批量 INSERT，写入量与会话长度无关；
+ *    不携带新增消息的 saveAll / saveAllWithAgent 无法确定新增部分，不支持
+ *  - 并发写同一会话时 seq 冲突（uk_conversation_seq）会重新读取最大 seq 后重试
+ *  - findByConversationId 只读取尾部 tailWindow 条，满足 MessageWindowChatMemory 的窗口即可
+ *  - chat_memory 仍保留一行会话头（user_id / agent_id / 最后一条消息），供按 (userId, agentId) 查找会话
+ *
+ * 旧数据迁移：日志表中没有某会话的记录时，会从 chat_memory.messages 读取旧数据并一次性搬迁
+ */
+@Slf4j
+public class MySQLMessageLogChatMemoryRepository extends MySQLChatMemoryRepository {
+
+    private final int tailWindow;
+    /** 一次追加的多行消息在同一事务中写入，seq 冲突时整体回滚后重试 */
+    private final TransactionTemplate transactions;
+
+    private static final int MIGRATE_PAGE_SIZE = 500;
+
+    /** seq 冲突（并发追加同一会话）时的最大尝试次数 */
+    private static final int APPEND_ATTEMPTS = 3;
+
+    private static final String FIND_LAST_SEQ_SQL = "SELECT MAX(seq) FROM chat_memory_message WHERE conversation_id = ?";
+
+    private static final String FIND_TAIL_SQL = "SELECT seq, message FROM chat_memory_message "
+            + "WHERE conversation_id = ? ORDER BY seq DESC LIMIT ?";
+
+    // 历史分页只取展示的消息类型（与 HistoryPage#displayed 一致）
+    private static final String FIND_PAGE_SQL = "SELECT seq, message FROM chat_memory_message "
+            + "WHERE conversation_id = ? AND seq < ? AND message_type IN ('USER', 'ASSISTANT') ORDER BY seq DESC LIMIT ?";
+
+    private static final String INSERT_MESSAGE_SQL = "INSERT INTO chat_memory_message "
+            + "(conversation_id, seq, message_type, message) VALUES (?, ?, ?, ?)";
+
+    private static final String DELETE_MESSAGES_SQL = "DELETE FROM chat_memory_message WHERE conversation_id = ?";
+
+    // 会话头：新会话插入，已有会话只更新最后一条消息摘要，不动 user_id/agent_id/messages
+    private static final String UPSERT_HEADER_SQL = "INSERT INTO chat_memory (conversation_id, user_id, agent_id, role, content, messages) "
+            + "VALUES (?, ?, ?, ?, ?, NULL) "
+            + "ON DUPLICATE KEY UPDATE role = VALUES(role), content = VALUES(content)";
+
+    // 会话头：携带元数据时同时修正 user_id/agent_id
+    private static final String UPSERT_HEADER_WITH_METADATA_SQL = "INSERT INTO chat_memory (conversation_id, user_id, agent_id, role, content, messages) "
+            + "VALUES (?, ?, ?, ?, ?, NULL) "
+            + "ON DUPLICATE KEY UPDATE user_id = VALUES(user_id), agent_id = VALUES(agent_id), "
+            + "role = VALUES(role), content = VALUES(content)";
+
+    public MySQLMessageLogChatMemoryRepository(JdbcTemplate jdbcTemplate, MessageCodec codec, int tailWindow) {
+        super(jdbcTemplate, codec);
+        this.tailWindow = tailWindow;
+        this.transactions = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+    }
+
+    // ===== Spring AI ChatMemoryRepository 接口方法 =====
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        if (!StringUtils.hasText(conversationId)) {
+            return Collections.emptyList();
+        }
+        return toMessages(findTailOrMigrate(conversationId));
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        throw new UnsupportedOperationException("log 模式需要通过 saveWindow 给出本轮新增的消息");
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        if (StringUtils.hasText(conversationId)) {
+            try {
+                getJdbcTemplate().update(DELETE_MESSAGES_SQL, conversationId);
+            } catch (Exception e) {
+                throw new RuntimeException("删除对话消息日志失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+            }
+            super.deleteByConversationId(conversationId);
+        }
+    }
+
+    // ===== 扩展方法 — 支持 agent_id =====
+
+    @Override
+    public void saveAllWithAgent(String conversationId, String userId, String agentId, List<Message> messages) {
+        throw new UnsupportedOperationException("log 模式需要通过 saveWindow 给出本轮新增的消息");
+    }
+
+    @Override
+    public void saveWindow(String conversationId, String userId, String agentId,
+                           List<Message> window, List<Message> newMessages) {
+        if (!StringUtils.hasText(conversationId) || newMessages == null || newMessages.isEmpty()) {
+            return;
+        }
+        boolean hasMetadata = userId != null && agentId != null;
+        // 与父类一致：不带元数据的新会话先用占位 user_id/agent_id，由 controller 补充修正
+        appendMessages(conversationId, hasMetadata ? userId : conversationId, hasMetadata ? agentId : "default",
+                hasMetadata, newMessages);
+    }
+
+    /**
+     * 批量追加多个会话的新增消息：消息行与会话头各一次 JDBC batch；
+     * 与其他节点的并发写发生 seq 冲突时，逐个会话重试
+     */
+    @Override
+    public void saveAllBatch(List<ConversationSnapshot> snapshots) {
+        List<Object[]> messageArgs = new ArrayList<>();
+        List<Object[]> plainHeaderArgs = new ArrayList<>();
+        List<Object[]> metadataHeaderArgs = new ArrayList<>();
+        List<ConversationSnapshot> written = new ArrayList<>();
+        for (ConversationSnapshot snapshot : snapshots) {
+            if (!StringUtils.hasText(snapshot.conversationId())) {
+                continue;
+            }
+            if (snapshot.appended() == null) {
+                throw new IllegalArgumentException("log 模式需要给出本轮新增的消息（会话ID：" + snapshot.conversationId() + "）");
+            }
+            List<Message> appended = snapshot.appended();
+            if (appended.isEmpty()) {
+                continue;
+            }
+            written.add(snapshot);
+            int nextSeq = lastSeqOrMigrate(snapshot.conversationId()) + 1;
+            collectMessageRows(snapshot.conversationId(), nextSeq, appended, messageArgs);
+
+            Message lastMessage = appended.get(appended.size() - 1);
+            String role = lastMessage.getMessageType().name();
+            String content = Optional.ofNullable(lastMessage.getText()).orElse("");
+            if (snapshot.hasMetadata()) {
+                metadataHeaderArgs.add(new Object[]{snapshot.conversationId(), snapshot.userId(), snapshot.agentId(), role, content});
+            } else {
+                plainHeaderArgs.add(new Object[]{snapshot.conversationId(), snapshot.conversationId(), "default", role, content});
+            }
+        }
+        try {
+            if (!messageArgs.isEmpty()) {
+                try {
+                    transactions.executeWithoutResult(status -> getJdbcTemplate().batchUpdate(INSERT_MESSAGE_SQL, messageArgs));
+                } catch (DuplicateKeyException e) {
+                    for (ConversationSnapshot snapshot : written) {
+                        appendMessages(snapshot.conversationId(),
+                                snapshot.hasMetadata() ? snapshot.userId() : snapshot.conversationId(),
+                                snapshot.hasMetadata() ? snapshot.agentId() : "default",
+                                snapshot.hasMetadata(), snapshot.appended());
+                    }
+                    return;
+                }
+            }
+            if (!plainHeaderArgs.isEmpty()) {
+                getJdbcTemplate().batchUpdate(UPSERT_HEADER_SQL, plainHeaderArgs);
+            }
+            if (!metadataHeaderArgs.isEmpty()) {
+                getJdbcTemplate().batchUpdate(UPSERT_HEADER_WITH_METADATA_SQL, metadataHeaderArgs);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("批量保存对话消息日志失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Message> findMessagesByUserAgent(String userId, String agentId) {
+        String conversationId = findConversationIdByUserAgent(userId, agentId);
+        return conversationId == null ? Collections.emptyList() : findByConversationId(conversationId);
+    }
+
+    /**
+     * 分页读取历史：游标为消息序号 seq，按 (conversation_id, seq) 索引倒序取一页
+     */
+    @Override
+    public HistoryPage findHistoryPage(String conversationId, Long before, int limit) {
+        if (!StringUtils.hasText(conversationId) || limit <= 0) {
+            return HistoryPage.empty();
+        }
+        int beforeSeq = before == null ? Integer.MAX_VALUE : (int) Math.min(before, Integer.MAX_VALUE);
+        List<LoggedMessage> page = readPage(conversationId, beforeSeq, limit + 1);
+        if (page.isEmpty() && before == null && readTail(conversationId, 1).isEmpty()
+                && !migrateFromBlob(conversationId).isEmpty()) {
+            page = readPage(conversationId, beforeSeq, limit + 1);
+        }
+        // 多取一条用于判断是否还有更早的消息
+        boolean hasMore = page.size() > limit;
+        List<LoggedMessage> visible = hasMore ? page.subList(page.size() - limit, page.size()) : page;
+        Long nextCursor = hasMore ? (long) visible.get(0).seq() : null;
+        return new HistoryPage(toMessages(visible), nextCursor);
+    }
+
+    // ===== 旧数据迁移 =====
+
+    /**
+     * 把所有仍只存在于 chat_memory.messages 的会话搬迁到日志表
+     *
+     * @return 实际迁移的会话数
+     */
+    public int migrateAllFromBlobs() {
+        int migrated = 0;
+        // 按主键分页遍历会话头，不一次性加载全部会话 ID
+        ConversationPage page = findConversations(ConversationQuery.all(), null, MIGRATE_PAGE_SIZE);
+        while (true) {
+            for (ConversationRef ref : page.conversations()) {
+                String conversationId = ref.conversationId();
+                try {
+                    if (readTail(conversationId, 1).isEmpty() && !migrateFromBlob(conversationId).isEmpty()) {
+                        migrated++;
+                    }
+                } catch (Exception e) {
+                    log.warn("会话 {} 迁移到消息日志失败，跳过：{}", conversationId, e.getMessage());
+                }
+            }
+            if (!page.hasMore()) {
+                break;
+            }
+            page = findConversations(ConversationQuery.all(), page.nextCursor(), MIGRATE_PAGE_SIZE);
+        }
+        log.info("chat_memory 旧数据迁移完成，共迁移 {} 个会话", migrated);
+        return migrated;
+    }
+
+    /**
+     * 把单个会话的旧 JSON 消息按原顺序写入日志表（旧列保持不动，便于回退）
+     *
+     * @return 迁移后的尾部窗口
+     */
+    public List<LoggedMessage> migrateFromBlob(String conversationId) {
+        List<Message> legacy = super.findByConversationId(conversationId);
+        if (legacy.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<LoggedMessage> inserted;
+        try {
+            inserted = transactions.execute(status -> insertMessages(conversationId, 1, legacy));
+        } catch (DuplicateKeyException e) {
+            // 其他请求 / 节点已完成迁移（或已开始追加），以日志表为准
+            return readTail(conversationId, tailWindow);
+        }
+        log.debug("会话 {} 已从 chat_memory.messages 迁移 {} 条消息到日志表", conversationId, inserted.size());
+        return inserted.subList(Math.max(0, inserted.size() - tailWindow), inserted.size());
+    }
+
+    // ===== 内部实现 =====
+
+    /**
+     * 已落库的单条消息（seq 为会话内序号）
+     */
+    public record LoggedMessage(int seq, Message message) {
+    }
+
+    private List<LoggedMessage> findTailOrMigrate(String conversationId) {
+        List<LoggedMessage> tail = readTail(conversationId, tailWindow);
+        return tail.isEmpty() ? migrateFromBlob(conversationId) : tail;
+    }
+
+    /**
+     * 追加新消息：按当前最大 seq 续写，与并发写入发生 seq 冲突时重新读取后重试
+     */
+    private void appendMessages(String conversationId, String userId, String agentId, boolean hasMetadata,
+                                List<Message> messages) {
+        try {
+            for (int attempt = 1; ; attempt++) {
+                int nextSeq = lastSeqOrMigrate(conversationId) + 1;
+                try {
+                    transactions.executeWithoutResult(status -> insertMessages(conversationId, nextSeq, messages));
+                    break;
+                } catch (DuplicateKeyException e) {
+                    if (attempt >= APPEND_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.debug("会话 {} 追加消息时 seq {} 已被占用，重试", conversationId, nextSeq);
+                }
+            }
+
+            Message lastMessage = messages.get(messages.size() - 1);
+            getJdbcTemplate().update(hasMetadata ? UPSERT_HEADER_WITH_METADATA_SQL : UPSERT_HEADER_SQL,
+                    conversationId, userId, agentId,
+                    lastMessage.getMessageType().name(),
+                    Optional.ofNullable(lastMessage.getText()).orElse(""));
+        } catch (Exception e) {
+            throw new RuntimeException("保存对话记忆失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 会话当前最大的 seq；日志表中还没有该会话时先从旧列迁移，仍没有消息时返回 0
+     */
+    private int lastSeqOrMigrate(String conversationId) {
+        Integer last = getJdbcTemplate().queryForObject(FIND_LAST_SEQ_SQL, Integer.class, conversationId);
+        if (last != null) {
+            return last;
+        }
+        List<LoggedMessage> migrated = migrateFromBlob(conversationId);
+        return migrated.isEmpty() ? 0 : migrated.get(migrated.size() - 1).seq();
+    }
+
+    private List<LoggedMessage> readTail(String conversationId, int limit) {
+        try {
+            List<LoggedMessage> tail = getJdbcTemplate().query(FIND_TAIL_SQL,
+                    (rs, rowNum) -> new LoggedMessage(rs.getInt("seq"), getCodec().decodeMessage(rs.getBytes("message"))),
+                    conversationId, limit);
+            // 倒序查询取尾部，返回前恢复为时间正序
+            List<LoggedMessage> ordered = new ArrayList<>(tail);
+            Collections.reverse(ordered);
+            return ordered;
+        } catch (Exception e) {
+            throw new RuntimeException("查询对话消息日志失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+        }
+    }
+
+    private List<LoggedMessage> readPage(String conversationId, int beforeSeq, int limit) {
+        try {
+            List<LoggedMessage> page = getJdbcTemplate().query(FIND_PAGE_SQL,
+                    (rs, rowNum) -> new LoggedMessage(rs.getInt("seq"), getCodec().decodeMessage(rs.getBytes("message"))),
+                    conversationId, beforeSeq, limit);
+            List<LoggedMessage> ordered = new ArrayList<>(page);
+            Collections.reverse(ordered);
+            return ordered;
+        } catch (Exception e) {
+            throw new RuntimeException("分页查询对话消息日志失败（会话ID：" + conversationId + "）：" + e.getMessage(), e);
+        }
+    }
+
+    private List<LoggedMessage> insertMessages(String conversationId, int firstSeq, List<Message> messages) {
+        List<Object[]> batchArgs = new ArrayList<>(messages.size());
+        List<LoggedMessage> inserted = collectMessageRows(conversationId, firstSeq, messages, batchArgs);
+        getJdbcTemplate().batchUpdate(INSERT_MESSAGE_SQL, batchArgs);
+        return inserted;
+    }
+
+    private List<LoggedMessage> collectMessageRows(String conversationId, int firstSeq, List<Message> messages,
+                                                   List<Object[]> batchArgs) {
+        List<LoggedMessage> rows = new ArrayList<>(messages.size());
+        int seq = firstSeq;
+        for (Message message : messages) {
+            batchArgs.add(new Object[]{conversationId, seq, message.getMessageType().name(), getCodec().encodeMessage(message)});
+            rows.add(new LoggedMessage(seq, message));
+            seq++;
+        }
+        return rows;
+    }
+
+    private static List<Message> toMessages(List<LoggedMessage> logged) {
+        List<Message> messages = new ArrayList<>(logged.size());
+        for (LoggedMessage loggedMessage : logged) {
+            messages.add(loggedMessage.message());
+        }
+        return messages;
+    }
+}
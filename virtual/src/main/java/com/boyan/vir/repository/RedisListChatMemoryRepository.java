@@ -0,0 +1,259 @@
+package com.boyan.vir.repository;
+
+import com.boyan.vir.repository.codec.MessageCodec;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.util.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 基于 Redis List 的聊天记忆仓库（替代 JedisRedisChatMemoryRepository）
+ *
+ *  - 每个会话一个 List，每个元素是一条按 MessageCodec 编码的消息
+ *  - append：一个 Lua 脚本内完成 RPUSH 新消息 + LTRIM 裁剪窗口 + EXPIRE，只传输本轮新增的消息
+ *  - saveAll：一个 Lua 脚本内完成 DEL + RPUSH + EXPIRE，整体替换（不知道新增部分时的兜底）
+ *  - findByConversationId：LRANGE 只读取尾部 tailWindow 条
+ *  - 每次写入刷新过期时间，闲置超过 ttl 的会话由 Redis 自动清理
+ *
+ * 旧数据兼容：此前由 JedisRedisChatMemoryRepository 写入的会话（legacyKeyPrefix，默认 chat_memory:，
+ * 每条消息一个 JSON 元素）在首次读取且新 List 不存在时迁移到新 List 并删除旧键；
+ * 对话流程先读取记忆再写入，旧会话在下一轮对话时即完成迁移。saveAll / 删除同时删除旧键，避免旧数据重新出现
+ */
+@Slf4j
+public class RedisListChatMemoryRepository implements AppendableChatMemoryRepository {
+
+    /** KEYS[1] 会话 List；ARGV[1] 保留条数，ARGV[2] 过期秒数，ARGV[3..] 新消息 */
+    private static final RedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>("""
+            if #ARGV > 2 then
+                redis.call('RPUSH', KEYS[1], unpack(ARGV, 3))
+            end
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+            redis.call('EXPIRE', KEYS[1], tonumber(ARGV[2]))
+            return redis.call('LLEN', KEYS[1])
+            """, Long.class);
+
+    /** KEYS[1] 会话 List；ARGV[1] 过期秒数，ARGV[2..] 整个窗口 */
+    private static final RedisScript<Long> REPLACE_SCRIPT = new DefaultRedisScript<>("""
+            redis.call('DEL', KEYS[1])
+            if #ARGV > 1 then
+                redis.call('RPUSH', KEYS[1], unpack(ARGV, 2))
+                redis.call('EXPIRE', KEYS[1], tonumber(ARGV[1]))
+            end
+            return #ARGV - 1
+            """, Long.class);
+
+    /** KEYS[1] 会话 List，KEYS[2] 旧键；新 List 已存在时放弃迁移（其他线程已迁移或已写入新消息）；ARGV 同 REPLACE_SCRIPT */
+    private static final RedisScript<Long> MIGRATE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                return 0
+            end
+            if #ARGV > 1 then
+                redis.call('RPUSH', KEYS[1], unpack(ARGV, 2))
+                redis.call('EXPIRE', KEYS[1], tonumber(ARGV[1]))
+            end
+            redis.call('DEL', KEYS[2])
+            return 1
+            """, Long.class);
+
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final MessageCodec codec;
+    private final String keyPrefix;
+    private final int tailWindow;
+    private final byte[] ttlSeconds;
+    /** 旧版记忆的键前缀，为空表示不读取旧数据 */
+    private final String legacyKeyPrefix;
+    /** 解析旧版 JSON 消息 */
+    private final ObjectMapper objectMapper;
+
+    public RedisListChatMemoryRepository(RedisTemplate<String, byte[]> redisTemplate,
+                                         MessageCodec codec,
+                                         String keyPrefix,
+                                         int tailWindow,
+                                         Duration ttl,
+                                         String legacyKeyPrefix,
+                                         ObjectMapper objectMapper) {
+        this.redisTemplate = redisTemplate;
+        this.codec = codec;
+        this.keyPrefix = keyPrefix;
+        this.tailWindow = tailWindow;
+        this.ttlSeconds = number(Math.max(1, ttl.toSeconds()));
+        this.legacyKeyPrefix = StringUtils.hasText(legacyKeyPrefix) ? legacyKeyPrefix : null;
+        this.objectMapper = objectMapper;
+    }
+
+    // ===== Spring AI ChatMemoryRepository 接口方法 =====
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>();
+        scanIds(keyPrefix, ids);
+        if (legacyKeyPrefix != null) {
+            scanIds(legacyKeyPrefix, ids);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        if (!StringUtils.hasText(conversationId)) {
+            return Collections.emptyList();
+        }
+        List<byte[]> entries = redisTemplate.opsForList().range(key(conversationId), -tailWindow, -1);
+        if (entries == null || entries.isEmpty()) {
+            return migrateLegacy(conversationId);
+        }
+        List<Message> messages = new ArrayList<>(entries.size());
+        for (byte[] entry : entries) {
+            try {
+                messages.add(codec.decodeMessage(entry));
+            } catch (Exception e) {
+                // 单条损坏不影响整个窗口
+                log.warn("解码 Redis 记忆消息失败，已跳过。conversationId={}，原因：{}", conversationId, e.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        if (!StringUtils.hasText(conversationId)) {
+            return;
+        }
+        List<Object> args = new ArrayList<>(messages.size() + 1);
+        args.add(ttlSeconds);
+        for (Message message : messages) {
+            args.add(codec.encodeMessage(message));
+        }
+        redisTemplate.execute(REPLACE_SCRIPT, List.of(key(conversationId)), args.toArray());
+        deleteLegacy(conversationId);
+    }
+
+    @Override
+    public void append(String conversationId, List<Message> newMessages, int keepLast) {
+        if (!StringUtils.hasText(conversationId)) {
+            return;
+        }
+        if (keepLast <= 0) {
+            deleteByConversationId(conversationId);
+            return;
+        }
+        List<Object> args = new ArrayList<>(newMessages.size() + 2);
+        args.add(number(keepLast));
+        args.add(ttlSeconds);
+        for (Message message : newMessages) {
+            args.add(codec.encodeMessage(message));
+        }
+        redisTemplate.execute(APPEND_SCRIPT, List.of(key(conversationId)), args.toArray());
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        if (StringUtils.hasText(conversationId)) {
+            redisTemplate.delete(key(conversationId));
+            deleteLegacy(conversationId);
+        }
+    }
+
+    // ===== 旧版数据兼容 =====
+
+    /**
+     * 读取旧键的尾部窗口并迁移到新 List，返回迁移的消息（没有旧数据时返回空列表）
+     */
+    private List<Message> migrateLegacy(String conversationId) {
+        if (legacyKeyPrefix == null) {
+            return new ArrayList<>();
+        }
+        String legacyKey = legacyKeyPrefix + conversationId;
+        List<byte[]> entries = redisTemplate.opsForList().range(legacyKey, -tailWindow, -1);
+        if (entries == null || entries.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Message> messages = new ArrayList<>(entries.size());
+        for (byte[] entry : entries) {
+            Message message = decodeLegacy(conversationId, entry);
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        List<Object> args = new ArrayList<>(messages.size() + 1);
+        args.add(ttlSeconds);
+        for (Message message : messages) {
+            args.add(codec.encodeMessage(message));
+        }
+        Long migrated = redisTemplate.execute(MIGRATE_SCRIPT, List.of(key(conversationId), legacyKey), args.toArray());
+        if (Long.valueOf(1L).equals(migrated)) {
+            log.info("已迁移旧版 Redis 记忆：conversationId={}，{} 条消息", conversationId, messages.size());
+            return messages;
+        }
+        // 迁移期间新 List 已被写入，以新 List 为准
+        return findByConversationId(conversationId);
+    }
+
+    /**
+     * 旧版消息：Jackson 序列化的 Message（messageType / text / metadata），工具消息不再进入记忆窗口，跳过
+     */
+    @SuppressWarnings("unchecked")
+    private Message decodeLegacy(String conversationId, byte[] entry) {
+        try {
+            JsonNode node = objectMapper.readTree(entry);
+            String text = node.path("text").asText("");
+            Map<String, Object> metadata = node.path("metadata").isObject()
+                    ? new HashMap<>(objectMapper.convertValue(node.get("metadata"), Map.class))
+                    : new HashMap<>();
+            return switch (node.path("messageType").asText()) {
+                case "USER" -> UserMessage.builder().text(text).metadata(metadata).build();
+                case "ASSISTANT" -> AssistantMessage.builder().content(text).properties(metadata).build();
+                case "SYSTEM" -> SystemMessage.builder().text(text).metadata(metadata).build();
+                default -> null;
+            };
+        } catch (Exception e) {
+            log.warn("解析旧版 Redis 记忆消息失败，已跳过。conversationId={}，原因：{}", conversationId, e.getMessage());
+            return null;
+        }
+    }
+
+    private void deleteLegacy(String conversationId) {
+        if (legacyKeyPrefix != null) {
+            redisTemplate.delete(legacyKeyPrefix + conversationId);
+        }
+    }
+
+    // ===== 内部工具 =====
+
+    private void scanIds(String prefix, Set<String> ids) {
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(500).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                ids.add(cursor.next().substring(prefix.length()));
+            }
+        }
+    }
+
+    private String key(String conversationId) {
+        return keyPrefix + conversationId;
+    }
+
+    /** 脚本参数统一按 byte[] 传递（byteRedisTemplate 的 value 序列化器不做转换） */
+    private static byte[] number(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,411 @@
+package com.boyan.vir.repository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 写缓冲（write-behind）聊天记忆仓库
+ *
+ * 位于 MySQLChatMemoryRepository 之前：
+ *  - saveAll / saveAllWithAgent / saveWindow / updateMetadata 只写入内存中的待刷盘表，同一会话的多次写入合并为最后一次窗口，
+ *    各次的新增消息按顺序累积（追加写的仓库刷盘时只写入这部分）
+ *  - 后台线程按时间（flushIntervalMs）或数量（batchSize）触发，通过 saveAllBatch 以 JDBC batch 落库
+ *  - 读取优先返回尚未落库的数据，保证「写后读」一致；新会话在落库前也能按 (userId, agentId) 找到
+ *  - 待刷盘会话数达到 maxPending 时由调用线程同步刷盘，形成背压；刷盘失败不会抛给调用线程
+ *  - 整批写入失败时逐个会话重试，连续失败 MAX_ATTEMPTS 轮的快照移入 parked（不再参与刷盘，读取仍可见），
+ *    该会话再次写入时合并后重新尝试，避免一个坏快照拖住其他会话
+ *  - 容器关闭时（destroy）会把剩余数据全部刷盘
+ *
+ * 指标：chat.memory.writebehind.queue.depth / flush.latency / batch.size / flush.failures / parked / dead.letters
+ */
+@Slf4j
+public class WriteBehindChatMemoryRepository implements AgentChatMemoryRepository, DisposableBean {
+
+    /** 单个快照连续失败多少轮后移入 parked */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final MySQLChatMemoryRepository delegate;
+    private final int batchSize;
+    private final int maxPending;
+
+    /** conversationId → 待刷盘快照 */
+    private final Map<String, ConversationSnapshot> pending = new ConcurrentHashMap<>();
+    /** userId + agentId → 尚未落库的新会话 conversationId */
+    private final Map<String, String> pendingUserAgentIndex = new ConcurrentHashMap<>();
+    /** conversationId → 连续失败次数 */
+    private final Map<String, Integer> failedAttempts = new ConcurrentHashMap<>();
+    /** conversationId → 多次写入失败后搁置的快照 */
+    private final Map<String, ConversationSnapshot> parked = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final Object flushLock = new Object();
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter flushFailures;
+    private final Counter deadLetters;
+
+    public WriteBehindChatMemoryRepository(MySQLChatMemoryRepository delegate, int batchSize, int maxPending,
+                                           long flushIntervalMs, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+
+        this.flushTimer = Timer.builder("chat.memory.writebehind.flush.latency")
+                .description("写缓冲单批刷盘耗时")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("chat.memory.writebehind.batch.size")
+                .description("写缓冲单批刷盘的会话数")
+                .register(meterRegistry);
+        this.flushFailures = Counter.builder("chat.memory.writebehind.flush.failures")
+                .description("写缓冲刷盘失败次数")
+                .register(meterRegistry);
+        this.deadLetters = Counter.builder("chat.memory.writebehind.dead.letters")
+                .description("多次写入失败后被搁置的快照数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.writebehind.queue.depth", pending, Map::size)
+                .description("等待刷盘的会话数")
+                .register(meterRegistry);
+        Gauge.builder("chat.memory.writebehind.parked", parked, Map::size)
+                .description("当前被搁置、未能落库的会话数")
+                .register(meterRegistry);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chat-memory-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // ===== Spring AI ChatMemoryRepository 接口方法 =====
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(delegate.findConversationIds());
+        ids.addAll(pending.keySet());
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        if (!StringUtils.hasText(conversationId)) {
+            return List.of();
+        }
+        ConversationSnapshot snapshot = pending.get(conversationId);
+        if (snapshot == null) {
+            snapshot = parked.get(conversationId);
+        }
+        if (snapshot != null) {
+            return snapshot.messages();
+        }
+        return delegate.findByConversationId(conversationId);
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        enqueue(conversationId, null, null, messages, null);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        if (!StringUtils.hasText(conversationId)) {
+            return;
+        }
+        synchronized (flushLock) {
+            failedAttempts.remove(conversationId);
+            unindex(pending.remove(conversationId));
+            unindex(parked.remove(conversationId));
+            delegate.deleteByConversationId(conversationId);
+        }
+    }
+
+    // ===== 扩展方法 — 支持 agent_id =====
+
+    @Override
+    public void saveAllWithAgent(String conversationId, String userId, String agentId, List<Message> messages) {
+        enqueue(conversationId, userId, agentId, messages, null);
+    }
+
+    @Override
+    public void saveWindow(String conversationId, String userId, String agentId,
+                           List<Message> window, List<Message> newMessages) {
+        enqueue(conversationId, userId, agentId, window, newMessages != null ? newMessages : List.of());
+    }
+
+    @Override
+    public String findConversationIdByUserAgent(String userId, String agentId) {
+        String pendingId = pendingUserAgentIndex.get(userAgentKey(userId, agentId));
+        return pendingId != null ? pendingId : delegate.findConversationIdByUserAgent(userId, agentId);
+    }
+
+    /**
+     * 占位必须同步落库，否则其他节点看不到本节点新建的会话
+     */
+    @Override
+    public String reserveConversationId(String userId, String agentId, String candidateId) {
+        String pendingId = pendingUserAgentIndex.get(userAgentKey(userId, agentId));
+        return pendingId != null ? pendingId : delegate.reserveConversationId(userId, agentId, candidateId);
+    }
+
+    /**
+     * 历史翻页以库中数据为准：该会话还有待刷盘数据时先单独落库再查询
+     */
+    @Override
+    public HistoryPage findHistoryPage(String conversationId, Long before, int limit) {
+        flushConversation(conversationId);
+        return delegate.findHistoryPage(conversationId, before, limit);
+    }
+
+    /**
+     * 会话遍历以库中数据为准：先把待刷盘数据全部落库
+     */
+    @Override
+    public ConversationPage findConversations(ConversationQuery query, Long after, int limit) {
+        if (after == null) {
+            flush();
+        }
+        return delegate.findConversations(query, after, limit);
+    }
+
+    @Override
+    public void forEachConversation(ConversationQuery query, Consumer<ConversationRef> action) {
+        flush();
+        delegate.forEachConversation(query, action);
+    }
+
+    @Override
+    public String findSummary(String conversationId) {
+        return delegate.findSummary(conversationId);
+    }
+
+    /**
+     * 摘要只更新已有会话行，该会话尚未落库时先单独刷盘
+     */
+    @Override
+    public void saveSummary(String conversationId, String summary) {
+        flushConversation(conversationId);
+        delegate.saveSummary(conversationId, summary);
+    }
+
+    @Override
+    public void updateMetadata(String conversationId, String userId, String agentId) {
+        ConversationSnapshot merged = pending.computeIfPresent(conversationId,
+                (id, current) -> new ConversationSnapshot(id, userId, agentId, current.messages(), current.appended()));
+        if (merged != null) {
+            pendingUserAgentIndex.put(userAgentKey(userId, agentId), conversationId);
+        } else {
+            // 已经落库（或从未写入），直接更新
+            delegate.updateMetadata(conversationId, userId, agentId);
+        }
+    }
+
+    // ===== 刷盘 =====
+
+    /**
+     * 把当前所有待刷盘数据写入 MySQL（按 batchSize 分批）
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushScheduled.set(false);
+            List<ConversationSnapshot> batch = new ArrayList<>(batchSize);
+            for (ConversationSnapshot snapshot : pending.values()) {
+                batch.add(snapshot);
+                if (batch.size() >= batchSize) {
+                    writeBatch(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        if (!pending.isEmpty() || !parked.isEmpty()) {
+            log.error("写缓冲关闭时仍有 {} 个会话未能落库（另有 {} 个被搁置）", pending.size(), parked.size());
+        } else {
+            log.info("写缓冲已全部刷盘");
+        }
+    }
+
+    private void enqueue(String conversationId, String userId, String agentId, List<Message> messages,
+                         List<Message> appended) {
+        if (!StringUtils.hasText(conversationId) || messages == null || messages.isEmpty()) {
+            return;
+        }
+        List<Message> copy = List.copyOf(messages);
+        List<Message> appendedCopy = appended != null ? List.copyOf(appended) : null;
+        ConversationSnapshot previous = parked.remove(conversationId);
+        if (previous != null) {
+            // 被搁置的会话再次写入：带上搁置期间未写入的新增消息，重新参与刷盘
+            failedAttempts.remove(conversationId);
+            pending.putIfAbsent(conversationId, previous);
+        }
+        pending.merge(conversationId, new ConversationSnapshot(conversationId, userId, agentId, copy, appendedCopy),
+                (current, incoming) -> new ConversationSnapshot(conversationId,
+                        incoming.hasMetadata() ? userId : current.userId(),
+                        incoming.hasMetadata() ? agentId : current.agentId(),
+                        copy, concat(current.appended(), appendedCopy)));
+        if (userId != null && agentId != null) {
+            pendingUserAgentIndex.put(userAgentKey(userId, agentId), conversationId);
+        }
+
+        if (pending.size() >= maxPending) {
+            // 背压：积压过多时由调用线程同步刷盘，写入失败只记录，不影响本次请求
+            flushQuietly();
+        } else if (pending.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    /**
+     * 整批写入；失败时逐个会话重试，单个会话的失败不影响同批其他会话
+     */
+    private void writeBatch(List<ConversationSnapshot> batch) {
+        long start = System.nanoTime();
+        try {
+            delegate.saveAllBatch(batch);
+        } catch (Exception e) {
+            flushFailures.increment();
+            log.warn("写缓冲整批刷盘失败，逐个会话重试（{} 个）：{}", batch.size(), e.getMessage());
+            for (ConversationSnapshot snapshot : batch) {
+                writeSingle(snapshot);
+            }
+            return;
+        }
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        batchSizeSummary.record(batch.size());
+
+        for (ConversationSnapshot written : batch) {
+            markWritten(written);
+        }
+    }
+
+    private void writeSingle(ConversationSnapshot snapshot) {
+        try {
+            delegate.saveAllBatch(List.of(snapshot));
+            markWritten(snapshot);
+        } catch (Exception e) {
+            flushFailures.increment();
+            int attempts = failedAttempts.merge(snapshot.conversationId(), 1, Integer::sum);
+            if (attempts < MAX_ATTEMPTS) {
+                log.warn("会话 {} 刷盘失败（第 {} 次），保留到下一轮：{}", snapshot.conversationId(), attempts, e.getMessage());
+            } else {
+                park(snapshot, e);
+            }
+        }
+    }
+
+    /**
+     * 把连续失败的快照移出待刷盘表；刷盘期间到达的新数据一并搁置，等该会话下次写入时再重试
+     */
+    private void park(ConversationSnapshot snapshot, Exception cause) {
+        ConversationSnapshot current = pending.remove(snapshot.conversationId());
+        failedAttempts.remove(snapshot.conversationId());
+        if (current == null) {
+            return;
+        }
+        parked.put(snapshot.conversationId(), current);
+        deadLetters.increment();
+        log.error("会话 {} 连续 {} 次刷盘失败，已搁置（{} 条消息未落库）",
+                snapshot.conversationId(), MAX_ATTEMPTS, current.messages().size(), cause);
+    }
+
+    /**
+     * 移除已落库的快照；刷盘期间到达的新数据留待下一轮，只去掉其中已经写入的新增消息
+     */
+    private void markWritten(ConversationSnapshot written) {
+        failedAttempts.remove(written.conversationId());
+        ConversationSnapshot rest = pending.computeIfPresent(written.conversationId(), (id, current) -> {
+            if (current == written) {
+                return null;
+            }
+            List<Message> appended = current.appended();
+            if (appended != null && written.appended() != null) {
+                // 合并时按顺序拼接，开头 written.appended().size() 条即本次已写入的部分
+                appended = List.copyOf(appended.subList(Math.min(written.appended().size(), appended.size()), appended.size()));
+            }
+            return new ConversationSnapshot(id, current.userId(), current.agentId(), current.messages(), appended);
+        });
+        if (rest == null && written.hasMetadata()) {
+            pendingUserAgentIndex.remove(userAgentKey(written.userId(), written.agentId()), written.conversationId());
+        }
+    }
+
+    /**
+     * 累积两次写入的新增消息，任一方未给出时结果也未知（null）
+     */
+    private static List<Message> concat(List<Message> first, List<Message> second) {
+        if (first == null || second == null) {
+            return null;
+        }
+        List<Message> all = new ArrayList<>(first.size() + second.size());
+        all.addAll(first);
+        all.addAll(second);
+        return all;
+    }
+
+    /**
+     * 单独刷盘某个会话的待写数据（不存在时直接返回）
+     */
+    private void flushConversation(String conversationId) {
+        if (!StringUtils.hasText(conversationId) || !pending.containsKey(conversationId)) {
+            return;
+        }
+        synchronized (flushLock) {
+            ConversationSnapshot snapshot = pending.get(conversationId);
+            if (snapshot != null) {
+                writeBatch(List.of(snapshot));
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            flushFailures.increment();
+            log.error("写缓冲刷盘失败，{} 个会话保留到下一轮：{}", pending.size(), e.getMessage(), e);
+        }
+    }
+
+    private void unindex(ConversationSnapshot removed) {
+        if (removed != null && removed.hasMetadata()) {
+            pendingUserAgentIndex.remove(userAgentKey(removed.userId(), removed.agentId()), removed.conversationId());
+        }
+    }
+
+    private static String userAgentKey(String userId, String agentId) {
+        return userId + ":" + agentId;
+    }
+}
@@ -0,0 +1,56 @@
+package com.boyan.vir.repository.codec;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 兼容读取的编解码器：写入使用配置的格式，读取时按头部 MAGIC 判断格式
+ * 切换到 binary 后，库中已有的 JSON 行无需迁移即可继续读取，下次保存时自然改写为新格式
+ */
+public class DetectingMessageCodec implements MessageCodec {
+
+    private final MessageCodec writeCodec;
+    private final TaggedBinaryMessageCodec binaryCodec;
+    private final JsonMessageCodec jsonCodec;
+
+    public DetectingMessageCodec(MessageCodec writeCodec, TaggedBinaryMessageCodec binaryCodec, JsonMessageCodec jsonCodec) {
+        this.writeCodec = writeCodec;
+        this.binaryCodec = binaryCodec;
+        this.jsonCodec = jsonCodec;
+    }
+
+    @Override
+    public String name() {
+        return writeCodec.name();
+    }
+
+    @Override
+    public byte[] encode(List<Message> messages) {
+        return writeCodec.encode(messages);
+    }
+
+    @Override
+    public List<Message> decode(byte[] data) {
+        return readCodec(data).decode(data);
+    }
+
+    @Override
+    public MessageSlice decodeSlice(byte[] data, Integer before, int limit) {
+        return readCodec(data).decodeSlice(data, before, limit);
+    }
+
+    @Override
+    public byte[] encodeMessage(Message message) {
+        return writeCodec.encodeMessage(message);
+    }
+
+    @Override
+    public Message decodeMessage(byte[] data) {
+        return readCodec(data).decodeMessage(data);
+    }
+
+    private MessageCodec readCodec(byte[] data) {
+        return TaggedBinaryMessageCodec.matches(data) ? binaryCodec : jsonCodec;
+    }
+}
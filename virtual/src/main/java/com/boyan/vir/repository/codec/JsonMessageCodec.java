@@ -0,0 +1,121 @@
+package com.boyan.vir.repository.codec;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON 编解码（原有格式）：基于 chatMemoryObjectMapper 的 DefaultTyping JSON
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+    private final ObjectMapper objectMapper;
+    private final CollectionType messageListType;
+
+    public JsonMessageCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.messageListType = objectMapper.getTypeFactory().constructCollectionType(List.class, Message.class);
+    }
+
+    @Override
+    public String name() {
+        return "json";
+    }
+
+    @Override
+    public byte[] encode(List<Message> messages) {
+        try {
+            // DefaultTyping 会写入具体集合类名，统一转成 ArrayList，避免 List.copyOf 等不可反序列化的实现类
+            return objectMapper.writerFor(messageListType).writeValueAsBytes(new ArrayList<>(messages));
+        } catch (IOException e) {
+            throw new RuntimeException("序列化Message列表失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Message> decode(byte[] data) {
+        try {
+            return objectMapper.readValue(data, messageListType);
+        } catch (IOException e) {
+            throw new RuntimeException("反序列化Message列表失败：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 基于 JsonParser 的流式截取：第一遍只扫描 token 统计条数，第二遍跳过 start 之前的元素，
+     * 只把需要的消息反序列化为对象，避免整段构造 List<Message>
+     */
+    @Override
+    public MessageSlice decodeSlice(byte[] data, Integer before, int limit) {
+        try {
+            int count = 0;
+            try (JsonParser parser = objectMapper.createParser(data)) {
+                for (JsonToken token = enterElements(parser); token != null && token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                    parser.skipChildren();
+                    count++;
+                }
+            }
+
+            int end = before == null ? count : Math.max(0, Math.min(before, count));
+            int start = Math.max(0, end - limit);
+            List<Message> messages = new ArrayList<>(end - start);
+            try (JsonParser parser = objectMapper.createParser(data)) {
+                int index = 0;
+                for (JsonToken token = enterElements(parser); token != null && token != JsonToken.END_ARRAY && index < end;
+                     token = parser.nextToken(), index++) {
+                    if (index < start) {
+                        parser.skipChildren();
+                    } else {
+                        messages.add(objectMapper.readValue(parser, Message.class));
+                    }
+                }
+            }
+            return new MessageSlice(count, start, messages);
+        } catch (IOException e) {
+            throw new RuntimeException("反序列化Message列表失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public byte[] encodeMessage(Message message) {
+        try {
+            return objectMapper.writerFor(Message.class).writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new RuntimeException("序列化Message失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Message decodeMessage(byte[] data) {
+        try {
+            return objectMapper.readValue(data, Message.class);
+        } catch (IOException e) {
+            throw new RuntimeException("反序列化Message失败：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 定位到列表的第一个元素，兼容 DefaultTyping 的包装形式 ["java.util.ArrayList", [...]]
+     *
+     * @return 第一个元素的起始 token（空列表时为 END_ARRAY）
+     */
+    private static JsonToken enterElements(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IOException("消息列表不是JSON数组");
+        }
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_STRING) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("消息列表类型包装格式错误");
+            }
+            token = parser.nextToken();
+        }
+        return token;
+    }
+}
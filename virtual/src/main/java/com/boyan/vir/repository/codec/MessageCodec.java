@@ -0,0 +1,48 @@
+package com.boyan.vir.repository.codec;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 持久化 Message 的编解码 SPI
+ * MySQL 记忆仓库、Redis 记忆缓存等统一通过该接口读写消息，具体格式可插拔
+ */
+public interface MessageCodec {
+
+    /**
+     * 编码器名称（json / binary），用于日志与配置
+     */
+    String name();
+
+    /**
+     * 编码整段消息列表
+     */
+    byte[] encode(List<Message> messages);
+
+    /**
+     * 解码整段消息列表
+     */
+    List<Message> decode(byte[] data);
+
+    /**
+     * 只解码 before 之前的最后 limit 条消息（按下标，before 为 null 表示从末尾开始）
+     * 默认实现整段解码后截取，具体格式可覆盖为跳过不需要的消息
+     */
+    default MessageSlice decodeSlice(byte[] data, Integer before, int limit) {
+        List<Message> all = decode(data);
+        int end = before == null ? all.size() : Math.max(0, Math.min(before, all.size()));
+        int start = Math.max(0, end - limit);
+        return new MessageSlice(all.size(), start, all.subList(start, end));
+    }
+
+    /**
+     * 编码单条消息（消息日志表、Redis 列表等按条存储的场景）
+     */
+    byte[] encodeMessage(Message message);
+
+    /**
+     * 解码单条消息
+     */
+    Message decodeMessage(byte[] data);
+}
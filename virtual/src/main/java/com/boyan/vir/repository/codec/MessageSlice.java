@@ -0,0 +1,15 @@
+package com.boyan.vir.repository.codec;
+
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.List;
+
+/**
+ * 从整段消息列表中解码出的一段连续消息
+ *
+ * @param total      列表总条数
+ * @param startIndex 本段第一条消息在列表中的下标（从 0 开始）
+ * @param messages   本段消息（时间正序）
+ */
+public record MessageSlice(int total, int startIndex, List<Message> messages) {
+}
@@ -0,0 +1,378 @@
+package com.boyan.vir.repository.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 紧凑二进制编解码（手写 tag 格式，不依赖 DefaultTyping / readTree）
+ *
+ * 格式：
+ *   头部  : MAGIC(0xB7 'V' 'M') + VERSION(1B) + FLAGS(1B，bit0=Deflate 压缩)
+ *   列表  : varint 条数，然后每条为 varint 长度 + 消息体（按长度前缀可跳过，便于只解码一段）
+ *   消息体: 类型(1B) + 文本 + metadata + 类型专属字段（工具调用 / 工具返回）
+ *   字符串: varint(长度+1) + UTF-8，0 表示 null
+ *   metadata 值按 tag 编码：null / string / long / double / boolean，其余类型退化为 JSON 字符串
+ *
+ * 超过 compressThreshold 字节的负载使用 JDK Deflate 压缩
+ * 不支持 UserMessage 的多模态 media（记忆中只保存文本）
+ */
+public class TaggedBinaryMessageCodec implements MessageCodec {
+
+    static final byte[] MAGIC = {(byte) 0xB7, 'V', 'M'};
+    private static final byte VERSION = 1;
+    private static final byte FLAG_DEFLATE = 0x01;
+    private static final int HEADER_SIZE = MAGIC.length + 2;
+
+    private static final byte TYPE_USER = 0;
+    private static final byte TYPE_ASSISTANT = 1;
+    private static final byte TYPE_SYSTEM = 2;
+    private static final byte TYPE_TOOL = 3;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_LONG = 2;
+    private static final byte VALUE_DOUBLE = 3;
+    private static final byte VALUE_TRUE = 4;
+    private static final byte VALUE_FALSE = 5;
+    private static final byte VALUE_JSON = 6;
+
+    private final boolean compress;
+    private final int compressThreshold;
+    /** metadata 中非基本类型值的兜底序列化（不带类型信息） */
+    private final ObjectMapper fallbackMapper = new ObjectMapper();
+
+    public TaggedBinaryMessageCodec(boolean compress, int compressThreshold) {
+        this.compress = compress;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * 判断数据是否为本格式（以 MAGIC 开头）
+     */
+    public static boolean matches(byte[] data) {
+        return data != null && data.length >= HEADER_SIZE
+                && data[0] == MAGIC[0] && data[1] == MAGIC[1] && data[2] == MAGIC[2];
+    }
+
+    @Override
+    public String name() {
+        return "binary";
+    }
+
+    @Override
+    public byte[] encode(List<Message> messages) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(body);
+            writeVarint(out, messages.size());
+            ByteArrayOutputStream messageBuffer = new ByteArrayOutputStream(128);
+            for (Message message : messages) {
+                messageBuffer.reset();
+                writeMessage(new DataOutputStream(messageBuffer), message);
+                writeVarint(out, messageBuffer.size());
+                messageBuffer.writeTo(out);
+            }
+            out.flush();
+            return frame(body.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("序列化Message列表失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public List<Message> decode(byte[] data) {
+        try {
+            DataInputStream in = open(data);
+            int count = readVarint(in);
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                readVarint(in); // 长度前缀，顺序解码时不需要
+                messages.add(readMessage(in));
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new RuntimeException("反序列化Message列表失败：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按长度前缀跳过 start 之前的消息，只反序列化需要的一段
+     */
+    @Override
+    public MessageSlice decodeSlice(byte[] data, Integer before, int limit) {
+        try {
+            DataInputStream in = open(data);
+            int count = readVarint(in);
+            int end = before == null ? count : Math.max(0, Math.min(before, count));
+            int start = Math.max(0, end - limit);
+            for (int i = 0; i < start; i++) {
+                in.skipNBytes(readVarint(in));
+            }
+            List<Message> messages = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                readVarint(in);
+                messages.add(readMessage(in));
+            }
+            return new MessageSlice(count, start, messages);
+        } catch (IOException e) {
+            throw new RuntimeException("反序列化Message列表失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public byte[] encodeMessage(Message message) {
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(body);
+            writeMessage(out, message);
+            out.flush();
+            return frame(body.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("序列化Message失败：" + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Message decodeMessage(byte[] data) {
+        try {
+            return readMessage(open(data));
+        } catch (IOException e) {
+            throw new RuntimeException("反序列化Message失败：" + e.getMessage(), e);
+        }
+    }
+
+    // ===== 头部 / 压缩 =====
+
+    private byte[] frame(byte[] body) throws IOException {
+        boolean deflate = compress && body.length >= compressThreshold;
+        ByteArrayOutputStream framed = new ByteArrayOutputStream(body.length + HEADER_SIZE);
+        framed.write(MAGIC);
+        framed.write(VERSION);
+        framed.write(deflate ? FLAG_DEFLATE : 0);
+        if (deflate) {
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(framed)) {
+                deflater.write(body);
+            }
+        } else {
+            framed.write(body);
+        }
+        return framed.toByteArray();
+    }
+
+    private DataInputStream open(byte[] data) throws IOException {
+        if (!matches(data)) {
+            throw new IOException("不是二进制消息格式");
+        }
+        if (data[MAGIC.length] != VERSION) {
+            throw new IOException("不支持的二进制消息版本：" + data[MAGIC.length]);
+        }
+        InputStream body = new ByteArrayInputStream(data, HEADER_SIZE, data.length - HEADER_SIZE);
+        if ((data[MAGIC.length + 1] & FLAG_DEFLATE) != 0) {
+            body = new InflaterInputStream(body);
+        }
+        return new DataInputStream(body);
+    }
+
+    // ===== 消息体 =====
+
+    private void writeMessage(DataOutputStream out, Message message) throws IOException {
+        if (message instanceof UserMessage) {
+            out.writeByte(TYPE_USER);
+        } else if (message instanceof AssistantMessage) {
+            out.writeByte(TYPE_ASSISTANT);
+        } else if (message instanceof SystemMessage) {
+            out.writeByte(TYPE_SYSTEM);
+        } else if (message instanceof ToolResponseMessage) {
+            out.writeByte(TYPE_TOOL);
+        } else {
+            throw new IOException("Unsupported message type: " + message.getClass().getName());
+        }
+        writeString(out, message.getText());
+        writeMetadata(out, message.getMetadata());
+
+        if (message instanceof AssistantMessage assistantMessage) {
+            List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+            writeVarint(out, toolCalls == null ? 0 : toolCalls.size());
+            if (toolCalls != null) {
+                for (AssistantMessage.ToolCall toolCall : toolCalls) {
+                    writeString(out, toolCall.id());
+                    writeString(out, toolCall.type());
+                    writeString(out, toolCall.name());
+                    writeString(out, toolCall.arguments());
+                }
+            }
+        } else if (message instanceof ToolResponseMessage toolResponseMessage) {
+            List<ToolResponseMessage.ToolResponse> responses = toolResponseMessage.getResponses();
+            writeVarint(out, responses.size());
+            for (ToolResponseMessage.ToolResponse response : responses) {
+                writeString(out, response.id());
+                writeString(out, response.name());
+                writeString(out, response.responseData());
+            }
+        }
+    }
+
+    private Message readMessage(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String text = readString(in);
+        Map<String, Object> metadata = readMetadata(in);
+        String content = text != null ? text : "";
+
+        switch (type) {
+            case TYPE_USER:
+                return UserMessage.builder().text(content).metadata(metadata).build();
+            case TYPE_SYSTEM:
+                return SystemMessage.builder().text(content).metadata(metadata).build();
+            case TYPE_ASSISTANT: {
+                int count = readVarint(in);
+                List<AssistantMessage.ToolCall> toolCalls = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    toolCalls.add(new AssistantMessage.ToolCall(readString(in), readString(in), readString(in), readString(in)));
+                }
+                return AssistantMessage.builder()
+                        .content(content)
+                        .properties(metadata)
+                        .toolCalls(toolCalls)
+                        .build();
+            }
+            case TYPE_TOOL: {
+                int count = readVarint(in);
+                List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    responses.add(new ToolResponseMessage.ToolResponse(readString(in), readString(in), readString(in)));
+                }
+                return ToolResponseMessage.builder()
+                        .responses(responses)
+                        .metadata(metadata)
+                        .build();
+            }
+            default:
+                throw new IOException("未知的消息类型标记：" + type);
+        }
+    }
+
+    // ===== metadata =====
+
+    private void writeMetadata(DataOutputStream out, Map<String, Object> metadata) throws IOException {
+        if (metadata == null || metadata.isEmpty()) {
+            writeVarint(out, 0);
+            return;
+        }
+        writeVarint(out, metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private Map<String, Object> readMetadata(DataInputStream in) throws IOException {
+        int size = readVarint(in);
+        Map<String, Object> metadata = new HashMap<>(Math.max(4, size * 2));
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            Object value = readValue(in);
+            if (key != null && value != null) {
+                metadata.put(key, value);
+            }
+        }
+        return metadata;
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(VALUE_NULL);
+        } else if (value instanceof String s) {
+            out.writeByte(VALUE_STRING);
+            writeString(out, s);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            out.writeByte(VALUE_LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(VALUE_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean b) {
+            out.writeByte(b ? VALUE_TRUE : VALUE_FALSE);
+        } else {
+            out.writeByte(VALUE_JSON);
+            writeString(out, fallbackMapper.writeValueAsString(value));
+        }
+    }
+
+    private Object readValue(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        return switch (tag) {
+            case VALUE_NULL -> null;
+            case VALUE_STRING -> readString(in);
+            case VALUE_LONG -> in.readLong();
+            case VALUE_DOUBLE -> in.readDouble();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case VALUE_JSON -> fallbackMapper.readValue(readString(in), Object.class);
+            default -> throw new IOException("未知的 metadata 值标记：" + tag);
+        };
+    }
+
+    // ===== 基础类型 =====
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readVarint(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IOException("varint 过长");
+            }
+        }
+    }
+}
@@ -5,12 +5,14 @@ import com.alibaba.cloud.ai.graph.NodeOutput;
 import com.alibaba.cloud.ai.graph.OverAllState;
 import com.alibaba.cloud.ai.graph.RunnableConfig;
 import com.boyan.vir.dto.GraphChatResponse;
+import com.boyan.vir.vectorstore.KnowledgeBase;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
@@ -39,6 +41,13 @@ public class GraphWorkflowService {
      * @return GraphChatResponse 包含 answer / intent / threadId
      */
     public GraphChatResponse invoke(String userId, String userInput) {
+        return invoke(userId, userInput, null);
+    }
+
+    /**
+     * 同步调用图工作流，RAG 检索只在指定知识库中进行（knowledgeBase 为空时检索全部知识库）
+     */
+    public GraphChatResponse invoke(String userId, String userInput, String knowledgeBase) {
         String threadId = userId + "_graph";
         RunnableConfig config = RunnableConfig.builder()
                 .threadId(threadId)
@@ -48,7 +57,7 @@ public class GraphWorkflowService {
 
         try {
             Optional<OverAllState> resultOpt = compiledGraph.invoke(
-                    Map.of("userInput", userInput),
+                    inputs(userInput, knowledgeBase),
                     config
             );
 
@@ -79,6 +88,13 @@ public class GraphWorkflowService {
      * @return Flux<String> 流，每个元素为节点输出内容片段
      */
     public Flux<String> stream(String userId, String userInput) {
+        return stream(userId, userInput, null);
+    }
+
+    /**
+     * 流式调用图工作流，RAG 检索只在指定知识库中进行（knowledgeBase 为空时检索全部知识库）
+     */
+    public Flux<String> stream(String userId, String userInput, String knowledgeBase) {
         String threadId = userId + "_graph";
         RunnableConfig config = RunnableConfig.builder()
                 .threadId(threadId)
@@ -88,7 +104,7 @@ public class GraphWorkflowService {
 
         try {
             Flux<NodeOutput> nodeFlux = compiledGraph.stream(
-                    Map.of("userInput", userInput),
+                    inputs(userInput, knowledgeBase),
                     config
             );
 
@@ -108,4 +124,12 @@ public class GraphWorkflowService {
             return Flux.just("错误：" + e.getMessage());
         }
     }
+
+    private static Map<String, Object> inputs(String userInput, String knowledgeBase) {
+        Map<String, Object> inputs = new HashMap<>();
+        inputs.put("userInput", userInput);
+        // 始终写入：knowledgeBase 为覆盖策略且按线程持久化，不写会沿用上一轮请求的知识库
+        inputs.put("knowledgeBase", knowledgeBase != null ? knowledgeBase : KnowledgeBase.ALL);
+        return inputs;
+    }
 }
@@ -1,34 +1,66 @@
 package com.boyan.vir.service;
 
-import cn.hutool.core.collection.CollectionUtil;
-import com.boyan.vir.util.TxtFileProcessor;
+import com.boyan.vir.answer.SemanticAnswerCache;
+import com.boyan.vir.ingest.IncrementalIngestor;
+import com.boyan.vir.ingest.IngestJob;
+import com.boyan.vir.ingest.IngestJobQueue;
+import com.boyan.vir.ingest.IngestionReport;
+import com.boyan.vir.vectorstore.HnswVectorStore;
+import com.boyan.vir.vectorstore.KnowledgeBase;
+import com.boyan.vir.vectorstore.ProfiledVectorStore;
+import com.boyan.vir.vectorstore.QuantizationReport;
+import com.boyan.vir.vectorstore.RedisIndexManager;
+import com.boyan.vir.vectorstore.RedisIndexRebuilder;
+import com.boyan.vir.vectorstore.RedisIndexVersion;
+import com.boyan.vir.vectorstore.SearchProfile;
+import com.boyan.vir.vectorstore.ShardedRedisVectorStore;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.redis.RedisVectorStore;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @Slf4j
 @Service
 public class VectorStoreService {
 
     @Autowired
-    @Qualifier("redisVectorStore")
-    private RedisVectorStore redisVectorStore;
+    @Qualifier("ragVectorStore")
+    private ProfiledVectorStore vectorStore;
 
     @Autowired
-    private TxtFileProcessor txtFileProcessor;
+    private IncrementalIngestor incrementalIngestor;
+
+    @Autowired
+    private SemanticAnswerCache answerCache;
+
+    @Autowired
+    private IngestJobQueue ingestJobQueue;
+
+    @Autowired
+    private ObjectProvider<HnswVectorStore> hnswVectorStore;
+
+    @Autowired
+    private ObjectProvider<RedisIndexManager> redisIndexManager;
+
+    @Autowired
+    private ObjectProvider<RedisIndexRebuilder> redisIndexRebuilder;
+
+    @Autowired
+    private ObjectProvider<ShardedRedisVectorStore> shardedVectorStore;
 
     public void storeDocument(String content, Map<String, Object> metadata) {
         try {
             Document document = new Document(content, metadata);
-            redisVectorStore.add(List.of(document));
-            log.info("文档已成功存储到 Redis VectorStore，内容摘要：{}", content.substring(0, Math.min(content.length(), 50)));
+            vectorStore.add(List.of(document));
+            answerCache.invalidateKnowledge();
+            log.info("文档已成功存储到 向量库，内容摘要：{}", content.substring(0, Math.min(content.length(), 50)));
         } catch (Exception e) {
             log.error("存储向量到 Redis 失败", e);
             throw new RuntimeException("向量存储失败：" + e.getMessage());
@@ -36,12 +68,31 @@ public class VectorStoreService {
     }
 
     public List<Document> retrieveSimilarDocuments(String query, int topK) {
+        return retrieveSimilarDocuments(query, topK, null);
+    }
+
+    /**
+     * 按检索档位检索（profile 为空时使用默认档位），离线评估可用 ACCURATE
+     */
+    public List<Document> retrieveSimilarDocuments(String query, int topK, SearchProfile profile) {
+        return retrieveSimilarDocuments(query, topK, profile, null);
+    }
+
+    /**
+     * 只在指定知识库中检索（knowledgeBase 为空时检索全部知识库）
+     */
+    public List<Document> retrieveSimilarDocuments(String query, int topK, SearchProfile profile, String knowledgeBase) {
         try {
-            SearchRequest searchRequest = SearchRequest.builder()
+            SearchRequest.Builder builder = SearchRequest.builder()
                     .query(query)
-                    .topK(topK)
-                    .build();
-            List<Document> similarDocuments = redisVectorStore.similaritySearch(searchRequest);
+                    .topK(topK);
+            if (!KnowledgeBase.isAll(knowledgeBase)) {
+                builder.filterExpression(KnowledgeBase.filter(knowledgeBase));
+            }
+            SearchRequest searchRequest = builder.build();
+            List<Document> similarDocuments = profile == null
+                    ? vectorStore.similaritySearch(searchRequest)
+                    : vectorStore.similaritySearch(searchRequest, profile);
             log.info("检索到{}条相似文档", similarDocuments.size());
             return similarDocuments;
         } catch (Exception e) {
@@ -52,37 +103,90 @@ public class VectorStoreService {
 
     public void deleteDocument(String documentId) {
         try {
-            redisVectorStore.delete(List.of(documentId));
-            log.info("文档{}已从 Redis VectorStore 删除", documentId);
+            vectorStore.delete(List.of(documentId));
+            answerCache.invalidateKnowledge();
+            log.info("文档{}已从 向量库 删除", documentId);
         } catch (Exception e) {
             log.error("删除向量文档失败", e);
             throw new RuntimeException("删除向量失败：" + e.getMessage());
         }
     }
 
-    public void storeTxtFileToVectorStore(String filePath) {
+    /**
+     * 增量入库：只向量化新增 / 变更的分片，删除文件中已不存在的分片
+     */
+    public IngestionReport storeTxtFileToVectorStore(String filePath) {
         try {
-            List<Document> documents = txtFileProcessor.processTxtFile(filePath);
-            if (CollectionUtil.isEmpty(documents)) {
-                log.warn("TXT文件分片后无有效内容，跳过存储：{}", filePath);
-                return;
-            }
-
-            redisVectorStore.add(documents);
-            log.info("TXT文件已成功入库 Redis VectorStore，文件：{}，分片数：{}", filePath, documents.size());
+            IngestionReport report = incrementalIngestor.ingestFile(filePath);
+            log.info("TXT文件已成功入库 向量库，文件：{}，本次写入分片数：{}", filePath, report.chunks());
+            return report;
         } catch (Exception e) {
             log.error("TXT文件入库失败：{}", filePath, e);
             throw new RuntimeException("TXT文件向量化存储失败：" + e.getMessage());
         }
     }
 
-    public void batchStoreTxtFiles(List<String> filePaths) {
-        for (String filePath : filePaths) {
-            try {
-                storeTxtFileToVectorStore(filePath);
-            } catch (Exception e) {
-                log.error("单个 TXT文件入库失败，跳过继续处理下一个：{}", filePath, e);
-            }
+    /**
+     * 多个文件合并为一个入库任务：逐个流式读取文件，分片共享同一条并行流水线
+     * 单个文件读取失败时跳过继续处理下一个
+     */
+    public IngestionReport batchStoreTxtFiles(List<String> filePaths) {
+        return incrementalIngestor.ingestFiles("batch(" + filePaths.size() + " files)", filePaths);
+    }
+
+    /**
+     * 提交异步入库任务，立即返回任务状态（由集群内任意节点消费）
+     */
+    public IngestJob submitTxtFileJob(String filePath) {
+        try {
+            return ingestJobQueue.submit(filePath);
+        } catch (Exception e) {
+            log.error("提交入库任务失败：{}", filePath, e);
+            throw new RuntimeException("提交入库任务失败：" + e.getMessage());
         }
     }
+
+    public Optional<IngestJob> findIngestJob(String jobId) {
+        return ingestJobQueue.find(jobId);
+    }
+
+    /**
+     * 进程内向量库的量化召回率与内存报告（未启用进程内向量库时为空）
+     */
+    public Optional<QuantizationReport> quantizationReport(int sampleSize, int k) {
+        HnswVectorStore store = hnswVectorStore.getIfAvailable();
+        return store == null ? Optional.empty() : Optional.of(store.quantizationReport(sampleSize, k));
+    }
+
+    /**
+     * Redis 索引的全部版本（未使用 Redis 向量库时为空）
+     */
+    public Optional<List<RedisIndexVersion>> indexVersions() {
+        RedisIndexManager manager = redisIndexManager.getIfAvailable();
+        return manager == null ? Optional.empty() : Optional.of(manager.versions());
+    }
+
+    /**
+     * 后台构建 Redis 索引的新版本，构建完成后自动切换（未使用 Redis 向量库时为空）
+     */
+    public Optional<RedisIndexVersion> rebuildIndex(String algorithm, int m, int efConstruction, boolean reingest) {
+        RedisIndexRebuilder rebuilder = redisIndexRebuilder.getIfAvailable();
+        if (rebuilder == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(rebuilder.rebuild(algorithm, m, efConstruction, reingest));
+        } catch (Exception e) {
+            log.error("提交索引重建失败", e);
+            throw new RuntimeException("提交索引重建失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 分片向量库各分片的文档数与迁移状态（未使用分片向量库时为空）
+     */
+    public Optional<Map<String, Object>> shardStats() {
+        ShardedRedisVectorStore store = shardedVectorStore.getIfAvailable();
+        return store == null ? Optional.empty() : Optional.of(store.stats());
+    }
 }
@@ -1,96 +1,357 @@
 package com.boyan.vir.util;
 
-import cn.hutool.core.io.FileUtil;
+import com.boyan.vir.vectorstore.KnowledgeBase;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.UUID;
 
 /**
  * TXT 文件读取 + 文本分片工具类
+ *
+ * 流式分片（streamTxtFile）：通过 FileChannel + CharsetDecoder 逐块解码，边读边规整空白（连续空白合并为一个空格），
+ * 按需生成分片，内存占用只与分片大小和读缓冲有关，与文件大小无关
+ *
+ * 编码按文件开头的采样检测；文件只读一遍，分片总数事先未知（元数据不含 total_chunks），进度按已生成的分片计
+ *
+ * 增量入库相关：分片边界由内容决定（滚动哈希，约 32 个字符的局部窗口），修改某一段只影响所在分片及其后一个分片（重叠部分），
+ * 其余分片内容不变；分片 ID 由文件标识 + 分片内容哈希得到，内容不变则 ID 不变，重复入库时可以跳过
+ *
+ * 文件标识为相对上传目录的路径（目录之外的文件为绝对路径），上传目录换位置或各节点挂载点不同时 ID 不变
+ *
+ * 元数据 source 为文件所属的知识库（上传目录下的一级子目录，见 KnowledgeBase）
  */
 @Slf4j
 @Component
 public class TxtFileProcessor {
 
-    private static final int CHUNK_SIZE = 300;
+    /** 分片（不含重叠前缀）最小 / 最大字符数，平均约 MIN_CHUNK_SIZE + 128 */
+    private static final int MIN_CHUNK_SIZE = 200;
+    private static final int MAX_CHUNK_SIZE = 450;
+    /** 滚动哈希高 7 位全为 0 时切分 */
+    private static final int BOUNDARY_MASK = 0xFE000000;
+    /** 每个分片在开头带上前一个分片末尾的字符数 */
     private static final int OVERLAP_SIZE = 50;
 
+    /** 解码缓冲（字符数） */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /** 编码检测的采样字节数 */
+    private static final int CHARSET_SAMPLE_BYTES = 64 * 1024;
+
+    /** Gear 哈希表：固定种子生成，修改会导致所有分片边界和 ID 变化 */
+    private static final int[] GEAR = new int[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EEDL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextInt();
+        }
+    }
+
+    /** 上传目录：其中一级子目录名即知识库 */
+    @Value("${app.upload.path:./rag/}")
+    private String uploadPath;
+
+    /**
+     * 一次性返回全部分片（小文件使用；大文件请用 streamTxtFile）
+     */
     public List<Document> processTxtFile(String filePath) {
+        List<Document> documents = new ArrayList<>();
+        streamTxtFile(filePath).forEachRemaining(documents::add);
+        log.info("文本分片完成，共生成{}个分片", documents.size());
+        return documents;
+    }
+
+    /**
+     * 惰性分片：返回的迭代器每次只读取生成下一个分片所需的内容，读到末尾自动关闭文件
+     * 未读完就放弃时请调用 close（迭代器实现了 Closeable）
+     */
+    public Iterator<Document> streamTxtFile(String filePath) {
         File file = new File(filePath);
         if (!file.exists() || !file.isFile() || !filePath.endsWith(".txt")) {
             throw new RuntimeException("文件不存在或不是 TXT 文件：" + filePath);
         }
 
-        //Charset charset = detectCharset(file);
-        String content = FileUtil.readString(file, StandardCharsets.UTF_8);
-        //log.info("读取 TXT 文件完成，文件大小：{}字符，编码：{}", content.length(), charset.displayName());
+        Charset charset = detectCharset(file);
+        log.info("读取 TXT 文件：{}，编码：{}", filePath, charset.displayName());
 
-        content = content.replaceAll("\\s+", " ").trim();
-        if (content.isEmpty()) {
+        ChunkIterator chunks;
+        try {
+            chunks = new ChunkIterator(file, filePath, fileIdentity(filePath), KnowledgeBase.of(Path.of(uploadPath), filePath),
+                    new ChunkScanner(new NormalizedReader(file.toPath(), charset)));
+        } catch (IOException e) {
+            throw new RuntimeException("读取 TXT 文件失败：" + filePath + "，" + e.getMessage(), e);
+        }
+        if (!chunks.hasNext()) {
             throw new RuntimeException("TXT 文件内容为空：" + filePath);
         }
+        return chunks;
+    }
 
-        List<String> chunks = splitContent(content);
-        log.info("文本分片完成，共生成{}个分片", chunks.size());
+    /**
+     * 分片 ID：同一文件中内容相同的分片 ID 相同
+     */
+    public static String chunkId(String fileIdentity, String content) {
+        String identity = fileIdentity + "\n" + content;
+        return UUID.nameUUIDFromBytes(identity.getBytes(StandardCharsets.UTF_8)).toString();
+    }
 
-        List<Document> documents = new ArrayList<>();
-        for (int i = 0; i < chunks.size(); i++) {
-            String chunkContent = chunks.get(i).trim();
+    /**
+     * 文件标识（上传、目录监听、索引重建得到同一结果），见 fileIdentity(Path, String)
+     */
+    public String fileIdentity(String filePath) {
+        return fileIdentity(Path.of(uploadPath), filePath);
+    }
+
+    /**
+     * 文件标识：上传目录内的文件为相对上传目录的路径（以 / 分隔），目录之外的文件为规整后的绝对路径
+     */
+    public static String fileIdentity(Path uploadDir, String filePath) {
+        Path root = uploadDir.toAbsolutePath().normalize();
+        Path file = Paths.get(filePath).toAbsolutePath().normalize();
+        if (!file.startsWith(root) || file.equals(root)) {
+            return file.toString();
+        }
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * 把分片内容包装成 Document（ID 由内容决定）
+     */
+    private static final class ChunkIterator implements Iterator<Document>, Closeable {
+
+        private final File file;
+        private final String filePath;
+        private final String fileIdentity;
+        private final String knowledgeBase;
+        private final ChunkScanner scanner;
+
+        private int index;
+        private Document next;
+        private boolean finished;
+
+        ChunkIterator(File file, String filePath, String fileIdentity, String knowledgeBase, ChunkScanner scanner) {
+            this.file = file;
+            this.filePath = filePath;
+            this.fileIdentity = fileIdentity;
+            this.knowledgeBase = knowledgeBase;
+            this.scanner = scanner;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !finished) {
+                String chunk;
+                try {
+                    chunk = scanner.nextChunk();
+                } catch (IOException e) {
+                    close();
+                    throw new RuntimeException("读取 TXT 文件失败：" + filePath + "，" + e.getMessage(), e);
+                }
+                if (chunk == null) {
+                    close();
+                } else {
+                    next = toDocument(chunk);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Document document = next;
+            next = null;
+            return document;
+        }
+
+        @Override
+        public void close() {
+            finished = true;
+            try {
+                scanner.close();
+            } catch (IOException e) {
+                log.warn("关闭 TXT 文件失败：{}，{}", filePath, e.getMessage());
+            }
+        }
+
+        private Document toDocument(String text) {
+            String chunkContent = text.trim();
+            index++;
             if (chunkContent.isEmpty()) {
-                continue;
+                return null;
             }
 
             Map<String, Object> metadata = new HashMap<>();
             metadata.put("file_name", file.getName());
             metadata.put("file_path", filePath);
-            metadata.put("chunk_index", i + 1);
-            metadata.put("total_chunks", chunks.size());
+            metadata.put("chunk_index", index);
+            metadata.put(KnowledgeBase.FIELD, knowledgeBase);
             metadata.put("chunk_size", chunkContent.length());
             metadata.put("create_time", System.currentTimeMillis());
 
-            documents.add(new Document(chunkContent, metadata));
+            return new Document(chunkId(fileIdentity, chunkContent), chunkContent, metadata);
         }
-
-        return documents;
     }
 
-    private List<String> splitContent(String content) {
-        List<String> chunks = new ArrayList<>();
-        int start = 0;
-        int length = content.length();
+    /**
+     * 按内容定义的边界切分规整后的文本：
+     * 长度达到 MIN_CHUNK_SIZE 后，在滚动哈希满足 BOUNDARY_MASK 处切分，最长 MAX_CHUNK_SIZE；
+     * 每个分片开头附带上一个分片末尾 OVERLAP_SIZE 个字符
+     */
+    private static final class ChunkScanner implements Closeable {
+
+        private final NormalizedReader reader;
+        /** 规整后的文本，start 之前只保留 OVERLAP_SIZE 个字符作为重叠，定期整体前移 */
+        private final StringBuilder window = new StringBuilder(MAX_CHUNK_SIZE + OVERLAP_SIZE + READ_BUFFER_SIZE);
+        /** 当前分片起点 */
+        private int start;
+        /** 下一个待计算哈希的位置 */
+        private int scan;
+        private int hash;
+        private boolean eof;
+
+        ChunkScanner(NormalizedReader reader) {
+            this.reader = reader;
+        }
 
-        while (start < length) {
-            int end = Math.min(start + CHUNK_SIZE, length);
+        /**
+         * @return 下一个分片（含重叠前缀），null 表示已读完
+         */
+        String nextChunk() throws IOException {
+            while (true) {
+                if (scan >= window.length() && !eof && !reader.fill(window, window.length() + 1)) {
+                    eof = true;
+                }
+                if (scan >= window.length()) {
+                    // 文件末尾：剩余内容作为最后一个分片
+                    return start < window.length() ? cut(window.length()) : null;
+                }
+                char c = window.charAt(scan++);
+                hash = (hash << 1) + GEAR[(c ^ (c >>> 8)) & 0xFF];
+                int length = scan - start;
+                if (length >= MAX_CHUNK_SIZE || (length >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0)) {
+                    return cut(scan);
+                }
+            }
+        }
 
-            if (end < length && OVERLAP_SIZE > 0) {
-                end = Math.min(end + OVERLAP_SIZE, length);
+        private String cut(int end) {
+            String chunk = window.substring(Math.max(0, start - OVERLAP_SIZE), end);
+            start = end;
+            if (start - OVERLAP_SIZE >= READ_BUFFER_SIZE) {
+                int shift = start - OVERLAP_SIZE;
+                window.delete(0, shift);
+                start -= shift;
+                scan -= shift;
             }
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
 
-            String chunk = content.substring(start, end);
-            chunks.add(chunk);
+    /**
+     * 逐块解码并规整空白：去掉首尾空白和 BOM，连续空白（与正则 \s 相同的字符集）合并为一个空格
+     */
+    private static final class NormalizedReader implements Closeable {
 
-            start += CHUNK_SIZE;
+        private final Reader reader;
+        private final char[] buffer = new char[READ_BUFFER_SIZE];
+        /** 已输出过非空白字符（开头的空白直接丢弃） */
+        private boolean started;
+        /** 上一个非空白字符之后遇到过空白，等下一个非空白字符到来时再输出（结尾的空白因此被丢弃） */
+        private boolean pendingSpace;
+        private boolean eof;
+
+        NormalizedReader(Path path, Charset charset) throws IOException {
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.reader = Channels.newReader(FileChannel.open(path, StandardOpenOption.READ), decoder, READ_BUFFER_SIZE);
+        }
 
-            if (start >= length) {
-                break;
+        /**
+         * 向 target 追加规整后的字符，直到长度不小于 minLength
+         *
+         * @return false 表示已到文件末尾且长度仍不足
+         */
+        boolean fill(StringBuilder target, int minLength) throws IOException {
+            while (target.length() < minLength) {
+                if (eof) {
+                    return false;
+                }
+                int n = reader.read(buffer);
+                if (n < 0) {
+                    eof = true;
+                    return false;
+                }
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r') {
+                        pendingSpace = started;
+                    } else if (c == '\uFEFF' && !started) {
+                        // BOM
+                    } else {
+                        if (pendingSpace) {
+                            target.append(' ');
+                            pendingSpace = false;
+                        }
+                        target.append(c);
+                        started = true;
+                    }
+                }
             }
+            return true;
         }
 
-        return chunks;
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
     }
 
+    /**
+     * 按文件开头 CHARSET_SAMPLE_BYTES 字节的采样检测编码
+     */
     private Charset detectCharset(File file) {
-        try {
-            byte[] bytes = Files.readAllBytes(file.toPath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer sample = ByteBuffer.allocate((int) Math.min(channel.size(), CHARSET_SAMPLE_BYTES));
+            while (sample.hasRemaining() && channel.read(sample) > 0) {
+                // 读满采样缓冲
+            }
+            byte[] bytes = Arrays.copyOf(sample.array(), sample.position());
 
             if (bytes.length >= 3 &&
                     bytes[0] == (byte) 0xEF &&
@@ -111,6 +372,11 @@ public class TxtFileProcessor {
                 return Charset.forName("UTF-16BE");
             }
 
+            // 无 BOM 且采样是合法 UTF-8 时直接判定（打分法对中文 UTF-8 会误判为 ISO-8859-1）
+            if (isValidUtf8(bytes)) {
+                return StandardCharsets.UTF_8;
+            }
+
             int[] scores = new int[3];
             scores[0] = scoreForEncoding(bytes, StandardCharsets.UTF_8);
             scores[1] = scoreForEncoding(bytes, Charset.forName("GBK"));
@@ -130,6 +396,17 @@ public class TxtFileProcessor {
         }
     }
 
+    /**
+     * 采样末尾可能截断多字节字符，按「输入未结束」解码，只在遇到非法字节时判定为非 UTF-8
+     */
+    private boolean isValidUtf8(byte[] bytes) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CoderResult result = decoder.decode(ByteBuffer.wrap(bytes), CharBuffer.allocate(bytes.length), false);
+        return !result.isError();
+    }
+
     private int scoreForEncoding(byte[] bytes, Charset charset) {
         try {
             String decoded = new String(bytes, charset);
@@ -0,0 +1,53 @@
+package com.boyan.vir.vectorstore;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 一致性哈希环：每个分片放置 virtualNodes 个虚拟节点，key 归属顺时针方向的第一个虚拟节点
+ *
+ * 新增一个分片时只有约 1/N 的 key 改变归属（从各个旧分片均匀迁入新分片）
+ */
+final class ConsistentHashRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+    private final List<String> members;
+
+    ConsistentHashRing(List<String> members, int virtualNodes) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("一致性哈希环至少需要一个分片");
+        }
+        this.members = List.copyOf(members);
+        for (String member : members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    List<String> members() {
+        return members;
+    }
+
+    String owner(String key) {
+        SortedMap<Long, String> tail = ring.tailMap(hash(key));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * MD5 前 8 字节（分布均匀，且与 JVM / 节点无关，各节点计算结果一致）
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("当前 JVM 不支持 MD5", e);
+        }
+    }
+}
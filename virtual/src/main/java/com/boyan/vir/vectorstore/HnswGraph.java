@@ -0,0 +1,326 @@
+package com.boyan.vir.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW 图（余弦距离，向量入库前已归一化，距离 = 1 - 点积）
+ *
+ *  - 每个节点随机分配层数，第 0 层最多 2M 个邻居，其余层最多 M 个
+ *  - 插入：从顶层入口贪心下降，在各层用 efConstruction 搜索候选并按启发式选择邻居，双向连接
+ *  - 查询：贪心下降到第 0 层后用 ef 做束搜索；过滤条件只影响结果集，不影响图遍历
+ *
+ * 非线程安全：插入需持有写锁，查询需持有读锁（由 HnswVectorStore 保证）
+ */
+final class HnswGraph {
+
+    private final VectorStorage vectors;
+    private final int m;
+    private final int maxNeighborsLayer0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    /** neighbors[node][level] = 邻居编号数组（前 counts[node][level] 个有效） */
+    private final List<int[][]> neighbors = new ArrayList<>();
+    private final List<int[]> counts = new ArrayList<>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswGraph(VectorStorage vectors, int m, int efConstruction) {
+        this.vectors = vectors;
+        this.m = Math.max(2, m);
+        this.maxNeighborsLayer0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+    }
+
+    int size() {
+        return neighbors.size();
+    }
+
+    int entryPoint() {
+        return entryPoint;
+    }
+
+    int maxLevel() {
+        return maxLevel;
+    }
+
+    int m() {
+        return m;
+    }
+
+    int levelOf(int node) {
+        return neighbors.get(node).length - 1;
+    }
+
+    int[] neighborsOf(int node, int level) {
+        return Arrays.copyOf(neighbors.get(node)[level], counts.get(node)[level]);
+    }
+
+    /**
+     * 插入节点（向量已写入 VectorStorage，节点编号必须连续）
+     */
+    void insert(int node) {
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        allocate(node, level);
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedy(node, ep, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            PriorityQueue<Candidate> found = searchLayer(d -> distance(node, d), ep, efConstruction, l, n -> true);
+            List<Candidate> sorted = sortedAscending(found);
+            int maxNeighbors = l == 0 ? maxNeighborsLayer0 : m;
+            int[] selected = selectNeighbors(sorted, m);
+            for (int neighbor : selected) {
+                link(node, neighbor, l, maxNeighbors);
+                link(neighbor, node, l, maxNeighbors);
+            }
+            ep = sorted.get(0).node;
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 查询最近的 k 个满足 accept 的节点（按距离升序）
+     */
+    List<Candidate> search(float[] query, int k, int ef, IntPredicate accept) {
+        if (entryPoint < 0) {
+            return List.of();
+        }
+        Distance distance = node -> 1 - vectors.dot(node, query);
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedy(distance, ep, l);
+        }
+        List<Candidate> sorted = sortedAscending(searchLayer(distance, ep, Math.max(ef, k), 0, accept));
+        return sorted.size() > k ? sorted.subList(0, k) : sorted;
+    }
+
+    // ===== 加载快照 =====
+
+    void restore(int node, int[][] nodeNeighbors) {
+        int[] nodeCounts = new int[nodeNeighbors.length];
+        int[][] storage = new int[nodeNeighbors.length][];
+        for (int l = 0; l < nodeNeighbors.length; l++) {
+            int capacity = l == 0 ? maxNeighborsLayer0 : m;
+            storage[l] = Arrays.copyOf(nodeNeighbors[l], Math.max(capacity, nodeNeighbors[l].length));
+            nodeCounts[l] = nodeNeighbors[l].length;
+        }
+        if (node != neighbors.size()) {
+            throw new IllegalStateException("HNSW 节点编号不连续：" + node);
+        }
+        neighbors.add(storage);
+        counts.add(nodeCounts);
+    }
+
+    void restoreEntry(int entryPoint, int maxLevel) {
+        this.entryPoint = entryPoint;
+        this.maxLevel = maxLevel;
+    }
+
+    // ===== 内部实现 =====
+
+    private void allocate(int node, int level) {
+        if (node != neighbors.size()) {
+            throw new IllegalStateException("HNSW 节点编号不连续：" + node);
+        }
+        int[][] storage = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            storage[l] = new int[l == 0 ? maxNeighborsLayer0 : m];
+        }
+        neighbors.add(storage);
+        counts.add(new int[level + 1]);
+    }
+
+    private float distance(int a, int b) {
+        return 1 - vectors.dot(a, b);
+    }
+
+    private int greedy(int node, int ep, int level) {
+        return greedy(other -> distance(node, other), ep, level);
+    }
+
+    private int greedy(Distance distance, int ep, int level) {
+        int current = ep;
+        float best = distance.to(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] list = neighbors.get(current)[level];
+            int count = counts.get(current)[level];
+            for (int i = 0; i < count; i++) {
+                float d = distance.to(list[i]);
+                if (d < best) {
+                    best = d;
+                    current = list[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 束搜索：返回最多 ef 个满足 accept 的节点（大顶堆，堆顶为最远）
+     */
+    private PriorityQueue<Candidate> searchLayer(Distance distance, int ep, int ef, int level, IntPredicate accept) {
+        Visited visited = new Visited(neighbors.size());
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+        PriorityQueue<Candidate> results = new PriorityQueue<>((a, b) -> Float.compare(b.distance, a.distance));
+
+        Candidate start = new Candidate(ep, distance.to(ep));
+        visited.add(ep);
+        candidates.add(start);
+        if (accept.test(ep)) {
+            results.add(start);
+        }
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.distance > results.peek().distance) {
+                break;
+            }
+            int[] list = neighbors.get(current.node)[level];
+            int count = counts.get(current.node)[level];
+            for (int i = 0; i < count; i++) {
+                int neighbor = list[i];
+                if (!visited.add(neighbor)) {
+                    continue;
+                }
+                float d = distance.to(neighbor);
+                if (results.size() < ef || d < results.peek().distance) {
+                    candidates.add(new Candidate(neighbor, d));
+                    if (accept.test(neighbor)) {
+                        results.add(new Candidate(neighbor, d));
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选择邻居：候选与已选邻居的距离比与新节点更近时跳过，保持不同方向的连接
+     */
+    private int[] selectNeighbors(List<Candidate> sorted, int limit) {
+        int[] selected = new int[Math.min(limit, sorted.size())];
+        int count = 0;
+        for (Candidate candidate : sorted) {
+            if (count == selected.length) {
+                break;
+            }
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (distance(candidate.node, selected[i]) < candidate.distance) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate.node;
+            }
+        }
+        // 启发式选得太少时用最近的候选补足
+        for (Candidate candidate : sorted) {
+            if (count == selected.length) {
+                break;
+            }
+            if (!contains(selected, count, candidate.node)) {
+                selected[count++] = candidate.node;
+            }
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * 把 target 加入 node 的邻居表，超过上限时保留距离 node 最近的 maxNeighbors 个
+     */
+    private void link(int node, int target, int level, int maxNeighbors) {
+        int[] list = neighbors.get(node)[level];
+        int[] nodeCounts = counts.get(node);
+        int count = nodeCounts[level];
+        if (contains(list, count, target)) {
+            return;
+        }
+        if (count < maxNeighbors) {
+            list[count] = target;
+            nodeCounts[level] = count + 1;
+            return;
+        }
+        List<Candidate> all = new ArrayList<>(count + 1);
+        for (int i = 0; i < count; i++) {
+            all.add(new Candidate(list[i], distance(node, list[i])));
+        }
+        all.add(new Candidate(target, distance(node, target)));
+        all.sort(null);
+        int[] kept = selectNeighbors(all, maxNeighbors);
+        System.arraycopy(kept, 0, list, 0, kept.length);
+        nodeCounts[level] = kept.length;
+    }
+
+    private static boolean contains(int[] list, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (list[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Candidate> sortedAscending(PriorityQueue<Candidate> queue) {
+        List<Candidate> sorted = new ArrayList<>(queue);
+        sorted.sort(null);
+        return sorted;
+    }
+
+    @FunctionalInterface
+    private interface Distance {
+        float to(int node);
+    }
+
+    record Candidate(int node, float distance) implements Comparable<Candidate> {
+        @Override
+        public int compareTo(Candidate other) {
+            return Float.compare(distance, other.distance);
+        }
+    }
+
+    /**
+     * 按 64 位分组的访问标记（比 HashSet 省内存、无装箱）
+     */
+    private static final class Visited {
+        private final long[] bits;
+
+        Visited(int size) {
+            this.bits = new long[(size + 63) >>> 6];
+        }
+
+        boolean add(int node) {
+            int index = node >>> 6;
+            long mask = 1L << (node & 63);
+            if ((bits[index] & mask) != 0) {
+                return false;
+            }
+            bits[index] |= mask;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,700 @@
+package com.boyan.vir.vectorstore;
+
+import com.boyan.vir.ingest.VectorSink;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 进程内 HNSW 向量库（app.vector.store.type=embedded 时替代 redisVectorStore 用于检索与入库）
+ *
+ *  - 向量归一化后存放在堆外 direct buffer，HNSW 图与文档元数据在堆上
+ *  - quantization=INT8 时常驻内存的只有 int8 编码（约 1/4），全精度向量在磁盘文件中；
+ *    图遍历取 topK × rerankFactor 个候选，再按全精度向量精排（Int8Vectors）
+ *  - 检索不经过网络，支持与 RedisVectorStore 相同的元数据过滤（file_name、chunk_index、source 等）
+ *  - 同 ID 重复写入 / 删除只做标记，标记过多时在保存快照前重建图
+ *  - 快照：定时（有改动时）与关闭时写入内存映射文件，启动时映射读取，无需重新向量化或重建图
+ *
+ * 适合中小规模知识库（单个快照文件不超过 2GB，1024 维约 40 万个分片）
+ */
+@Slf4j
+public class HnswVectorStore implements TunableVectorStore, InitializingBean, DisposableBean {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 9 * Integer.BYTES;
+    /** 已删除节点超过该比例时重建图 */
+    private static final double REBUILD_DELETED_RATIO = 0.3;
+
+    private final EmbeddingModel embeddingModel;
+    private final int dimensions;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final VectorQuantization quantization;
+    private final int rerankFactor;
+    private final Path snapshotFile;
+    private final Duration snapshotInterval;
+    private final ObjectMapper objectMapper;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private VectorStorage vectors;
+    /** 全精度向量文件的代数，重建图时切换到新文件 */
+    private int coldGeneration;
+    private HnswGraph graph;
+    /** 节点编号 → 文档，已删除的节点为 null */
+    private List<StoredDocument> documents = new ArrayList<>();
+    private Map<String, Integer> nodeById = new HashMap<>();
+    private int deletedCount;
+    private volatile boolean dirty;
+
+    private ScheduledExecutorService snapshotScheduler;
+
+    public HnswVectorStore(EmbeddingModel embeddingModel, int dimensions, int m, int efConstruction, int efSearch,
+                           VectorQuantization quantization, int rerankFactor,
+                           Path snapshotFile, Duration snapshotInterval, ObjectMapper objectMapper) {
+        this.embeddingModel = embeddingModel;
+        this.dimensions = dimensions;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.quantization = quantization;
+        this.rerankFactor = quantization == VectorQuantization.NONE ? 1 : Math.max(1, rerankFactor);
+        this.snapshotFile = snapshotFile;
+        this.snapshotInterval = snapshotInterval;
+        this.objectMapper = objectMapper;
+    }
+
+    // ===== 生命周期 =====
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (Files.exists(snapshotFile)) {
+            long start = System.nanoTime();
+            load();
+            log.info("HNSW 快照已加载：{}，{} 个分片，存储方式 {}，耗时 {}ms", snapshotFile, nodeById.size(), quantization,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } else {
+            vectors = newStorage(coldGeneration, 0);
+            graph = new HnswGraph(vectors, m, efConstruction);
+        }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hnsw-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, snapshotInterval.toSeconds());
+        snapshotScheduler.scheduleWithFixedDelay(this::snapshotIfDirty, interval, interval, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+            try {
+                // 等待进行中的定时快照结束，避免与最后一次快照同时写临时文件
+                if (!snapshotScheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.warn("等待定时快照结束超时：{}", snapshotFile);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        snapshotIfDirty();
+        try {
+            vectors.close();
+        } catch (IOException e) {
+            log.warn("关闭向量存储失败：{}", e.getMessage());
+        }
+    }
+
+    // ===== VectorStore =====
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<String> texts = documents.stream().map(Document::getText).toList();
+        addEmbedded(documents, embeddingModel.embed(texts));
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        deleteByIds(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        lock.writeLock().lock();
+        try {
+            for (int node = 0; node < this.documents.size(); node++) {
+                StoredDocument document = this.documents.get(node);
+                if (document != null && MetadataFilter.matches(filterExpression, document.metadata())) {
+                    markDeleted(node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(request, efSearch);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request, int ef) {
+        float[] query = normalize(embeddingModel.embed(request.getQuery()));
+        Filter.Expression filter = request.getFilterExpression();
+        lock.readLock().lock();
+        try {
+            List<HnswGraph.Candidate> found = search(query, request.getTopK(), ef, node -> {
+                StoredDocument document = documents.get(node);
+                return document != null && MetadataFilter.matches(filter, document.metadata());
+            });
+            List<Document> results = new ArrayList<>(found.size());
+            for (HnswGraph.Candidate candidate : found) {
+                double score = 1 - candidate.distance();
+                if (score < request.getSimilarityThreshold()) {
+                    break;
+                }
+                StoredDocument document = documents.get(candidate.node());
+                Map<String, Object> metadata = new HashMap<>(document.metadata());
+                metadata.put(DocumentMetadata.DISTANCE.value(), candidate.distance());
+                results.add(Document.builder()
+                        .id(document.id())
+                        .text(document.text())
+                        .metadata(metadata)
+                        .score(score)
+                        .build());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 图遍历取候选；量化存储时取 topK × rerankFactor 个候选，按全精度向量精排后返回 topK
+     */
+    private List<HnswGraph.Candidate> search(float[] query, int topK, int ef, IntPredicate accept) {
+        if (rerankFactor == 1) {
+            return graph.search(query, topK, ef, accept);
+        }
+        int candidates = topK * rerankFactor;
+        List<HnswGraph.Candidate> reranked = new ArrayList<>(candidates);
+        for (HnswGraph.Candidate candidate : graph.search(query, candidates, Math.max(ef, candidates), accept)) {
+            reranked.add(new HnswGraph.Candidate(candidate.node(), 1 - vectors.exactDot(candidate.node(), query)));
+        }
+        reranked.sort(null);
+        return reranked.size() > topK ? reranked.subList(0, topK) : reranked;
+    }
+
+    // ===== 入库流水线直接写入（已向量化） =====
+
+    /**
+     * 写入已向量化的分片，同 ID 的旧分片标记删除
+     */
+    public void addEmbedded(List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("分片与向量数量不一致：" + documents.size() + " / " + embeddings.size());
+        }
+        List<float[]> normalized = embeddings.stream().map(HnswVectorStore::normalize).toList();
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                Integer previous = nodeById.get(document.getId());
+                if (previous != null) {
+                    markDeleted(previous);
+                }
+                int node = vectors.add(normalized.get(i));
+                this.documents.add(new StoredDocument(document.getId(), document.getText(),
+                        new LinkedHashMap<>(document.getMetadata())));
+                graph.insert(node);
+                nodeById.put(document.getId(), node);
+            }
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long deleteByIds(List<String> ids) {
+        lock.writeLock().lock();
+        try {
+            long deleted = 0;
+            for (String id : ids) {
+                Integer node = nodeById.get(id);
+                if (node != null) {
+                    markDeleted(node);
+                    deleted++;
+                }
+            }
+            return deleted;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 只更新元数据中的指定字段（不改变向量与图）
+     */
+    public void updateMetadata(List<Document> documents, List<String> fields) {
+        lock.writeLock().lock();
+        try {
+            for (Document document : documents) {
+                Integer node = nodeById.get(document.getId());
+                if (node == null) {
+                    continue;
+                }
+                Map<String, Object> metadata = this.documents.get(node).metadata();
+                for (String field : fields) {
+                    metadata.put(field, document.getMetadata().get(field));
+                }
+            }
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 作为入库流水线的写入目标
+     */
+    public VectorSink asSink() {
+        return new VectorSink() {
+            @Override
+            public void write(List<Document> documents, List<float[]> vectors) {
+                addEmbedded(documents, vectors);
+            }
+
+            @Override
+            public long delete(List<String> ids) {
+                return deleteByIds(ids);
+            }
+
+            @Override
+            public void updatePositions(List<Document> documents) {
+                updateMetadata(documents, List.of("chunk_index"));
+            }
+        };
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 召回率与内存报告：抽样库中的向量作为查询，以全精度暴力检索为基准，
+     * 分别计算只用图遍历距离与精排后的 recall@k（暴力检索为 O(样本数 × 向量数)，只用于离线评估）
+     */
+    public QuantizationReport quantizationReport(int sampleSize, int k) {
+        lock.readLock().lock();
+        try {
+            List<Integer> live = new ArrayList<>(nodeById.values());
+            int samples = Math.min(sampleSize, live.size());
+            SplittableRandom random = new SplittableRandom(7);
+            IntPredicate accept = node -> documents.get(node) != null;
+            float[] query = new float[dimensions];
+            FloatBuffer queryBuffer = FloatBuffer.wrap(query);
+            long approximateHits = 0;
+            long rerankedHits = 0;
+            long searchNanos = 0;
+            for (int i = 0; i < samples; i++) {
+                queryBuffer.clear();
+                vectors.copyTo(live.get(random.nextInt(live.size())), queryBuffer);
+                Set<Integer> truth = exactTopK(live, query, k);
+
+                for (HnswGraph.Candidate candidate : graph.search(query, k, efSearch, accept)) {
+                    approximateHits += truth.contains(candidate.node()) ? 1 : 0;
+                }
+                long begin = System.nanoTime();
+                List<HnswGraph.Candidate> reranked = search(query, k, efSearch, accept);
+                searchNanos += System.nanoTime() - begin;
+                for (HnswGraph.Candidate candidate : reranked) {
+                    rerankedHits += truth.contains(candidate.node()) ? 1 : 0;
+                }
+            }
+            long expected = (long) samples * Math.min(k, live.size());
+            int count = vectors.size();
+            return new QuantizationReport(quantization, live.size(), dimensions,
+                    vectors.hotBytes(), vectors.coldBytes(),
+                    dimensions * Float.BYTES, count > 0 ? (double) vectors.hotBytes() / count : 0,
+                    samples, k,
+                    expected > 0 ? (double) approximateHits / expected : 1,
+                    expected > 0 ? (double) rerankedHits / expected : 1,
+                    samples > 0 ? searchNanos / 1000.0 / samples : 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Set<Integer> exactTopK(List<Integer> live, float[] query, int k) {
+        PriorityQueue<HnswGraph.Candidate> top = new PriorityQueue<>((a, b) -> Float.compare(b.distance(), a.distance()));
+        for (int node : live) {
+            top.add(new HnswGraph.Candidate(node, 1 - vectors.exactDot(node, query)));
+            if (top.size() > k) {
+                top.poll();
+            }
+        }
+        Set<Integer> nodes = new HashSet<>();
+        for (HnswGraph.Candidate candidate : top) {
+            nodes.add(candidate.node());
+        }
+        return nodes;
+    }
+
+    // ===== 快照 =====
+
+    private void snapshotIfDirty() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            int previousGeneration = coldGeneration;
+            VectorStorage retired = rebuildIfFragmented();
+            save();
+            if (retired != null) {
+                // 新快照已引用新的全精度文件，旧文件可以删除
+                retired.close();
+                if (quantization == VectorQuantization.INT8) {
+                    Files.deleteIfExists(coldFile(previousGeneration));
+                }
+            }
+        } catch (Exception e) {
+            log.error("保存 HNSW 快照失败：{}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * 快照格式（小端）：
+     * 头部 magic、version、dimensions、count、entryPoint、maxLevel、M、quantization、coldGeneration；
+     * count 个向量（仅 NONE，INT8 的全精度向量在冷存储文件中）；每个节点的层数与各层邻居；
+     * 每个节点的文档 JSON（长度 + 字节，已删除为 -1）
+     */
+    void save() throws IOException {
+        lock.readLock().lock();
+        try {
+            vectors.flush();
+            int count = vectors.size();
+            int vectorSectionBytes = quantization == VectorQuantization.NONE ? count * dimensions * Float.BYTES : 0;
+            List<byte[]> payloads = new ArrayList<>(count);
+            long size = HEADER_BYTES + (long) vectorSectionBytes;
+            for (int node = 0; node < count; node++) {
+                size += Integer.BYTES;
+                for (int l = 0; l <= graph.levelOf(node); l++) {
+                    size += Integer.BYTES + (long) graph.neighborsOf(node, l).length * Integer.BYTES;
+                }
+                StoredDocument document = documents.get(node);
+                byte[] payload = document == null ? null : objectMapper.writeValueAsBytes(document);
+                payloads.add(payload);
+                size += Integer.BYTES + (payload == null ? 0 : payload.length);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("HNSW 快照超过 2GB，请改用 Redis 向量库：" + size + " 字节");
+            }
+
+            Files.createDirectories(snapshotFile.toAbsolutePath().getParent());
+            Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(dimensions).putInt(count)
+                        .putInt(graph.entryPoint()).putInt(graph.maxLevel()).putInt(graph.m())
+                        .putInt(quantization.ordinal()).putInt(coldGeneration);
+                if (vectorSectionBytes > 0) {
+                    FloatBuffer floats = buffer.slice(buffer.position(), vectorSectionBytes)
+                            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                    for (int node = 0; node < count; node++) {
+                        vectors.copyTo(node, floats);
+                    }
+                    buffer.position(buffer.position() + vectorSectionBytes);
+                }
+                for (int node = 0; node < count; node++) {
+                    int level = graph.levelOf(node);
+                    buffer.putInt(level);
+                    for (int l = 0; l <= level; l++) {
+                        int[] list = graph.neighborsOf(node, l);
+                        buffer.putInt(list.length);
+                        for (int neighbor : list) {
+                            buffer.putInt(neighbor);
+                        }
+                    }
+                }
+                for (byte[] payload : payloads) {
+                    buffer.putInt(payload == null ? -1 : payload.length);
+                    if (payload != null) {
+                        buffer.put(payload);
+                    }
+                }
+                buffer.force();
+            }
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // 持有读锁期间没有写入，快照替换成功后才清除标记；任何一步失败都留给下一轮重试
+            dirty = false;
+            log.info("HNSW 快照已保存：{}，{} 个节点（有效 {}），{} 字节", snapshotFile, count, nodeById.size(), size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void load() throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int version = buffer.getInt(4);
+            if (buffer.getInt() != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("HNSW 快照格式不正确：" + snapshotFile);
+            }
+            buffer.getInt();
+            int fileDimensions = buffer.getInt();
+            if (fileDimensions != dimensions) {
+                throw new IOException("HNSW 快照维度（" + fileDimensions + "）与当前向量模型（" + dimensions + "）不一致，请删除快照后重新入库");
+            }
+            int count = buffer.getInt();
+            int entryPoint = buffer.getInt();
+            int maxLevel = buffer.getInt();
+            int fileM = buffer.getInt();
+            // version 1 没有量化，向量全部在快照中
+            VectorQuantization fileQuantization = version >= 2 ? VectorQuantization.values()[buffer.getInt()] : VectorQuantization.NONE;
+            int fileGeneration = version >= 2 ? buffer.getInt() : 0;
+
+            VectorStorage loadedVectors = loadVectors(buffer, count, fileQuantization, fileGeneration);
+
+            HnswGraph loadedGraph = new HnswGraph(loadedVectors, fileM, efConstruction);
+            for (int node = 0; node < count; node++) {
+                int[][] levels = new int[buffer.getInt() + 1][];
+                for (int l = 0; l < levels.length; l++) {
+                    levels[l] = new int[buffer.getInt()];
+                    for (int i = 0; i < levels[l].length; i++) {
+                        levels[l][i] = buffer.getInt();
+                    }
+                }
+                loadedGraph.restore(node, levels);
+            }
+            loadedGraph.restoreEntry(entryPoint, maxLevel);
+
+            List<StoredDocument> loadedDocuments = new ArrayList<>(count);
+            Map<String, Integer> loadedIndex = new HashMap<>();
+            for (int node = 0; node < count; node++) {
+                int length = buffer.getInt();
+                if (length < 0) {
+                    loadedDocuments.add(null);
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                StoredDocument document = objectMapper.readValue(payload, StoredDocument.class);
+                loadedDocuments.add(document);
+                loadedIndex.put(document.id(), node);
+            }
+
+            this.vectors = loadedVectors;
+            this.graph = loadedGraph;
+            this.documents = loadedDocuments;
+            this.nodeById = loadedIndex;
+            this.deletedCount = count - loadedIndex.size();
+            if (fileQuantization != quantization) {
+                // 存储方式已转换，下次保存快照时按新方式写入
+                dirty = true;
+            }
+            if (fileM != m) {
+                log.warn("HNSW 快照的 M（{}）与配置（{}）不一致，沿用快照中的图；删除快照后重新入库生效", fileM, m);
+            }
+        }
+    }
+
+    /**
+     * 按快照与当前配置的存储方式加载向量：方式相同时直接复用，不同时逐个转换
+     */
+    private VectorStorage loadVectors(ByteBuffer buffer, int count, VectorQuantization fileQuantization,
+                                      int fileGeneration) throws IOException {
+        if (fileQuantization == VectorQuantization.NONE) {
+            FloatBuffer floats = buffer.slice(buffer.position(), count * dimensions * Float.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            buffer.position(buffer.position() + count * dimensions * Float.BYTES);
+            coldGeneration = fileGeneration;
+            if (quantization == VectorQuantization.NONE) {
+                OffHeapVectors loaded = new OffHeapVectors(dimensions);
+                loaded.addAll(floats, count);
+                return loaded;
+            }
+            return copyVectors(count, (node, out) -> out.put(floats.slice(node * dimensions, dimensions)));
+        }
+
+        Int8Vectors stored = new Int8Vectors(dimensions, coldFile(fileGeneration), count);
+        coldGeneration = fileGeneration;
+        if (quantization == VectorQuantization.INT8) {
+            return stored;
+        }
+        try (stored) {
+            OffHeapVectors loaded = new OffHeapVectors(dimensions);
+            float[] vector = new float[dimensions];
+            FloatBuffer out = FloatBuffer.wrap(vector);
+            for (int node = 0; node < count; node++) {
+                out.clear();
+                stored.copyTo(node, out);
+                loaded.add(vector);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * 按当前存储方式新建存储，并依次写入 count 个全精度向量
+     */
+    private VectorStorage copyVectors(int count, VectorSource source) throws IOException {
+        VectorStorage target = newStorage(coldGeneration + 1, 0);
+        float[] vector = new float[dimensions];
+        FloatBuffer out = FloatBuffer.wrap(vector);
+        for (int node = 0; node < count; node++) {
+            out.clear();
+            source.copyTo(node, out);
+            target.add(vector);
+        }
+        coldGeneration++;
+        return target;
+    }
+
+    @FunctionalInterface
+    private interface VectorSource {
+        void copyTo(int node, FloatBuffer out);
+    }
+
+    private VectorStorage newStorage(int generation, int restoreCount) throws IOException {
+        if (quantization == VectorQuantization.INT8) {
+            return new Int8Vectors(dimensions, coldFile(generation), restoreCount);
+        }
+        return new OffHeapVectors(dimensions);
+    }
+
+    /**
+     * 全精度向量文件：与快照同目录，按代数区分（重建图时写入新文件，旧文件在切换后删除）
+     */
+    private Path coldFile(int generation) {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + ".vectors." + generation);
+    }
+
+    // ===== 内部实现 =====
+
+    /**
+     * 已删除节点过多时只用有效节点重建图（向量直接复制，无需重新向量化）
+     *
+     * @return 被替换的旧存储（保存快照后再关闭），未重建时为 null
+     */
+    private VectorStorage rebuildIfFragmented() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (deletedCount == 0 || deletedCount < documents.size() * REBUILD_DELETED_RATIO) {
+                return null;
+            }
+            long start = System.nanoTime();
+            VectorStorage retired = vectors;
+            VectorStorage rebuiltVectors = newStorage(coldGeneration + 1, 0);
+            HnswGraph rebuiltGraph = new HnswGraph(rebuiltVectors, m, efConstruction);
+            List<StoredDocument> rebuiltDocuments = new ArrayList<>(nodeById.size());
+            Map<String, Integer> rebuiltIndex = new HashMap<>();
+            FloatBuffer vector = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            float[] values = new float[dimensions];
+            for (int node = 0; node < documents.size(); node++) {
+                StoredDocument document = documents.get(node);
+                if (document == null) {
+                    continue;
+                }
+                vector.clear();
+                vectors.copyTo(node, vector);
+                vector.flip();
+                vector.get(values);
+                int rebuilt = rebuiltVectors.add(values);
+                rebuiltDocuments.add(document);
+                rebuiltGraph.insert(rebuilt);
+                rebuiltIndex.put(document.id(), rebuilt);
+            }
+            log.info("HNSW 图已重建：{} → {} 个节点，耗时 {}ms", documents.size(), rebuiltDocuments.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            this.vectors = rebuiltVectors;
+            this.graph = rebuiltGraph;
+            this.documents = rebuiltDocuments;
+            this.nodeById = rebuiltIndex;
+            this.deletedCount = 0;
+            this.coldGeneration++;
+            return retired;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void markDeleted(int node) {
+        StoredDocument document = documents.get(node);
+        if (document == null) {
+            return;
+        }
+        documents.set(node, null);
+        nodeById.remove(document.id(), node);
+        deletedCount++;
+        dirty = true;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            return vector.clone();
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    /**
+     * 快照中的文档（也用作内存中的文档存储）
+     */
+    record StoredDocument(String id, String text, Map<String, Object> metadata) {
+    }
+}
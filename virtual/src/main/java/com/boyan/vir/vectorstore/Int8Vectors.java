@@ -0,0 +1,204 @@
+package com.boyan.vir.vectorstore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * int8 标量量化的向量存储
+ *
+ *  - 热数据（堆外）：每个向量 dimensions 个 int8 编码 + 1 个 float 缩放系数（scale = max|x| / 127），
+ *    1024 维约 1KB，是 float32 的 1/4；图遍历的点积在编码上计算
+ *  - 冷数据（磁盘文件）：全精度 float32 向量按节点编号顺序追加，只在精排、快照、重建时按位置读取（依赖页缓存）
+ *
+ * 写入由上层的写锁保护，读取可并发（FileChannel 的按位置读取是线程安全的）
+ */
+final class Int8Vectors implements VectorStorage {
+
+    private static final int SEGMENT_SHIFT = OffHeapVectors.SEGMENT_SHIFT;
+    private static final int SEGMENT_SIZE = OffHeapVectors.SEGMENT_SIZE;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final int dimensions;
+    private final Path coldFile;
+    private final FileChannel cold;
+    private final List<ByteBuffer> codeSegments = new ArrayList<>();
+    private final List<FloatBuffer> scaleSegments = new ArrayList<>();
+    private volatile int size;
+
+    /**
+     * @param coldFile 全精度向量文件；restoreCount > 0 时复用文件中已有的前 restoreCount 个向量，否则清空
+     */
+    Int8Vectors(int dimensions, Path coldFile, int restoreCount) throws IOException {
+        this.dimensions = dimensions;
+        this.coldFile = coldFile;
+        Files.createDirectories(coldFile.toAbsolutePath().getParent());
+        this.cold = FileChannel.open(coldFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long expected = (long) restoreCount * vectorBytes();
+        if (cold.size() < expected) {
+            cold.close();
+            throw new IOException("全精度向量文件不完整：" + coldFile + "，期望至少 " + expected + " 字节，实际 " + Files.size(coldFile));
+        }
+        // 快照之后追加、未进入快照的向量丢弃
+        cold.truncate(expected);
+        float[] vector = new float[dimensions];
+        for (int node = 0; node < restoreCount; node++) {
+            readCold(node, vector);
+            appendCodes(node, vector);
+        }
+        this.size = restoreCount;
+    }
+
+    Path coldFile() {
+        return coldFile;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不一致：期望 " + dimensions + "，实际 " + vector.length);
+        }
+        int node = size;
+        ByteBuffer bytes = ByteBuffer.allocate(vectorBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asFloatBuffer().put(vector);
+        try {
+            long position = (long) node * vectorBytes();
+            while (bytes.hasRemaining()) {
+                position += cold.write(bytes, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入全精度向量失败：" + coldFile, e);
+        }
+        appendCodes(node, vector);
+        size = node + 1;
+        return node;
+    }
+
+    @Override
+    public float dot(int node, float[] query) {
+        ByteBuffer codes = codeSegments.get(node >>> SEGMENT_SHIFT);
+        int offset = (node & SEGMENT_MASK) * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += codes.get(offset + i) * query[i];
+        }
+        return sum * scale(node);
+    }
+
+    @Override
+    public float dot(int a, int b) {
+        ByteBuffer ca = codeSegments.get(a >>> SEGMENT_SHIFT);
+        ByteBuffer cb = codeSegments.get(b >>> SEGMENT_SHIFT);
+        int oa = (a & SEGMENT_MASK) * dimensions;
+        int ob = (b & SEGMENT_MASK) * dimensions;
+        int sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += ca.get(oa + i) * cb.get(ob + i);
+        }
+        return sum * scale(a) * scale(b);
+    }
+
+    @Override
+    public float exactDot(int node, float[] query) {
+        float[] vector = new float[dimensions];
+        readCold(node, vector);
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += vector[i] * query[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void copyTo(int node, FloatBuffer out) {
+        float[] vector = new float[dimensions];
+        readCold(node, vector);
+        out.put(vector);
+    }
+
+    @Override
+    public long hotBytes() {
+        return (long) size * (dimensions + Float.BYTES);
+    }
+
+    @Override
+    public long coldBytes() {
+        return (long) size * vectorBytes();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        cold.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        cold.close();
+    }
+
+    // ===== 内部实现 =====
+
+    private void appendCodes(int node, float[] vector) {
+        int segment = node >>> SEGMENT_SHIFT;
+        if (segment == codeSegments.size()) {
+            codeSegments.add(ByteBuffer.allocateDirect(SEGMENT_SIZE * dimensions));
+            scaleSegments.add(ByteBuffer.allocateDirect(SEGMENT_SIZE * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+        float max = 0;
+        for (float v : vector) {
+            max = Math.max(max, Math.abs(v));
+        }
+        float scale = max == 0 ? 1 : max / 127;
+        ByteBuffer codes = codeSegments.get(segment);
+        int offset = (node & SEGMENT_MASK) * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            codes.put(offset + i, (byte) Math.round(vector[i] / scale));
+        }
+        scaleSegments.get(segment).put(node & SEGMENT_MASK, scale);
+    }
+
+    private float scale(int node) {
+        return scaleSegments.get(node >>> SEGMENT_SHIFT).get(node & SEGMENT_MASK);
+    }
+
+    private void readCold(int node, float[] vector) {
+        ByteBuffer bytes = ByteBuffer.allocate(vectorBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            long position = (long) node * vectorBytes();
+            while (bytes.hasRemaining()) {
+                int read = cold.read(bytes, position + bytes.position());
+                if (read < 0) {
+                    throw new IOException("全精度向量文件已截断：" + coldFile + "，节点 " + node);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取全精度向量失败：" + coldFile, e);
+        }
+        bytes.flip();
+        bytes.asFloatBuffer().get(vector);
+    }
+
+    private int vectorBytes() {
+        return dimensions * Float.BYTES;
+    }
+}
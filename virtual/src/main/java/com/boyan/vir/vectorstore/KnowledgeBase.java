@@ -0,0 +1,78 @@
+package com.boyan.vir.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * 知识库（租户 / 命名空间）划分：分片元数据 source（Redis 索引中为 TAG 字段）记录所属知识库
+ *
+ *  - 入库：上传目录下的一级子目录即知识库（app.upload.path/{知识库}/xxx.txt），
+ *    直接放在上传目录或目录之外的文件属于 default 知识库；由文件路径决定，上传、目录监听、索引重建得到同一结果
+ *  - 检索：指定知识库时以 source == 知识库 作为过滤条件下推到向量库，KNN 只在该知识库的分片中进行
+ *    （Redis 先按 TAG 过滤再计算向量距离，进程内 HNSW 在图遍历时跳过其他知识库的节点）；不指定时检索全部知识库
+ *
+ * 知识库名只允许字母、数字与下划线（TAG 查询中其余标点需要转义）
+ */
+public final class KnowledgeBase {
+
+    /** 记录知识库的元数据字段 */
+    public static final String FIELD = "source";
+    public static final String DEFAULT = "default";
+    /**
+     * 不限定知识库（检索全部）；图工作流的状态按线程检查点保存，未指定知识库时写入该值覆盖上一轮的选择
+     */
+    public static final String ALL = "";
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_]{1,64}");
+
+    private KnowledgeBase() {
+    }
+
+    public static boolean isValid(String name) {
+        return name != null && NAME.matcher(name).matches();
+    }
+
+    /**
+     * 是否不限定知识库（null 或 ALL）
+     */
+    public static boolean isAll(String name) {
+        return name == null || name.isBlank();
+    }
+
+    /**
+     * 校验知识库名，空值返回 null（不限定知识库）
+     */
+    public static String normalize(String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        String trimmed = name.trim();
+        if (!isValid(trimmed)) {
+            throw new IllegalArgumentException("知识库名只能包含字母、数字与下划线（最长64位）：" + name);
+        }
+        return trimmed;
+    }
+
+    /**
+     * 文件所属的知识库：上传目录下的一级子目录名，其余为 default
+     */
+    public static String of(Path uploadDir, String filePath) {
+        Path root = uploadDir.toAbsolutePath().normalize();
+        Path file = Path.of(filePath).toAbsolutePath().normalize();
+        if (!file.startsWith(root) || root.relativize(file).getNameCount() < 2) {
+            return DEFAULT;
+        }
+        String name = root.relativize(file).getName(0).toString();
+        return isValid(name) ? name : DEFAULT;
+    }
+
+    /**
+     * 检索过滤条件：source == 知识库
+     */
+    public static Filter.Expression filter(String name) {
+        return new FilterExpressionBuilder().eq(FIELD, name).build();
+    }
+}
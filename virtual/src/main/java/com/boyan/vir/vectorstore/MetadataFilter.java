@@ -0,0 +1,106 @@
+package com.boyan.vir.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * 在元数据 Map 上求值 Spring AI 过滤表达式（file_name == 'a.txt' && chunk_index >= 3 等）
+ *
+ * 支持 AND / OR / NOT / EQ / NE / GT / GTE / LT / LTE / IN / NIN；
+ * 数值统一按 double 比较（元数据中的 Integer 与表达式中的 Long / Double 可互相比较）
+ */
+final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        if (expression == null) {
+            return true;
+        }
+        return switch (expression.type()) {
+            case AND -> test(expression.left(), metadata) && test(expression.right(), metadata);
+            case OR -> test(expression.left(), metadata) || test(expression.right(), metadata);
+            case NOT -> !test(expression.left(), metadata);
+            case EQ -> equal(actual(expression, metadata), expected(expression));
+            case NE -> !equal(actual(expression, metadata), expected(expression));
+            case GT -> range(expression, metadata, c -> c > 0);
+            case GTE -> range(expression, metadata, c -> c >= 0);
+            case LT -> range(expression, metadata, c -> c < 0);
+            case LTE -> range(expression, metadata, c -> c <= 0);
+            case IN -> in(actual(expression, metadata), expected(expression));
+            case NIN -> !in(actual(expression, metadata), expected(expression));
+            default -> throw new UnsupportedOperationException("不支持的过滤表达式：" + expression.type());
+        };
+    }
+
+    private static boolean test(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        if (operand instanceof Filter.Expression expression) {
+            return matches(expression, metadata);
+        }
+        throw new IllegalArgumentException("过滤表达式的逻辑运算数不合法：" + operand);
+    }
+
+    private static Object actual(Filter.Expression expression, Map<String, Object> metadata) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw new IllegalArgumentException("过滤表达式左侧必须是字段名：" + expression);
+        }
+        return metadata.get(unquote(key.key()));
+    }
+
+    private static Object expected(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("过滤表达式右侧必须是值：" + expression);
+        }
+        return value.value();
+    }
+
+    private static boolean equal(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue()) == 0;
+        }
+        if (actual == null || expected == null) {
+            return actual == expected;
+        }
+        return Objects.equals(actual.toString(), expected.toString());
+    }
+
+    private static boolean range(Filter.Expression expression, Map<String, Object> metadata, IntPredicate test) {
+        Object actual = actual(expression, metadata);
+        Object expected = expected(expression);
+        if (actual == null || expected == null) {
+            // 缺失字段不满足任何范围条件
+            return false;
+        }
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return test.test(Double.compare(a.doubleValue(), b.doubleValue()));
+        }
+        return test.test(actual.toString().compareTo(expected.toString()));
+    }
+
+    private static boolean in(Object actual, Object expected) {
+        if (!(expected instanceof Collection<?> values)) {
+            return equal(actual, expected);
+        }
+        for (Object value : values) {
+            if (equal(actual, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("'") && key.endsWith("'") || key.startsWith("\"") && key.endsWith("\""))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,124 @@
+package com.boyan.vir.vectorstore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 全精度（float32）堆外向量存储：按段分配 direct buffer，每段 SEGMENT_SIZE 个向量，按节点编号寻址
+ *
+ * 向量不占用 Java 堆，GC 不扫描；段只追加不回收（删除由上层标记）。
+ * 写入由上层的写锁保护，读取可并发
+ */
+final class OffHeapVectors implements VectorStorage {
+
+    static final int SEGMENT_SHIFT = 12;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final int dimensions;
+    private final List<FloatBuffer> segments = new ArrayList<>();
+    private volatile int size;
+
+    OffHeapVectors(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 追加一个向量，返回节点编号
+     */
+    @Override
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不一致：期望 " + dimensions + "，实际 " + vector.length);
+        }
+        int node = size;
+        int segment = node >>> SEGMENT_SHIFT;
+        if (segment == segments.size()) {
+            segments.add(ByteBuffer.allocateDirect(SEGMENT_SIZE * dimensions * Float.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+        segments.get(segment).put((node & SEGMENT_MASK) * dimensions, vector);
+        size = node + 1;
+        return node;
+    }
+
+    /**
+     * 节点向量与查询向量的点积
+     */
+    @Override
+    public float dot(int node, float[] query) {
+        FloatBuffer segment = segments.get(node >>> SEGMENT_SHIFT);
+        int offset = (node & SEGMENT_MASK) * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += segment.get(offset + i) * query[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 两个节点向量的点积
+     */
+    @Override
+    public float dot(int a, int b) {
+        FloatBuffer sa = segments.get(a >>> SEGMENT_SHIFT);
+        FloatBuffer sb = segments.get(b >>> SEGMENT_SHIFT);
+        int oa = (a & SEGMENT_MASK) * dimensions;
+        int ob = (b & SEGMENT_MASK) * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += sa.get(oa + i) * sb.get(ob + i);
+        }
+        return sum;
+    }
+
+    @Override
+    public float exactDot(int node, float[] query) {
+        return dot(node, query);
+    }
+
+    /**
+     * 把节点向量写入 out（快照）
+     */
+    @Override
+    public void copyTo(int node, FloatBuffer out) {
+        FloatBuffer segment = segments.get(node >>> SEGMENT_SHIFT);
+        int offset = (node & SEGMENT_MASK) * dimensions;
+        out.put(segment.slice(offset, dimensions));
+    }
+
+    @Override
+    public long hotBytes() {
+        return (long) size * dimensions * Float.BYTES;
+    }
+
+    @Override
+    public long coldBytes() {
+        return 0;
+    }
+
+    /**
+     * 从 in 读取 count 个连续向量追加（加载快照）
+     */
+    void addAll(FloatBuffer in, int count) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < count; i++) {
+            in.get(vector);
+            add(vector);
+        }
+    }
+}
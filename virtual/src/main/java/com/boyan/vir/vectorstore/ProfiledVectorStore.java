@@ -0,0 +1,84 @@
+package com.boyan.vir.vectorstore;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按检索档位（SearchProfile）查询的向量库：档位映射为 HNSW 候选集大小，按档位记录检索延迟
+ *
+ *  - similaritySearch(request) 使用默认档位，similaritySearch(request, profile) 按次指定
+ *  - 底层向量库不支持按次调参（非 TunableVectorStore）时忽略档位，只记录延迟
+ *  - 指标：vector.search.latency（tag profile，带直方图，可计算 p50 / p99）
+ */
+public class ProfiledVectorStore implements VectorStore {
+
+    private final VectorStore delegate;
+    private final Map<SearchProfile, Integer> efRuntime;
+    private final SearchProfile defaultProfile;
+    private final Map<SearchProfile, Timer> latency = new EnumMap<>(SearchProfile.class);
+
+    public ProfiledVectorStore(VectorStore delegate, Map<SearchProfile, Integer> efRuntime,
+                               SearchProfile defaultProfile, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.efRuntime = new EnumMap<>(efRuntime);
+        this.defaultProfile = defaultProfile;
+        for (SearchProfile profile : SearchProfile.values()) {
+            if (!this.efRuntime.containsKey(profile)) {
+                throw new IllegalArgumentException("检索档位未配置候选集大小：" + profile);
+            }
+            latency.put(profile, Timer.builder("vector.search.latency")
+                    .description("向量检索耗时（含查询向量化）")
+                    .tag("profile", profile.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(request, defaultProfile);
+    }
+
+    public List<Document> similaritySearch(SearchRequest request, SearchProfile profile) {
+        long start = System.nanoTime();
+        try {
+            if (delegate instanceof TunableVectorStore tunable) {
+                // 候选集不能小于 topK
+                return tunable.similaritySearch(request, Math.max(efRuntime.get(profile), request.getTopK()));
+            }
+            return delegate.similaritySearch(request);
+        } finally {
+            latency.get(profile).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        delegate.add(documents);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+    }
+
+    @Override
+    public <T> Optional<T> getNativeClient() {
+        return delegate.getNativeClient();
+    }
+}
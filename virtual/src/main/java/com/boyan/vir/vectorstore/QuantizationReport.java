@@ -0,0 +1,31 @@
+package com.boyan.vir.vectorstore;
+
+/**
+ * 量化召回率与内存占用报告（以全精度暴力检索结果为基准）
+ *
+ * @param quantization        当前存储方式
+ * @param vectors             有效向量数
+ * @param dimensions          向量维度
+ * @param hotBytes            常驻内存的向量字节数
+ * @param coldBytes           磁盘冷存储的向量字节数
+ * @param float32BytesPerVector 全精度每个向量的字节数
+ * @param hotBytesPerVector   当前存储方式每个向量常驻内存的字节数
+ * @param sampleQueries       抽样查询数（取库中向量作为查询）
+ * @param k                   top-k
+ * @param recallApproximate   只用图遍历距离（量化时为压缩向量距离）的 recall@k
+ * @param recallReranked      候选集按全精度精排后的 recall@k
+ * @param avgSearchMicros     单次检索（含精排）的平均耗时（微秒）
+ */
+public record QuantizationReport(VectorQuantization quantization, int vectors, int dimensions,
+                                 long hotBytes, long coldBytes,
+                                 int float32BytesPerVector, double hotBytesPerVector,
+                                 int sampleQueries, int k,
+                                 double recallApproximate, double recallReranked, double avgSearchMicros) {
+
+    /**
+     * 与全精度相比每 GB 内存可容纳的向量数倍数
+     */
+    public double compression() {
+        return hotBytesPerVector > 0 ? float32BytesPerVector / hotBytesPerVector : 1;
+    }
+}
@@ -0,0 +1,453 @@
+package com.boyan.vir.vectorstore;
+
+import com.boyan.vir.ingest.IngestTarget;
+import com.boyan.vir.ingest.RedisJsonVectorSink;
+import com.boyan.vir.ingest.VectorSink;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.redis.RedisVectorStore;
+import org.springframework.ai.vectorstore.redis.RedisVectorStore.MetadataField;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import redis.clients.jedis.AbstractTransaction;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Redis 向量索引的版本管理（蓝绿切换）
+ *
+ *  - 指针 key（virtual:vector:index:active）保存当前生效的版本号，检索与入库都按它解析索引名与 key 前缀；
+ *    没有指针时使用 spring.ai.vectorstore.redis 配置的索引（版本 0）
+ *  - 新版本由 RedisIndexRebuilder 在后台构建，期间检索仍走旧版本；构建完成后在一个事务里改写指针与版本状态完成切换，
+ *    同时用 FT.ALIASUPDATE 把别名 {索引名}-active 指向新索引（便于 redis-cli / 运维工具直接查询当前索引）
+ *  - 各节点定时读取指针，发现变化即替换本地的 RedisVectorStore；替换只是引用切换，进行中的查询继续在旧索引上完成
+ *  - 旧版本进入回收队列，超过宽限期（各节点都已切换、旧查询已结束）后由任一节点回收：
+ *    FT.DROPINDEX（不带 DD），前缀不再被使用时按批 SCAN + UNLINK 删除文档与文件清单，不阻塞 Redis
+ */
+@Slf4j
+public class RedisIndexManager implements InitializingBean, DisposableBean {
+
+    public static final String ACTIVE_KEY = "virtual:vector:index:active";
+    private static final String VERSION_KEY_PREFIX = "virtual:vector:index:version:";
+    private static final String VERSIONS_KEY = "virtual:vector:index:versions";
+    private static final String SEQUENCE_KEY = "virtual:vector:index:sequence";
+    private static final String RETIRED_KEY = "virtual:vector:index:retired";
+    private static final String ALIAS_SUFFIX = "-active";
+    private static final int SCAN_BATCH = 500;
+    private static final Duration FAILED_TTL = Duration.ofDays(3);
+
+    private final JedisPooled jedis;
+    private final EmbeddingModel embeddingModel;
+    /** 版本 0 直接使用 redisVectorStore Bean */
+    private final RedisVectorStore legacyStore;
+    private final RedisIndexVersion legacy;
+    private final List<MetadataField> metadataFields;
+    private final RedisKnnSearch knnSearch;
+    /** 版本 0 的索引不存在时是否创建 */
+    private final boolean initializeSchema;
+    private final Duration refreshInterval;
+    private final Duration retireGrace;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicReference<ActiveIndex> active = new AtomicReference<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vector-index-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RedisIndexManager(JedisPooled jedis,
+                             EmbeddingModel embeddingModel,
+                             RedisVectorStore legacyStore,
+                             String indexName,
+                             String prefix,
+                             String algorithm,
+                             int m,
+                             int efConstruction,
+                             int dimensions,
+                             List<MetadataField> metadataFields,
+                             boolean initializeSchema,
+                             Duration refreshInterval,
+                             Duration retireGrace) {
+        this.jedis = jedis;
+        this.embeddingModel = embeddingModel;
+        this.legacyStore = legacyStore;
+        this.legacy = new RedisIndexVersion(0, indexName, prefix, IngestTarget.DEFAULT_MANIFEST_PREFIX, algorithm,
+                m, efConstruction, dimensions, RedisIndexVersion.Status.ACTIVE, null, 0);
+        this.metadataFields = metadataFields;
+        this.knnSearch = new RedisKnnSearch(jedis, embeddingModel, metadataFields);
+        this.initializeSchema = initializeSchema;
+        this.refreshInterval = refreshInterval;
+        this.retireGrace = retireGrace;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        RedisIndexVersion current = load(readPointer());
+        if (current.version() == 0 && initializeSchema && !jedis.ftList().contains(legacy.indexName())) {
+            // 版本 0 的索引也由这里创建（带 M / EF_CONSTRUCTION），RedisVectorStore 不建索引
+            createIndex(legacy);
+            log.info("已创建 Redis 向量索引：{}（{}，M={}，EF_CONSTRUCTION={}）",
+                    legacy.indexName(), legacy.algorithm(), legacy.m(), legacy.efConstruction());
+        }
+        switchTo(current);
+        updateAlias(current);
+        long period = Math.max(1, refreshInterval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::refresh, period, period, TimeUnit.MILLISECONDS);
+        log.info("Redis 向量索引当前版本：{}（{}，前缀 {}）", current.version(), current.indexName(), current.prefix());
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    // ===== 当前版本 =====
+
+    public RedisIndexVersion active() {
+        return active.get().version();
+    }
+
+    public VectorStore activeStore() {
+        return active.get().store();
+    }
+
+    public VectorSink activeSink() {
+        return active.get().sink();
+    }
+
+    /**
+     * 增量入库的默认目标：当前版本的文档前缀与清单前缀
+     */
+    public IngestTarget activeTarget() {
+        ActiveIndex current = active.get();
+        return new IngestTarget(current.sink(), current.version().manifestPrefix());
+    }
+
+    /**
+     * 检索入口：每次调用都委托给当前版本（切换后立即生效）；按次指定 EF_RUNTIME 时直接执行 FT.SEARCH
+     */
+    public TunableVectorStore asVectorStore() {
+        return new TunableVectorStore() {
+            @Override
+            public void add(List<Document> documents) {
+                activeStore().add(documents);
+            }
+
+            @Override
+            public void delete(List<String> idList) {
+                activeStore().delete(idList);
+            }
+
+            @Override
+            public void delete(Filter.Expression filterExpression) {
+                activeStore().delete(filterExpression);
+            }
+
+            @Override
+            public List<Document> similaritySearch(SearchRequest request) {
+                return activeStore().similaritySearch(request);
+            }
+
+            @Override
+            public List<Document> similaritySearch(SearchRequest request, int efRuntime) {
+                return knnSearch.search(active(), request, efRuntime);
+            }
+
+            @Override
+            public <T> Optional<T> getNativeClient() {
+                return activeStore().getNativeClient();
+            }
+        };
+    }
+
+    /**
+     * 作为入库流水线的写入目标：写入当前版本的前缀
+     */
+    public VectorSink asSink() {
+        return new VectorSink() {
+            @Override
+            public void write(List<Document> documents, List<float[]> vectors) {
+                activeSink().write(documents, vectors);
+            }
+
+            @Override
+            public long delete(List<String> ids) {
+                return activeSink().delete(ids);
+            }
+
+            @Override
+            public void updatePositions(List<Document> documents) {
+                activeSink().updatePositions(documents);
+            }
+        };
+    }
+
+    public IngestTarget targetOf(RedisIndexVersion version) {
+        return new IngestTarget(new RedisJsonVectorSink(jedis, version.prefix()), version.manifestPrefix());
+    }
+
+    /**
+     * 全部已知版本（按版本号升序）：当前版本、构建中、等待回收与近期失败的版本
+     */
+    public List<RedisIndexVersion> versions() {
+        List<RedisIndexVersion> versions = new ArrayList<>();
+        if (active().version() == 0) {
+            versions.add(legacy);
+        }
+        for (String member : jedis.smembers(VERSIONS_KEY)) {
+            Optional<RedisIndexVersion> found = find(Integer.parseInt(member));
+            if (found.isPresent()) {
+                versions.add(found.get());
+            } else {
+                // 失败版本的状态已过期
+                jedis.srem(VERSIONS_KEY, member);
+            }
+        }
+        versions.sort(Comparator.comparingInt(RedisIndexVersion::version));
+        return versions;
+    }
+
+    public Optional<RedisIndexVersion> find(int version) {
+        Map<String, String> hash = jedis.hgetAll(VERSION_KEY_PREFIX + version);
+        return hash.isEmpty() ? Optional.empty() : Optional.of(RedisIndexVersion.fromHash(hash));
+    }
+
+    // ===== 构建与切换 =====
+
+    /**
+     * 分配新版本号并创建空索引（状态 BUILDING）
+     *
+     * @param reingest true：新前缀，需重新入库；false：在当前前缀上建新索引，由 Redis 后台扫描已有文档
+     */
+    public RedisIndexVersion createVersion(String algorithm, int m, int efConstruction, boolean reingest) {
+        RedisIndexVersion from = active();
+        int version = (int) jedis.incr(SEQUENCE_KEY);
+        String prefix = reingest ? versioned(legacy.prefix(), version) + ":" : from.prefix();
+        String manifestPrefix = reingest ? versioned(legacy.manifestPrefix(), version) + ":" : from.manifestPrefix();
+        RedisIndexVersion next = new RedisIndexVersion(version, versioned(legacy.indexName(), version), prefix,
+                manifestPrefix, algorithm.trim().toUpperCase(), m, efConstruction, embeddingModel.dimensions(),
+                RedisIndexVersion.Status.BUILDING, null, System.currentTimeMillis());
+        createIndex(next);
+        save(next);
+        log.info("创建 Redis 索引版本 {}：{}（{}，前缀 {}）", version, next.indexName(), next.algorithm(), next.prefix());
+        return next;
+    }
+
+    /**
+     * 新索引已收录的文档比例（0~1，Redis 后台扫描已有文档期间小于 1）
+     */
+    public double indexedRatio(RedisIndexVersion version) {
+        Object percent = jedis.ftInfo(version.indexName()).get("percent_indexed");
+        return percent == null ? 1 : Double.parseDouble(percent.toString());
+    }
+
+    /**
+     * 切换到 next：指针、版本状态与回收队列在一个事务中更新，随后更新别名与本节点的检索实例
+     */
+    public void activate(RedisIndexVersion next) {
+        RedisIndexVersion previous = load(readPointer());
+        RedisIndexVersion activated = next.withStatus(RedisIndexVersion.Status.ACTIVE, null);
+        RedisIndexVersion retired = previous.withStatus(RedisIndexVersion.Status.RETIRED, "已由版本 " + next.version() + " 替换");
+        try (AbstractTransaction tx = jedis.multi()) {
+            tx.hset(VERSION_KEY_PREFIX + activated.version(), activated.toHash());
+            tx.hset(VERSION_KEY_PREFIX + retired.version(), retired.toHash());
+            tx.sadd(VERSIONS_KEY, String.valueOf(activated.version()), String.valueOf(retired.version()));
+            tx.set(ACTIVE_KEY, String.valueOf(activated.version()));
+            tx.zadd(RETIRED_KEY, System.currentTimeMillis(), String.valueOf(retired.version()));
+            tx.exec();
+        }
+        updateAlias(activated);
+        switchTo(activated);
+        log.info("Redis 向量索引已切换：版本 {} → {}（{}），旧版本 {} 秒后回收",
+                previous.version(), activated.version(), activated.indexName(), retireGrace.toSeconds());
+    }
+
+    /**
+     * 构建失败：删除新索引及其独占的文档，保留失败状态供查询
+     */
+    public void discard(RedisIndexVersion version, String reason) {
+        collect(version);
+        RedisIndexVersion failed = version.withStatus(RedisIndexVersion.Status.FAILED, reason);
+        save(failed);
+        jedis.expire(VERSION_KEY_PREFIX + failed.version(), FAILED_TTL.toSeconds());
+        log.warn("Redis 索引版本 {} 构建失败，已清理：{}", version.version(), reason);
+    }
+
+    // ===== 内部实现 =====
+
+    private void refresh() {
+        try {
+            int pointer = readPointer();
+            if (pointer != active().version()) {
+                RedisIndexVersion current = load(pointer);
+                switchTo(current);
+                log.info("Redis 向量索引已切换到版本 {}（{}）", current.version(), current.indexName());
+            }
+            collectRetired();
+        } catch (Exception e) {
+            log.warn("刷新 Redis 索引版本失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 回收超过宽限期的旧版本（各节点都会尝试，按版本加锁只由一个节点执行）
+     */
+    private void collectRetired() {
+        long deadline = System.currentTimeMillis() - retireGrace.toMillis();
+        for (String member : jedis.zrangeByScore(RETIRED_KEY, 0, deadline)) {
+            String gcLock = VERSION_KEY_PREFIX + member + ":gc";
+            if (!"OK".equals(jedis.set(gcLock, nodeId, SetParams.setParams().nx().ex(600)))) {
+                continue;
+            }
+            try {
+                int version = Integer.parseInt(member);
+                RedisIndexVersion retired = find(version).orElse(version == 0 ? legacy : null);
+                if (retired != null) {
+                    collect(retired);
+                }
+                jedis.del(VERSION_KEY_PREFIX + member);
+                jedis.srem(VERSIONS_KEY, member);
+                jedis.zrem(RETIRED_KEY, member);
+            } finally {
+                jedis.del(gcLock);
+            }
+        }
+    }
+
+    /**
+     * 删除索引；前缀不再被当前或构建中的版本使用时，删除文档与文件清单
+     */
+    private void collect(RedisIndexVersion version) {
+        try {
+            jedis.ftDropIndex(version.indexName());
+        } catch (JedisDataException e) {
+            log.debug("索引 {} 已不存在：{}", version.indexName(), e.getMessage());
+        }
+        if (prefixInUse(version)) {
+            log.info("已回收 Redis 索引版本 {}（{}），文档由其他版本继续使用", version.version(), version.indexName());
+            return;
+        }
+        long documents = unlinkByPattern(version.prefix() + "*");
+        long manifests = unlinkByPattern(version.manifestPrefix() + "*");
+        log.info("已回收 Redis 索引版本 {}（{}），删除 {} 个文档、{} 个文件清单",
+                version.version(), version.indexName(), documents, manifests);
+    }
+
+    private boolean prefixInUse(RedisIndexVersion version) {
+        RedisIndexVersion current = load(readPointer());
+        if (current.version() != version.version() && current.prefix().equals(version.prefix())) {
+            return true;
+        }
+        for (RedisIndexVersion other : versions()) {
+            if (other.version() != version.version()
+                    && other.status() == RedisIndexVersion.Status.BUILDING
+                    && other.prefix().equals(version.prefix())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long unlinkByPattern(String pattern) {
+        long unlinked = 0;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams params = new ScanParams().match(pattern).count(SCAN_BATCH);
+        do {
+            ScanResult<String> result = jedis.scan(cursor, params);
+            List<String> keys = result.getResult();
+            if (!keys.isEmpty()) {
+                unlinked += jedis.unlink(keys.toArray(String[]::new));
+            }
+            cursor = result.getCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        return unlinked;
+    }
+
+    private void createIndex(RedisIndexVersion version) {
+        RedisIndexSchema.create(jedis, version.indexName(), version.prefix(), version.algorithm(), version.m(),
+                version.efConstruction(), version.dimensions(), metadataFields);
+    }
+
+    private void switchTo(RedisIndexVersion version) {
+        active.set(new ActiveIndex(version, storeOf(version), new RedisJsonVectorSink(jedis, version.prefix())));
+    }
+
+    private VectorStore storeOf(RedisIndexVersion version) {
+        if (version.version() == 0) {
+            return legacyStore;
+        }
+        RedisVectorStore store = RedisVectorStore.builder(jedis, embeddingModel)
+                .indexName(version.indexName())
+                .prefix(version.prefix())
+                .initializeSchema(false)
+                .vectorAlgorithm(RedisVectorStore.Algorithm.valueOf(version.algorithm()))
+                .metadataFields(metadataFields)
+                .build();
+        try {
+            store.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException("初始化 Redis 索引版本 " + version.version() + " 失败：" + e.getMessage(), e);
+        }
+        return store;
+    }
+
+    private void updateAlias(RedisIndexVersion version) {
+        String alias = stripColon(legacy.indexName()) + ALIAS_SUFFIX;
+        try {
+            jedis.ftAliasUpdate(alias, version.indexName());
+        } catch (JedisDataException e) {
+            // 别名只供运维查询，失败不影响检索
+            log.warn("更新索引别名 {} 失败：{}", alias, e.getMessage());
+        }
+    }
+
+    private void save(RedisIndexVersion version) {
+        jedis.hset(VERSION_KEY_PREFIX + version.version(), version.toHash());
+        jedis.sadd(VERSIONS_KEY, String.valueOf(version.version()));
+    }
+
+    private RedisIndexVersion load(int version) {
+        if (version == 0) {
+            return legacy;
+        }
+        return find(version).orElseThrow(() -> new IllegalStateException("Redis 索引版本不存在：" + version));
+    }
+
+    private int readPointer() {
+        String value = jedis.get(ACTIVE_KEY);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /**
+     * custom-index: → custom-index-v3（新前缀不以旧前缀开头，旧前缀的 SCAN 不会误删新版本的 key）
+     */
+    private static String versioned(String base, int version) {
+        return stripColon(base) + "-v" + version;
+    }
+
+    private static String stripColon(String name) {
+        return name.endsWith(":") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private record ActiveIndex(RedisIndexVersion version, VectorStore store, VectorSink sink) {
+    }
+}
@@ -0,0 +1,259 @@
+package com.boyan.vir.vectorstore;
+
+import com.boyan.vir.ingest.IncrementalIngestor;
+import com.boyan.vir.ingest.IngestTarget;
+import com.boyan.vir.util.TxtFileProcessor;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.springframework.beans.factory.DisposableBean;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.json.Path2;
+import redis.clients.jedis.params.RestoreParams;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * 在后台构建 Redis 索引的新版本，完成后切换（蓝绿重建）
+ *
+ *  - 只改索引结构（FLAT ↔ HNSW、M、EF_CONSTRUCTION）：在当前前缀上建新索引，由 Redis 后台扫描已有文档，
+ *    不复制数据、不重新向量化，percent_indexed 到 1 后切换
+ *  - 重新入库（分片策略或向量模型变化）：新索引使用新前缀，把当前版本涉及的全部文件（文档中的 file_path 与上传目录）
+ *    增量入库到新版本，复用入库流水线的限流与背压；没有 file_path 的文档（storeDocument 写入）在向量维度不变时原样复制。
+ *    构建期间的上传照常写入当前版本，切换前在入库独占锁内再做一轮增量追平（只处理构建期间变化的文件），随后切换
+ *  - 构建期间检索始终走当前版本，不受影响
+ *  - 同一时间只允许一个重建（Redis 锁，构建期间定时续期；节点宕机后锁过期，遗留的 BUILDING 版本在下次重建时清理）
+ *
+ * 注意：切换瞬间其他节点上正在执行的入库任务仍写入旧版本，这些文件在下次修改或再次导入时由增量入库补齐
+ */
+@Slf4j
+public class RedisIndexRebuilder implements DisposableBean {
+
+    private static final String LOCK_KEY = "virtual:vector:index:rebuild-lock";
+    private static final Duration LOCK_TTL = Duration.ofMinutes(5);
+    private static final int SCAN_BATCH = 200;
+    private static final String RENEW_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) else return 0 end";
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end";
+
+    private final RedisIndexManager indexManager;
+    private final IncrementalIngestor incrementalIngestor;
+    private final JedisPooled jedis;
+    /** 上传目录：其中的 TXT 文件即使尚未入库也会进入新版本 */
+    private final Path uploadDir;
+    private final Duration indexingPollInterval;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "vector-index-rebuild");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vector-index-rebuild-lock");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RedisIndexRebuilder(RedisIndexManager indexManager, IncrementalIngestor incrementalIngestor,
+                               JedisPooled jedis, Path uploadDir, Duration indexingPollInterval) {
+        this.indexManager = indexManager;
+        this.incrementalIngestor = incrementalIngestor;
+        this.jedis = jedis;
+        this.uploadDir = uploadDir;
+        this.indexingPollInterval = indexingPollInterval;
+    }
+
+    /**
+     * 创建新版本并提交后台构建，立即返回（状态 BUILDING，通过 RedisIndexManager.find 查询进度）
+     *
+     * @param reingest true：新前缀、重新分片与向量化；false：只重建索引结构
+     */
+    public RedisIndexVersion rebuild(String algorithm, int m, int efConstruction, boolean reingest) {
+        String token = UUID.randomUUID().toString();
+        if (!"OK".equals(jedis.set(LOCK_KEY, token, SetParams.setParams().nx().px(LOCK_TTL.toMillis())))) {
+            throw new IllegalStateException("已有索引重建在进行中");
+        }
+        try {
+            discardAbandoned();
+            RedisIndexVersion next = indexManager.createVersion(algorithm, m, efConstruction, reingest);
+            executor.execute(() -> run(next, token));
+            return next;
+        } catch (RuntimeException e) {
+            releaseLock(token);
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        heartbeat.shutdownNow();
+    }
+
+    // ===== 内部实现 =====
+
+    private void run(RedisIndexVersion next, String token) {
+        long period = LOCK_TTL.toMillis() / 3;
+        ScheduledFuture<?> renewal = heartbeat.scheduleAtFixedRate(() -> renewLock(token), period, period, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        try {
+            RedisIndexVersion from = indexManager.active();
+            if (next.reingest(from)) {
+                Map<String, String> files = sync(from, next, Map.of());
+                awaitIndexed(next);
+                incrementalIngestor.exclusive(() -> {
+                    sync(from, next, files);
+                    indexManager.activate(next);
+                    return null;
+                });
+            } else {
+                awaitIndexed(next);
+                indexManager.activate(next);
+            }
+            log.info("Redis 索引版本 {} 构建完成，耗时 {} 秒", next.version(),
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        } catch (Exception e) {
+            log.error("Redis 索引版本 {} 构建失败", next.version(), e);
+            try {
+                indexManager.discard(next, e.getMessage());
+            } catch (Exception cleanup) {
+                log.error("清理失败的索引版本 {} 出错", next.version(), cleanup);
+            }
+        } finally {
+            renewal.cancel(false);
+            releaseLock(token);
+        }
+    }
+
+    /**
+     * 把当前版本的全部文件增量入库到新版本，返回本轮处理的文件（文件标识 → 路径）；previous 中已不存在的文件从新版本删除
+     */
+    private Map<String, String> sync(RedisIndexVersion from, RedisIndexVersion next, Map<String, String> previous) {
+        Map<String, String> files = new HashMap<>();
+        scanDocuments(from, next, files);
+        for (String file : uploadFiles()) {
+            files.putIfAbsent(TxtFileProcessor.fileIdentity(uploadDir, file), file);
+        }
+        files.values().removeIf(file -> !Files.isRegularFile(Path.of(file)));
+        IngestTarget target = indexManager.targetOf(next);
+        incrementalIngestor.ingestFiles("index-rebuild-v" + next.version(), files.values().stream().sorted().toList(), target);
+
+        for (Map.Entry<String, String> file : previous.entrySet()) {
+            if (!files.containsKey(file.getKey())) {
+                incrementalIngestor.removeFile(file.getValue(), target);
+            }
+        }
+        return Map.copyOf(files);
+    }
+
+    /**
+     * 扫描当前版本的文档：收集 file_path（按文件标识去重），没有 file_path 的文档复制到新版本
+     */
+    private void scanDocuments(RedisIndexVersion from, RedisIndexVersion next, Map<String, String> files) {
+        boolean copyable = from.dimensions() == next.dimensions();
+        int copied = 0;
+        int skipped = 0;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams params = new ScanParams().match(from.prefix() + "*").count(SCAN_BATCH);
+        do {
+            ScanResult<String> result = jedis.scan(cursor, params);
+            List<String> keys = result.getResult();
+            List<Response<Object>> paths = new ArrayList<>(keys.size());
+            try (Pipeline p = jedis.pipelined()) {
+                for (String key : keys) {
+                    paths.add(p.jsonGet(key, Path2.of("$.file_path")));
+                }
+                p.sync();
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                Object value = paths.get(i).get();
+                if (value instanceof JSONArray array && !array.isEmpty() && !array.isNull(0)) {
+                    String file = array.get(0).toString();
+                    files.putIfAbsent(TxtFileProcessor.fileIdentity(uploadDir, file), file);
+                } else if (copyable) {
+                    String key = keys.get(i);
+                    byte[] dump = jedis.dump(key);
+                    if (dump != null) {
+                        jedis.restore(next.prefix() + key.substring(from.prefix().length()), 0, dump,
+                                RestoreParams.restoreParams().replace());
+                        copied++;
+                    }
+                } else {
+                    skipped++;
+                }
+            }
+            cursor = result.getCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        if (copied > 0 || skipped > 0) {
+            log.info("索引版本 {}：复制 {} 个非文件文档，{} 个因向量维度变化未复制", next.version(), copied, skipped);
+        }
+    }
+
+    private List<String> uploadFiles() {
+        if (!Files.isDirectory(uploadDir)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(uploadDir)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> path.getFileName().toString().toLowerCase().endsWith(".txt"))
+                    .map(Path::toString)
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("遍历上传目录失败：" + uploadDir, e);
+        }
+    }
+
+    /**
+     * 等待 Redis 把已有文档收录进新索引（只建索引结构时需要扫描全部文档）
+     */
+    private void awaitIndexed(RedisIndexVersion next) throws InterruptedException {
+        double ratio;
+        while ((ratio = indexManager.indexedRatio(next)) < 1) {
+            log.info("Redis 索引版本 {} 收录中：{}%", next.version(), Math.round(ratio * 100));
+            TimeUnit.MILLISECONDS.sleep(indexingPollInterval.toMillis());
+        }
+    }
+
+    /**
+     * 清理上次重建遗留的 BUILDING 版本（节点在构建中宕机，锁已过期）
+     */
+    private void discardAbandoned() {
+        for (RedisIndexVersion version : indexManager.versions()) {
+            if (version.status() == RedisIndexVersion.Status.BUILDING) {
+                indexManager.discard(version, "构建中断（节点重启或宕机）");
+            }
+        }
+    }
+
+    private void renewLock(String token) {
+        try {
+            // 比较与续期在一个脚本内原子完成，避免锁过期后续期到其他节点的锁上
+            jedis.eval(RENEW_SCRIPT, List.of(LOCK_KEY), List.of(token, String.valueOf(LOCK_TTL.toMillis())));
+        } catch (Exception e) {
+            log.warn("索引重建锁续期失败：{}", e.getMessage());
+        }
+    }
+
+    private void releaseLock(String token) {
+        jedis.eval(RELEASE_SCRIPT, List.of(LOCK_KEY), List.of(token));
+    }
+}
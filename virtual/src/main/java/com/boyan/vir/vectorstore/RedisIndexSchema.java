@@ -0,0 +1,64 @@
+package com.boyan.vir.vectorstore;
+
+import org.springframework.ai.vectorstore.redis.RedisVectorStore.MetadataField;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.FTCreateParams;
+import redis.clients.jedis.search.IndexDataType;
+import redis.clients.jedis.search.schemafields.NumericField;
+import redis.clients.jedis.search.schemafields.SchemaField;
+import redis.clients.jedis.search.schemafields.TagField;
+import redis.clients.jedis.search.schemafields.TextField;
+import redis.clients.jedis.search.schemafields.VectorField;
+import redis.clients.jedis.search.schemafields.VectorField.VectorAlgorithm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向量索引的 FT.CREATE：JSON 文档，字段名与 RedisVectorStore 一致（content、embedding、元数据字段），
+ * 新旧版本、各分片的索引可用同一套查询
+ */
+final class RedisIndexSchema {
+
+    static final String CONTENT_FIELD = "content";
+    static final String EMBEDDING_FIELD = "embedding";
+    private static final String DISTANCE_METRIC = "COSINE";
+
+    private RedisIndexSchema() {
+    }
+
+    /**
+     * @param algorithm FLAT / HNSW；m、efConstruction 只对 HNSW 生效
+     */
+    static void create(JedisPooled jedis, String indexName, String prefix, String algorithm, int m, int efConstruction,
+                       int dimensions, List<MetadataField> metadataFields) {
+        List<SchemaField> fields = new ArrayList<>();
+        fields.add(TextField.of(jsonPath(CONTENT_FIELD)).as(CONTENT_FIELD));
+        VectorAlgorithm vectorAlgorithm = VectorAlgorithm.valueOf(algorithm);
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put("TYPE", "FLOAT32");
+        attributes.put("DIM", dimensions);
+        attributes.put("DISTANCE_METRIC", DISTANCE_METRIC);
+        if (vectorAlgorithm == VectorAlgorithm.HNSW) {
+            attributes.put("M", m);
+            attributes.put("EF_CONSTRUCTION", efConstruction);
+        }
+        fields.add(new VectorField(jsonPath(EMBEDDING_FIELD), vectorAlgorithm, attributes).as(EMBEDDING_FIELD));
+        for (MetadataField field : metadataFields) {
+            String path = jsonPath(field.name());
+            fields.add(switch (field.fieldType()) {
+                case TEXT -> TextField.of(path).as(field.name());
+                case TAG -> TagField.of(path).as(field.name());
+                case NUMERIC -> NumericField.of(path).as(field.name());
+                default -> throw new IllegalArgumentException("不支持的元数据字段类型：" + field.fieldType());
+            });
+        }
+        jedis.ftCreate(indexName, FTCreateParams.createParams().on(IndexDataType.JSON).addPrefix(prefix), fields);
+    }
+
+    private static String jsonPath(String field) {
+        return "$." + field;
+    }
+}
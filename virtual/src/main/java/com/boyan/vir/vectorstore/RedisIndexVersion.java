@@ -0,0 +1,80 @@
+package com.boyan.vir.vectorstore;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Redis 向量索引的一个版本：索引名、文档 key 前缀、文件清单前缀与建索引参数
+ *
+ * 版本 0 即 spring.ai.vectorstore.redis 配置的索引（未做过版本切换时）；之后每次重建分配新的版本号，
+ * 状态保存在 Redis Hash（virtual:vector:index:version:{版本号}）
+ *
+ * @param prefix         文档 key 前缀；只重建索引结构时与旧版本相同，重新入库时使用新前缀
+ * @param manifestPrefix 文件清单 key 前缀，与文档前缀一一对应
+ * @param algorithm      FLAT / HNSW
+ * @param m              HNSW 的 M（FLAT 时忽略）
+ * @param efConstruction HNSW 的 EF_CONSTRUCTION（FLAT 时忽略）
+ */
+public record RedisIndexVersion(int version,
+                                String indexName,
+                                String prefix,
+                                String manifestPrefix,
+                                String algorithm,
+                                int m,
+                                int efConstruction,
+                                int dimensions,
+                                Status status,
+                                String message,
+                                long updatedAt) {
+
+    public enum Status {
+        /** 后台构建中，检索仍使用当前版本 */
+        BUILDING,
+        /** 当前生效的版本 */
+        ACTIVE,
+        /** 已被替换，等待回收 */
+        RETIRED,
+        /** 构建失败，已清理 */
+        FAILED
+    }
+
+    public boolean reingest(RedisIndexVersion from) {
+        return !prefix.equals(from.prefix);
+    }
+
+    public RedisIndexVersion withStatus(Status status, String message) {
+        return new RedisIndexVersion(version, indexName, prefix, manifestPrefix, algorithm, m, efConstruction,
+                dimensions, status, message, System.currentTimeMillis());
+    }
+
+    Map<String, String> toHash() {
+        Map<String, String> hash = new HashMap<>();
+        hash.put("version", String.valueOf(version));
+        hash.put("index_name", indexName);
+        hash.put("prefix", prefix);
+        hash.put("manifest_prefix", manifestPrefix);
+        hash.put("algorithm", algorithm);
+        hash.put("m", String.valueOf(m));
+        hash.put("ef_construction", String.valueOf(efConstruction));
+        hash.put("dimensions", String.valueOf(dimensions));
+        hash.put("status", status.name());
+        hash.put("message", message == null ? "" : message);
+        hash.put("updated_at", String.valueOf(updatedAt));
+        return hash;
+    }
+
+    static RedisIndexVersion fromHash(Map<String, String> hash) {
+        return new RedisIndexVersion(
+                Integer.parseInt(hash.get("version")),
+                hash.get("index_name"),
+                hash.get("prefix"),
+                hash.get("manifest_prefix"),
+                hash.get("algorithm"),
+                Integer.parseInt(hash.getOrDefault("m", "0")),
+                Integer.parseInt(hash.getOrDefault("ef_construction", "0")),
+                Integer.parseInt(hash.getOrDefault("dimensions", "0")),
+                Status.valueOf(hash.get("status")),
+                hash.get("message"),
+                Long.parseLong(hash.getOrDefault("updated_at", "0")));
+    }
+}
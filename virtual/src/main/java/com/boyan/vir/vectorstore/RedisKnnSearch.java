@@ -0,0 +1,99 @@
+package com.boyan.vir.vectorstore;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.redis.RedisFilterExpressionConverter;
+import org.springframework.ai.vectorstore.redis.RedisVectorStore.MetadataField;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Query;
+import redis.clients.jedis.search.RediSearchUtil;
+import redis.clients.jedis.search.SearchResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 带 EF_RUNTIME 的 Redis KNN 查询
+ *
+ * RedisVectorStore 的查询不带 EF_RUNTIME（固定使用索引的默认值 10），这里按相同的查询语法、返回字段与得分换算
+ * （COSINE 距离 d → 得分 (2 - d) / 2）自行执行 FT.SEARCH，只多出 EF_RUNTIME 参数，结果与 RedisVectorStore 一致
+ */
+final class RedisKnnSearch {
+
+    private static final String CONTENT_FIELD = RedisIndexSchema.CONTENT_FIELD;
+    private static final String EMBEDDING_FIELD = RedisIndexSchema.EMBEDDING_FIELD;
+    private static final String SCORE_FIELD = "vector_score";
+    private static final String VECTOR_PARAM = "BLOB";
+
+    private final JedisPooled jedis;
+    private final EmbeddingModel embeddingModel;
+    private final List<MetadataField> metadataFields;
+    private final RedisFilterExpressionConverter filterConverter;
+    private final String[] returnFields;
+
+    RedisKnnSearch(JedisPooled jedis, EmbeddingModel embeddingModel, List<MetadataField> metadataFields) {
+        this.jedis = jedis;
+        this.embeddingModel = embeddingModel;
+        this.metadataFields = metadataFields;
+        this.filterConverter = new RedisFilterExpressionConverter(metadataFields);
+        List<String> fields = new ArrayList<>();
+        fields.add(CONTENT_FIELD);
+        fields.add(SCORE_FIELD);
+        metadataFields.forEach(field -> fields.add(field.name()));
+        this.returnFields = fields.toArray(String[]::new);
+    }
+
+    List<Document> search(RedisIndexVersion version, SearchRequest request, int efRuntime) {
+        float[] embedding = embeddingModel.embed(request.getQuery());
+        return search(version.indexName(), version.prefix(), "HNSW".equals(version.algorithm()), request, embedding, efRuntime);
+    }
+
+    /**
+     * 用已向量化的查询检索（分片检索时查询只向量化一次）
+     */
+    List<Document> search(String indexName, String prefix, boolean hnsw, SearchRequest request, float[] embedding,
+                          int efRuntime) {
+        String filter = request.getFilterExpression() == null
+                ? "*"
+                : "(" + filterConverter.convertExpression(request.getFilterExpression()) + ")";
+        // EF_RUNTIME 只对 HNSW 索引有效，FLAT 索引传入会报错
+        String ef = hnsw ? " EF_RUNTIME " + efRuntime : "";
+        String knn = String.format("%s=>[KNN %d @%s $%s%s AS %s]",
+                filter, request.getTopK(), EMBEDDING_FIELD, VECTOR_PARAM, ef, SCORE_FIELD);
+
+        Query query = new Query(knn)
+                .addParam(VECTOR_PARAM, RediSearchUtil.toByteArray(embedding))
+                .returnFields(returnFields)
+                .setSortBy(SCORE_FIELD, true)
+                .limit(0, request.getTopK())
+                .dialect(2);
+        SearchResult result = jedis.ftSearch(indexName, query);
+
+        List<Document> documents = new ArrayList<>(result.getDocuments().size());
+        for (redis.clients.jedis.search.Document hit : result.getDocuments()) {
+            double score = (2 - Double.parseDouble(hit.getString(SCORE_FIELD))) / 2;
+            if (score < request.getSimilarityThreshold()) {
+                continue;
+            }
+            Map<String, Object> metadata = new HashMap<>();
+            for (MetadataField field : metadataFields) {
+                if (hit.hasProperty(field.name())) {
+                    metadata.put(field.name(), hit.getString(field.name()));
+                }
+            }
+            metadata.put(SCORE_FIELD, 1 - score);
+            metadata.put(DocumentMetadata.DISTANCE.value(), 1 - score);
+            documents.add(Document.builder()
+                    .id(hit.getId().substring(prefix.length()))
+                    .text(hit.hasProperty(CONTENT_FIELD) ? hit.getString(CONTENT_FIELD) : "")
+                    .metadata(metadata)
+                    .score(score)
+                    .build());
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,15 @@
+package com.boyan.vir.vectorstore;
+
+/**
+ * 检索档位：决定 HNSW 查询时的候选集大小（Redis EF_RUNTIME / 进程内 ef），在延迟与召回之间取舍
+ *
+ * 各档位的取值见 app.vector.search.ef-runtime
+ */
+public enum SearchProfile {
+    /** 交互式对话：候选集小，延迟最低 */
+    FAST,
+    /** 默认档位 */
+    BALANCED,
+    /** 离线评估 / 批量任务：候选集大，召回最高 */
+    ACCURATE
+}
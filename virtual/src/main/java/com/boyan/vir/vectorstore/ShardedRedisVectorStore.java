@@ -0,0 +1,436 @@
+package com.boyan.vir.vectorstore;
+
+import com.boyan.vir.ingest.RedisJsonVectorSink;
+import com.boyan.vir.ingest.VectorSink;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.redis.RedisFilterExpressionConverter;
+import org.springframework.ai.vectorstore.redis.RedisVectorStore.MetadataField;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.ScanParams;
+import redis.clients.jedis.params.SetParams;
+import redis.clients.jedis.resps.ScanResult;
+import redis.clients.jedis.search.Query;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分片的 Redis 向量库（app.vector.store.type=sharded）：文档按 ID 的一致性哈希分布到多个 Redis 实例
+ *
+ *  - 写入：按分片 ID 路由到归属分片（每个分片上是相同索引名 / 前缀的 RedisVectorStore 结构文档）
+ *  - 检索：查询只向量化一次，并行查询全部分片的 topK，按得分合并取全局 topK（同 ID 去重，迁移中可能短暂同时存在）
+ *  - 删除：广播到全部分片（迁移中的分片可能在新旧两处）
+ *  - 新增分片：哈希环变化后后台迁移（各旧分片 SCAN 出归属已改变的文档，DUMP / RESTORE 到新归属后删除），
+ *    迁移期间读写不停：检索本来就查询全部分片，新写入直接按新哈希环路由；迁移完成后记录新的分片集合
+ *  - 单个分片检索失败时返回其余分片的结果并记录指标，全部失败才抛出
+ *
+ * 分片集合记录在主 Redis（spring.data.redis），各节点的分片配置必须一致；不支持直接移除分片
+ *
+ * 指标：vector.shard.search.latency（tag shard）、vector.shard.search.failures
+ */
+@Slf4j
+public class ShardedRedisVectorStore implements TunableVectorStore, InitializingBean, DisposableBean {
+
+    private static final String RING_KEY = "virtual:vector:shard:ring";
+    private static final String REBALANCE_LOCK_KEY = "virtual:vector:shard:rebalance-lock";
+    private static final Duration REBALANCE_LOCK_TTL = Duration.ofMinutes(5);
+    private static final String RENEW_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) else return 0 end";
+    private static final String RELEASE_SCRIPT =
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end";
+    /** 未指定检索档位时的 EF_RUNTIME（Redis 默认值） */
+    private static final int DEFAULT_EF_RUNTIME = 10;
+    private static final int SCAN_BATCH = 500;
+    private static final int FILTER_DELETE_PAGE = 1000;
+
+    /**
+     * 一个分片：ID（参与哈希，配置后不可修改）与连接
+     */
+    public record Shard(String id, JedisPooled jedis) {
+    }
+
+    private final Map<String, ShardState> shards = new LinkedHashMap<>();
+    private final ConsistentHashRing ring;
+    /** 主 Redis：记录分片集合、迁移锁 */
+    private final JedisPooled coordinator;
+    private final EmbeddingModel embeddingModel;
+    private final String indexName;
+    private final String prefix;
+    private final String algorithm;
+    private final int m;
+    private final int efConstruction;
+    private final int dimensions;
+    private final List<MetadataField> metadataFields;
+    private final RedisFilterExpressionConverter filterConverter;
+    private final Duration rebalanceCheckInterval;
+    private final Counter searchFailures;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final ExecutorService queryExecutor;
+    private final ScheduledExecutorService rebalanceScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "vector-shard-rebalance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ShardedRedisVectorStore(List<Shard> shards,
+                                   int virtualNodes,
+                                   JedisPooled coordinator,
+                                   EmbeddingModel embeddingModel,
+                                   String indexName,
+                                   String prefix,
+                                   String algorithm,
+                                   int m,
+                                   int efConstruction,
+                                   int dimensions,
+                                   List<MetadataField> metadataFields,
+                                   int queryWorkers,
+                                   Duration rebalanceCheckInterval,
+                                   MeterRegistry meterRegistry) {
+        this.coordinator = coordinator;
+        this.embeddingModel = embeddingModel;
+        this.indexName = indexName;
+        this.prefix = prefix;
+        this.algorithm = algorithm;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.dimensions = dimensions;
+        this.metadataFields = metadataFields;
+        this.filterConverter = new RedisFilterExpressionConverter(metadataFields);
+        this.rebalanceCheckInterval = rebalanceCheckInterval;
+        for (Shard shard : shards) {
+            Timer latency = Timer.builder("vector.shard.search.latency")
+                    .description("单个分片的 KNN 检索耗时")
+                    .tag("shard", shard.id())
+                    .register(meterRegistry);
+            ShardState state = new ShardState(shard.id(), shard.jedis(), new RedisJsonVectorSink(shard.jedis(), prefix),
+                    new RedisKnnSearch(shard.jedis(), embeddingModel, metadataFields), latency);
+            if (this.shards.put(shard.id(), state) != null) {
+                throw new IllegalArgumentException("分片 ID 重复：" + shard.id());
+            }
+        }
+        this.ring = new ConsistentHashRing(new ArrayList<>(this.shards.keySet()), virtualNodes);
+        this.searchFailures = Counter.builder("vector.shard.search.failures")
+                .description("分片检索失败次数（返回其余分片的结果）")
+                .register(meterRegistry);
+        AtomicInteger index = new AtomicInteger();
+        this.queryExecutor = Executors.newFixedThreadPool(Math.max(1, queryWorkers), r -> {
+            Thread t = new Thread(r, "vector-shard-query-" + index.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // ===== 生命周期 =====
+
+    @Override
+    public void afterPropertiesSet() {
+        for (ShardState shard : shards.values()) {
+            if (!shard.jedis().ftList().contains(indexName)) {
+                RedisIndexSchema.create(shard.jedis(), indexName, prefix, algorithm, m, efConstruction, dimensions,
+                        metadataFields);
+                log.info("分片 {} 已创建向量索引：{}", shard.id(), indexName);
+            }
+        }
+        Set<String> recorded = coordinator.smembers(RING_KEY);
+        if (recorded.isEmpty()) {
+            coordinator.sadd(RING_KEY, ring.members().toArray(String[]::new));
+            recorded = Set.copyOf(ring.members());
+        }
+        Set<String> missing = new HashSet<>(recorded);
+        ring.members().forEach(missing::remove);
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("不支持直接移除分片（其中的文档会丢失）：" + missing);
+        }
+        long period = Math.max(1, rebalanceCheckInterval.toSeconds());
+        rebalanceScheduler.scheduleWithFixedDelay(this::rebalanceIfNeeded, 0, period, TimeUnit.SECONDS);
+        log.info("分片向量库已启动：{} 个分片 {}", shards.size(), ring.members());
+    }
+
+    @Override
+    public void destroy() {
+        rebalanceScheduler.shutdownNow();
+        queryExecutor.shutdownNow();
+    }
+
+    // ===== VectorStore =====
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<String> texts = documents.stream().map(Document::getText).toList();
+        write(documents, embeddingModel.embed(texts));
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        deleteByIds(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        String filter = "(" + filterConverter.convertExpression(filterExpression) + ")";
+        long deleted = 0;
+        for (ShardState shard : shards.values()) {
+            while (true) {
+                Query query = new Query(filter).setNoContent().limit(0, FILTER_DELETE_PAGE).dialect(2);
+                List<String> keys = shard.jedis().ftSearch(indexName, query).getDocuments().stream()
+                        .map(redis.clients.jedis.search.Document::getId)
+                        .toList();
+                if (keys.isEmpty()) {
+                    break;
+                }
+                deleted += shard.jedis().unlink(keys.toArray(String[]::new));
+            }
+        }
+        log.info("按过滤条件删除 {} 个分片文档：{}", deleted, filterExpression);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        return similaritySearch(request, DEFAULT_EF_RUNTIME);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request, int efRuntime) {
+        float[] embedding = embeddingModel.embed(request.getQuery());
+        boolean hnsw = "HNSW".equals(algorithm);
+        List<CompletableFuture<List<Document>>> futures = new ArrayList<>(shards.size());
+        for (ShardState shard : shards.values()) {
+            futures.add(CompletableFuture.supplyAsync(() -> shard.latency().record(
+                            () -> shard.knn().search(indexName, prefix, hnsw, request, embedding, efRuntime)), queryExecutor)
+                    .exceptionally(e -> {
+                        searchFailures.increment();
+                        log.warn("分片 {} 检索失败，忽略该分片：{}", shard.id(), e.getMessage());
+                        return null;
+                    }));
+        }
+
+        Map<String, Document> merged = new LinkedHashMap<>();
+        int succeeded = 0;
+        for (CompletableFuture<List<Document>> future : futures) {
+            List<Document> partial = future.join();
+            if (partial == null) {
+                continue;
+            }
+            succeeded++;
+            for (Document document : partial) {
+                merged.merge(document.getId(), document, (a, b) -> score(a) >= score(b) ? a : b);
+            }
+        }
+        if (succeeded == 0) {
+            throw new RuntimeException("全部 " + shards.size() + " 个分片检索失败");
+        }
+        return merged.values().stream()
+                .sorted(Comparator.comparingDouble(ShardedRedisVectorStore::score).reversed())
+                .limit(request.getTopK())
+                .toList();
+    }
+
+    // ===== 入库流水线直接写入（已向量化） =====
+
+    /**
+     * 作为入库流水线的写入目标：按分片 ID 路由
+     */
+    public VectorSink asSink() {
+        return new VectorSink() {
+            @Override
+            public void write(List<Document> documents, List<float[]> vectors) {
+                ShardedRedisVectorStore.this.write(documents, vectors);
+            }
+
+            @Override
+            public long delete(List<String> ids) {
+                return deleteByIds(ids);
+            }
+
+            @Override
+            public void updatePositions(List<Document> documents) {
+                Map<String, List<Document>> byShard = new LinkedHashMap<>();
+                for (Document document : documents) {
+                    byShard.computeIfAbsent(ring.owner(document.getId()), id -> new ArrayList<>()).add(document);
+                }
+                byShard.forEach((id, group) -> shards.get(id).sink().updatePositions(group));
+            }
+        };
+    }
+
+    /**
+     * 各分片的文档数（FT.INFO num_docs）与是否有待迁移的分片
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Map<String, Object> documents = new LinkedHashMap<>();
+        for (ShardState shard : shards.values()) {
+            try {
+                documents.put(shard.id(), shard.jedis().ftInfo(indexName).get("num_docs"));
+            } catch (Exception e) {
+                documents.put(shard.id(), "unavailable: " + e.getMessage());
+            }
+        }
+        stats.put("shards", documents);
+        stats.put("rebalance_pending", !coordinator.smembers(RING_KEY).equals(Set.copyOf(ring.members())));
+        return stats;
+    }
+
+    // ===== 内部实现 =====
+
+    private void write(List<Document> documents, List<float[]> vectors) {
+        if (documents.size() != vectors.size()) {
+            throw new IllegalArgumentException("分片与向量数量不一致：" + documents.size() + " / " + vectors.size());
+        }
+        Map<String, List<Integer>> byShard = new LinkedHashMap<>();
+        for (int i = 0; i < documents.size(); i++) {
+            byShard.computeIfAbsent(ring.owner(documents.get(i).getId()), id -> new ArrayList<>()).add(i);
+        }
+        byShard.forEach((id, positions) -> shards.get(id).sink().write(
+                positions.stream().map(documents::get).toList(),
+                positions.stream().map(vectors::get).toList()));
+    }
+
+    private long deleteByIds(List<String> ids) {
+        long deleted = 0;
+        for (ShardState shard : shards.values()) {
+            deleted += shard.sink().delete(ids);
+        }
+        return deleted;
+    }
+
+    /**
+     * 分片集合有变化（新增分片）且抢到迁移锁时执行迁移，完成后记录新的分片集合
+     */
+    private void rebalanceIfNeeded() {
+        try {
+            Set<String> recorded = coordinator.smembers(RING_KEY);
+            if (recorded.equals(Set.copyOf(ring.members()))) {
+                return;
+            }
+            if (!"OK".equals(coordinator.set(REBALANCE_LOCK_KEY, nodeId,
+                    SetParams.setParams().nx().px(REBALANCE_LOCK_TTL.toMillis())))) {
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                long moved = 0;
+                for (String source : recorded) {
+                    moved += drain(shards.get(source));
+                }
+                coordinator.sadd(RING_KEY, ring.members().toArray(String[]::new));
+                log.info("分片迁移完成：{} → {}，迁移 {} 个文档，耗时 {} 秒", recorded, ring.members(), moved,
+                        TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+            } finally {
+                coordinator.eval(RELEASE_SCRIPT, List.of(REBALANCE_LOCK_KEY), List.of(nodeId));
+            }
+        } catch (Exception e) {
+            log.warn("分片迁移失败，稍后重试：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 把 source 上归属已改变的文档迁到新归属分片
+     *
+     * RESTORE 不带 REPLACE：目标已有同 ID 文档说明迁移期间有新写入，以新写入为准；
+     * 迁移后源文档已不存在说明期间被删除，同时删除目标上的副本
+     */
+    private long drain(ShardState source) {
+        long moved = 0;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams params = new ScanParams().match(prefix + "*").count(SCAN_BATCH);
+        do {
+            ScanResult<String> result = source.jedis().scan(cursor, params);
+            Map<String, List<String>> byTarget = new LinkedHashMap<>();
+            for (String key : result.getResult()) {
+                String owner = ring.owner(key.substring(prefix.length()));
+                if (!owner.equals(source.id())) {
+                    byTarget.computeIfAbsent(owner, id -> new ArrayList<>()).add(key);
+                }
+            }
+            for (Map.Entry<String, List<String>> entry : byTarget.entrySet()) {
+                moved += move(source, shards.get(entry.getKey()), entry.getValue());
+            }
+            cursor = result.getCursor();
+            Object renewed = coordinator.eval(RENEW_SCRIPT, List.of(REBALANCE_LOCK_KEY),
+                    List.of(nodeId, String.valueOf(REBALANCE_LOCK_TTL.toMillis())));
+            if (!Long.valueOf(1L).equals(renewed)) {
+                // 锁已过期（可能已被其他节点取得），停止迁移，下一轮重新抢锁
+                throw new IllegalStateException("分片迁移锁已丢失");
+            }
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        return moved;
+    }
+
+    private long move(ShardState source, ShardState target, List<String> keys) {
+        List<Response<byte[]>> dumps = new ArrayList<>(keys.size());
+        try (Pipeline p = source.jedis().pipelined()) {
+            keys.forEach(key -> dumps.add(p.dump(key)));
+            p.sync();
+        }
+        List<Response<String>> restores = new ArrayList<>(keys.size());
+        try (Pipeline p = target.jedis().pipelined()) {
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] dump = dumps.get(i).get();
+                restores.add(dump == null ? null : p.restore(keys.get(i), 0, dump));
+            }
+            p.sync();
+        }
+        for (Response<String> restore : restores) {
+            try {
+                if (restore != null) {
+                    restore.get();
+                }
+            } catch (JedisDataException e) {
+                if (!e.getMessage().startsWith("BUSYKEY")) {
+                    throw e;
+                }
+            }
+        }
+        List<Response<Long>> unlinked = new ArrayList<>(keys.size());
+        try (Pipeline p = source.jedis().pipelined()) {
+            keys.forEach(key -> unlinked.add(p.unlink(key)));
+            p.sync();
+        }
+        List<String> deletedMeanwhile = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            if (dumps.get(i).get() != null && unlinked.get(i).get() == 0) {
+                deletedMeanwhile.add(keys.get(i));
+            }
+        }
+        if (!deletedMeanwhile.isEmpty()) {
+            target.jedis().unlink(deletedMeanwhile.toArray(String[]::new));
+        }
+        return keys.size() - deletedMeanwhile.size();
+    }
+
+    private static double score(Document document) {
+        return document.getScore() == null ? 0 : document.getScore();
+    }
+
+    private record ShardState(String id, JedisPooled jedis, RedisJsonVectorSink sink, RedisKnnSearch knn, Timer latency) {
+    }
+}
@@ -0,0 +1,18 @@
+package com.boyan.vir.vectorstore;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.List;
+
+/**
+ * 支持按次指定 HNSW 查询候选集大小的向量库（Redis 的 EF_RUNTIME、进程内 HNSW 的 ef）
+ */
+public interface TunableVectorStore extends VectorStore {
+
+    /**
+     * 按指定的候选集大小检索；FLAT 索引忽略该参数
+     */
+    List<Document> similaritySearch(SearchRequest request, int efRuntime);
+}
@@ -0,0 +1,13 @@
+package com.boyan.vir.vectorstore;
+
+/**
+ * 进程内向量库的向量存储方式
+ */
+public enum VectorQuantization {
+
+    /** float32 全部常驻堆外内存 */
+    NONE,
+
+    /** int8 标量量化常驻堆外内存（约 1/4），float32 放在磁盘文件中用于精排 */
+    INT8
+}
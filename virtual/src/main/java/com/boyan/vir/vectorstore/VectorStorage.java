@@ -0,0 +1,48 @@
+package com.boyan.vir.vectorstore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/**
+ * HNSW 节点向量的存储（按节点编号寻址，只追加）
+ *
+ * dot 用于图遍历（可以是压缩后的近似值），exactDot / copyTo 返回全精度结果（精排、快照、重建）
+ */
+interface VectorStorage extends Closeable {
+
+    int dimensions();
+
+    int size();
+
+    /**
+     * 追加一个（已归一化的）向量，返回节点编号
+     */
+    int add(float[] vector);
+
+    /** 图遍历使用的点积（可能为近似值） */
+    float dot(int node, float[] query);
+
+    /** 图遍历使用的两节点点积（可能为近似值） */
+    float dot(int a, int b);
+
+    /** 全精度点积（精排） */
+    float exactDot(int node, float[] query);
+
+    /** 把节点的全精度向量写入 out */
+    void copyTo(int node, FloatBuffer out);
+
+    /** 常驻内存（堆外）的向量字节数 */
+    long hotBytes();
+
+    /** 冷存储（磁盘）的向量字节数 */
+    long coldBytes();
+
+    /** 把冷存储刷到磁盘 */
+    default void flush() throws IOException {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,54 @@
+-- ============================================
+-- chat_memory 对话记忆表（会话头 + 兼容旧版整段 JSON）
+-- 数据库: saa_db
+-- ============================================
+
+CREATE TABLE IF NOT EXISTS `chat_memory` (
+    `id`              BIGINT       NOT NULL AUTO_INCREMENT COMMENT '主键',
+    `conversation_id` VARCHAR(64)  NOT NULL COMMENT '会话ID（全局唯一 UUID）',
+    `user_id`         VARCHAR(64)  NOT NULL COMMENT '用户ID（关联 sys_user.id）',
+    `agent_id`        VARCHAR(64)  NOT NULL DEFAULT 'default' COMMENT '智能体ID',
+    `role`            VARCHAR(20)  DEFAULT NULL COMMENT '最后一条消息的角色',
+    `content`         TEXT         DEFAULT NULL COMMENT '最后一条消息的内容',
+    `messages`        LONGBLOB     DEFAULT NULL COMMENT '整段消息列表（JSON 或二进制编码，blob 模式使用）',
+    `summary`         TEXT         DEFAULT NULL COMMENT '滚动摘要（被移出记忆窗口的旧对话）',
+    `created_at`      DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+    `updated_at`      DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_conversation_id` (`conversation_id`),
+    UNIQUE KEY `uk_user_agent` (`user_id`, `agent_id`),
+    KEY `idx_agent_id` (`agent_id`),
+    KEY `idx_updated_at` (`updated_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='对话记忆表';
+
+-- ============================================
+-- chat_memory_message 对话消息日志表（log 模式使用）
+-- 每条消息一行，按 (conversation_id, seq) 追加写入，读取时只取尾部窗口
+-- ============================================
+
+CREATE TABLE IF NOT EXISTS `chat_memory_message` (
+    `id`              BIGINT       NOT NULL AUTO_INCREMENT COMMENT '主键',
+    `conversation_id` VARCHAR(64)  NOT NULL COMMENT '会话ID（关联 chat_memory.conversation_id）',
+    `seq`             INT          NOT NULL COMMENT '会话内消息序号，从 1 递增',
+    `message_type`    VARCHAR(20)  NOT NULL COMMENT '消息类型: USER / ASSISTANT / SYSTEM / TOOL',
+    `message`         MEDIUMBLOB   NOT NULL COMMENT '单条消息（JSON 或二进制编码）',
+    `created_at`      DATETIME     NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '写入时间',
+    PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_conversation_seq` (`conversation_id`, `seq`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='对话消息日志表';
+
+-- 旧数据迁移：将 app.memory.mysql.storage-mode 设为 log 后，
+-- 1) 读取某会话时若日志表为空，会自动把 chat_memory.messages 中的旧数据搬迁到日志表；
+-- 2) 也可设置 app.memory.mysql.migrate-on-startup=true，启动时一次性迁移全部会话。
+-- 迁移不会清空 chat_memory.messages，切回 blob 模式仍可读取迁移前的数据。
+
+-- 消息编码升级：app.memory.codec.format=binary 需要二进制列，已有表执行以下语句（JSON 内容原样保留，仍可读取）
+-- ALTER TABLE `chat_memory` MODIFY `messages` LONGBLOB DEFAULT NULL COMMENT '整段消息列表（JSON 或二进制编码，blob 模式使用）';
+-- ALTER TABLE `chat_memory_message` MODIFY `message` MEDIUMBLOB NOT NULL COMMENT '单条消息（JSON 或二进制编码）';
+
+-- 滚动摘要：已有表执行以下语句
+-- ALTER TABLE `chat_memory` ADD COLUMN `summary` TEXT DEFAULT NULL COMMENT '滚动摘要（被移出记忆窗口的旧对话）' AFTER `messages`;
+
+-- 会话遍历（按主键 keyset 分页，可按 user_id / agent_id / updated_at 过滤）：已有表执行以下语句
+-- 二级索引隐含主键列，idx_agent_id / idx_updated_at 上的过滤结果已按 id 有序
+-- ALTER TABLE `chat_memory` ADD KEY `idx_agent_id` (`agent_id`), ADD KEY `idx_updated_at` (`updated_at`);
@@ -18,11 +18,14 @@ export function sendVoice(audio: Blob, conversationId?: string) {
     })
 }
 
-/** Get chat history for a specific agent */
-export function getChatHistory(agentId?: string) {
-    return request.get<ChatHistoryResponse>('/chat/history', {
-        params: { agentId: agentId || 'default' }
-    })
+/**
+ * Get one page of chat history for a specific agent (latest page first).
+ * Pass the previous page's nextCursor as `before` to load older messages.
+ */
+export function getChatHistory(agentId?: string, before?: number | null, limit = 20) {
+    const params: Record<string, string | number> = { agentId: agentId || 'default', limit }
+    if (before != null) params.before = before
+    return request.get<ChatHistoryResponse>('/chat/history', { params })
 }
 
 /** Stream chat — SSE for streaming responses */
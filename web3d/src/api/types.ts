@@ -70,6 +70,9 @@ export interface ChatHistoryResponse {
         messages: ChatMessageItem[]
         conversationId: string
         agentId: string
+        /** 加载更早一页时作为 before 传回，null 表示没有更早的消息 */
+        nextCursor: number | null
+        hasMore: boolean
     }
 }
 
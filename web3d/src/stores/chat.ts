@@ -8,6 +8,9 @@ export const useChatStore = defineStore('chat', () => {
     const conversationId = ref<string>('')
     const isLoading = ref(false)
     const currentAgentId = ref<string>('default')
+    const historyCursor = ref<number | null>(null)
+    const hasMoreHistory = ref(false)
+    const isLoadingHistory = ref(false)
 
     function addMessage(msg: ChatMessage) {
         messages.value.push(msg)
@@ -24,40 +27,74 @@ export const useChatStore = defineStore('chat', () => {
     function clearMessages() {
         messages.value = []
         conversationId.value = ''
+        historyCursor.value = null
+        hasMoreHistory.value = false
+    }
+
+    /** 将后端历史消息转为前端格式 */
+    function toChatMessages(items: any[], cursor: number | null): ChatMessage[] {
+        return items.map((m: any, i: number) => ({
+            id: `history-${cursor ?? 'latest'}-${i}`,
+            role: m.role as 'user' | 'assistant',
+            content: m.content,
+            timestamp: Date.now(),
+            type: 'text' as const
+        }))
     }
 
     /**
-     * 切换智能体 — 清空当前消息，加载该智能体的历史
+     * 切换智能体 — 清空当前消息，只加载该智能体最新一页历史
      */
     async function switchAgent(agentId: string) {
         if (agentId === currentAgentId.value) return
         currentAgentId.value = agentId
-        messages.value = []
-        conversationId.value = ''
+        clearMessages()
 
         try {
+            isLoadingHistory.value = true
             const res = await getChatHistory(agentId)
             const data = res.data?.data
             if (data) {
                 conversationId.value = data.conversationId || ''
-                if (data.messages && data.messages.length > 0) {
-                    // 将后端历史消息转为前端格式
-                    messages.value = data.messages.map((m: any, i: number) => ({
-                        id: `history-${i}`,
-                        role: m.role as 'user' | 'assistant',
-                        content: m.content,
-                        timestamp: Date.now(),
-                        type: 'text' as const
-                    }))
-                }
+                messages.value = toChatMessages(data.messages || [], null)
+                historyCursor.value = data.nextCursor ?? null
+                hasMoreHistory.value = !!data.hasMore
             }
         } catch (e) {
             console.warn('加载聊天历史失败:', e)
+        } finally {
+            isLoadingHistory.value = false
+        }
+    }
+
+    /**
+     * 加载更早一页历史，插入到消息列表开头
+     */
+    async function loadMoreHistory() {
+        if (!hasMoreHistory.value || isLoadingHistory.value) return
+        const agentId = currentAgentId.value
+        const before = historyCursor.value
+
+        try {
+            isLoadingHistory.value = true
+            const res = await getChatHistory(agentId, before)
+            const data = res.data?.data
+            // 请求期间切换了智能体则丢弃结果
+            if (data && agentId === currentAgentId.value) {
+                messages.value = [...toChatMessages(data.messages || [], before), ...messages.value]
+                historyCursor.value = data.nextCursor ?? null
+                hasMoreHistory.value = !!data.hasMore
+            }
+        } catch (e) {
+            console.warn('加载更早的聊天历史失败:', e)
+        } finally {
+            isLoadingHistory.value = false
         }
     }
 
     return {
         messages, conversationId, isLoading, currentAgentId,
-        addMessage, setLoading, setConversationId, clearMessages, switchAgent
+        hasMoreHistory, isLoadingHistory,
+        addMessage, setLoading, setConversationId, clearMessages, switchAgent, loadMoreHistory
     }
 })